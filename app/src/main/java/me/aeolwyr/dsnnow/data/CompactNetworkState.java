@@ -0,0 +1,502 @@
+/*
+ * DSN Monitor is an app to monitor the NASA Deep Space Network in real time.
+ * Copyright (c) 2016 Kaan Karaagacli
+ *
+ * This file is part of DSN Monitor.
+ *
+ * DSN Monitor is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DSN Monitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DSN Monitor.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package me.aeolwyr.dsnnow.data;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compact, read-only form of a <code>NetworkState</code>, to keep many states in memory,
+ * e.g. for the history playback. <br />
+ * Instead of an object for each station, dish, signal and target, each of them is a row in
+ * flat primitive arrays, one array per field. The strings are stored as indices into a table
+ * shared by a group of compact states, as they are drawn from a small vocabulary. The dishes are
+ * ordered by their stations, and the signals and targets by their dishes, so each station,
+ * dish etc. refers to its children by the range of their rows. <br />
+ * The fields can be read directly from the rows, or a dish or the whole state can be turned
+ * back into the usual objects when they are needed, e.g. for the views.
+ */
+public final class CompactNetworkState {
+    /** string index of null **/
+    private static final int NULL = -1;
+
+    // dish flags
+    private static final byte FLAG_STATE = 1;
+    private static final byte FLAG_MSPA = 1 << 1;
+    private static final byte FLAG_ARRAY = 1 << 2;
+    private static final byte FLAG_DDOR = 1 << 3;
+
+    // rough costs, in bytes
+    private static final int OBJECT_SIZE = 16;
+    private static final int ARRAY_SIZE = 16;
+    private static final int ARRAYS = 26;
+
+    private final long timestamp;
+    /** the table the string indices refer to **/
+    private final StringTable strings;
+
+    // stations
+    private final int[] stationNames;
+    private final int[] friendlyNames;
+    private final int[] timeZoneOffsets;
+    /** first dish of each station, with the end of the last one as the extra last element **/
+    private final int[] stationDishes;
+
+    // dishes, the ones after the dishes of the last station belong to no station
+    private final int[] dishNames;
+    /** <code>FLAG_STATE</code> is not set for the dishes mapped to null, i.e. unused **/
+    private final byte[] dishFlags;
+    private final int[] azimuthAngles;
+    private final int[] elevationAngles;
+    private final int[] windSpeeds;
+    /** first signal of each dish, with the end of the last one as the extra last element **/
+    private final int[] dishSignals;
+    /** first up signal of each dish, the ones before it are the down signals **/
+    private final int[] dishUpSignals;
+    /** first target of each dish, with the end of the last one as the extra last element **/
+    private final int[] dishTargets;
+
+    // signals
+    private final int[] signalTypes;
+    private final int[] signalTypeDebugs;
+    private final int[] signalSpacecraft;
+    private final long[] dataRates;
+    private final long[] frequencies;
+    private final int[] powers;
+
+    // targets
+    private final int[] targetNames;
+    private final long[] uplegRanges;
+    private final long[] downlegRanges;
+    private final long[] rtlts;
+
+    private CompactNetworkState(long timestamp, StringTable strings, int stations, int dishes,
+                                int signals, int targets) {
+        this.timestamp = timestamp;
+        this.strings = strings;
+        stationNames = new int[stations];
+        friendlyNames = new int[stations];
+        timeZoneOffsets = new int[stations];
+        stationDishes = new int[stations + 1];
+        dishNames = new int[dishes];
+        dishFlags = new byte[dishes];
+        azimuthAngles = new int[dishes];
+        elevationAngles = new int[dishes];
+        windSpeeds = new int[dishes];
+        dishSignals = new int[dishes + 1];
+        dishUpSignals = new int[dishes];
+        dishTargets = new int[dishes + 1];
+        signalTypes = new int[signals];
+        signalTypeDebugs = new int[signals];
+        signalSpacecraft = new int[signals];
+        dataRates = new long[signals];
+        frequencies = new long[signals];
+        powers = new int[signals];
+        targetNames = new int[targets];
+        uplegRanges = new long[targets];
+        downlegRanges = new long[targets];
+        rtlts = new long[targets];
+    }
+
+    /**
+     * Create the compact form of the given state.
+     * @param networkState the state to copy, not retained
+     * @param strings the table to put the strings into, retained by the compact state
+     * @return the compact state
+     */
+    public static CompactNetworkState of(NetworkState networkState, StringTable strings) {
+        Map<String, DishState> dishStates = networkState.getDishStates();
+
+        // the dishes in the order of their stations, followed by the ones of no station
+        String[] dishOrder = new String[dishStates.size()
+                + countStationDishes(networkState)];
+        int dishes = 0;
+        for (StationState stationState : networkState.getStationStates().values()) {
+            for (String dishName : stationState.getDishStates()) {
+                dishOrder[dishes++] = dishName;
+            }
+        }
+        int stationDishCount = dishes;
+        for (String dishName : dishStates.keySet()) {
+            if (!contains(dishOrder, stationDishCount, dishName)) dishOrder[dishes++] = dishName;
+        }
+
+        int signals = 0;
+        int targets = 0;
+        for (DishState dishState : dishStates.values()) {
+            if (dishState == null) continue;
+            signals += dishState.getDownSignals().size() + dishState.getUpSignals().size();
+            targets += dishState.getTargets().size();
+        }
+
+        CompactNetworkState state = new CompactNetworkState(networkState.getTimestamp(), strings,
+                networkState.getStationStates().size(), dishes, signals, targets);
+
+        int station = 0;
+        int dish = 0;
+        for (StationState stationState : networkState.getStationStates().values()) {
+            state.stationNames[station] = strings.indexOf(stationState.getName());
+            state.friendlyNames[station] = strings.indexOf(stationState.getFriendlyName());
+            state.timeZoneOffsets[station] = stationState.getTimeZoneOffset();
+            state.stationDishes[station] = dish;
+            dish += stationState.getDishStates().size();
+            station++;
+        }
+        state.stationDishes[station] = dish;
+
+        int signal = 0;
+        int target = 0;
+        for (dish = 0; dish < dishes; dish++) {
+            state.dishNames[dish] = strings.indexOf(dishOrder[dish]);
+            state.dishSignals[dish] = signal;
+            state.dishTargets[dish] = target;
+            DishState dishState = dishStates.get(dishOrder[dish]);
+            if (dishState == null) {
+                state.dishUpSignals[dish] = signal;
+                continue;
+            }
+
+            state.dishFlags[dish] = (byte) (FLAG_STATE
+                    | (dishState.isMSPA() ? FLAG_MSPA : 0)
+                    | (dishState.isArray() ? FLAG_ARRAY : 0)
+                    | (dishState.isDDOR() ? FLAG_DDOR : 0));
+            state.azimuthAngles[dish] = dishState.getAzimuthAngle();
+            state.elevationAngles[dish] = dishState.getElevationAngle();
+            state.windSpeeds[dish] = dishState.getWindSpeed();
+
+            signal = state.putSignals(dishState.getDownSignals(), signal);
+            state.dishUpSignals[dish] = signal;
+            signal = state.putSignals(dishState.getUpSignals(), signal);
+            for (Target t : dishState.getTargets()) {
+                state.targetNames[target] = strings.indexOf(t.getName());
+                state.uplegRanges[target] = t.getUplegRange();
+                state.downlegRanges[target] = t.getDownlegRange();
+                state.rtlts[target] = t.getRTLT();
+                target++;
+            }
+        }
+        state.dishSignals[dishes] = signal;
+        state.dishTargets[dishes] = target;
+        return state;
+    }
+
+    private int putSignals(List<Signal> list, int signal) {
+        for (Signal s : list) {
+            signalTypes[signal] = strings.indexOf(s.getSignalType());
+            signalTypeDebugs[signal] = strings.indexOf(s.getSignalTypeDebug());
+            signalSpacecraft[signal] = strings.indexOf(s.getSpacecraft());
+            dataRates[signal] = s.getDataRate();
+            frequencies[signal] = s.getFrequency();
+            powers[signal] = s.getPower();
+            signal++;
+        }
+        return signal;
+    }
+
+    private static int countStationDishes(NetworkState networkState) {
+        int count = 0;
+        for (StationState stationState : networkState.getStationStates().values()) {
+            count += stationState.getDishStates().size();
+        }
+        return count;
+    }
+
+    private static boolean contains(String[] array, int length, String value) {
+        for (int i = 0; i < length; i++) {
+            if (array[i].equals(value)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Return the timestamp this state represents.
+     * @return timestamp, in milliseconds
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * Return the number of the stations.
+     * @return the number of the stations
+     */
+    public int getStationCount() {
+        return stationNames.length;
+    }
+
+    /**
+     * Return the name of the given station, e.g. <code>cdscc</code>.
+     * @param station the index of the station
+     * @return the name of the station
+     */
+    public String getStationName(int station) {
+        return strings.get(stationNames[station]);
+    }
+
+    /**
+     * Return the friendly (full) name of the given station, e.g. <code>Canberra</code>.
+     * @param station the index of the station
+     * @return the friendly name of the station
+     */
+    public String getStationFriendlyName(int station) {
+        return strings.get(friendlyNames[station]);
+    }
+
+    /**
+     * Return the time zone offset of the given station, in milliseconds.
+     * @param station the index of the station
+     * @return the time zone offset of the station
+     */
+    public int getTimeZoneOffset(int station) {
+        return timeZoneOffsets[station];
+    }
+
+    /**
+     * Return the first dish of the given station.
+     * @param station the index of the station
+     * @return the index of its first dish
+     */
+    public int getFirstDish(int station) {
+        return stationDishes[station];
+    }
+
+    /**
+     * Return the end of the dishes of the given station.
+     * @param station the index of the station
+     * @return the index after its last dish
+     */
+    public int getDishEnd(int station) {
+        return stationDishes[station + 1];
+    }
+
+    /**
+     * Return the number of the dishes, including the unused ones.
+     * @return the number of the dishes
+     */
+    public int getDishCount() {
+        return dishNames.length;
+    }
+
+    /**
+     * Return the index of the dish with the given name.
+     * @param name the name of the dish
+     * @return the index of the dish, or -1 if there is no such dish
+     */
+    public int indexOfDish(String name) {
+        for (int dish = 0; dish < dishNames.length; dish++) {
+            if (strings.get(dishNames[dish]).equals(name)) return dish;
+        }
+        return -1;
+    }
+
+    /**
+     * Return the name of the given dish, e.g. <code>DSS14</code>.
+     * @param dish the index of the dish
+     * @return the name of the dish
+     */
+    public String getDishName(int dish) {
+        return strings.get(dishNames[dish]);
+    }
+
+    /**
+     * Return whether the given dish has a state, i.e. whether it is used.
+     * @param dish the index of the dish
+     * @return false if the dish is mapped to null in the original state
+     */
+    public boolean hasDishState(int dish) {
+        return (dishFlags[dish] & FLAG_STATE) != 0;
+    }
+
+    /**
+     * Return the azimuth angle of the given dish, in centidegrees.
+     * @param dish the index of the dish
+     * @return the azimuth angle
+     */
+    public int getAzimuthAngle(int dish) {
+        return azimuthAngles[dish];
+    }
+
+    /**
+     * Return the elevation angle of the given dish, in centidegrees.
+     * @param dish the index of the dish
+     * @return the elevation angle
+     */
+    public int getElevationAngle(int dish) {
+        return elevationAngles[dish];
+    }
+
+    /**
+     * Return the wind speed at the given dish, in decameters per hour.
+     * @param dish the index of the dish
+     * @return the wind speed
+     */
+    public int getWindSpeed(int dish) {
+        return windSpeeds[dish];
+    }
+
+    /**
+     * Return whether the given dish is used for MSPA.
+     * @param dish the index of the dish
+     * @return true if MSPA
+     */
+    public boolean isMSPA(int dish) {
+        return (dishFlags[dish] & FLAG_MSPA) != 0;
+    }
+
+    /**
+     * Return whether the given dish is a part of an array.
+     * @param dish the index of the dish
+     * @return true if arrayed
+     */
+    public boolean isArray(int dish) {
+        return (dishFlags[dish] & FLAG_ARRAY) != 0;
+    }
+
+    /**
+     * Return whether the given dish is used for DDOR.
+     * @param dish the index of the dish
+     * @return true if DDOR
+     */
+    public boolean isDDOR(int dish) {
+        return (dishFlags[dish] & FLAG_DDOR) != 0;
+    }
+
+    /**
+     * Create the usual object of the given dish, with its signals and targets.
+     * @param dish the index of the dish
+     * @return a new dish state, or null if the dish has no state
+     */
+    public DishState getDishState(int dish) {
+        if (!hasDishState(dish)) return null;
+
+        DishState.Builder dishState = new DishState.Builder(getDishName(dish),
+                azimuthAngles[dish], elevationAngles[dish], windSpeeds[dish], isMSPA(dish),
+                isArray(dish), isDDOR(dish));
+        for (int signal = dishSignals[dish]; signal < dishUpSignals[dish]; signal++) {
+            dishState.addDownSignal(getSignal(signal));
+        }
+        for (int signal = dishUpSignals[dish]; signal < dishSignals[dish + 1]; signal++) {
+            dishState.addUpSignal(getSignal(signal));
+        }
+        for (int target = dishTargets[dish]; target < dishTargets[dish + 1]; target++) {
+            dishState.addTarget(new Target(strings.get(targetNames[target]),
+                    uplegRanges[target], downlegRanges[target], rtlts[target]));
+        }
+        return dishState.build();
+    }
+
+    private Signal getSignal(int signal) {
+        return new Signal(strings.get(signalTypes[signal]), strings.get(signalTypeDebugs[signal]),
+                dataRates[signal], frequencies[signal], powers[signal],
+                strings.get(signalSpacecraft[signal]));
+    }
+
+    /**
+     * Create the usual objects of the whole state.
+     * @return a new network state, equal to the one this state is created from
+     */
+    public NetworkState toNetworkState() {
+        NetworkState.Builder networkState = new NetworkState.Builder();
+        networkState.setTimestamp(timestamp);
+        for (int station = 0; station < stationNames.length; station++) {
+            StationState.Builder stationState = new StationState.Builder(
+                    getStationName(station), getStationFriendlyName(station),
+                    timeZoneOffsets[station]);
+            for (int dish = stationDishes[station]; dish < stationDishes[station + 1]; dish++) {
+                stationState.addDishState(getDishName(dish));
+            }
+            networkState.addStationState(stationState.build());
+        }
+        for (int dish = 0; dish < dishNames.length; dish++) {
+            networkState.putDishState(getDishName(dish), getDishState(dish));
+        }
+        return networkState.build();
+    }
+
+    /**
+     * Estimate the number of bytes retained by this state. The shared strings are not counted.
+     * @return the estimated size, in bytes
+     */
+    public int estimateSize() {
+        int stations = stationNames.length;
+        int dishes = dishNames.length;
+        int signals = signalTypes.length;
+        int targets = targetNames.length;
+        return OBJECT_SIZE + ARRAYS * ARRAY_SIZE
+                + stations * 4 * 4
+                + dishes * (7 * 4 + 1)
+                + signals * (4 * 4 + 2 * 8)
+                + targets * (4 + 3 * 8);
+    }
+
+    /**
+     * Append-only table of strings, giving each distinct string a fixed index, shared by
+     * the compact states created with it. It grows with every distinct string, so its owner
+     * should start a new one once it is large enough; the old one is collected along with
+     * the last state referring to it. <br />
+     * The strings are written to the array in place, under the lock of the table, and the array
+     * is written to its volatile field before an index is given out, so the lookups by index
+     * do not lock: a thread that has an index sees the array write that published it.
+     */
+    public static final class StringTable {
+        private final Map<String, Integer> indices = new HashMap<>();
+        private volatile String[] strings = new String[64];
+        private int size;
+
+        /**
+         * Return the number of strings in the table.
+         * @return the number of strings
+         */
+        public synchronized int size() {
+            return size;
+        }
+
+        /**
+         * Return the index of the given string, adding it to the table if necessary.
+         * @param string the string, may be null
+         * @return the index of the string
+         */
+        synchronized int indexOf(String string) {
+            if (string == null) return NULL;
+            Integer index = indices.get(string);
+            if (index != null) return index;
+
+            String[] array = strings;
+            if (size == array.length) array = Arrays.copyOf(array, size * 2);
+            array[size] = string;
+            // published before the index is given out
+            strings = array;
+            indices.put(string, size);
+            return size++;
+        }
+
+        /**
+         * Return the string with the given index.
+         * @param index an index given by <code>indexOf</code>
+         * @return the string, or null for the index of null
+         */
+        String get(int index) {
+            return index == NULL ? null : strings[index];
+        }
+    }
+}
@@ -21,49 +21,93 @@
 package me.aeolwyr.dsnnow.data;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 /**
  * Data structure to hold the temporary info about a dish, <br />
- * parsed from a <code>dsn.xml</code> file.
+ * parsed from a <code>dsn.xml</code> file. Immutable once built. <br />
+ * The signals and the targets can be left to a loader, which decodes them the first time
+ * they are read; until then, only the names of the targets are known.
  */
-public class DishState {
-    private String name;
+public final class DishState {
+    /**
+     * Loader of the signals and the targets of a dish state, for the states whose details are
+     * decoded only when they are needed.
+     */
+    public interface DetailsLoader {
+        /**
+         * Decode the dish state again, this time with its signals and targets. This is called
+         * at most once, by the first thread that reads them, while holding the lock of
+         * the dish state being loaded.
+         * @return the dish state with the details, or null if they cannot be decoded
+         */
+        DishState load();
+    }
+
+    private final String name;
     /** in centidegrees **/
-    private int azimuthAngle;
+    private final int azimuthAngle;
     /** in centidegrees **/
-    private int elevationAngle;
+    private final int elevationAngle;
     /** in decameters per hour **/
-    private int windSpeed;
+    private final int windSpeed;
     /** Multiple Spacecraft Per Aperture **/
-    private boolean isMSPA;
-    private boolean isArray;
+    private final boolean isMSPA;
+    private final boolean isArray;
     /** Delta-Differential One-Way Ranging **/
-    private boolean isDDOR;
+    private final boolean isDDOR;
+
+    /**
+     * The signals and the targets of a dish state, published at once when they are loaded.
+     */
+    private static final class Details {
+        final List<Signal> downSignals;
+        final List<Signal> upSignals;
+        final List<Target> targets;
+        /** true if the loader could not decode them, the lists are empty then **/
+        final boolean broken;
+
+        Details(List<Signal> downSignals, List<Signal> upSignals, List<Target> targets,
+                boolean broken) {
+            this.downSignals = downSignals;
+            this.upSignals = upSignals;
+            this.targets = targets;
+            this.broken = broken;
+        }
+    }
 
-    private List<Signal> downSignals = new ArrayList<>();
-    private List<Signal> upSignals = new ArrayList<>();
-    private List<Target> targets = new ArrayList<>();
+    /** details of a dish its loader could not decode **/
+    private static final Details BROKEN_DETAILS = new Details(Collections.<Signal>emptyList(),
+            Collections.<Signal>emptyList(), Collections.<Target>emptyList(), true);
 
     /**
-     * Create a new dish state.
-     * @param name the name of the dish (e.g. <code>DSS63</code>)
-     * @param azimuthAngle the azimuth angle of the dish, in centidegrees
-     * @param elevationAngle the elevation angle of the dish, in centidegrees
-     * @param windSpeed the wind speed, in decameters per hour
-     * @param isMSPA is this dish working in MSPA mode
-     * @param isArray is this dish working as a part of an array
-     * @param isDDOR is this dish working in DDOR mode
+     * The signals and the targets, null until they are loaded. Written only once, and its
+     * fields are final, so a thread that reads it non-null sees the complete lists.
      */
-    public DishState(String name, int azimuthAngle, int elevationAngle, int windSpeed,
-                     boolean isMSPA, boolean isArray, boolean isDDOR) {
-        this.name = name;
-        this.azimuthAngle = azimuthAngle;
-        this.elevationAngle = elevationAngle;
-        this.windSpeed = windSpeed;
-        this.isMSPA = isMSPA;
-        this.isArray = isArray;
-        this.isDDOR = isDDOR;
+    private volatile Details details;
+    /** names of the targets, known before the details are loaded, null if not set **/
+    private final List<String> targetNames;
+    /** loader of the signals and the targets, guarded by this object, null once loaded **/
+    private DetailsLoader detailsLoader;
+
+    private DishState(Builder builder) {
+        name = builder.name;
+        azimuthAngle = builder.azimuthAngle;
+        elevationAngle = builder.elevationAngle;
+        windSpeed = builder.windSpeed;
+        isMSPA = builder.isMSPA;
+        isArray = builder.isArray;
+        isDDOR = builder.isDDOR;
+        targetNames = builder.targetNames != null
+                ? Collections.unmodifiableList(builder.targetNames) : null;
+        if (builder.detailsLoader != null) {
+            detailsLoader = builder.detailsLoader;
+        } else {
+            details = new Details(Collections.unmodifiableList(builder.downSignals),
+                    Collections.unmodifiableList(builder.upSignals),
+                    Collections.unmodifiableList(builder.targets), false);
+        }
     }
 
     /**
@@ -126,28 +170,209 @@ public class DishState {
 
     /**
      * Return a list of signals currently received by this dish.
-     * @return the download signals of the dish
+     * @return the download signals of the dish, unmodifiable
      */
     public List<Signal> getDownSignals() {
-        return downSignals;
+        return getDetails().downSignals;
     }
 
     /**
      * Return a list of signals currently transmitted by this dish.
-     * @return the upload signals of the dish
+     * @return the upload signals of the dish, unmodifiable
      */
     public List<Signal> getUpSignals() {
-        return upSignals;
+        return getDetails().upSignals;
     }
 
     /**
      * Return a list of spacecraft targets this dish is facing.
-     * @return the targets of this dish
+     * @return the targets of this dish, unmodifiable
      */
     public List<Target> getTargets() {
-        return targets;
+        return getDetails().targets;
     }
-    
+
+    /**
+     * Return the names of the targets this dish is facing. Unlike <code>getTargets()</code>,
+     * this does not load the details of the dish if they are not loaded yet.
+     * @return the names of the targets, e.g. <code>VGR1</code>
+     */
+    public List<String> getTargetNames() {
+        if (targetNames != null) return targetNames;
+        List<String> names = new ArrayList<>();
+        for (Target target : getTargets()) {
+            names.add(target.getName());
+        }
+        return names;
+    }
+
+    /**
+     * Return whether the signals and the targets of this dish state are available without
+     * running a loader.
+     * @return true if the details are loaded
+     */
+    public boolean isDetailsLoaded() {
+        return details != null;
+    }
+
+    /**
+     * Return whether the signals and the targets of this dish state could not be decoded
+     * by its loader, in which case the dish is left without them. It is only known after
+     * the details are read, or <code>isDetailsLoaded</code> returns true.
+     * @return true if the details are broken
+     */
+    public boolean isDetailsBroken() {
+        Details loaded = details;
+        return loaded != null && loaded.broken;
+    }
+
+    /**
+     * Return the details, loading them first if necessary.
+     */
+    private Details getDetails() {
+        Details loaded = details;
+        if (loaded != null) return loaded;
+        synchronized (this) {
+            if (details == null) {
+                DishState dishState = detailsLoader.load();
+                // the dish is left without details if they cannot be decoded
+                details = dishState != null ? dishState.getDetails() : BROKEN_DETAILS;
+                // the loader is not needed anymore, and it might hold a large buffer
+                detailsLoader = null;
+            }
+            return details;
+        }
+    }
+
+    /**
+     * Return the names of the spacecraft this dish communicates with, collected from
+     * the signals and the targets, without duplicates.
+     * @return the names of the spacecraft, e.g. <code>VGR1</code>
+     */
+    public List<String> getSpacecraft() {
+        List<String> spacecraft = new ArrayList<>();
+        for (Signal signal : getDownSignals()) {
+            addSpacecraft(spacecraft, signal.getSpacecraft());
+        }
+        for (Signal signal : getUpSignals()) {
+            addSpacecraft(spacecraft, signal.getSpacecraft());
+        }
+        for (Target target : getTargets()) {
+            addSpacecraft(spacecraft, target.getName());
+        }
+        return spacecraft;
+    }
+
+    private static void addSpacecraft(List<String> spacecraft, String name) {
+        if (name != null && !name.isEmpty() && !spacecraft.contains(name)) {
+            spacecraft.add(name);
+        }
+    }
+
+    /**
+     * Builder of a dish state. It must not be used after <code>build()</code>.
+     */
+    public static final class Builder {
+        private final String name;
+        private final int azimuthAngle;
+        private final int elevationAngle;
+        private final int windSpeed;
+        private final boolean isMSPA;
+        private final boolean isArray;
+        private final boolean isDDOR;
+
+        private List<Signal> downSignals = new ArrayList<>();
+        private List<Signal> upSignals = new ArrayList<>();
+        private List<Target> targets = new ArrayList<>();
+        private List<String> targetNames;
+        private DetailsLoader detailsLoader;
+
+        /**
+         * Create a new builder of a dish state.
+         * @param name the name of the dish (e.g. <code>DSS63</code>)
+         * @param azimuthAngle the azimuth angle of the dish, in centidegrees
+         * @param elevationAngle the elevation angle of the dish, in centidegrees
+         * @param windSpeed the wind speed, in decameters per hour
+         * @param isMSPA is this dish working in MSPA mode
+         * @param isArray is this dish working as a part of an array
+         * @param isDDOR is this dish working in DDOR mode
+         */
+        public Builder(String name, int azimuthAngle, int elevationAngle, int windSpeed,
+                       boolean isMSPA, boolean isArray, boolean isDDOR) {
+            this.name = name;
+            this.azimuthAngle = azimuthAngle;
+            this.elevationAngle = elevationAngle;
+            this.windSpeed = windSpeed;
+            this.isMSPA = isMSPA;
+            this.isArray = isArray;
+            this.isDDOR = isDDOR;
+        }
+
+        /**
+         * Return the name of the dish being built.
+         * @return the name of the dish
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * Add a signal received by the dish, after the ones added before.
+         * @param signal the download signal
+         * @return this builder
+         */
+        public Builder addDownSignal(Signal signal) {
+            downSignals.add(signal);
+            return this;
+        }
+
+        /**
+         * Add a signal transmitted by the dish, after the ones added before.
+         * @param signal the upload signal
+         * @return this builder
+         */
+        public Builder addUpSignal(Signal signal) {
+            upSignals.add(signal);
+            return this;
+        }
+
+        /**
+         * Add a target the dish is facing, after the ones added before.
+         * @param target the target
+         * @return this builder
+         */
+        public Builder addTarget(Target target) {
+            targets.add(target);
+            return this;
+        }
+
+        /**
+         * Leave the signals and the targets to the given loader, which is run when they are
+         * read for the first time. The signals and the targets added to this builder
+         * are ignored then.
+         * @param targetNames the names of the targets, known in advance
+         * @param detailsLoader the loader of the signals and the targets
+         * @return this builder
+         */
+        public Builder setDetailsLoader(List<String> targetNames, DetailsLoader detailsLoader) {
+            this.targetNames = targetNames;
+            this.detailsLoader = detailsLoader;
+            return this;
+        }
+
+        /**
+         * Create the dish state. The builder hands its contents over to the state.
+         * @return the new dish state
+         */
+        public DishState build() {
+            DishState dishState = new DishState(this);
+            downSignals = null;
+            upSignals = null;
+            targets = null;
+            return dishState;
+        }
+    }
+
     // XML tag/attribute names
     public static final String DISH = "dish";
     public static final String NAME = "name";
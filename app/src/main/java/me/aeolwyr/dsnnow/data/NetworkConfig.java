@@ -20,41 +20,181 @@
 
 package me.aeolwyr.dsnnow.data;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Data structure to hold the persistent info about the whole network,
- * parsed from a <code>config.xml</code> file.
+ * parsed from a <code>config.xml</code> file. <br />
+ * The stations, dishes and spacecraft are given dense ordinals in the order they are added,
+ * so that a name can be resolved once, e.g. when a list is built, and the config can be
+ * looked up by array indexing afterwards. The names that are not found as they are,
+ * including the unknown ones, are cached after the first lookup. <br />
+ * The config must be filled before it is shared between threads, the lookups are
+ * thread-safe afterwards.
  */
 public class NetworkConfig {
+    /** ordinal of the names not found in the config **/
+    public static final int NONE = -1;
+    /** upper limit of the cached lookups, the table is cleared when it is reached **/
+    private static final int MAX_LOOKUPS = 256;
+
     private Map<String, Station> stations = new HashMap<>();
     private Map<String, Dish> dishes = new HashMap<>();
     private Map<String, Spacecraft> spacecrafts = new HashMap<>();
 
+    // entities indexed by their ordinals
+    private List<Station> stationList = new ArrayList<>();
+    private List<Dish> dishList = new ArrayList<>();
+    private List<Spacecraft> spacecraftList = new ArrayList<>();
+
+    // ordinals mapped by the exact names
+    private Map<String, Integer> stationOrdinals = new HashMap<>();
+    private Map<String, Integer> dishOrdinals = new HashMap<>();
+    private Map<String, Integer> spacecraftOrdinals = new HashMap<>();
+
+    /**
+     * the results of the spacecraft lookups that did not match a name exactly,
+     * <code>NONE</code> for the unknown names
+     **/
+    private final Map<String, Integer> spacecraftLookups = new ConcurrentHashMap<>();
+
+    /**
+     * Add a station, giving it the next station ordinal.
+     * @param station the station to add
+     */
+    public void addStation(Station station) {
+        stationOrdinals.put(station.getName(), stationList.size());
+        stationList.add(station);
+        stations.put(station.getName(), station);
+    }
+
+    /**
+     * Add a dish, giving it the next dish ordinal.
+     * @param dish the dish to add
+     */
+    public void addDish(Dish dish) {
+        dishOrdinals.put(dish.getName(), dishList.size());
+        dishList.add(dish);
+        dishes.put(dish.getName(), dish);
+    }
+
+    /**
+     * Add a spacecraft, giving it the next spacecraft ordinal.
+     * @param spacecraft the spacecraft to add, its name in upper case
+     */
+    public void addSpacecraft(Spacecraft spacecraft) {
+        spacecraftOrdinals.put(spacecraft.getName(), spacecraftList.size());
+        spacecraftList.add(spacecraft);
+        spacecrafts.put(spacecraft.getName(), spacecraft);
+    }
+
     /**
      * Return the stations in this config object, mapped by their names.
-     * @return the stations map
+     * @return the stations map, not modifiable
      */
     public Map<String, Station> getStations() {
-        return stations;
+        return Collections.unmodifiableMap(stations);
     }
 
     /**
      * Return all the dishes in this config object, in no particular order,
      * and mapped by their names (e.g. <code>DSS63</code>). <br />
-     * @return the dishes map
+     * @return the dishes map, not modifiable
      */
     public Map<String, Dish> getDishes() {
-        return dishes;
+        return Collections.unmodifiableMap(dishes);
     }
 
     /**
      * Return the spacecrafts in this config object, mapped by their names
      * (e.g. <code>NHPC</code>).
-     * @return the spacecrafts map
+     * @return the spacecrafts map, not modifiable
      */
     public Map<String, Spacecraft> getSpacecrafts() {
-        return spacecrafts;
+        return Collections.unmodifiableMap(spacecrafts);
+    }
+
+    /**
+     * Return the ordinal of the station with the given name.
+     * @param name the name of the station, e.g. <code>gdscc</code>
+     * @return the ordinal, or <code>NONE</code> if there is no such station
+     */
+    public int getStationOrdinal(String name) {
+        Integer ordinal = stationOrdinals.get(name);
+        return ordinal != null ? ordinal : NONE;
+    }
+
+    /**
+     * Return the station with the given ordinal.
+     * @param ordinal an ordinal given by <code>getStationOrdinal</code>
+     * @return the station, or null for <code>NONE</code>
+     */
+    public Station getStation(int ordinal) {
+        return ordinal != NONE ? stationList.get(ordinal) : null;
+    }
+
+    /**
+     * Return the ordinal of the dish with the given name.
+     * @param name the name of the dish, e.g. <code>DSS63</code>
+     * @return the ordinal, or <code>NONE</code> if there is no such dish
+     */
+    public int getDishOrdinal(String name) {
+        Integer ordinal = dishOrdinals.get(name);
+        return ordinal != null ? ordinal : NONE;
+    }
+
+    /**
+     * Return the dish with the given ordinal.
+     * @param ordinal an ordinal given by <code>getDishOrdinal</code>
+     * @return the dish, or null for <code>NONE</code>
+     */
+    public Dish getDish(int ordinal) {
+        return ordinal != NONE ? dishList.get(ordinal) : null;
+    }
+
+    /**
+     * Return the ordinal of the spacecraft with the given name. The names are compared
+     * ignoring their case, as the config has them in upper case, but the states
+     * do not always.
+     * @param name the name of the spacecraft, e.g. <code>NHPC</code>
+     * @return the ordinal, or <code>NONE</code> if there is no such spacecraft
+     */
+    public int getSpacecraftOrdinal(String name) {
+        if (name == null) return NONE;
+        Integer ordinal = spacecraftOrdinals.get(name);
+        if (ordinal != null) return ordinal;
+
+        ordinal = spacecraftLookups.get(name);
+        if (ordinal != null) return ordinal;
+        ordinal = spacecraftOrdinals.get(name.toUpperCase(Locale.US));
+        if (ordinal == null) ordinal = NONE;
+        // the names come from a small vocabulary, this is only a guard against a broken feed
+        if (spacecraftLookups.size() >= MAX_LOOKUPS) spacecraftLookups.clear();
+        spacecraftLookups.put(name, ordinal);
+        return ordinal;
+    }
+
+    /**
+     * Return the spacecraft with the given ordinal.
+     * @param ordinal an ordinal given by <code>getSpacecraftOrdinal</code>
+     * @return the spacecraft, or null for <code>NONE</code>
+     */
+    public Spacecraft getSpacecraft(int ordinal) {
+        return ordinal != NONE ? spacecraftList.get(ordinal) : null;
+    }
+
+    /**
+     * Return the spacecraft with the given name, compared ignoring the case.
+     * @param name the name of the spacecraft
+     * @return the spacecraft, or null if there is no such spacecraft
+     */
+    public Spacecraft getSpacecraft(String name) {
+        return getSpacecraft(getSpacecraftOrdinal(name));
     }
 }
@@ -20,25 +20,26 @@
 
 package me.aeolwyr.dsnnow.data;
 
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.Map;
 
 /**
  * Data structure to hold the temporary info about the whole network at a time instant,
- * parsed from a <code>dsn.xml</code> file.
+ * parsed from a <code>dsn.xml</code> file. <br />
+ * A state is immutable once built, so it can be read by any number of threads without
+ * locks or copies, as long as it is published safely, e.g. through a volatile field.
  */
-public class NetworkState {
-    private Map<String, StationState> stationStates = new LinkedHashMap<>();
-    private Map<String, DishState> dishStates = new HashMap<>();
-    private long timestamp;
+public final class NetworkState {
+    private final Map<String, StationState> stationStates;
+    private final Map<String, DishState> dishStates;
+    private final long timestamp;
 
-    /**
-     * Set the time this state object represents.
-     * @param timestamp timestamp, in milliseconds
-     */
-    public void setTimestamp(long timestamp) {
-        this.timestamp = timestamp;
+    private NetworkState(Builder builder) {
+        stationStates = Collections.unmodifiableMap(builder.stationStates);
+        dishStates = Collections.unmodifiableMap(builder.dishStates);
+        timestamp = builder.timestamp;
     }
 
     /**
@@ -52,7 +53,7 @@ public class NetworkState {
     /**
      * Return the station states stored in this object, ordered same as they
      * appear in the xml file, and mapped by their names (e.g. <code>gdscc</code>).
-     * @return the station states map, iterable
+     * @return the station states map, iterable and unmodifiable
      */
     public Map<String, StationState> getStationStates() {
         return stationStates;
@@ -60,10 +61,62 @@ public class NetworkState {
 
     /**
      * Return the dish states stored in this object, in no particular order,
-     * and mapped by their names (e.g. <code>DSS63</code>).
-     * @return the dish states map
+     * and mapped by their names (e.g. <code>DSS63</code>). The unused dishes
+     * are mapped to null.
+     * @return the dish states map, unmodifiable
      */
     public Map<String, DishState> getDishStates() {
         return dishStates;
     }
+
+    /**
+     * Builder of a network state. It must not be used after <code>build()</code>.
+     */
+    public static final class Builder {
+        private Map<String, StationState> stationStates = new LinkedHashMap<>();
+        private Map<String, DishState> dishStates = new HashMap<>();
+        private long timestamp;
+
+        /**
+         * Set the time the state represents.
+         * @param timestamp timestamp, in milliseconds
+         * @return this builder
+         */
+        public Builder setTimestamp(long timestamp) {
+            this.timestamp = timestamp;
+            return this;
+        }
+
+        /**
+         * Add a station state, after the ones added before.
+         * @param stationState the station state
+         * @return this builder
+         */
+        public Builder addStationState(StationState stationState) {
+            stationStates.put(stationState.getName(), stationState);
+            return this;
+        }
+
+        /**
+         * Add a dish state.
+         * @param name the name of the dish
+         * @param dishState the dish state, or null if the dish is not used
+         * @return this builder
+         */
+        public Builder putDishState(String name, DishState dishState) {
+            dishStates.put(name, dishState);
+            return this;
+        }
+
+        /**
+         * Create the state. The builder hands its contents over to the state.
+         * @return the new network state
+         */
+        public NetworkState build() {
+            NetworkState networkState = new NetworkState(this);
+            stationStates = null;
+            dishStates = null;
+            return networkState;
+        }
+    }
 }
@@ -24,16 +24,16 @@ package me.aeolwyr.dsnnow.data;
  * Data structure to hold a temporary signal information,
  * parsed from a <code>dsn.xml</code> file, and held by a <code>DishState</code>.
  */
-public class Signal {
-    private String type;
-    private String typeDebug;
+public final class Signal {
+    private final String type;
+    private final String typeDebug;
     /** in microbits per second **/
-    private long dataRate;
+    private final long dataRate;
     /** in microhertz **/
-    private long frequency;
+    private final long frequency;
     /** in milliwatts for up, micro-dBm for down **/
-    private int power;
-    private String spacecraft;
+    private final int power;
+    private final String spacecraft;
 
     /**
      * Create a new signal with the given values.
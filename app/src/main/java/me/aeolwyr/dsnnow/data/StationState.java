@@ -20,30 +20,26 @@
 
 package me.aeolwyr.dsnnow.data;
 
+import java.util.Collections;
 import java.util.Set;
 import java.util.TreeSet;
 
 /**
  * Data structure to hold the temporary information about a station,
- * parsed from a <code>dsn.xml</code> file.
+ * parsed from a <code>dsn.xml</code> file. Immutable once built.
  */
-public class StationState {
-    private String name;
-    private String friendlyName;
+public final class StationState {
+    private final String name;
+    private final String friendlyName;
     /** in milliseconds **/
-    private int timeZoneOffset;
-    private Set<String> dishStates = new TreeSet<>();
+    private final int timeZoneOffset;
+    private final Set<String> dishStates;
 
-    /**
-     * Create a new station state with the given values.
-     * @param name the name of the station, e.g. <code>gdscc</code>
-     * @param friendlyName the friendly (full) name of the station, e.g. <code>Goldstone</code>
-     * @param timeZoneOffset the current time zone offset of the station state, in milliseconds
-     */
-    public StationState(String name, String friendlyName, int timeZoneOffset) {
-        this.name = name;
-        this.friendlyName = friendlyName;
-        this.timeZoneOffset = timeZoneOffset;
+    private StationState(Builder builder) {
+        name = builder.name;
+        friendlyName = builder.friendlyName;
+        timeZoneOffset = builder.timeZoneOffset;
+        dishStates = Collections.unmodifiableSet(builder.dishStates);
     }
 
     /**
@@ -73,12 +69,73 @@ public class StationState {
     /**
      * Return the states of the dished located in this station,
      * ordered alphabetically.
-     * @return the states of the dishes located in the station
+     * @return the states of the dishes located in the station, unmodifiable
      */
     public Set<String> getDishStates() {
         return dishStates;
     }
 
+    /**
+     * Builder of a station state. It must not be used after <code>build()</code>.
+     */
+    public static final class Builder {
+        private final String name;
+        private final String friendlyName;
+        private final int timeZoneOffset;
+        private Set<String> dishStates = new TreeSet<>();
+
+        /**
+         * Create a new builder of a station state with the given values.
+         * @param name the name of the station, e.g. <code>gdscc</code>
+         * @param friendlyName the friendly (full) name of the station,
+         *                     e.g. <code>Goldstone</code>
+         * @param timeZoneOffset the current time zone offset of the station state,
+         *                       in milliseconds
+         */
+        public Builder(String name, String friendlyName, int timeZoneOffset) {
+            this.name = name;
+            this.friendlyName = friendlyName;
+            this.timeZoneOffset = timeZoneOffset;
+        }
+
+        /**
+         * Return the name of the station being built.
+         * @return the name of the station
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * Add the name of a dish located in this station.
+         * @param dishName the name of the dish
+         * @return this builder
+         */
+        public Builder addDishState(String dishName) {
+            dishStates.add(dishName);
+            return this;
+        }
+
+        /**
+         * Check whether a dish is already added.
+         * @param dishName the name of the dish
+         * @return true if the dish is added
+         */
+        public boolean hasDishState(String dishName) {
+            return dishStates.contains(dishName);
+        }
+
+        /**
+         * Create the station state. The builder hands its contents over to the state.
+         * @return the new station state
+         */
+        public StationState build() {
+            StationState stationState = new StationState(this);
+            dishStates = null;
+            return stationState;
+        }
+    }
+
     // XML tag/attribute names
     public static final String STATION = "station";
     public static final String NAME = "name";
@@ -24,14 +24,14 @@ package me.aeolwyr.dsnnow.data;
  * Data structure to hold a temporary information about a signal target,
  * parsed from a <code>dsn.xml</code> file, and held by a <code>DishState</code>.
  */
-public class Target {
-    private String name;
+public final class Target {
+    private final String name;
     /** in meters **/
-    private long uplegRange;
+    private final long uplegRange;
     /** in meters **/
-    private long downlegRange;
+    private final long downlegRange;
     /** round-trip light time, in microseconds **/
-    private long rtlt;
+    private final long rtlt;
 
     /**
      * Create a new target with the given values. <br />
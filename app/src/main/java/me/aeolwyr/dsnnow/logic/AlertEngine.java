@@ -0,0 +1,326 @@
+/*
+ * DSN Monitor is an app to monitor the NASA Deep Space Network in real time.
+ * Copyright (c) 2016 Kaan Karaagacli
+ *
+ * This file is part of DSN Monitor.
+ *
+ * DSN Monitor is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DSN Monitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DSN Monitor.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package me.aeolwyr.dsnnow.logic;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import me.aeolwyr.dsnnow.data.DishState;
+import me.aeolwyr.dsnnow.data.NetworkConfig;
+import me.aeolwyr.dsnnow.data.NetworkState;
+import me.aeolwyr.dsnnow.data.Signal;
+import me.aeolwyr.dsnnow.data.StationState;
+import me.aeolwyr.dsnnow.data.Target;
+
+/**
+ * Checks the alert rules against each downloaded state, and reports a rule when it starts
+ * to match a dish or a spacecraft of a dish. A rule matching for a while is reported once,
+ * until it stops matching. <br />
+ * The rules are indexed by the dish or the spacecraft they are limited to, so only the
+ * rules that could match a dish are checked against it. Only the dishes which changed since
+ * the previous state are checked at all, the others keep their matches. <br />
+ * It is fed on the writer thread as soon as a state is downloaded, so it works whether
+ * or not an activity is visible.
+ */
+public class AlertEngine implements CaptureWriter.Consumer {
+    /**
+     * Receiver of the alerts, called on the writer thread.
+     */
+    public interface Listener {
+        /**
+         * Called when a rule starts to match.
+         * @param alert the alert
+         */
+        void onAlert(Alert alert);
+    }
+
+    /**
+     * A rule that has started to match.
+     */
+    public static class Alert {
+        private AlertRule rule;
+        private String dish;
+        private String spacecraft;
+        private long timestamp;
+
+        Alert(AlertRule rule, String dish, String spacecraft, long timestamp) {
+            this.rule = rule;
+            this.dish = dish;
+            this.spacecraft = spacecraft;
+            this.timestamp = timestamp;
+        }
+
+        /**
+         * @return the matching rule
+         */
+        public AlertRule getRule() {
+            return rule;
+        }
+
+        /**
+         * @return the name of the matching dish
+         */
+        public String getDish() {
+            return dish;
+        }
+
+        /**
+         * @return the name of the matching spacecraft, or null if the rule is about the dish
+         */
+        public String getSpacecraft() {
+            return spacecraft;
+        }
+
+        /**
+         * @return the timestamp of the state the rule started to match in
+         */
+        public long getTimestamp() {
+            return timestamp;
+        }
+
+        /**
+         * Return a key identifying the rule and what it matches, which stays the same
+         * as long as the rule is not changed.
+         * @return the key
+         */
+        public String getKey() {
+            return rule.getSource() + '\u0000' + dish + '\u0000' + spacecraft;
+        }
+    }
+
+    private NetworkConfig config;
+    private Listener listener;
+
+    /** rules limited to a dish, by the normalized name of the dish **/
+    private Map<String, List<AlertRule>> dishRules = new HashMap<>();
+    /** rules limited to a spacecraft, but not to a dish, by the name of the spacecraft **/
+    private Map<String, List<AlertRule>> spacecraftRules = new HashMap<>();
+    /** rules to check against every dish **/
+    private List<AlertRule> otherRules = new ArrayList<>();
+
+    /** the dishes of the previous state, by their names **/
+    private Map<String, DishState> previousDishes = new HashMap<>();
+    /** keys of the current matches, by the names of the dishes **/
+    private Map<String, Set<String>> matches = new HashMap<>();
+
+    /**
+     * Create a new engine without any rules.
+     * @param config network config to find the types of the dishes in
+     */
+    public AlertEngine(NetworkConfig config) {
+        this.config = config;
+    }
+
+    /**
+     * Set the listener to report the alerts to.
+     * @param listener the listener, or null to remove the current one
+     */
+    public synchronized void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Replace the rules. The rules that were already matching and are not changed
+     * are not reported again.
+     * @param rules the new rules
+     */
+    public synchronized void setRules(List<AlertRule> rules) {
+        dishRules.clear();
+        spacecraftRules.clear();
+        otherRules.clear();
+        for (AlertRule rule : rules) {
+            if (rule.getDish() != null) {
+                add(dishRules, rule.getDish(), rule);
+            } else if (rule.getSpacecraft() != null) {
+                add(spacecraftRules, rule.getSpacecraft(), rule);
+            } else {
+                otherRules.add(rule);
+            }
+        }
+        // check every dish again with the new rules
+        previousDishes.clear();
+    }
+
+    private static void add(Map<String, List<AlertRule>> index, String key, AlertRule rule) {
+        List<AlertRule> rules = index.get(key);
+        if (rules == null) {
+            rules = new ArrayList<>();
+            index.put(key, rules);
+        }
+        rules.add(rule);
+    }
+
+    @Override
+    public void onCapture(NetworkState networkState) {
+        Listener listener;
+        List<Alert> alerts;
+        synchronized (this) {
+            listener = this.listener;
+            alerts = check(networkState);
+        }
+        // called outside the lock, the listener might post notifications
+        if (listener == null) return;
+        for (Alert alert : alerts) {
+            listener.onAlert(alert);
+        }
+    }
+
+    /**
+     * Check the dishes of the given state that changed since the previous state.
+     * @param networkState the new state
+     * @return the new matches
+     */
+    private List<Alert> check(NetworkState networkState) {
+        List<Alert> alerts = new ArrayList<>();
+        Map<String, DishState> currentDishes = new HashMap<>();
+        for (StationState stationState : networkState.getStationStates().values()) {
+            for (String dish : stationState.getDishStates()) {
+                DishState dishState = networkState.getDishStates().get(dish);
+                if (dishState == null) continue;
+                currentDishes.put(dish, dishState);
+
+                DishState previous = previousDishes.get(dish);
+                if (previous != null && sameDish(previous, dishState)) continue;
+                check(networkState.getTimestamp(), dishState, stationState, alerts);
+            }
+        }
+        // the dishes gone idle do not match anything anymore
+        for (String dish : previousDishes.keySet()) {
+            if (!currentDishes.containsKey(dish)) matches.remove(dish);
+        }
+        previousDishes = currentDishes;
+        return alerts;
+    }
+
+    /**
+     * Check the rules that could match the given dish.
+     * @param timestamp the timestamp of the state
+     * @param dishState the dish to check
+     * @param stationState the station of the dish
+     * @param alerts the list to add the new matches to
+     */
+    private void check(long timestamp, DishState dishState, StationState stationState,
+                       List<Alert> alerts) {
+        String dish = dishState.getName();
+        String dishType = AlertRule.getDishType(config, dish);
+        List<String> spacecraft = dishState.getSpacecraft();
+
+        Set<String> oldMatches = matches.get(dish);
+        if (oldMatches == null) oldMatches = Collections.emptySet();
+        Set<String> newMatches = new HashSet<>();
+
+        AlertRule.Binding dishBinding =
+                AlertRule.Binding.of(dishState, dishType, stationState, null);
+        List<AlertRule.Binding> spacecraftBindings = new ArrayList<>();
+        for (String name : spacecraft) {
+            spacecraftBindings.add(AlertRule.Binding.of(dishState, dishType, stationState, name));
+        }
+
+        List<AlertRule> candidates = new ArrayList<>(otherRules);
+        List<AlertRule> rules = dishRules.get(AlertRule.normalize(dish));
+        if (rules != null) candidates.addAll(rules);
+        for (String name : spacecraft) {
+            rules = spacecraftRules.get(name);
+            if (rules != null) candidates.addAll(rules);
+        }
+
+        for (AlertRule rule : candidates) {
+            if (!rule.isPerSpacecraft()) {
+                match(rule, dishBinding, timestamp, oldMatches, newMatches, alerts);
+                continue;
+            }
+            for (AlertRule.Binding binding : spacecraftBindings) {
+                if (rule.getSpacecraft() != null
+                        && !rule.getSpacecraft().equals(binding.spacecraft)) {
+                    continue;
+                }
+                match(rule, binding, timestamp, oldMatches, newMatches, alerts);
+            }
+        }
+
+        if (newMatches.isEmpty()) {
+            matches.remove(dish);
+        } else {
+            matches.put(dish, newMatches);
+        }
+    }
+
+    private static void match(AlertRule rule, AlertRule.Binding binding, long timestamp,
+                              Set<String> oldMatches, Set<String> newMatches,
+                              List<Alert> alerts) {
+        if (!rule.matches(binding)) return;
+        Alert alert = new Alert(rule, binding.dishState.getName(), binding.spacecraft, timestamp);
+        String key = alert.getKey();
+        if (!newMatches.add(key)) return;
+        if (!oldMatches.contains(key)) alerts.add(alert);
+    }
+
+    /**
+     * Check whether a dish has the same values in two states, so that the rules
+     * would match it the same way.
+     */
+    private static boolean sameDish(DishState a, DishState b) {
+        if (a.getAzimuthAngle() != b.getAzimuthAngle()
+                || a.getElevationAngle() != b.getElevationAngle()
+                || a.getWindSpeed() != b.getWindSpeed()
+                || a.isArray() != b.isArray() || a.isMSPA() != b.isMSPA()
+                || a.isDDOR() != b.isDDOR()
+                || !sameSignals(a.getDownSignals(), b.getDownSignals())
+                || !sameSignals(a.getUpSignals(), b.getUpSignals())
+                || a.getTargets().size() != b.getTargets().size()) {
+            return false;
+        }
+        for (int i = 0; i < a.getTargets().size(); i++) {
+            Target targetA = a.getTargets().get(i);
+            Target targetB = b.getTargets().get(i);
+            if (!equal(targetA.getName(), targetB.getName())
+                    || targetA.getDownlegRange() != targetB.getDownlegRange()
+                    || targetA.getRTLT() != targetB.getRTLT()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean sameSignals(List<Signal> a, List<Signal> b) {
+        if (a.size() != b.size()) return false;
+        for (int i = 0; i < a.size(); i++) {
+            Signal signalA = a.get(i);
+            Signal signalB = b.get(i);
+            if (!equal(signalA.getSpacecraft(), signalB.getSpacecraft())
+                    || !equal(signalA.getSignalType(), signalB.getSignalType())
+                    || signalA.getDataRate() != signalB.getDataRate()
+                    || signalA.getPower() != signalB.getPower()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean equal(String a, String b) {
+        return (a == null) ? (b == null) : a.equals(b);
+    }
+}
@@ -0,0 +1,533 @@
+/*
+ * DSN Monitor is an app to monitor the NASA Deep Space Network in real time.
+ * Copyright (c) 2016 Kaan Karaagacli
+ *
+ * This file is part of DSN Monitor.
+ *
+ * DSN Monitor is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DSN Monitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DSN Monitor.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package me.aeolwyr.dsnnow.logic;
+
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import me.aeolwyr.dsnnow.data.Dish;
+import me.aeolwyr.dsnnow.data.DishState;
+import me.aeolwyr.dsnnow.data.NetworkConfig;
+import me.aeolwyr.dsnnow.data.Signal;
+import me.aeolwyr.dsnnow.data.Spacecraft;
+import me.aeolwyr.dsnnow.data.StationState;
+import me.aeolwyr.dsnnow.data.Target;
+
+/**
+ * A user defined alert rule, compiled from text such as
+ * <code>spacecraft = "New Horizons" and downrate > 1 kb/s</code>. <br />
+ * A rule is a list of conditions joined with <code>and</code>, each of them a field,
+ * an operator and a value. A rule is checked against a dish, or against each of the
+ * spacecraft of a dish if any of its fields are about a spacecraft. <br />
+ * Text fields, compared with <code>=</code> and <code>!=</code>:
+ * <ul>
+ * <li><code>spacecraft</code>: code or friendly name,
+ * e.g. <code>JNO</code> or <code>Juno</code></li>
+ * <li><code>dish</code>: e.g. <code>DSS43</code> or <code>DSS-43</code></li>
+ * <li><code>station</code>: e.g. <code>Canberra</code></li>
+ * <li><code>type</code>: type of the dish, e.g. <code>70M</code></li>
+ * <li><code>signal</code>: type of the downlink,
+ * <code>data</code>, <code>carrier</code> or <code>none</code></li>
+ * </ul>
+ * Numeric fields, compared with <code>= != &lt; &lt;= &gt; &gt;=</code>, with an optional
+ * unit after the value, the first one being the default:
+ * <ul>
+ * <li><code>wind</code>: km/h, m/s, mph</li>
+ * <li><code>azimuth</code>, <code>elevation</code>: deg</li>
+ * <li><code>downrate</code>, <code>uprate</code>: b/s, kb/s, Mb/s, B/s, kB/s</li>
+ * <li><code>downpower</code>: dBm</li>
+ * <li><code>uppower</code>: kW, W</li>
+ * <li><code>range</code>: km, m, AU</li>
+ * <li><code>rtlt</code>: s, min, h</li>
+ * </ul>
+ * Boolean fields, either alone or compared to <code>true</code> or <code>false</code>:
+ * <code>array</code>, <code>mspa</code>, <code>ddor</code>, <code>uplink</code>.
+ */
+public class AlertRule {
+    /**
+     * Values of a dish, or of a spacecraft of a dish, that the rules are checked against.
+     */
+    static class Binding {
+        DishState dishState;
+        String dishType;
+        StationState stationState;
+        /** null if the binding is about the dish only **/
+        String spacecraft;
+        Signal downSignal;
+        Signal upSignal;
+        Target target;
+
+        static Binding of(DishState dishState, String dishType, StationState stationState,
+                          String spacecraft) {
+            Binding binding = new Binding();
+            binding.dishState = dishState;
+            binding.dishType = dishType;
+            binding.stationState = stationState;
+            binding.spacecraft = spacecraft;
+            if (spacecraft != null) {
+                binding.downSignal = SpacecraftSeries.findDownSignal(dishState, spacecraft);
+                binding.upSignal = findUpSignal(dishState, spacecraft);
+                binding.target = SpacecraftSeries.findTarget(dishState, spacecraft);
+            }
+            return binding;
+        }
+
+        private static Signal findUpSignal(DishState dishState, String spacecraft) {
+            for (Signal signal : dishState.getUpSignals()) {
+                if (spacecraft.equals(signal.getSpacecraft())) return signal;
+            }
+            return null;
+        }
+    }
+
+    // fields
+    private static final int SPACECRAFT = 1;
+    private static final int DISH = 2;
+    private static final int STATION = 3;
+    private static final int TYPE = 4;
+    private static final int SIGNAL = 5;
+    private static final int WIND = 6;
+    private static final int AZIMUTH = 7;
+    private static final int ELEVATION = 8;
+    private static final int DOWN_RATE = 9;
+    private static final int UP_RATE = 10;
+    private static final int DOWN_POWER = 11;
+    private static final int UP_POWER = 12;
+    private static final int RANGE = 13;
+    private static final int RTLT = 14;
+    private static final int ARRAY = 15;
+    private static final int MSPA = 16;
+    private static final int DDOR = 17;
+    private static final int UPLINK = 18;
+
+    // operators
+    private static final int EQUAL = 1;
+    private static final int NOT_EQUAL = 2;
+    private static final int LESS = 3;
+    private static final int LESS_OR_EQUAL = 4;
+    private static final int GREATER = 5;
+    private static final int GREATER_OR_EQUAL = 6;
+
+    private static final Map<String, Integer> FIELDS = new HashMap<>();
+    private static final Map<String, Integer> OPERATORS = new HashMap<>();
+    /** units of the numeric fields, the first one is the default, see <code>addUnits</code> **/
+    private static final Map<Integer, Map<String, Double>> UNITS = new HashMap<>();
+    private static final Map<Integer, String> DEFAULT_UNITS = new HashMap<>();
+
+    static {
+        FIELDS.put("spacecraft", SPACECRAFT);
+        FIELDS.put("dish", DISH);
+        FIELDS.put("station", STATION);
+        FIELDS.put("type", TYPE);
+        FIELDS.put("signal", SIGNAL);
+        FIELDS.put("wind", WIND);
+        FIELDS.put("azimuth", AZIMUTH);
+        FIELDS.put("elevation", ELEVATION);
+        FIELDS.put("downrate", DOWN_RATE);
+        FIELDS.put("uprate", UP_RATE);
+        FIELDS.put("downpower", DOWN_POWER);
+        FIELDS.put("uppower", UP_POWER);
+        FIELDS.put("range", RANGE);
+        FIELDS.put("rtlt", RTLT);
+        FIELDS.put("array", ARRAY);
+        FIELDS.put("mspa", MSPA);
+        FIELDS.put("ddor", DDOR);
+        FIELDS.put("uplink", UPLINK);
+
+        OPERATORS.put("=", EQUAL);
+        OPERATORS.put("==", EQUAL);
+        OPERATORS.put("!=", NOT_EQUAL);
+        OPERATORS.put("<", LESS);
+        OPERATORS.put("<=", LESS_OR_EQUAL);
+        OPERATORS.put(">", GREATER);
+        OPERATORS.put(">=", GREATER_OR_EQUAL);
+
+        // the factors convert to the units the values are stored in, see the data classes
+        addUnits(WIND, "km/h", 100, "m/s", 360, "mph", 160.9344);
+        addUnits(AZIMUTH, "deg", 100);
+        addUnits(ELEVATION, "deg", 100);
+        addUnits(DOWN_RATE, "b/s", 1e6, "kb/s", 1e9, "Mb/s", 1e12, "B/s", 8e6, "kB/s", 8e9);
+        addUnits(UP_RATE, "b/s", 1e6, "kb/s", 1e9, "Mb/s", 1e12, "B/s", 8e6, "kB/s", 8e9);
+        addUnits(DOWN_POWER, "dBm", 1e6);
+        addUnits(UP_POWER, "kW", 1e6, "W", 1e3);
+        addUnits(RANGE, "km", 1e3, "m", 1, "AU", 1.495978707e11);
+        addUnits(RTLT, "s", 1e6, "min", 6e7, "h", 3.6e9);
+    }
+
+    private static void addUnits(int field, Object... unitsAndFactors) {
+        Map<String, Double> units = new HashMap<>();
+        for (int i = 0; i < unitsAndFactors.length; i += 2) {
+            units.put((String) unitsAndFactors[i], ((Number) unitsAndFactors[i + 1]).doubleValue());
+        }
+        UNITS.put(field, units);
+        DEFAULT_UNITS.put(field, (String) unitsAndFactors[0]);
+    }
+
+    /** a quoted string, an operator, or a word **/
+    private static final Pattern TOKEN = Pattern.compile("\"([^\"]*)\"|[<>!=]=?|[^\\s<>!=\"]+");
+    /** a number, optionally followed by a unit without a space **/
+    private static final Pattern NUMBER = Pattern.compile("(-?\\d+(?:\\.\\d+)?)(\\S*)");
+
+    /**
+     * A single compiled condition of a rule.
+     */
+    private static class Condition {
+        int field;
+        int operator;
+        /** the value of a text field, normalized **/
+        String text;
+        /** the value of a numeric field, in the stored units, or 0/1 for a boolean field **/
+        double number;
+    }
+
+    private String source;
+    private Condition[] conditions;
+    /** the spacecraft the rule is limited to, null if any **/
+    private String spacecraft;
+    /** the dish the rule is limited to, null if any **/
+    private String dish;
+    /** true if the rule is checked against each spacecraft of a dish **/
+    private boolean perSpacecraft;
+
+    private AlertRule() { }
+
+    /**
+     * Compile the given rules, one rule per line. Empty lines and lines starting with
+     * <code>#</code> are skipped.
+     * @param text the rules
+     * @param config network config to resolve the names of the spacecraft with
+     * @return the compiled rules, in the order of the lines
+     * @throws ParseException if a rule is invalid, the error offset is the line number,
+     *                        starting from zero
+     */
+    public static List<AlertRule> compileAll(String text, NetworkConfig config)
+            throws ParseException {
+        List<AlertRule> rules = new ArrayList<>();
+        String[] lines = text.split("\n");
+        for (int i = 0; i < lines.length; i++) {
+            String line = lines[i].trim();
+            if (line.isEmpty() || line.startsWith("#")) continue;
+            try {
+                rules.add(compile(line, config));
+            } catch (ParseException e) {
+                throw new ParseException(e.getMessage(), i);
+            }
+        }
+        return rules;
+    }
+
+    /**
+     * Compile a single rule.
+     * @param source the text of the rule
+     * @param config network config to resolve the names of the spacecraft with
+     * @return the compiled rule
+     * @throws ParseException if the rule is invalid, the error offset is the position
+     *                        of the invalid part
+     */
+    public static AlertRule compile(String source, NetworkConfig config) throws ParseException {
+        List<String> tokens = new ArrayList<>();
+        List<Integer> positions = new ArrayList<>();
+        Matcher matcher = TOKEN.matcher(source);
+        while (matcher.find()) {
+            // the quotes are dropped from the quoted strings
+            tokens.add(matcher.group(1) != null ? matcher.group(1) : matcher.group());
+            positions.add(matcher.start());
+        }
+        positions.add(source.length());
+
+        AlertRule rule = new AlertRule();
+        rule.source = source;
+        List<Condition> conditions = new ArrayList<>();
+        int index = 0;
+        while (true) {
+            if (index >= tokens.size()) {
+                throw new ParseException("Missing condition", positions.get(index));
+            }
+            Integer field = FIELDS.get(tokens.get(index).toLowerCase(Locale.US));
+            if (field == null) {
+                throw new ParseException("Unknown field " + tokens.get(index),
+                        positions.get(index));
+            }
+            Condition condition = new Condition();
+            condition.field = field;
+            index++;
+
+            boolean isBoolean = field >= ARRAY;
+            if (isBoolean && (index >= tokens.size() || isAnd(tokens.get(index)))) {
+                // a boolean field alone
+                condition.operator = EQUAL;
+                condition.number = 1;
+            } else {
+                if (index >= tokens.size() || !OPERATORS.containsKey(tokens.get(index))) {
+                    throw new ParseException("Missing operator", positions.get(index));
+                }
+                condition.operator = OPERATORS.get(tokens.get(index));
+                index++;
+                if (index >= tokens.size()) {
+                    throw new ParseException("Missing value", positions.get(index));
+                }
+                if ((field < WIND || isBoolean) && condition.operator > NOT_EQUAL) {
+                    throw new ParseException("Only = and != are allowed for "
+                            + tokens.get(index - 2), positions.get(index - 1));
+                }
+                index = parseValue(condition, tokens, positions, index, config);
+            }
+            conditions.add(condition);
+
+            if (condition.operator == EQUAL && condition.field == SPACECRAFT) {
+                rule.spacecraft = condition.text;
+            } else if (condition.operator == EQUAL && condition.field == DISH) {
+                rule.dish = condition.text;
+            }
+            if (condition.field == SPACECRAFT || condition.field == SIGNAL
+                    || (condition.field >= DOWN_RATE && condition.field <= RTLT)
+                    || condition.field == UPLINK) {
+                rule.perSpacecraft = true;
+            }
+
+            if (index >= tokens.size()) break;
+            if (!isAnd(tokens.get(index))) {
+                throw new ParseException("Expected and", positions.get(index));
+            }
+            index++;
+        }
+        rule.conditions = conditions.toArray(new Condition[conditions.size()]);
+        return rule;
+    }
+
+    /**
+     * Parse the value of a condition.
+     * @return the index of the token after the value
+     */
+    private static int parseValue(Condition condition, List<String> tokens,
+                                  List<Integer> positions, int index, NetworkConfig config)
+            throws ParseException {
+        String value = tokens.get(index);
+        int position = positions.get(index);
+        index++;
+        switch (condition.field) {
+            case SPACECRAFT:
+                condition.text = resolveSpacecraft(value, config);
+                return index;
+            case DISH:
+            case STATION:
+            case TYPE:
+                condition.text = normalize(value);
+                return index;
+            case SIGNAL:
+                condition.text = value.toLowerCase(Locale.US);
+                return index;
+            case ARRAY:
+            case MSPA:
+            case DDOR:
+            case UPLINK:
+                if (value.equalsIgnoreCase("true")) {
+                    condition.number = 1;
+                } else if (value.equalsIgnoreCase("false")) {
+                    condition.number = 0;
+                } else {
+                    throw new ParseException("Expected true or false", position);
+                }
+                return index;
+            default:
+                Matcher matcher = NUMBER.matcher(value);
+                if (!matcher.matches()) throw new ParseException("Expected a number", position);
+                String unit = matcher.group(2);
+                if (unit.isEmpty() && index < tokens.size() && !isAnd(tokens.get(index))) {
+                    // the unit is separated with a space
+                    unit = tokens.get(index);
+                    position = positions.get(index);
+                    index++;
+                }
+                if (unit.isEmpty()) unit = DEFAULT_UNITS.get(condition.field);
+                Double factor = UNITS.get(condition.field).get(unit);
+                if (factor == null) throw new ParseException("Unknown unit " + unit, position);
+                condition.number = Double.parseDouble(matcher.group(1)) * factor;
+                return index;
+        }
+    }
+
+    private static boolean isAnd(String token) {
+        return token.equalsIgnoreCase("and");
+    }
+
+    /**
+     * Return the code of the given spacecraft, which is either a code or a friendly name.
+     */
+    private static String resolveSpacecraft(String name, NetworkConfig config) {
+        for (Spacecraft spacecraft : config.getSpacecrafts().values()) {
+            if (name.equalsIgnoreCase(spacecraft.getFriendlyName())) return spacecraft.getName();
+        }
+        return name.toUpperCase(Locale.US);
+    }
+
+    /**
+     * Normalize a name to be compared, e.g. <code>DSS-43</code> and <code>dss43</code>
+     * are the same.
+     */
+    static String normalize(String name) {
+        return name.replaceAll("[^A-Za-z0-9]", "").toUpperCase(Locale.US);
+    }
+
+    /**
+     * Return the type of the given dish in the network config.
+     * @param config the network config
+     * @param dish the name of the dish
+     * @return the normalized type, or null if not known
+     */
+    static String getDishType(NetworkConfig config, String dish) {
+        Dish configDish = config.getDish(config.getDishOrdinal(dish));
+        return configDish != null && configDish.getType() != null
+                ? normalize(configDish.getType()) : null;
+    }
+
+    /**
+     * Return the text the rule is compiled from.
+     * @return the source of the rule
+     */
+    public String getSource() {
+        return source;
+    }
+
+    /**
+     * @return the spacecraft this rule is limited to, or null if any
+     */
+    String getSpacecraft() {
+        return spacecraft;
+    }
+
+    /**
+     * @return the dish this rule is limited to, or null if any
+     */
+    String getDish() {
+        return dish;
+    }
+
+    /**
+     * @return true if the rule should be checked against each spacecraft of a dish,
+     *         false if against the dish only
+     */
+    boolean isPerSpacecraft() {
+        return perSpacecraft;
+    }
+
+    /**
+     * Check whether all the conditions hold for the given binding.
+     * @param binding the values to check
+     * @return true if the rule matches
+     */
+    boolean matches(Binding binding) {
+        for (Condition condition : conditions) {
+            if (!matches(condition, binding)) return false;
+        }
+        return true;
+    }
+
+    private static boolean matches(Condition condition, Binding binding) {
+        if (condition.field < WIND) {
+            boolean equal = textEquals(condition.field, condition.text, binding);
+            return condition.operator == EQUAL ? equal : !equal;
+        }
+
+        double value = getNumber(condition.field, binding);
+        // a missing value, e.g. no downlink, never matches
+        if (Double.isNaN(value)) return false;
+        switch (condition.operator) {
+            case EQUAL:
+                return value == condition.number;
+            case NOT_EQUAL:
+                return value != condition.number;
+            case LESS:
+                return value < condition.number;
+            case LESS_OR_EQUAL:
+                return value <= condition.number;
+            case GREATER:
+                return value > condition.number;
+            case GREATER_OR_EQUAL:
+                return value >= condition.number;
+            default:
+                return false;
+        }
+    }
+
+    private static boolean textEquals(int field, String text, Binding binding) {
+        switch (field) {
+            case SPACECRAFT:
+                return text.equals(binding.spacecraft);
+            case DISH:
+                return text.equals(normalize(binding.dishState.getName()));
+            case STATION:
+                return binding.stationState != null
+                        && (text.equals(normalize(binding.stationState.getName()))
+                        || text.equals(normalize(binding.stationState.getFriendlyName())));
+            case TYPE:
+                return text.equals(binding.dishType);
+            case SIGNAL:
+                return binding.downSignal != null
+                        && text.equals(binding.downSignal.getSignalType());
+            default:
+                return false;
+        }
+    }
+
+    private static double getNumber(int field, Binding binding) {
+        DishState dishState = binding.dishState;
+        switch (field) {
+            case WIND:
+                return dishState.getWindSpeed();
+            case AZIMUTH:
+                return dishState.getAzimuthAngle();
+            case ELEVATION:
+                return dishState.getElevationAngle();
+            case DOWN_RATE:
+                return binding.downSignal != null ? binding.downSignal.getDataRate() : Double.NaN;
+            case UP_RATE:
+                return binding.upSignal != null ? binding.upSignal.getDataRate() : Double.NaN;
+            case DOWN_POWER:
+                return binding.downSignal != null ? binding.downSignal.getPower() : Double.NaN;
+            case UP_POWER:
+                return binding.upSignal != null ? binding.upSignal.getPower() : Double.NaN;
+            case RANGE:
+                return binding.target != null && binding.target.getDownlegRange() >= 0
+                        ? binding.target.getDownlegRange() : Double.NaN;
+            case RTLT:
+                return binding.target != null && binding.target.getRTLT() >= 0
+                        ? binding.target.getRTLT() : Double.NaN;
+            case ARRAY:
+                return dishState.isArray() ? 1 : 0;
+            case MSPA:
+                return dishState.isMSPA() ? 1 : 0;
+            case DDOR:
+                return dishState.isDDOR() ? 1 : 0;
+            case UPLINK:
+                return binding.upSignal != null
+                        && !"none".equals(binding.upSignal.getSignalType()) ? 1 : 0;
+            default:
+                return Double.NaN;
+        }
+    }
+}
@@ -0,0 +1,484 @@
+/*
+ * DSN Monitor is an app to monitor the NASA Deep Space Network in real time.
+ * Copyright (c) 2016 Kaan Karaagacli
+ *
+ * This file is part of DSN Monitor.
+ *
+ * DSN Monitor is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DSN Monitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DSN Monitor.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package me.aeolwyr.dsnnow.logic;
+
+import org.xmlpull.v1.XmlPullParserException;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import me.aeolwyr.dsnnow.data.NetworkConfig;
+import me.aeolwyr.dsnnow.data.NetworkState;
+
+/**
+ * Imports collections of archived state files into the history, e.g. the captures
+ * kept on a server. <br />
+ * A source is either a single state file or a ZIP archive of them. The sources are read
+ * one after another, while their files are parsed in parallel on a pool of threads.
+ * States already in the history, or already imported from another file, are skipped by
+ * their timestamps. The new ones are written in batches by a single writer thread,
+ * compressed, into a folder of their own which the history scanner reads as well. <br />
+ * The history log cannot take these states, as it only appends the states newer than
+ * its last one. Neither are they thinned with the rest of the history, as they are usually
+ * old. Instead, the folder has a budget of its own, and an import stops once it is full. <br />
+ * It does disk input/output, therefore it should not be used on the main thread.
+ */
+public class BulkImporter {
+    /**
+     * A file or an archive to import.
+     */
+    public interface Source {
+        /**
+         * Return the name of the source, for the error messages.
+         * @return the name
+         */
+        String getName();
+
+        /**
+         * Open the source for reading.
+         * @return input stream of the content, closed by the importer
+         * @throws IOException if the source cannot be opened
+         */
+        InputStream open() throws IOException;
+    }
+
+    /**
+     * Callback for the progress of an import, called on the importing threads.
+     */
+    public interface ProgressListener {
+        /**
+         * Called after each file is processed.
+         * @param progress the progress so far
+         * @return false to cancel the import, true to continue
+         */
+        boolean onProgress(Progress progress);
+    }
+
+    /**
+     * Counts of an import, taken at a moment.
+     */
+    public static class Progress {
+        private int files;
+        private long bytes;
+        private int imported;
+        private int duplicates;
+        private int failed;
+        private long elapsed;
+        private boolean full;
+
+        /**
+         * @return the number of the files processed
+         */
+        public int getFiles() {
+            return files;
+        }
+
+        /**
+         * @return the total size of the processed files, uncompressed, in bytes
+         */
+        public long getBytes() {
+            return bytes;
+        }
+
+        /**
+         * @return the number of the new states written to the history
+         */
+        public int getImported() {
+            return imported;
+        }
+
+        /**
+         * @return the number of the states skipped as they are already in the history
+         */
+        public int getDuplicates() {
+            return duplicates;
+        }
+
+        /**
+         * @return the number of the files that could not be read or parsed
+         */
+        public int getFailed() {
+            return failed;
+        }
+
+        /**
+         * @return the time since the start of the import, in milliseconds
+         */
+        public long getElapsed() {
+            return elapsed;
+        }
+
+        /**
+         * @return true if the import is stopped as the imported states have reached their budget
+         */
+        public boolean isFull() {
+            return full;
+        }
+
+        /**
+         * @return the number of the files processed per second
+         */
+        public double getFilesPerSecond() {
+            return elapsed > 0 ? files * 1000.0 / elapsed : 0;
+        }
+
+        /**
+         * @return the number of the bytes processed per second
+         */
+        public double getBytesPerSecond() {
+            return elapsed > 0 ? bytes * 1000.0 / elapsed : 0;
+        }
+    }
+
+    /** name of the folder of the imported states **/
+    public static final String DIRECTORY_NAME = "imported";
+    /** number of the states written together **/
+    private static final int BATCH_SIZE = 64;
+    /** number of the files read ahead of the parsers, per thread **/
+    private static final int READ_AHEAD = 4;
+    /** upper limit of a state file, in bytes, larger files are skipped **/
+    private static final int MAX_FILE_SIZE = 1024 * 1024;
+
+    private NetworkConfig config;
+    private HistoryScanner historyScanner;
+    private File directory;
+    /** upper limit of the size of the folder, in bytes **/
+    private long budget;
+    /** size of the folder, updated by the writer thread **/
+    private long used;
+    private volatile boolean full;
+
+    /** timestamps of the history before the import, sorted **/
+    private long[] existing;
+    /** timestamps imported so far **/
+    private Set<Long> seen;
+    /** parsed states waiting for the next batch **/
+    private List<ParsedFile> pending;
+    private final Object pendingLock = new Object();
+
+    private ExecutorService writer;
+    private ProgressListener listener;
+    private volatile boolean cancelled;
+    /** first error of the writer, which stops the import **/
+    private volatile IOException writeError;
+    private long startTime;
+
+    private final AtomicInteger files = new AtomicInteger();
+    private final AtomicLong bytes = new AtomicLong();
+    private final AtomicInteger imported = new AtomicInteger();
+    private final AtomicInteger duplicates = new AtomicInteger();
+    private final AtomicInteger failed = new AtomicInteger();
+
+    /**
+     * Create a new importer.
+     * @param config config file to use when parsing the state files
+     * @param historyScanner the scanner of the history to skip the existing states of
+     * @param directory folder to write the imported states to, created if necessary
+     * @param budget the total size the imported states can take, in bytes
+     */
+    public BulkImporter(NetworkConfig config, HistoryScanner historyScanner, File directory,
+                        long budget) {
+        this.config = config;
+        this.historyScanner = historyScanner;
+        this.directory = directory;
+        this.budget = budget;
+    }
+
+    /**
+     * Delete all the imported states in the given folder.
+     * @param directory the folder of the imported states
+     */
+    public static void clear(File directory) {
+        File[] files = directory.listFiles();
+        if (files == null) return;
+        for (File file : files) {
+            // noinspection ResultOfMethodCallIgnored
+            file.delete();
+        }
+    }
+
+    /**
+     * Import the given sources. An importer can be used only once.
+     * @param sources the files and the archives to import
+     * @param threads the number of the files to parse at the same time
+     * @param listener the listener to report the progress to, or null
+     * @return the final counts, also when cancelled
+     * @throws IOException if the imported states cannot be written
+     */
+    public Progress importSources(List<? extends Source> sources, int threads,
+                                  ProgressListener listener) throws IOException {
+        this.listener = listener;
+        startTime = System.currentTimeMillis();
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Could not create " + directory);
+        }
+        used = 0;
+        File[] imported = directory.listFiles();
+        if (imported != null) {
+            for (File file : imported) used += file.length();
+        }
+        existing = historyScanner.getTimestamps();
+        seen = Collections.newSetFromMap(new ConcurrentHashMap<Long, Boolean>());
+        pending = new ArrayList<>();
+
+        threads = Math.max(threads, 1);
+        ExecutorService parsers = Executors.newFixedThreadPool(threads);
+        writer = Executors.newSingleThreadExecutor();
+        // bounds the memory used by the files read but not parsed yet
+        Semaphore readAhead = new Semaphore(threads * READ_AHEAD);
+        try {
+            for (Source source : sources) {
+                if (cancelled) break;
+                try (InputStream inputStream = new BufferedInputStream(source.open())) {
+                    if (isZip(inputStream)) {
+                        ZipInputStream zipStream = new ZipInputStream(inputStream);
+                        ZipEntry entry;
+                        while (!cancelled && (entry = zipStream.getNextEntry()) != null) {
+                            if (entry.isDirectory() || !entry.getName().endsWith(".xml")) {
+                                continue;
+                            }
+                            submit(parsers, readAhead, readFully(zipStream));
+                        }
+                    } else {
+                        submit(parsers, readAhead, readFully(inputStream));
+                    }
+                } catch (IOException e) {
+                    // a broken archive or an unreadable file, continue with the next one
+                    failed.incrementAndGet();
+                    files.incrementAndGet();
+                    report();
+                }
+            }
+
+            parsers.shutdown();
+            parsers.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+            // the last batch, which is not full
+            List<ParsedFile> batch;
+            synchronized (pendingLock) {
+                batch = pending;
+                pending = new ArrayList<>();
+            }
+            writeBatch(batch);
+            writer.shutdown();
+            writer.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            cancelled = true;
+            Thread.currentThread().interrupt();
+        } finally {
+            parsers.shutdownNow();
+            writer.shutdownNow();
+        }
+
+        if (writeError != null) throw writeError;
+        return getProgress();
+    }
+
+    /**
+     * Parse the given file on the parser threads, waiting if too many files are read ahead.
+     * @param parsers the pool of the parser threads
+     * @param readAhead the permits of the files read ahead
+     * @param data the content of the file, or null if it could not be read
+     * @throws InterruptedException if interrupted while waiting
+     */
+    private void submit(ExecutorService parsers, final Semaphore readAhead, final byte[] data)
+            throws InterruptedException {
+        if (data == null) {
+            // too large to be a state file
+            failed.incrementAndGet();
+            files.incrementAndGet();
+            report();
+            return;
+        }
+        readAhead.acquire();
+        parsers.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    if (!cancelled) parse(data);
+                } finally {
+                    readAhead.release();
+                }
+            }
+        });
+    }
+
+    /**
+     * Parse a file and queue it for writing if it is new, on a parser thread.
+     * @param data the content of the file, plain or compressed
+     */
+    private void parse(byte[] data) {
+        try {
+            byte[] plain = StateFileCompression.isCompressed(data, data.length)
+                    ? StateFileCompression.decompress(data, data.length)
+                    : data;
+            NetworkState networkState =
+                    StateParser.parse(config, new ByteArrayInputStream(plain));
+            long timestamp = networkState.getTimestamp();
+            bytes.addAndGet(plain.length);
+
+            if (Arrays.binarySearch(existing, timestamp) >= 0 || !seen.add(timestamp)) {
+                duplicates.incrementAndGet();
+            } else {
+                List<ParsedFile> batch = null;
+                synchronized (pendingLock) {
+                    pending.add(new ParsedFile(timestamp, plain));
+                    if (pending.size() >= BATCH_SIZE) {
+                        batch = pending;
+                        pending = new ArrayList<>();
+                    }
+                }
+                if (batch != null) writeBatch(batch);
+            }
+        } catch (IOException | XmlPullParserException | RuntimeException e) {
+            // not a state file, or a broken one
+            failed.incrementAndGet();
+        }
+        files.incrementAndGet();
+        report();
+    }
+
+    /**
+     * Queue a batch of the parsed states to the writer thread.
+     * @param batch the states to write
+     */
+    private void writeBatch(final List<ParsedFile> batch) {
+        if (batch.isEmpty()) return;
+        writer.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (writeError != null) return;
+                // written in order, so an interrupted import leaves a contiguous range behind
+                Collections.sort(batch, new Comparator<ParsedFile>() {
+                    @Override
+                    public int compare(ParsedFile a, ParsedFile b) {
+                        return a.timestamp < b.timestamp ? -1
+                                : (a.timestamp == b.timestamp ? 0 : 1);
+                    }
+                });
+                try {
+                    for (ParsedFile parsedFile : batch) {
+                        if (used >= budget) {
+                            // the rest would not fit either, and the parsing is wasted
+                            full = true;
+                            cancelled = true;
+                            return;
+                        }
+                        File file = new File(directory, parsedFile.timestamp + ".xml");
+                        StateFileCompression.write(parsedFile.data, 0, parsedFile.data.length,
+                                file);
+                        used += file.length();
+                        imported.incrementAndGet();
+                    }
+                } catch (IOException e) {
+                    // most likely out of space, nothing else can be written either
+                    writeError = e;
+                    cancelled = true;
+                }
+            }
+        });
+    }
+
+    private void report() {
+        if (listener != null && !listener.onProgress(getProgress())) {
+            cancelled = true;
+        }
+    }
+
+    private Progress getProgress() {
+        Progress progress = new Progress();
+        progress.files = files.get();
+        progress.bytes = bytes.get();
+        progress.imported = imported.get();
+        progress.duplicates = duplicates.get();
+        progress.failed = failed.get();
+        progress.elapsed = System.currentTimeMillis() - startTime;
+        progress.full = full;
+        return progress;
+    }
+
+    /**
+     * Check whether the given stream is a ZIP archive, without consuming it.
+     * @param inputStream the stream, which must support marking
+     * @return true if it starts with the signature of a ZIP entry
+     * @throws IOException if there is an input/output error
+     */
+    private static boolean isZip(InputStream inputStream) throws IOException {
+        inputStream.mark(4);
+        byte[] signature = new byte[4];
+        int length = 0;
+        int count;
+        while (length < 4 && (count = inputStream.read(signature, length, 4 - length)) >= 0) {
+            length += count;
+        }
+        inputStream.reset();
+        return length == 4 && signature[0] == 'P' && signature[1] == 'K'
+                && signature[2] == 3 && signature[3] == 4;
+    }
+
+    /**
+     * Read the rest of the given stream.
+     * @param inputStream the stream to read
+     * @return the content, or null if it is too large to be a state file
+     * @throws IOException if there is an input/output error
+     */
+    private static byte[] readFully(InputStream inputStream) throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream(16 * 1024);
+        byte[] buffer = new byte[4096];
+        int count;
+        while ((count = inputStream.read(buffer)) >= 0) {
+            outputStream.write(buffer, 0, count);
+            if (outputStream.size() > MAX_FILE_SIZE) return null;
+        }
+        return outputStream.toByteArray();
+    }
+
+    /**
+     * A parsed state waiting to be written.
+     */
+    private static class ParsedFile {
+        final long timestamp;
+        final byte[] data;
+
+        ParsedFile(long timestamp, byte[] data) {
+            this.timestamp = timestamp;
+            this.data = data;
+        }
+    }
+}
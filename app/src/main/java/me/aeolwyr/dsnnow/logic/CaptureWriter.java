@@ -0,0 +1,342 @@
+/*
+ * DSN Monitor is an app to monitor the NASA Deep Space Network in real time.
+ * Copyright (c) 2016 Kaan Karaagacli
+ *
+ * This file is part of DSN Monitor.
+ *
+ * DSN Monitor is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DSN Monitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DSN Monitor.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package me.aeolwyr.dsnnow.logic;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import me.aeolwyr.dsnnow.data.NetworkState;
+
+/**
+ * Write-behind queue of the downloaded states. <br />
+ * The states are collected in memory, and written in batches on a single background thread:
+ * the cached state files, the history log and the warm start copy. A batch is written when
+ * it has grown large enough, when its oldest state has waited long enough, or when a flush
+ * is requested. The history log and the cached state files are synced to the disk once per
+ * batch, before the consumers are given the states. The retention policy is applied after
+ * each batch, on the same thread. <br />
+ * All the public functions are thread-safe, and they never do disk input/output themselves,
+ * except <code>flushAndWait</code>.
+ */
+public class CaptureWriter {
+    /**
+     * Receiver of the downloaded states, called on the writer thread after the state
+     * is written, in the order of the downloads.
+     */
+    public interface Consumer {
+        /**
+         * Called for each downloaded state.
+         * @param networkState the downloaded state
+         */
+        void onCapture(NetworkState networkState);
+    }
+
+    /** pre-decoded copy of the latest downloaded state, used for warm starts **/
+    public static final String LAST_STATE_FILENAME = "last_state.bin";
+    /** a batch is written as soon as it has this many states **/
+    private static final int MAX_BATCH_SIZE = 12;
+    /** a batch is written at most this long after its first state is queued, in seconds **/
+    private static final int MAX_BATCH_DELAY = 60;
+
+    /**
+     * A downloaded state waiting to be written.
+     */
+    private static class Capture {
+        final NetworkState networkState;
+        final byte[] content;
+
+        Capture(NetworkState networkState, byte[] content) {
+            this.networkState = networkState;
+            this.content = content;
+        }
+    }
+
+    private File cacheDir;
+    private File filesDir;
+    private HistoryLog historyLog;
+    private HistoryCompactor compactor;
+    private List<Consumer> consumers = new CopyOnWriteArrayList<>();
+    private List<Consumer> liveConsumers = new CopyOnWriteArrayList<>();
+    /** budget given to the compactor, 0 until set **/
+    private volatile long historyBudget;
+
+    private ScheduledExecutorService executor;
+    /** states waiting to be written, guarded by this object **/
+    private List<Capture> pending = new ArrayList<>();
+    /** the scheduled write of the pending states, null if there are none **/
+    private ScheduledFuture<?> scheduledFlush;
+
+    /**
+     * Create a new writer and start its thread.
+     * @param cacheDir cache folder to write the state files to
+     * @param filesDir persistent storage folder, the states pinned there are not written again
+     * @param historyLog history log to append the states to
+     */
+    public CaptureWriter(File cacheDir, File filesDir, HistoryLog historyLog) {
+        this.cacheDir = cacheDir;
+        this.filesDir = filesDir;
+        this.historyLog = historyLog;
+        compactor = new HistoryCompactor(cacheDir, historyLog);
+
+        executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "capture-writer");
+                thread.setPriority(Thread.MIN_PRIORITY);
+                return thread;
+            }
+        });
+        executor.execute(deleteTempFiles);
+    }
+
+    /**
+     * Set the total size the history can take. The retention policy is not applied
+     * until this is set.
+     * @param historyBudget the history budget, in bytes
+     */
+    public void setHistoryBudget(long historyBudget) {
+        this.historyBudget = historyBudget;
+    }
+
+    /**
+     * Add a consumer to be given the downloaded states.
+     * @param consumer the new consumer
+     */
+    public void addConsumer(Consumer consumer) {
+        consumers.add(consumer);
+    }
+
+    /**
+     * Add a consumer to be given the downloaded states as soon as they are queued, before
+     * they are written, e.g. to react to them without waiting for the batch. It is still
+     * called on the writer thread, in the order of the downloads.
+     * @param consumer the new consumer
+     */
+    public void addLiveConsumer(Consumer consumer) {
+        liveConsumers.add(consumer);
+    }
+
+    /**
+     * Run a long task on the writer thread, e.g. to build something from the history
+     * before the new states are given to the consumers.
+     * @param runnable the task to run
+     */
+    public void runInBackground(Runnable runnable) {
+        executor.execute(runnable);
+    }
+
+    /**
+     * Queue a downloaded state to be written.
+     * @param networkState the parsed state
+     * @param content the plain content of the downloaded file, not modified afterwards
+     */
+    public synchronized void submit(final NetworkState networkState, byte[] content) {
+        pending.add(new Capture(networkState, content));
+        if (!liveConsumers.isEmpty()) {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    if (StateParser.isBroken(networkState)) return;
+                    for (Consumer consumer : liveConsumers) {
+                        consumer.onCapture(networkState);
+                    }
+                }
+            });
+        }
+        if (pending.size() >= MAX_BATCH_SIZE) {
+            flush();
+        } else if (scheduledFlush == null) {
+            scheduledFlush = executor.schedule(writeBatch, MAX_BATCH_DELAY, TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * Write the queued states in the background, without waiting for them.
+     */
+    public synchronized void flush() {
+        if (scheduledFlush != null) {
+            scheduledFlush.cancel(false);
+            scheduledFlush = null;
+        }
+        executor.execute(writeBatch);
+    }
+
+    /**
+     * Write the queued states, and wait until they and the earlier batches are written.
+     * This does disk input/output on the calling thread in effect, so it should be used
+     * only before an action that needs the files, not for every download.
+     */
+    public void flushAndWait() {
+        Future<?> future;
+        synchronized (this) {
+            if (scheduledFlush != null) {
+                scheduledFlush.cancel(false);
+                scheduledFlush = null;
+            }
+            future = executor.submit(writeBatch);
+        }
+        try {
+            future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException ignored) {
+            // the batch is lost, nothing else to do
+        }
+    }
+
+    /**
+     * Take the pending states.
+     * @return the pending states, possibly empty
+     */
+    private synchronized List<Capture> takeBatch() {
+        scheduledFlush = null;
+        List<Capture> batch = pending;
+        pending = new ArrayList<>();
+        return batch;
+    }
+
+    /**
+     * Write the pending states, on the writer thread.
+     */
+    private Runnable writeBatch = new Runnable() {
+        @Override
+        public void run() {
+            List<Capture> batch = takeBatch();
+            if (batch.isEmpty()) return;
+
+            Iterator<Capture> iterator = batch.iterator();
+            while (iterator.hasNext()) {
+                NetworkState networkState = iterator.next().networkState;
+                // the details of a state parsed in two phases are decoded here at the latest
+                // a state whose details cannot be decoded is dropped, like a failed poll
+                if (StateParser.isBroken(networkState)) {
+                    Metrics.FAILED_POLLS.increment();
+                    iterator.remove();
+                }
+            }
+            if (batch.isEmpty()) return;
+
+            // the cached files are written to temporary files first, and synced together
+            // with the log below, so that they are complete once they can be listed
+            // they duplicate the log for the original content, see HistoryCompactor
+            List<File> tempFiles = new ArrayList<>();
+            List<File> cachedFiles = new ArrayList<>();
+            for (Capture capture : batch) {
+                NetworkState networkState = capture.networkState;
+                // if the file is already cached, it is in one of the locations below
+                String filename = networkState.getTimestamp() + ".xml";
+                File cachedFile = new File(cacheDir, filename);
+                File pinnedFile = new File(filesDir, filename);
+                long writeStart = System.nanoTime();
+                Tracer.begin(Tracer.CACHE_WRITE);
+                try {
+                    if (!cachedFile.exists() && !pinnedFile.exists()) {
+                        tempFiles.add(StateFileCompression.writeTemp(capture.content, 0,
+                                capture.content.length, cachedFile));
+                        cachedFiles.add(cachedFile);
+                    }
+                    historyLog.append(networkState);
+                    Metrics.CACHE_WRITE_TIME.recordSince(writeStart);
+                } catch (IOException ignored) {
+                    // not critical, the state is lost from the history only
+                } finally {
+                    Tracer.end();
+                }
+            }
+            try {
+                historyLog.sync();
+            } catch (IOException ignored) {
+                // not critical, the batch might be lost after a crash only
+            }
+            for (int i = 0; i < tempFiles.size(); i++) {
+                try {
+                    StateFileCompression.commit(tempFiles.get(i), cachedFiles.get(i));
+                } catch (IOException ignored) {
+                    // not critical, the state is still in the log
+                }
+            }
+            // the consumers are given the states once they are on the disk
+            for (Capture capture : batch) {
+                for (Consumer consumer : consumers) {
+                    consumer.onCapture(capture.networkState);
+                }
+            }
+
+            // keep the latest downloaded state in a form that loads without parsing,
+            // so that the next launch can show it before the first download completes
+            NetworkState latest = batch.get(batch.size() - 1).networkState;
+            try {
+                StateCodec.writeFile(latest, new File(cacheDir, LAST_STATE_FILENAME));
+            } catch (IOException ignored) {
+                // not critical, the next launch will wait for a download instead
+            }
+
+            // this batch resulted in more cached files, make sure we are not over the limit
+            long budget = historyBudget;
+            if (budget > 0) {
+                long compactStart = System.nanoTime();
+                Tracer.begin(Tracer.RETENTION);
+                try {
+                    compactor.compact(budget);
+                } finally {
+                    Tracer.end();
+                }
+                Metrics.RETENTION_TIME.recordSince(compactStart);
+            }
+        }
+    };
+
+    /**
+     * Delete the temporary files left behind by a crash, on the writer thread.
+     */
+    private Runnable deleteTempFiles = new Runnable() {
+        @Override
+        public void run() {
+            File[] files = cacheDir.listFiles(TEMP_FILE_FILTER);
+            if (files == null) return;
+            for (File file : files) {
+                // noinspection ResultOfMethodCallIgnored
+                file.delete();
+            }
+        }
+    };
+
+    /** filter that matches the temporary files **/
+    private static final FilenameFilter TEMP_FILE_FILTER = new FilenameFilter() {
+        @Override
+        public boolean accept(File dir, String filename) {
+            return filename.endsWith(FileUtils.TEMP_EXTENSION);
+        }
+    };
+}
@@ -25,6 +25,7 @@ import org.xmlpull.v1.XmlPullParserException;
 
 import java.io.IOException;
 import java.math.BigDecimal;
+import java.util.Locale;
 
 import me.aeolwyr.dsnnow.data.Dish;
 import me.aeolwyr.dsnnow.data.NetworkConfig;
@@ -37,7 +38,8 @@ import me.aeolwyr.dsnnow.data.Station;
  */
 public class ConfigParser {
     /**
-     * Parse the given XML file, usually acquired via a <code>getResources().getXml()</code> call.
+     * Parse the given XML file, usually acquired via a <code>getResources().getXml()</code> call,
+     * or a parser given the file from the class path outside Android.
      * @param parser the parser of the XML file
      * @return a network config object if the parsing is successful
      * @throws XmlPullParserException if the XML file is malformed
@@ -48,10 +50,15 @@ public class ConfigParser {
         try {
             NetworkConfig config = new NetworkConfig();
 
-            parser.next();
-            // now at the BEGIN_DOCUMENT
-            parser.nextTag();
-            // not at the START_TAG of config
+            // the resource parsers of Android report the BEGIN_DOCUMENT once more,
+            // the other parsers start from the BEGIN_DOCUMENT
+            int eventType;
+            while ((eventType = parser.next()) != XmlPullParser.START_TAG) {
+                if (eventType == XmlPullParser.END_DOCUMENT) {
+                    throw new XmlPullParserException("No config found");
+                }
+            }
+            // now at the START_TAG of config
             parser.nextTag();
             // now at the START_TAG of sites
             parser.nextTag();
@@ -63,7 +70,7 @@ public class ConfigParser {
                 while (parser.getName().equals(Dish.DISH)) {
                     Dish dish = processDish(parser);
                     station.getDishes().add(dish.getName());
-                    config.getDishes().put(dish.getName(), dish);
+                    config.addDish(dish);
 
                     parser.nextTag();
                     // now at the end of this dish
@@ -73,7 +80,7 @@ public class ConfigParser {
                 }
 
                 // station is ready
-                config.getStations().put(station.getName(), station);
+                config.addStation(station);
 
                 parser.nextTag();
                 // now at the START of the next site
@@ -86,7 +93,7 @@ public class ConfigParser {
             // now at the first spacecraft
             while (parser.getName().equals(Spacecraft.SPACECRAFT)) {
                 Spacecraft spacecraft = processSpacecraft(parser);
-                config.getSpacecrafts().put(spacecraft.getName(), spacecraft);
+                config.addSpacecraft(spacecraft);
                 parser.nextTag();
                 // now at the END
                 parser.nextTag();
@@ -135,7 +142,8 @@ public class ConfigParser {
      * @return the parsed spacecraft
      */
     private static Spacecraft processSpacecraft(XmlPullParser parser) {
-        String name = parser.getAttributeValue(null, Spacecraft.NAME).toUpperCase();
+        // not in the default locale, e.g. the Turkish one would not match the names in the states
+        String name = parser.getAttributeValue(null, Spacecraft.NAME).toUpperCase(Locale.US);
         String friendlyName = parser.getAttributeValue(null, Spacecraft.FRIENDLY_NAME);
 
         return new Spacecraft(name, friendlyName);
@@ -0,0 +1,89 @@
+/*
+ * DSN Monitor is an app to monitor the NASA Deep Space Network in real time.
+ * Copyright (c) 2016 Kaan Karaagacli
+ *
+ * This file is part of DSN Monitor.
+ *
+ * DSN Monitor is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DSN Monitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DSN Monitor.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package me.aeolwyr.dsnnow.logic;
+
+/**
+ * A period of time a dish has communicated with a spacecraft without interruption.
+ */
+public class Contact {
+    private String spacecraft;
+    private String dish;
+    private long start;
+    private long end;
+    private boolean ongoing;
+
+    /**
+     * Create a new contact.
+     * @param spacecraft the name of the spacecraft, e.g. <code>VGR1</code>
+     * @param dish the name of the dish, e.g. <code>DSS14</code>
+     * @param start the timestamp of the first state the contact is seen in
+     * @param end the timestamp of the last state the contact is seen in
+     * @param ongoing true if the contact has not ended yet
+     */
+    public Contact(String spacecraft, String dish, long start, long end, boolean ongoing) {
+        this.spacecraft = spacecraft;
+        this.dish = dish;
+        this.start = start;
+        this.end = end;
+        this.ongoing = ongoing;
+    }
+
+    /**
+     * Return the name of the spacecraft, e.g. <code>VGR1</code>.
+     * @return the name of the spacecraft
+     */
+    public String getSpacecraft() {
+        return spacecraft;
+    }
+
+    /**
+     * Return the name of the dish, e.g. <code>DSS14</code>.
+     * @return the name of the dish
+     */
+    public String getDish() {
+        return dish;
+    }
+
+    /**
+     * Return the timestamp of the first state the contact is seen in.
+     * @return the start of the contact
+     */
+    public long getStart() {
+        return start;
+    }
+
+    /**
+     * Return the timestamp of the last state the contact is seen in.
+     * @return the end of the contact, so far if it is ongoing
+     */
+    public long getEnd() {
+        return end;
+    }
+
+    /**
+     * Return whether the contact has not ended yet.
+     * @return true if the contact is ongoing
+     */
+    public boolean isOngoing() {
+        return ongoing;
+    }
+}
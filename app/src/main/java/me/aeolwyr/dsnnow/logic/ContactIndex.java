@@ -0,0 +1,355 @@
+/*
+ * DSN Monitor is an app to monitor the NASA Deep Space Network in real time.
+ * Copyright (c) 2016 Kaan Karaagacli
+ *
+ * This file is part of DSN Monitor.
+ *
+ * DSN Monitor is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DSN Monitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DSN Monitor.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package me.aeolwyr.dsnnow.logic;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+import me.aeolwyr.dsnnow.data.DishState;
+import me.aeolwyr.dsnnow.data.NetworkState;
+
+/**
+ * Inverted index from the spacecraft to the dishes they have communicated with,
+ * as a list of contacts (time intervals) per spacecraft. <br />
+ * A contact is extended as long as the pair is seen in the states. Short gaps,
+ * e.g. caused by a few failed downloads, do not end a contact. <br />
+ * The ended contacts are appended to a file, and the ongoing ones are saved separately,
+ * so that they continue after a restart. All the public functions are thread-safe.
+ * The ones that load or write the index do disk input/output, therefore they should not
+ * be used on the main thread.
+ */
+public class ContactIndex implements HistoryIndex {
+    /** name of the folder the index is kept in **/
+    public static final String DIRECTORY_NAME = "contacts";
+    private static final String ENDED_FILENAME = "ended.dat";
+    private static final String ONGOING_FILENAME = "ongoing.dat";
+
+    /** a contact not seen for longer than this is ended, in milliseconds **/
+    private static final long MAX_GAP = 5 * 60 * 1000;
+    /** the ongoing contacts are saved at least this often, in milliseconds **/
+    private static final long ONGOING_SAVE_INTERVAL = 60 * 1000;
+
+
+    private File directory;
+
+    // in-memory state, null until loaded
+    /** ended contacts of each spacecraft **/
+    private Map<String, List<Contact>> ended;
+    /** ongoing contacts, mapped by spacecraft and dish **/
+    private Map<String, Contact> ongoing;
+    /** timestamp of the newest state added, older ones are ignored **/
+    private long lastTimestamp;
+    private long lastOngoingSave;
+
+    private DataOutputStream endedOutput;
+
+    /**
+     * Create an index in the given folder. Nothing is read until it is needed.
+     * @param directory the folder to keep the index in, created if necessary
+     */
+    public ContactIndex(File directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Return the dishes communicating with the given spacecraft in a state.
+     * @param networkState the state to look in
+     * @param spacecraft the name of the spacecraft
+     * @return the names of the dishes, sorted alphabetically
+     */
+    public static List<String> findDishes(NetworkState networkState, String spacecraft) {
+        List<String> dishes = new ArrayList<>();
+        for (DishState dishState : networkState.getDishStates().values()) {
+            if (dishState != null && dishState.getSpacecraft().contains(spacecraft)) {
+                dishes.add(dishState.getName());
+            }
+        }
+        Collections.sort(dishes);
+        return dishes;
+    }
+
+    @Override
+    public synchronized boolean exists() {
+        return Marker.exists(directory);
+    }
+
+    @Override
+    public synchronized void onCapture(NetworkState networkState) {
+        try {
+            load();
+            add(networkState);
+            flush();
+        } catch (IOException ignored) {
+            // not critical, the contacts are extended by the next state
+        }
+    }
+
+    @Override
+    public synchronized void reset() throws IOException {
+        closeOutput();
+        Marker.reset(directory, ENDED_FILENAME, ONGOING_FILENAME);
+        clear();
+    }
+
+    @Override
+    public synchronized void flush() throws IOException {
+        if (endedOutput != null) endedOutput.flush();
+        if (lastTimestamp - lastOngoingSave >= ONGOING_SAVE_INTERVAL) {
+            saveOngoing();
+        }
+    }
+
+    @Override
+    public synchronized void markBuilt() throws IOException {
+        Marker.create(directory);
+    }
+
+    /**
+     * Return the names of all the spacecraft in the index.
+     * @return the names, sorted alphabetically
+     * @throws IOException if there is an input/output error
+     */
+    public synchronized List<String> getSpacecraft() throws IOException {
+        load();
+        TreeSet<String> spacecraft = new TreeSet<>(ended.keySet());
+        for (Contact contact : ongoing.values()) {
+            spacecraft.add(contact.getSpacecraft());
+        }
+        return new ArrayList<>(spacecraft);
+    }
+
+    /**
+     * Return the contacts of a spacecraft overlapping with the given time range.
+     * @param spacecraft the name of the spacecraft
+     * @param from the start of the range, inclusive
+     * @param to the end of the range, inclusive
+     * @return the contacts, from the newest to the oldest
+     * @throws IOException if there is an input/output error
+     */
+    public synchronized List<Contact> query(String spacecraft, long from, long to)
+            throws IOException {
+        load();
+        List<Contact> contacts = new ArrayList<>();
+        List<Contact> endedContacts = ended.get(spacecraft);
+        if (endedContacts != null) {
+            for (Contact contact : endedContacts) {
+                if (contact.getEnd() >= from && contact.getStart() <= to) contacts.add(contact);
+            }
+        }
+        for (Contact contact : ongoing.values()) {
+            if (contact.getSpacecraft().equals(spacecraft)
+                    && contact.getEnd() >= from && contact.getStart() <= to) {
+                contacts.add(contact);
+            }
+        }
+        Collections.sort(contacts, NEWEST_FIRST);
+        return contacts;
+    }
+
+    /**
+     * Add a state to the index, without flushing.
+     */
+    private void add(NetworkState networkState) throws IOException {
+        long timestamp = networkState.getTimestamp();
+        if (timestamp <= lastTimestamp) return;
+        lastTimestamp = timestamp;
+
+        for (DishState dishState : networkState.getDishStates().values()) {
+            if (dishState == null) continue;
+            for (String spacecraft : dishState.getSpacecraft()) {
+                String key = spacecraft + '\n' + dishState.getName();
+                Contact contact = ongoing.get(key);
+                if (contact != null && timestamp - contact.getEnd() <= MAX_GAP) {
+                    // continued
+                    ongoing.put(key, new Contact(spacecraft, dishState.getName(),
+                            contact.getStart(), timestamp, true));
+                } else {
+                    if (contact != null) end(contact);
+                    ongoing.put(key, new Contact(spacecraft, dishState.getName(),
+                            timestamp, timestamp, true));
+                    // a new contact should survive a restart
+                    lastOngoingSave = 0;
+                }
+            }
+        }
+
+        // end the contacts not seen for a while
+        Iterator<Contact> iterator = ongoing.values().iterator();
+        while (iterator.hasNext()) {
+            Contact contact = iterator.next();
+            if (timestamp - contact.getEnd() > MAX_GAP) {
+                end(contact);
+                iterator.remove();
+                lastOngoingSave = 0;
+            }
+        }
+    }
+
+    /**
+     * Move an ongoing contact to the ended ones.
+     */
+    private void end(Contact contact) throws IOException {
+        Contact endedContact = new Contact(contact.getSpacecraft(), contact.getDish(),
+                contact.getStart(), contact.getEnd(), false);
+        addEnded(endedContact);
+        writeContact(endedOutput(), endedContact);
+    }
+
+    private void addEnded(Contact contact) {
+        List<Contact> contacts = ended.get(contact.getSpacecraft());
+        if (contacts == null) {
+            contacts = new ArrayList<>();
+            ended.put(contact.getSpacecraft(), contacts);
+        }
+        contacts.add(contact);
+    }
+
+    /**
+     * Read the index from the disk, if not read yet.
+     */
+    private void load() throws IOException {
+        if (ended != null) return;
+        clear();
+
+        File endedFile = new File(directory, ENDED_FILENAME);
+        if (endedFile.exists()) {
+            long validSize = 0;
+            try (DataInputStream input = new DataInputStream(
+                    new BufferedInputStream(new FileInputStream(endedFile)))) {
+                while (true) {
+                    Contact contact = readContact(input, false);
+                    addEnded(contact);
+                    lastTimestamp = Math.max(lastTimestamp, contact.getEnd());
+                    validSize += FileUtils.getStringSize(contact.getSpacecraft())
+                            + FileUtils.getStringSize(contact.getDish()) + 8 + 8;
+                }
+            } catch (EOFException ignored) {
+                // end of the contacts
+            }
+            // drop a contact broken by a crash, the next ones are appended after it
+            if (endedFile.length() > validSize) {
+                try (RandomAccessFile file = new RandomAccessFile(endedFile, "rw")) {
+                    file.setLength(validSize);
+                }
+            }
+        }
+
+        File ongoingFile = new File(directory, ONGOING_FILENAME);
+        if (ongoingFile.exists()) {
+            try (DataInputStream input = new DataInputStream(
+                    new BufferedInputStream(new FileInputStream(ongoingFile)))) {
+                int count = input.readInt();
+                for (int i = 0; i < count; i++) {
+                    Contact contact = readContact(input, true);
+                    ongoing.put(contact.getSpacecraft() + '\n' + contact.getDish(), contact);
+                    lastTimestamp = Math.max(lastTimestamp, contact.getEnd());
+                }
+            } catch (IOException ignored) {
+                // the file is replaced atomically, this should not happen
+                // the contacts are started again by the next state otherwise
+            }
+        }
+        lastOngoingSave = lastTimestamp;
+    }
+
+    /**
+     * Replace the saved ongoing contacts with the ones in memory.
+     */
+    private void saveOngoing() throws IOException {
+        directory.mkdirs();
+        File ongoingFile = new File(directory, ONGOING_FILENAME);
+        File tempFile = FileUtils.getTempFile(ongoingFile);
+        try (DataOutputStream output = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(tempFile)))) {
+            output.writeInt(ongoing.size());
+            for (Contact contact : ongoing.values()) {
+                writeContact(output, contact);
+            }
+        }
+        FileUtils.replace(tempFile, ongoingFile);
+        lastOngoingSave = lastTimestamp;
+    }
+
+    private static void writeContact(DataOutput output, Contact contact) throws IOException {
+        FileUtils.writeString(output, contact.getSpacecraft());
+        FileUtils.writeString(output, contact.getDish());
+        output.writeLong(contact.getStart());
+        output.writeLong(contact.getEnd());
+    }
+
+    private static Contact readContact(DataInput input, boolean ongoing) throws IOException {
+        String spacecraft = FileUtils.readString(input);
+        String dish = FileUtils.readString(input);
+        long start = input.readLong();
+        long end = input.readLong();
+        return new Contact(spacecraft, dish, start, end, ongoing);
+    }
+
+    private DataOutputStream endedOutput() throws IOException {
+        if (endedOutput == null) {
+            directory.mkdirs();
+            endedOutput = new DataOutputStream(new BufferedOutputStream(
+                    new FileOutputStream(new File(directory, ENDED_FILENAME), true)));
+        }
+        return endedOutput;
+    }
+
+    private void closeOutput() throws IOException {
+        if (endedOutput != null) {
+            endedOutput.close();
+            endedOutput = null;
+        }
+    }
+
+    private void clear() {
+        ended = new HashMap<>();
+        ongoing = new HashMap<>();
+        lastTimestamp = 0;
+        lastOngoingSave = 0;
+    }
+
+    /** sorts the contacts from the newest to the oldest **/
+    private static final Comparator<Contact> NEWEST_FIRST = new Comparator<Contact>() {
+        @Override
+        public int compare(Contact lhs, Contact rhs) {
+            return Long.compare(rhs.getStart(), lhs.getStart());
+        }
+    };
+}
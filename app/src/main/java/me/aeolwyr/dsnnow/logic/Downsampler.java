@@ -0,0 +1,103 @@
+/*
+ * DSN Monitor is an app to monitor the NASA Deep Space Network in real time.
+ * Copyright (c) 2016 Kaan Karaagacli
+ *
+ * This file is part of DSN Monitor.
+ *
+ * DSN Monitor is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DSN Monitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DSN Monitor.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package me.aeolwyr.dsnnow.logic;
+
+/**
+ * Downsampling of the series to be charted, so that only about as many points as there are
+ * pixels are drawn. <br />
+ * The Largest-Triangle-Three-Buckets algorithm is used, which keeps the peaks and the dips
+ * of the series unlike averaging, so the downsampled chart looks like the original one.
+ */
+public class Downsampler {
+    /**
+     * Select the points to keep out of a range of the given series. <br />
+     * The range is divided into <code>threshold - 2</code> buckets between its first and last
+     * points, and the point forming the largest triangle with the point kept from the previous
+     * bucket and the average of the next bucket is kept from each bucket.
+     * @param x the x values, sorted in ascending order
+     * @param y the y values
+     * @param from the index of the first point of the range, inclusive
+     * @param to the index of the last point of the range, exclusive
+     * @param threshold the maximum number of points to keep, at least 3
+     * @return the indices of the kept points, in ascending order
+     */
+    public static int[] largestTriangleThreeBuckets(long[] x, double[] y, int from, int to,
+                                                    int threshold) {
+        int length = to - from;
+        if (length <= threshold || threshold < 3) {
+            // nothing to drop
+            int[] indices = new int[Math.max(length, 0)];
+            for (int i = 0; i < indices.length; i++) {
+                indices[i] = from + i;
+            }
+            return indices;
+        }
+
+        int[] indices = new int[threshold];
+        int count = 0;
+        // the first point is always kept
+        int kept = from;
+        indices[count++] = kept;
+
+        // the first and the last points are not in the buckets
+        double bucketSize = (double) (length - 2) / (threshold - 2);
+        for (int bucket = 0; bucket < threshold - 2; bucket++) {
+            int bucketStart = from + 1 + (int) (bucket * bucketSize);
+            int bucketEnd = from + 1 + (int) ((bucket + 1) * bucketSize);
+
+            // average of the next bucket, or the last point for the last bucket
+            int nextStart = bucketEnd;
+            int nextEnd = Math.min(from + 1 + (int) ((bucket + 2) * bucketSize), to);
+            if (bucket == threshold - 3) {
+                nextStart = to - 1;
+                nextEnd = to;
+            }
+            double averageX = 0;
+            double averageY = 0;
+            for (int i = nextStart; i < nextEnd; i++) {
+                // relative to the kept point, to keep the precision of the timestamps
+                averageX += x[i] - x[kept];
+                averageY += y[i];
+            }
+            averageX /= nextEnd - nextStart;
+            averageY /= nextEnd - nextStart;
+
+            // the point with the largest triangle area, doubled as only the order matters
+            double maxArea = -1;
+            int selected = bucketStart;
+            for (int i = bucketStart; i < bucketEnd; i++) {
+                double area = Math.abs((x[i] - x[kept]) * (averageY - y[kept])
+                        - averageX * (y[i] - y[kept]));
+                if (area > maxArea) {
+                    maxArea = area;
+                    selected = i;
+                }
+            }
+            kept = selected;
+            indices[count++] = kept;
+        }
+
+        // the last point is always kept
+        indices[count] = to - 1;
+        return indices;
+    }
+}
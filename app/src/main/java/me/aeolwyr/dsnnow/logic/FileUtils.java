@@ -0,0 +1,98 @@
+/*
+ * DSN Monitor is an app to monitor the NASA Deep Space Network in real time.
+ * Copyright (c) 2016 Kaan Karaagacli
+ *
+ * This file is part of DSN Monitor.
+ *
+ * DSN Monitor is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DSN Monitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DSN Monitor.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package me.aeolwyr.dsnnow.logic;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+
+/**
+ * Helpers for the files of the history and the indexes. <br />
+ * A file that is replaced as a whole is written to its temporary file first, and then
+ * renamed over it, so that a reader never sees it partially written.
+ */
+final class FileUtils {
+    /** extension of the temporary files, left behind only by a crash **/
+    static final String TEMP_EXTENSION = ".tmp";
+
+    private static final Charset CHARSET = Charset.forName("UTF-8");
+
+    private FileUtils() { }
+
+    /**
+     * Return the temporary file to write the given file through.
+     * @param file the file to be replaced
+     * @return the temporary file, next to it
+     */
+    static File getTempFile(File file) {
+        return new File(file.getPath() + TEMP_EXTENSION);
+    }
+
+    /**
+     * Replace the given file with its temporary file, which is deleted if this fails.
+     * @param tempFile the completely written temporary file
+     * @param file the file to replace
+     * @throws IOException if the temporary file cannot be renamed
+     */
+    static void replace(File tempFile, File file) throws IOException {
+        if (!tempFile.renameTo(file)) {
+            // noinspection ResultOfMethodCallIgnored
+            tempFile.delete();
+            throw new IOException("Could not rename " + tempFile);
+        }
+    }
+
+    /**
+     * Write a string in UTF-8, prefixed with its length in bytes.
+     * @param output the output to write to
+     * @param string the string, not null
+     * @throws IOException if there is an input/output error
+     */
+    static void writeString(DataOutput output, String string) throws IOException {
+        byte[] bytes = string.getBytes(CHARSET);
+        output.writeShort(bytes.length);
+        output.write(bytes);
+    }
+
+    /**
+     * Read a string written with <code>writeString</code>.
+     * @param input the input to read from
+     * @return the string
+     * @throws IOException if there is an input/output error
+     */
+    static String readString(DataInput input) throws IOException {
+        byte[] bytes = new byte[input.readUnsignedShort()];
+        input.readFully(bytes);
+        return new String(bytes, CHARSET);
+    }
+
+    /**
+     * Return the number of the bytes <code>writeString</code> writes for the given string.
+     * @param string the string, not null
+     * @return the size, including the length prefix
+     */
+    static int getStringSize(String string) {
+        return 2 + string.getBytes(CHARSET).length;
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * DSN Monitor is an app to monitor the NASA Deep Space Network in real time.
+ * Copyright (c) 2016 Kaan Karaagacli
+ *
+ * This file is part of DSN Monitor.
+ *
+ * DSN Monitor is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DSN Monitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DSN Monitor.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package me.aeolwyr.dsnnow.logic;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.util.Arrays;
+
+/**
+ * Applies the retention policy to the cached state files and the history log, and trims
+ * the log. <br />
+ * Both of them hold the same states, so they share one budget: the cached files are kept
+ * within a small share of it, for the history list and saving, and the log takes the rest.
+ * Pinned files are kept in another folder, and they are never touched. <br />
+ * The cached files are a second copy of the states, which is a deliberate trade-off: the
+ * history list, pinning and saving hand out the original files from the feed, which the log
+ * cannot give back byte for byte, as it keeps the decoded values only. The copy is limited to
+ * a quarter of the budget and thinned by the same age tiers, so it covers fewer states than
+ * the log, which the timeline and the indexes read. <br />
+ * It does disk input/output, therefore it should not be used on the main thread.
+ */
+class HistoryCompactor {
+    /** share of the budget the cached files can take at most, the rest is for the log **/
+    private static final int CACHED_FILES_SHARE = 4;
+    /** the log is thinned at most this often, as it rewrites whole segments, in ms **/
+    private static final long LOG_COMPACT_INTERVAL = 10 * 60 * 1000;
+
+    private File cacheDir;
+    private HistoryLog historyLog;
+    /** time the log was last thinned, 0 if never **/
+    private long lastLogCompact;
+
+    /**
+     * Create a new compactor.
+     * @param cacheDir cache folder the state files are stored in
+     * @param historyLog history log to trim
+     */
+    HistoryCompactor(File cacheDir, HistoryLog historyLog) {
+        this.cacheDir = cacheDir;
+        this.historyLog = historyLog;
+    }
+
+    /**
+     * Delete the states that are not to be kept anymore.
+     * @param budget the total size of the history, in bytes
+     */
+    void compact(long budget) {
+        long now = System.currentTimeMillis();
+        File[] files = cacheDir.listFiles(STATE_FILE_FILTER);
+        if (files == null) files = new File[0];
+        // file names are timestamps, sort them from the oldest to the newest
+        Arrays.sort(files);
+
+        long[] timestamps = new long[files.length];
+        long[] sizes = new long[files.length];
+        for (int i = 0; i < files.length; i++) {
+            String name = files[i].getName();
+            timestamps[i] = Long.parseLong(name.substring(0, name.lastIndexOf('.')));
+            sizes[i] = files[i].length();
+        }
+
+        boolean[] keep = new RetentionPolicy(budget / CACHED_FILES_SHARE)
+                .select(timestamps, sizes, now);
+        long filesSize = 0;
+        for (int i = 0; i < files.length; i++) {
+            if (keep[i]) {
+                filesSize += sizes[i];
+            } else {
+                // noinspection ResultOfMethodCallIgnored
+                files[i].delete();
+            }
+        }
+
+        // the log is thinned by the same age tiers, the budget is applied by trimming below
+        if (now - lastLogCompact >= LOG_COMPACT_INTERVAL || now < lastLogCompact) {
+            historyLog.compact(new RetentionPolicy(Long.MAX_VALUE), now);
+            lastLogCompact = now;
+        }
+        // the log takes whatever is left, so that both together stay within the budget
+        historyLog.trim(budget - filesSize);
+    }
+
+    /** filter that matches the cached files **/
+    private static final FilenameFilter STATE_FILE_FILTER = new FilenameFilter() {
+        @Override
+        public boolean accept(File dir, String filename) {
+            return filename.matches("^\\d+\\.xml$");
+        }
+    };
+}
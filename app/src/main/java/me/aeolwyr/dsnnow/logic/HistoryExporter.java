@@ -0,0 +1,386 @@
+/*
+ * DSN Monitor is an app to monitor the NASA Deep Space Network in real time.
+ * Copyright (c) 2016 Kaan Karaagacli
+ *
+ * This file is part of DSN Monitor.
+ *
+ * DSN Monitor is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DSN Monitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DSN Monitor.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package me.aeolwyr.dsnnow.logic;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import me.aeolwyr.dsnnow.data.DishState;
+import me.aeolwyr.dsnnow.data.NetworkState;
+import me.aeolwyr.dsnnow.data.Signal;
+import me.aeolwyr.dsnnow.data.StationState;
+import me.aeolwyr.dsnnow.data.Target;
+
+/**
+ * Exports a time range of the history as a table, either as CSV or in a compact columnar
+ * binary format. <br />
+ * There is a row for each spacecraft of each dish in each state, and a single row with no
+ * spacecraft for an idle dish. The values are in the units of the data classes, as the
+ * column names say. <br />
+ * The states are read and written one by one, so the whole range is never in memory.
+ * It does disk input/output, therefore it should not be used on the main thread.
+ *
+ * <p>The columnar format is laid out as follows, all numbers big endian:</p>
+ * <ul>
+ * <li>the magic number <code>DSNC</code>, the version byte, the number of columns as a short,
+ * and for each column its type byte (0 for a number, 1 for a text) and its name
+ * in modified UTF-8</li>
+ * <li>blocks of up to <code>BLOCK_SIZE</code> rows, each starting with the number of
+ * the rows as a varint, and followed by the values of each column in turn. Numbers are
+ * written as zigzag varint differences from the previous present number of the same block,
+ * plus one, where zero means a missing number. Texts are
+ * written as varint indices of a dictionary built throughout the file, where an index equal
+ * to the size of the dictionary adds a new text, written as its varint length and UTF-8
+ * bytes</li>
+ * <li>a block of zero rows, marking the end</li>
+ * </ul>
+ * Missing numbers, e.g. the power of a signal the dish does not have, are empty in CSV.
+ */
+public class HistoryExporter {
+    /**
+     * Listener for the progress of an export.
+     */
+    public interface ProgressListener {
+        /**
+         * Called after each state is exported, on the exporting thread.
+         * @param done the number of the states exported so far
+         * @param total the number of the states in the range
+         * @return false to stop the export, true to continue
+         */
+        boolean onProgress(int done, int total);
+    }
+
+    /** export format: comma-separated values **/
+    public static final int FORMAT_CSV = 1;
+    /** export format: compact columnar binary **/
+    public static final int FORMAT_COLUMNAR = 2;
+
+    /** "DSNC", the first bytes of a columnar file **/
+    private static final int MAGIC = 0x44534E43;
+    private static final int VERSION = 1;
+    /** number of rows per block of a columnar file **/
+    private static final int BLOCK_SIZE = 4096;
+
+    /** value of the missing numbers in a row **/
+    private static final long MISSING = Long.MIN_VALUE;
+
+    private static final String[] COLUMNS = {
+            "timestamp_ms", "station", "dish", "azimuth_centidegrees",
+            "elevation_centidegrees", "wind_speed_decameters_per_hour", "mspa", "array", "ddor",
+            "spacecraft", "down_signal_type", "down_data_rate_microbits_per_second",
+            "down_frequency_microhertz", "down_power_micro_dbm", "up_signal_type",
+            "up_power_milliwatts", "upleg_range_meters", "downleg_range_meters",
+            "rtlt_microseconds"
+    };
+    /** true for the text columns, false for the numeric ones **/
+    private static final boolean[] TEXT_COLUMNS = {
+            false, true, true, false,
+            false, false, false, false, false,
+            true, true, false,
+            false, false, true,
+            false, false, false,
+            false
+    };
+
+    private static final Charset CHARSET = Charset.forName("UTF-8");
+
+    /**
+     * Receives the rows of the exported states.
+     */
+    private interface RowWriter {
+        /**
+         * Write a row. The arrays are reused for the next row.
+         * @param numbers the values of the numeric columns, indexed by column
+         * @param texts the values of the text columns, indexed by column
+         */
+        void writeRow(long[] numbers, String[] texts) throws IOException;
+
+        /**
+         * Write the remaining rows, without closing the stream.
+         */
+        void finish() throws IOException;
+    }
+
+    private HistoryScanner historyScanner;
+
+    /**
+     * Create a new exporter.
+     * @param historyScanner the scanner to read the history with
+     */
+    public HistoryExporter(HistoryScanner historyScanner) {
+        this.historyScanner = historyScanner;
+    }
+
+    /**
+     * Export the states in the given time range to a stream.
+     * @param from the start of the range, inclusive
+     * @param to the end of the range, inclusive
+     * @param format the format to write, <code>FORMAT_CSV</code> or <code>FORMAT_COLUMNAR</code>
+     * @param outputStream the stream to write to, not closed afterwards
+     * @param listener the listener to report the progress to, or null
+     * @return the number of the states exported, less than the total if stopped
+     * @throws IOException if there is an input/output error
+     */
+    public int export(long from, long to, int format, OutputStream outputStream,
+                      ProgressListener listener) throws IOException {
+        long[] timestamps = historyScanner.getTimestamps();
+        int start = 0;
+        while (start < timestamps.length && timestamps[start] < from) start++;
+        int end = start;
+        while (end < timestamps.length && timestamps[end] <= to) end++;
+        int total = end - start;
+
+        RowWriter rowWriter = format == FORMAT_COLUMNAR
+                ? new ColumnarWriter(outputStream)
+                : new CsvWriter(outputStream);
+        long[] numbers = new long[COLUMNS.length];
+        String[] texts = new String[COLUMNS.length];
+        int done = 0;
+        for (int i = start; i < end; i++) {
+            NetworkState networkState;
+            try {
+                networkState = historyScanner.read(timestamps[i]);
+            } catch (Exception e) {
+                // deleted or broken in the meantime, skip it
+                networkState = null;
+            }
+            if (networkState != null) {
+                writeState(networkState, numbers, texts, rowWriter);
+            }
+            done++;
+            if (listener != null && !listener.onProgress(done, total)) break;
+        }
+        rowWriter.finish();
+        return done;
+    }
+
+    /**
+     * Write the rows of a state.
+     */
+    private static void writeState(NetworkState networkState, long[] numbers, String[] texts,
+                                   RowWriter rowWriter) throws IOException {
+        for (StationState stationState : networkState.getStationStates().values()) {
+            for (String dishName : stationState.getDishStates()) {
+                DishState dishState = networkState.getDishStates().get(dishName);
+                // unused dish
+                if (dishState == null) continue;
+
+                numbers[0] = networkState.getTimestamp();
+                texts[1] = stationState.getName();
+                texts[2] = dishState.getName();
+                numbers[3] = dishState.getAzimuthAngle();
+                numbers[4] = dishState.getElevationAngle();
+                numbers[5] = dishState.getWindSpeed();
+                numbers[6] = dishState.isMSPA() ? 1 : 0;
+                numbers[7] = dishState.isArray() ? 1 : 0;
+                numbers[8] = dishState.isDDOR() ? 1 : 0;
+
+                List<String> spacecraft = dishState.getSpacecraft();
+                if (spacecraft.isEmpty()) {
+                    // idle dish
+                    setSpacecraft(dishState, "", numbers, texts);
+                    rowWriter.writeRow(numbers, texts);
+                }
+                for (String name : spacecraft) {
+                    setSpacecraft(dishState, name, numbers, texts);
+                    rowWriter.writeRow(numbers, texts);
+                }
+            }
+        }
+    }
+
+    /**
+     * Fill the spacecraft columns of a row.
+     */
+    private static void setSpacecraft(DishState dishState, String spacecraft, long[] numbers,
+                                      String[] texts) {
+        Signal down = SpacecraftSeries.findDownSignal(dishState, spacecraft);
+        Signal up = findUpSignal(dishState, spacecraft);
+        Target target = SpacecraftSeries.findTarget(dishState, spacecraft);
+
+        texts[9] = spacecraft;
+        texts[10] = down != null ? down.getSignalType() : "";
+        numbers[11] = down != null ? down.getDataRate() : MISSING;
+        numbers[12] = down != null ? down.getFrequency() : MISSING;
+        numbers[13] = down != null ? down.getPower() : MISSING;
+        texts[14] = up != null ? up.getSignalType() : "";
+        numbers[15] = up != null ? up.getPower() : MISSING;
+        numbers[16] = target != null ? target.getUplegRange() : MISSING;
+        numbers[17] = target != null ? target.getDownlegRange() : MISSING;
+        numbers[18] = target != null ? target.getRTLT() : MISSING;
+    }
+
+    private static Signal findUpSignal(DishState dishState, String spacecraft) {
+        for (Signal signal : dishState.getUpSignals()) {
+            if (spacecraft.equals(signal.getSpacecraft())) return signal;
+        }
+        return null;
+    }
+
+    /**
+     * Writes the rows as comma-separated values, with a header row.
+     */
+    private static class CsvWriter implements RowWriter {
+        private Writer writer;
+
+        CsvWriter(OutputStream outputStream) throws IOException {
+            // the stream is buffered by the writer
+            writer = new OutputStreamWriter(outputStream, CHARSET);
+            for (int i = 0; i < COLUMNS.length; i++) {
+                if (i > 0) writer.write(',');
+                writer.write(COLUMNS[i]);
+            }
+            writer.write("\r\n");
+        }
+
+        @Override
+        public void writeRow(long[] numbers, String[] texts) throws IOException {
+            for (int i = 0; i < COLUMNS.length; i++) {
+                if (i > 0) writer.write(',');
+                if (TEXT_COLUMNS[i]) {
+                    writeText(texts[i]);
+                } else if (numbers[i] != MISSING) {
+                    writer.write(Long.toString(numbers[i]));
+                }
+            }
+            writer.write("\r\n");
+        }
+
+        private void writeText(String text) throws IOException {
+            if (text == null) return;
+            if (text.indexOf(',') < 0 && text.indexOf('"') < 0
+                    && text.indexOf('\n') < 0 && text.indexOf('\r') < 0) {
+                writer.write(text);
+                return;
+            }
+            // quoted, with the quotes doubled
+            writer.write('"');
+            writer.write(text.replace("\"", "\"\""));
+            writer.write('"');
+        }
+
+        @Override
+        public void finish() throws IOException {
+            writer.flush();
+        }
+    }
+
+    /**
+     * Writes the rows in the columnar format, a block at a time.
+     */
+    private static class ColumnarWriter implements RowWriter {
+        private DataOutputStream output;
+        /** the rows of the current block, indexed by column and then by row **/
+        private long[][] numbers = new long[COLUMNS.length][];
+        private String[][] texts = new String[COLUMNS.length][];
+        private int size;
+        /** indices of the texts written so far **/
+        private Map<String, Integer> dictionary = new HashMap<>();
+
+        ColumnarWriter(OutputStream outputStream) throws IOException {
+            output = new DataOutputStream(outputStream);
+            output.writeInt(MAGIC);
+            output.writeByte(VERSION);
+            output.writeShort(COLUMNS.length);
+            for (int i = 0; i < COLUMNS.length; i++) {
+                output.writeByte(TEXT_COLUMNS[i] ? 1 : 0);
+                output.writeUTF(COLUMNS[i]);
+                if (TEXT_COLUMNS[i]) {
+                    texts[i] = new String[BLOCK_SIZE];
+                } else {
+                    numbers[i] = new long[BLOCK_SIZE];
+                }
+            }
+        }
+
+        @Override
+        public void writeRow(long[] rowNumbers, String[] rowTexts) throws IOException {
+            for (int i = 0; i < COLUMNS.length; i++) {
+                if (TEXT_COLUMNS[i]) {
+                    texts[i][size] = rowTexts[i] != null ? rowTexts[i] : "";
+                } else {
+                    numbers[i][size] = rowNumbers[i];
+                }
+            }
+            size++;
+            if (size == BLOCK_SIZE) writeBlock();
+        }
+
+        private void writeBlock() throws IOException {
+            HistoryLog.writeVarLong(output, size);
+            for (int i = 0; i < COLUMNS.length; i++) {
+                if (TEXT_COLUMNS[i]) {
+                    for (int row = 0; row < size; row++) {
+                        writeText(texts[i][row]);
+                    }
+                } else {
+                    long previous = 0;
+                    for (int row = 0; row < size; row++) {
+                        long value = numbers[i][row];
+                        if (value == MISSING) {
+                            HistoryLog.writeVarLong(output, 0);
+                            continue;
+                        }
+                        long difference = value - previous;
+                        HistoryLog.writeVarLong(output,
+                                ((difference << 1) ^ (difference >> 63)) + 1);
+                        previous = value;
+                    }
+                }
+            }
+            size = 0;
+        }
+
+        /**
+         * Write the dictionary index of a text, adding it to the dictionary at its
+         * first occurrence.
+         */
+        private void writeText(String text) throws IOException {
+            Integer index = dictionary.get(text);
+            if (index != null) {
+                HistoryLog.writeVarLong(output, index);
+                return;
+            }
+            index = dictionary.size();
+            dictionary.put(text, index);
+            HistoryLog.writeVarLong(output, index);
+            byte[] bytes = text.getBytes(CHARSET);
+            HistoryLog.writeVarLong(output, bytes.length);
+            output.write(bytes);
+        }
+
+        @Override
+        public void finish() throws IOException {
+            if (size > 0) writeBlock();
+            // end of the file
+            HistoryLog.writeVarLong(output, 0);
+            output.flush();
+        }
+    }
+}
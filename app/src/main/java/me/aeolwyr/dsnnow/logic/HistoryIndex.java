@@ -0,0 +1,104 @@
+/*
+ * DSN Monitor is an app to monitor the NASA Deep Space Network in real time.
+ * Copyright (c) 2016 Kaan Karaagacli
+ *
+ * This file is part of DSN Monitor.
+ *
+ * DSN Monitor is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DSN Monitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DSN Monitor.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package me.aeolwyr.dsnnow.logic;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * A structure built from the downloaded states, which can be rebuilt from the history
+ * when it does not exist yet, e.g. after an update of the application. <br />
+ * The states are given through <code>onCapture</code>, both during a rebuild and
+ * afterwards, on the capture writer thread.
+ */
+public interface HistoryIndex extends CaptureWriter.Consumer {
+    /**
+     * Return whether the index is saved on the disk, i.e. it was completely built before.
+     * @return true if the index exists
+     */
+    boolean exists();
+
+    /**
+     * Discard the index, to be followed by the states of the whole history.
+     * @throws IOException if there is an input/output error
+     */
+    void reset() throws IOException;
+
+    /**
+     * Write the buffered changes to the disk.
+     * @throws IOException if there is an input/output error
+     */
+    void flush() throws IOException;
+
+    /**
+     * Record that the index is built from the whole history and flushed, so that it
+     * exists from then on, until it is reset. An index interrupted during a rebuild
+     * does not exist, and it is rebuilt on the next launch.
+     * @throws IOException if there is an input/output error
+     */
+    void markBuilt() throws IOException;
+
+    /**
+     * The file marking an index as completely built, in the folder of the index.
+     */
+    final class Marker {
+        private static final String FILENAME = "built";
+
+        private Marker() { }
+
+        /**
+         * Return whether the index in the given folder is marked as built.
+         * @param directory the folder of the index
+         * @return true if the marker exists
+         */
+        static boolean exists(File directory) {
+            return new File(directory, FILENAME).exists();
+        }
+
+        /**
+         * Mark the index in the given folder as built, see <code>markBuilt</code>.
+         * @param directory the folder of the index, created if necessary
+         * @throws IOException if there is an input/output error
+         */
+        static void create(File directory) throws IOException {
+            directory.mkdirs();
+            // noinspection ResultOfMethodCallIgnored
+            new File(directory, FILENAME).createNewFile();
+        }
+
+        /**
+         * Delete the marker and then the given files of the index, see <code>reset</code>.
+         * The marker goes first, so the index does not exist until it is built again,
+         * even if this is interrupted.
+         * @param directory the folder of the index
+         * @param filenames the names of the files of the index
+         */
+        static void reset(File directory, String... filenames) {
+            // noinspection ResultOfMethodCallIgnored
+            new File(directory, FILENAME).delete();
+            for (String filename : filenames) {
+                // noinspection ResultOfMethodCallIgnored
+                new File(directory, filename).delete();
+            }
+        }
+    }
+}
@@ -0,0 +1,590 @@
+/*
+ * DSN Monitor is an app to monitor the NASA Deep Space Network in real time.
+ * Copyright (c) 2016 Kaan Karaagacli
+ *
+ * This file is part of DSN Monitor.
+ *
+ * DSN Monitor is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DSN Monitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DSN Monitor.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package me.aeolwyr.dsnnow.logic;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+
+import me.aeolwyr.dsnnow.data.NetworkState;
+
+/**
+ * Compact store of the network state history. <br />
+ * States are stored in segment files, each one starting with a keyframe (a full state,
+ * see <code>StateCodec</code>). The states after a keyframe are stored as deltas, which only
+ * contain the values that are changed since the previous state. A new keyframe is written
+ * periodically, or when the structure of the network changes (e.g. a new target appears).
+ * A state is read by seeking to the nearest keyframe before it, and applying the deltas
+ * up to that state. <br />
+ * All the public functions are thread-safe.
+ */
+public class HistoryLog {
+    /** name of the folder the segments are stored in **/
+    public static final String DIRECTORY_NAME = "history";
+    private static final String SEGMENT_EXTENSION = ".seg";
+
+    /** a new keyframe is written after this many deltas **/
+    private static final int KEYFRAME_INTERVAL = 60;
+    /** a new segment is started when the current one is larger than this, in bytes **/
+    private static final int SEGMENT_SIZE = 64 * 1024;
+
+    // record types
+    private static final int KEYFRAME = 1;
+    private static final int DELTA = 2;
+    /** type, timestamp and payload length **/
+    private static final int HEADER_SIZE = 1 + 8 + 4;
+
+    private File directory;
+
+    // index of all the records, sorted by their timestamps
+    // null until the first access, see loadIndex()
+    private int size;
+    private long[] timestamps;
+    /** segment (i.e. its first timestamp) of each record **/
+    private long[] segments;
+    /** position of each record in its segment **/
+    private int[] offsets;
+    private boolean[] keyframes;
+
+    // writer state
+    private File currentSegment;
+    private long currentSegmentSize;
+    private NetworkState lastWritten;
+    private long[] lastWrittenValues;
+    private int deltasSinceKeyframe;
+
+    /** incremented whenever the index is rebuilt, so that the cursors can detect it **/
+    private long generation;
+    /** cursor of <code>read</code>, guarded by itself **/
+    private final Cursor cursor = new Cursor();
+
+    /**
+     * A position in the log, which makes reading the states in order cheap. Each thread
+     * reading the log in order should use its own cursor, the segments are read without
+     * holding the lock of the log. <br />
+     * A cursor is not thread-safe itself.
+     */
+    public class Cursor {
+        // index of the last read state, valid for the generation of the index below
+        private int lastIndex = -1;
+        private long lastGeneration;
+        private NetworkState template;
+        private long[] values;
+
+        private Cursor() { }
+
+        /**
+         * Read the state with the given timestamp. Reading the states in order is cheaper,
+         * as only one delta needs to be applied each time.
+         * @param timestamp the timestamp of the state
+         * @return the state, or null if it is not in the log
+         * @throws IOException if there is an input/output error, or the segment is
+         * rewritten during the read
+         */
+        public NetworkState read(long timestamp) throws IOException {
+            int start;
+            int index;
+            long segment;
+            int[] recordOffsets;
+            long readGeneration;
+            synchronized (HistoryLog.this) {
+                loadIndex();
+                index = Arrays.binarySearch(timestamps, 0, size, timestamp);
+                if (index < 0) return null;
+                if (lastGeneration != generation) lastIndex = -1;
+
+                segment = segments[index];
+                if (lastIndex >= 0 && lastIndex < index && segments[lastIndex] == segment
+                        && !hasKeyframe(lastIndex, index)) {
+                    // continue from the last read state
+                    start = lastIndex + 1;
+                } else {
+                    // seek to the nearest keyframe, which is always in the same segment
+                    start = index;
+                    while (!keyframes[start] && start > 0 && segments[start - 1] == segment) {
+                        start--;
+                    }
+                    if (!keyframes[start]) {
+                        throw new IOException("No keyframe before " + timestamp);
+                    }
+                }
+                recordOffsets = Arrays.copyOfRange(offsets, start, index + 1);
+                readGeneration = generation;
+            }
+
+            lastIndex = -1;
+            try (RandomAccessFile file = new RandomAccessFile(segmentFile(segment), "r")) {
+                file.seek(recordOffsets[0]);
+                DataInputStream input = new DataInputStream(new BufferedInputStream(
+                        new FileInputStream(file.getFD())));
+                long position = recordOffsets[0];
+                for (int offset : recordOffsets) {
+                    // skip the records left out of the index
+                    while (position < offset) {
+                        int skipped = input.skipBytes((int) (offset - position));
+                        if (skipped <= 0) throw new EOFException();
+                        position += skipped;
+                    }
+                    int type = input.readByte();
+                    input.readLong();
+                    int length = input.readInt();
+                    if (type == KEYFRAME) {
+                        template = StateCodec.read(new DataInputStream(
+                                new ByteArrayInputStream(readPayload(input, length))));
+                        values = StateValues.extract(template);
+                    } else {
+                        readDelta(input, values, length);
+                    }
+                    position += HEADER_SIZE + length;
+                }
+            }
+
+            synchronized (HistoryLog.this) {
+                // the segment might have been rewritten or deleted meanwhile
+                if (generation != readGeneration) {
+                    throw new IOException("History log changed during the read");
+                }
+            }
+            lastIndex = index;
+            lastGeneration = readGeneration;
+            return StateValues.rebuild(template, values, timestamp);
+        }
+    }
+
+    /**
+     * Create a log in the given folder. Nothing is read until it is needed.
+     * @param directory the folder to keep the segments in, created if necessary
+     */
+    public HistoryLog(File directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Append a state to the end of the log. States older than the newest one are ignored.
+     * The state is not synced to the disk until <code>sync</code> is called.
+     * @param networkState the state to append
+     * @throws IOException if there is an input/output error
+     */
+    public synchronized void append(NetworkState networkState) throws IOException {
+        loadIndex();
+        long timestamp = networkState.getTimestamp();
+        if (size > 0 && timestamp <= timestamps[size - 1]) return;
+
+        long[] values = StateValues.extract(networkState);
+        boolean keyframe = lastWritten == null
+                || deltasSinceKeyframe >= KEYFRAME_INTERVAL
+                || !StateValues.sameStructure(lastWritten, networkState);
+
+        ByteArrayOutputStream payload = new ByteArrayOutputStream();
+        DataOutputStream payloadOutput = new DataOutputStream(payload);
+        if (keyframe) {
+            StateCodec.write(networkState, payloadOutput);
+        } else {
+            writeDelta(payloadOutput, lastWrittenValues, values);
+        }
+
+        // start a new segment with a keyframe if the current one is full
+        // after a restart, always start a new one, the last one might end with a broken record
+        if (currentSegment == null || (keyframe && currentSegmentSize >= SEGMENT_SIZE)) {
+            directory.mkdirs();
+            currentSegment = new File(directory, timestamp + SEGMENT_EXTENSION);
+            currentSegmentSize = 0;
+        }
+
+        try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(currentSegment, true)))) {
+            writeRecord(output, keyframe, timestamp, payload);
+        }
+
+        addToIndex(timestamp, segmentOf(currentSegment), (int) currentSegmentSize, keyframe);
+        currentSegmentSize += HEADER_SIZE + payload.size();
+        lastWritten = networkState;
+        lastWrittenValues = values;
+        deltasSinceKeyframe = keyframe ? 0 : deltasSinceKeyframe + 1;
+    }
+
+    /**
+     * Sync the segment being written to the disk, so that the states appended so far
+     * survive a crash. Appending does not sync by itself, so that a batch of states
+     * can be synced at once.
+     * @throws IOException if there is an input/output error
+     */
+    public synchronized void sync() throws IOException {
+        if (currentSegment == null || !currentSegment.exists()) return;
+        try (RandomAccessFile file = new RandomAccessFile(currentSegment, "rw")) {
+            file.getFD().sync();
+        }
+    }
+
+    /**
+     * Return the timestamps of all the states in the log, from the oldest to the newest.
+     * @return the timestamps
+     */
+    public synchronized long[] getTimestamps() {
+        loadIndex();
+        return Arrays.copyOf(timestamps, size);
+    }
+
+    /**
+     * Return whether a state with the given timestamp is in the log.
+     * @param timestamp the timestamp to look for
+     * @return true if the state is in the log
+     */
+    public synchronized boolean contains(long timestamp) {
+        loadIndex();
+        return Arrays.binarySearch(timestamps, 0, size, timestamp) >= 0;
+    }
+
+    /**
+     * Read the state with the given timestamp, with a cursor shared by the callers of this.
+     * See <code>Cursor.read</code>.
+     * @param timestamp the timestamp of the state
+     * @return the state, or null if it is not in the log
+     * @throws IOException if there is an input/output error
+     */
+    public NetworkState read(long timestamp) throws IOException {
+        synchronized (cursor) {
+            return cursor.read(timestamp);
+        }
+    }
+
+    /**
+     * Create a new cursor, e.g. for each thread reading the log at the same time.
+     * @return the new cursor
+     */
+    public Cursor newCursor() {
+        return new Cursor();
+    }
+
+    /**
+     * Return the total size of the segments.
+     * @return the size of the log, in bytes
+     */
+    public synchronized long getSize() {
+        long total = 0;
+        for (File file : listSegments()) {
+            total += file.length();
+        }
+        return total;
+    }
+
+    /**
+     * Delete the oldest segments until the log fits in the given size.
+     * The segment being written is never deleted.
+     * @param maxSize the maximum size of the log, in bytes
+     */
+    public synchronized void trim(long maxSize) {
+        File[] files = listSegments();
+        // file names are timestamps, sort them from the oldest to the newest
+        Arrays.sort(files);
+        long total = 0;
+        for (File file : files) {
+            total += file.length();
+        }
+        boolean deleted = false;
+        for (int i = 0; i < files.length - 1 && total > maxSize; i++) {
+            if (files[i].equals(currentSegment)) break;
+            total -= files[i].length();
+            deleted |= files[i].delete();
+        }
+        if (deleted) {
+            // rebuild the index on the next access
+            timestamps = null;
+            generation++;
+        }
+    }
+
+    /**
+     * Thin out the older states in the log according to the given policy. Each segment
+     * that has states to drop is rewritten with only the kept states, starting with
+     * a keyframe. The segment being written is never rewritten.
+     * @param policy the policy that selects the states to keep, the sizes given to it are 0
+     * @param now the current time, which the ages are calculated from
+     */
+    public synchronized void compact(RetentionPolicy policy, long now) {
+        loadIndex();
+        boolean[] keep = policy.select(Arrays.copyOf(timestamps, size), new long[size], now);
+
+        boolean changed = false;
+        int start = 0;
+        while (start < size) {
+            // find the records of this segment
+            int end = start;
+            while (end < size && segments[end] == segments[start]) end++;
+            File file = segmentFile(segments[start]);
+            boolean dropped = false;
+            for (int i = start; i < end; i++) {
+                dropped |= !keep[i];
+            }
+            if (dropped && !file.equals(currentSegment)) {
+                try {
+                    rewriteSegment(file, start, end, keep);
+                } catch (IOException ignored) {
+                    // not critical, the segment is kept as it is
+                }
+                changed = true;
+            }
+            start = end;
+        }
+
+        if (changed) {
+            // rebuild the index on the next access
+            timestamps = null;
+            generation++;
+        }
+    }
+
+    /**
+     * Replace a segment with the kept states in it, or delete it if none of them are kept.
+     */
+    private void rewriteSegment(File file, int start, int end, boolean[] keep)
+            throws IOException {
+        // read the kept states first, the index is needed for that
+        Cursor reader = new Cursor();
+        NetworkState[] states = new NetworkState[end - start];
+        int count = 0;
+        for (int i = start; i < end; i++) {
+            if (keep[i]) states[count++] = reader.read(timestamps[i]);
+        }
+        if (count == 0) {
+            if (!file.delete()) throw new IOException("Could not delete " + file);
+            return;
+        }
+
+        File tempFile = FileUtils.getTempFile(file);
+        try (FileOutputStream fileOutput = new FileOutputStream(tempFile)) {
+            DataOutputStream output = new DataOutputStream(new BufferedOutputStream(fileOutput));
+            NetworkState previous = null;
+            long[] previousValues = null;
+            int deltas = 0;
+            for (int i = 0; i < count; i++) {
+                NetworkState networkState = states[i];
+                long[] values = StateValues.extract(networkState);
+                boolean keyframe = previous == null || deltas >= KEYFRAME_INTERVAL
+                        || !StateValues.sameStructure(previous, networkState);
+                ByteArrayOutputStream payload = new ByteArrayOutputStream();
+                DataOutputStream payloadOutput = new DataOutputStream(payload);
+                if (keyframe) {
+                    StateCodec.write(networkState, payloadOutput);
+                } else {
+                    writeDelta(payloadOutput, previousValues, values);
+                }
+                writeRecord(output, keyframe, networkState.getTimestamp(), payload);
+                previous = networkState;
+                previousValues = values;
+                deltas = keyframe ? 0 : deltas + 1;
+            }
+            output.flush();
+            fileOutput.getFD().sync();
+        }
+        FileUtils.replace(tempFile, file);
+    }
+
+    private static void writeRecord(DataOutputStream output, boolean keyframe, long timestamp,
+                                    ByteArrayOutputStream payload) throws IOException {
+        output.writeByte(keyframe ? KEYFRAME : DELTA);
+        output.writeLong(timestamp);
+        output.writeInt(payload.size());
+        payload.writeTo(output);
+    }
+
+    /**
+     * Build the index by reading the headers of all the records, if not built yet.
+     */
+    private void loadIndex() {
+        if (timestamps != null) return;
+        size = 0;
+        timestamps = new long[256];
+        segments = new long[256];
+        offsets = new int[256];
+        keyframes = new boolean[256];
+
+        // delete the segments left half rewritten by a crash
+        File[] tempFiles = directory.listFiles(TEMP_FILE_FILTER);
+        if (tempFiles != null) {
+            for (File file : tempFiles) {
+                // noinspection ResultOfMethodCallIgnored
+                file.delete();
+            }
+        }
+
+        File[] files = listSegments();
+        Arrays.sort(files);
+        for (File file : files) {
+            long segment = segmentOf(file);
+            try (DataInputStream input = new DataInputStream(
+                    new BufferedInputStream(new FileInputStream(file)))) {
+                int offset = 0;
+                // whether the keyframe the next delta is based on is in the index
+                boolean hasKeyframe = false;
+                while (true) {
+                    int type = input.readByte();
+                    long timestamp = input.readLong();
+                    int length = input.readInt();
+                    if (input.skipBytes(length) < length) break;
+                    // skip the records out of order, e.g. after a clock change,
+                    // and the deltas that cannot be applied without a skipped keyframe
+                    boolean inOrder = size == 0 || timestamp > timestamps[size - 1];
+                    if (type == KEYFRAME) hasKeyframe = inOrder;
+                    if (inOrder && hasKeyframe) {
+                        addToIndex(timestamp, segment, offset, type == KEYFRAME);
+                    }
+                    offset += HEADER_SIZE + length;
+                }
+            } catch (EOFException ignored) {
+                // end of the segment, or a broken record at the end of it
+            } catch (IOException ignored) {
+                // unreadable segment, skip it
+            }
+        }
+    }
+
+    private void addToIndex(long timestamp, long segment, int offset, boolean keyframe) {
+        if (size == timestamps.length) {
+            int capacity = size * 2;
+            timestamps = Arrays.copyOf(timestamps, capacity);
+            segments = Arrays.copyOf(segments, capacity);
+            offsets = Arrays.copyOf(offsets, capacity);
+            keyframes = Arrays.copyOf(keyframes, capacity);
+        }
+        timestamps[size] = timestamp;
+        segments[size] = segment;
+        offsets[size] = offset;
+        keyframes[size] = keyframe;
+        size++;
+    }
+
+    /**
+     * Check whether there is a keyframe after the first index, up to the second one.
+     */
+    private boolean hasKeyframe(int after, int upTo) {
+        for (int i = after + 1; i <= upTo; i++) {
+            if (keyframes[i]) return true;
+        }
+        return false;
+    }
+
+    private File[] listSegments() {
+        File[] files = directory.listFiles(SEGMENT_FILTER);
+        return files != null ? files : new File[0];
+    }
+
+    private File segmentFile(long segment) {
+        return new File(directory, segment + SEGMENT_EXTENSION);
+    }
+
+    private static long segmentOf(File file) {
+        String name = file.getName();
+        return Long.parseLong(name.substring(0, name.length() - SEGMENT_EXTENSION.length()));
+    }
+
+    /** filter that matches the segment files **/
+    private static final FilenameFilter SEGMENT_FILTER = new FilenameFilter() {
+        @Override
+        public boolean accept(File dir, String filename) {
+            return filename.matches("^\\d+\\.seg$");
+        }
+    };
+
+    /** filter that matches the segments being rewritten **/
+    private static final FilenameFilter TEMP_FILE_FILTER = new FilenameFilter() {
+        @Override
+        public boolean accept(File dir, String filename) {
+            return filename.endsWith(SEGMENT_EXTENSION + FileUtils.TEMP_EXTENSION);
+        }
+    };
+
+    /**
+     * Write the differences between two value arrays of the same length, as a list of
+     * (distance to the previous changed index, difference) pairs.
+     */
+    private static void writeDelta(DataOutput output, long[] previous, long[] current)
+            throws IOException {
+        int changed = 0;
+        for (int i = 0; i < current.length; i++) {
+            if (current[i] != previous[i]) changed++;
+        }
+        writeVarLong(output, changed);
+        int lastIndex = 0;
+        for (int i = 0; i < current.length; i++) {
+            if (current[i] != previous[i]) {
+                writeVarLong(output, i - lastIndex);
+                // zigzag encoding, so that small negative differences are also short
+                long difference = current[i] - previous[i];
+                writeVarLong(output, (difference << 1) ^ (difference >> 63));
+                lastIndex = i;
+            }
+        }
+    }
+
+    /**
+     * Apply a delta written by <code>writeDelta</code> to the given values.
+     */
+    private static void readDelta(DataInput input, long[] values, int length) throws IOException {
+        DataInputStream deltaInput = new DataInputStream(
+                new ByteArrayInputStream(readPayload(input, length)));
+        long changed = readVarLong(deltaInput);
+        int index = 0;
+        for (long i = 0; i < changed; i++) {
+            index += (int) readVarLong(deltaInput);
+            long zigzag = readVarLong(deltaInput);
+            values[index] += (zigzag >>> 1) ^ -(zigzag & 1);
+        }
+    }
+
+    private static byte[] readPayload(DataInput input, int length) throws IOException {
+        if (length < 0) throw new IOException("Malformed record");
+        byte[] payload = new byte[length];
+        input.readFully(payload);
+        return payload;
+    }
+
+    static void writeVarLong(DataOutput output, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            output.writeByte((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        output.writeByte((int) value);
+    }
+
+    static long readVarLong(DataInput input) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = input.readByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) return value;
+        }
+        throw new IOException("Malformed number");
+    }
+}
@@ -0,0 +1,253 @@
+/*
+ * DSN Monitor is an app to monitor the NASA Deep Space Network in real time.
+ * Copyright (c) 2016 Kaan Karaagacli
+ *
+ * This file is part of DSN Monitor.
+ *
+ * DSN Monitor is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DSN Monitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DSN Monitor.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package me.aeolwyr.dsnnow.logic;
+
+import org.xmlpull.v1.XmlPullParserException;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import me.aeolwyr.dsnnow.data.NetworkConfig;
+import me.aeolwyr.dsnnow.data.NetworkState;
+
+/**
+ * Reads the whole history, combining the history log with the cached, pinned and
+ * imported state files. <br />
+ * A state in the history log is read from there, as that is much cheaper than parsing
+ * its file. The states which are only available as files, e.g. the pinned ones or the ones
+ * cached before the history log existed, are parsed. <br />
+ * It does disk input/output, therefore it should not be used on the main thread,
+ * except for <code>getTimestamps</code> when the user asks for the history.
+ */
+public class HistoryScanner {
+    /**
+     * Callback for the states visited during a scan.
+     */
+    public interface Visitor {
+        /**
+         * Called for each state, from the oldest to the newest.
+         * @param networkState the state
+         */
+        void onState(NetworkState networkState);
+    }
+
+    private NetworkConfig config;
+    private File cacheDir;
+    private File filesDir;
+    private File importDir;
+    private HistoryLog historyLog;
+
+    /**
+     * Create a new scanner.
+     * @param config config file to use when parsing the state files
+     * @param cacheDir cache folder the state files are cached in
+     * @param filesDir persistent storage folder the state files are pinned in
+     * @param importDir folder the archived state files are imported to
+     * @param historyLog history log to read the states from
+     */
+    public HistoryScanner(NetworkConfig config, File cacheDir, File filesDir, File importDir,
+                          HistoryLog historyLog) {
+        this.config = config;
+        this.cacheDir = cacheDir;
+        this.filesDir = filesDir;
+        this.importDir = importDir;
+        this.historyLog = historyLog;
+    }
+
+    /**
+     * Return the timestamps of all the states in the history.
+     * @return the timestamps, sorted from the oldest to the newest, without duplicates
+     */
+    public long[] getTimestamps() {
+        long[] logTimestamps = historyLog.getTimestamps();
+        long[] fileTimestamps = concat(concat(listTimestamps(cacheDir), listTimestamps(filesDir)),
+                listTimestamps(importDir));
+        Arrays.sort(fileTimestamps);
+
+        // merge the two sorted arrays, dropping the duplicates
+        long[] timestamps = new long[logTimestamps.length + fileTimestamps.length];
+        int size = 0;
+        int i = 0;
+        int j = 0;
+        while (i < logTimestamps.length || j < fileTimestamps.length) {
+            long next;
+            if (j >= fileTimestamps.length
+                    || (i < logTimestamps.length && logTimestamps[i] <= fileTimestamps[j])) {
+                next = logTimestamps[i++];
+            } else {
+                next = fileTimestamps[j++];
+            }
+            if (size == 0 || timestamps[size - 1] != next) {
+                timestamps[size++] = next;
+            }
+        }
+        return Arrays.copyOf(timestamps, size);
+    }
+
+    /**
+     * Read the state with the given timestamp.
+     * @param timestamp the timestamp of the state
+     * @return the state, or null if there is no such state in the history
+     * @throws IOException if there is an input/output error
+     * @throws XmlPullParserException if the state file cannot be parsed
+     */
+    public NetworkState read(long timestamp) throws IOException, XmlPullParserException {
+        NetworkState networkState = historyLog.read(timestamp);
+        if (networkState != null) return networkState;
+        return readFile(timestamp);
+    }
+
+    /**
+     * Create a reader with its own position in the history log, so that several threads
+     * can read the history in order at the same time.
+     * @return the new reader, to be used on a single thread
+     */
+    public Reader newReader() {
+        return new Reader(historyLog.newCursor());
+    }
+
+    /**
+     * Reader of the history, see <code>newReader</code>.
+     */
+    public class Reader {
+        private HistoryLog.Cursor cursor;
+
+        private Reader(HistoryLog.Cursor cursor) {
+            this.cursor = cursor;
+        }
+
+        /**
+         * Read the state with the given timestamp.
+         * @param timestamp the timestamp of the state
+         * @return the state, or null if there is no such state in the history
+         * @throws IOException if there is an input/output error
+         * @throws XmlPullParserException if the state file cannot be parsed
+         */
+        public NetworkState read(long timestamp) throws IOException, XmlPullParserException {
+            NetworkState networkState = cursor.read(timestamp);
+            if (networkState != null) return networkState;
+            return readFile(timestamp);
+        }
+    }
+
+    /**
+     * Read the state with the given timestamp from its file.
+     */
+    private NetworkState readFile(long timestamp) throws IOException, XmlPullParserException {
+        String filename = timestamp + ".xml";
+        File file = new File(cacheDir, filename);
+        if (!file.exists()) file = new File(filesDir, filename);
+        if (!file.exists()) file = new File(importDir, filename);
+        if (!file.exists()) return null;
+
+        try (InputStream inputStream = StateFileCompression.openInputStream(file)) {
+            return StateParser.parse(config, inputStream);
+        }
+    }
+
+    /**
+     * Visit the states in the given time range, from the oldest to the newest.
+     * The states that cannot be read are skipped.
+     * @param from the start of the range, inclusive
+     * @param to the end of the range, inclusive
+     * @param visitor the visitor to call for each state
+     */
+    public void scan(long from, long to, Visitor visitor) {
+        for (long timestamp : getTimestamps()) {
+            if (timestamp < from || timestamp > to) continue;
+            try {
+                NetworkState networkState = read(timestamp);
+                if (networkState != null) visitor.onState(networkState);
+            } catch (IOException | XmlPullParserException ignored) {
+                // deleted or broken in the meantime, skip it
+            }
+        }
+    }
+
+    /**
+     * Build the given indexes from the whole history, in a single pass. <br />
+     * The indexes must not be fed with other states meanwhile, e.g. the app calls this
+     * on the writer thread of its capture writer.
+     * @param all true to rebuild all of them, false to build only the missing ones
+     * @param indexes the indexes to build
+     */
+    public void buildIndexes(boolean all, HistoryIndex... indexes) {
+        final List<HistoryIndex> missing = new ArrayList<>();
+        for (HistoryIndex index : indexes) {
+            if (!all && index.exists()) continue;
+            try {
+                index.reset();
+                missing.add(index);
+            } catch (IOException ignored) {
+                // it will be tried again on the next launch
+            }
+        }
+        if (missing.isEmpty()) return;
+
+        scan(0, Long.MAX_VALUE, new Visitor() {
+            @Override
+            public void onState(NetworkState networkState) {
+                for (HistoryIndex index : missing) {
+                    index.onCapture(networkState);
+                }
+            }
+        });
+        for (HistoryIndex index : missing) {
+            try {
+                index.flush();
+                index.markBuilt();
+            } catch (IOException ignored) {
+                // it will be rebuilt on the next launch
+            }
+        }
+    }
+
+    private static long[] listTimestamps(File directory) {
+        File[] files = directory.listFiles(STATE_FILE_FILTER);
+        if (files == null) return new long[0];
+        long[] timestamps = new long[files.length];
+        for (int i = 0; i < files.length; i++) {
+            String name = files[i].getName();
+            timestamps[i] = Long.parseLong(name.substring(0, name.lastIndexOf('.')));
+        }
+        return timestamps;
+    }
+
+    private static long[] concat(long[] a, long[] b) {
+        long[] result = Arrays.copyOf(a, a.length + b.length);
+        System.arraycopy(b, 0, result, a.length, b.length);
+        return result;
+    }
+
+    /** filter that matches the cached/pinned files **/
+    private static final FilenameFilter STATE_FILE_FILTER = new FilenameFilter() {
+        @Override
+        public boolean accept(File dir, String filename) {
+            return filename.matches("^\\d+\\.xml$");
+        }
+    };
+}
@@ -0,0 +1,237 @@
+/*
+ * DSN Monitor is an app to monitor the NASA Deep Space Network in real time.
+ * Copyright (c) 2016 Kaan Karaagacli
+ *
+ * This file is part of DSN Monitor.
+ *
+ * DSN Monitor is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DSN Monitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DSN Monitor.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package me.aeolwyr.dsnnow.logic;
+
+import java.io.PrintWriter;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Process-wide registry of the metrics of the download pipeline and the UI, such as how
+ * long each step of a poll takes. <br />
+ * The metrics are created once, as the static fields below, and recording them does not
+ * allocate anything, so they can be used on the hot paths and from any thread.
+ * They are only kept in memory, and can be seen on the debug screen or with
+ * <code>adb shell dumpsys activity top</code>.
+ */
+public class Metrics {
+    /**
+     * A value that only increases, e.g. the number of the failed polls.
+     */
+    public static class Counter {
+        private final AtomicLong value = new AtomicLong();
+
+        public void increment() {
+            value.incrementAndGet();
+        }
+
+        public void add(long delta) {
+            value.addAndGet(delta);
+        }
+
+        public long get() {
+            return value.get();
+        }
+    }
+
+    /**
+     * A value that is set to the latest measurement, e.g. the time to the first content.
+     */
+    public static class Gauge {
+        private volatile long value;
+
+        public void set(long value) {
+            this.value = value;
+        }
+
+        public long get() {
+            return value;
+        }
+    }
+
+    /**
+     * Distribution of durations, counted in fixed buckets. The percentiles are estimated
+     * as the upper bounds of the buckets they fall into.
+     */
+    public static class Histogram {
+        /** upper bounds of the buckets, in microseconds, a last bucket holds the rest **/
+        private static final long[] BOUNDS = {
+                50, 100, 250, 500,
+                1000, 2500, 5000, 10000, 25000, 50000, 100000, 250000, 500000,
+                1000000, 2500000, 5000000, 10000000
+        };
+
+        private final AtomicLongArray counts = new AtomicLongArray(BOUNDS.length + 1);
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong sum = new AtomicLong();
+        private final AtomicLong max = new AtomicLong();
+
+        /**
+         * Record a duration since the given start.
+         * @param startNanos the start, from <code>System.nanoTime()</code>
+         */
+        public void recordSince(long startNanos) {
+            record((System.nanoTime() - startNanos) / 1000);
+        }
+
+        /**
+         * Record a duration.
+         * @param micros the duration, in microseconds
+         */
+        public void record(long micros) {
+            int bucket = 0;
+            while (bucket < BOUNDS.length && micros > BOUNDS[bucket]) bucket++;
+            counts.incrementAndGet(bucket);
+            count.incrementAndGet();
+            sum.addAndGet(micros);
+            long currentMax;
+            while (micros > (currentMax = max.get())) {
+                if (max.compareAndSet(currentMax, micros)) break;
+            }
+        }
+
+        /**
+         * @return the number of the recorded durations
+         */
+        public long getCount() {
+            return count.get();
+        }
+
+        /**
+         * @return the longest recorded duration, in microseconds
+         */
+        public long getMax() {
+            return max.get();
+        }
+
+        /**
+         * @return the average of the recorded durations, in microseconds
+         */
+        public long getMean() {
+            long n = count.get();
+            return n > 0 ? sum.get() / n : 0;
+        }
+
+        /**
+         * Estimate a percentile of the recorded durations.
+         * @param percentile the percentile, between 0 and 100
+         * @return the estimated duration, in microseconds, 0 if nothing is recorded
+         */
+        public long getPercentile(double percentile) {
+            long n = count.get();
+            if (n == 0) return 0;
+            long rank = (long) Math.ceil(n * percentile / 100);
+            long seen = 0;
+            for (int i = 0; i < BOUNDS.length; i++) {
+                seen += counts.get(i);
+                // the maximum is a better estimate if it is inside the bucket
+                if (seen >= rank) return Math.min(BOUNDS[i], getMax());
+            }
+            return getMax();
+        }
+    }
+
+    /** all the metrics by their names, in the order they are created **/
+    private static final Map<String, Object> REGISTRY = new LinkedHashMap<>();
+
+    /** time to connect to the server **/
+    public static final Histogram CONNECT_TIME = histogram("poll.connect");
+    /** time to download the state file, including the connection **/
+    public static final Histogram DOWNLOAD_TIME = histogram("poll.download");
+    /** time to parse a state file **/
+    public static final Histogram PARSE_TIME = histogram("poll.parse");
+    /** time to write a state to the cache and the history log **/
+    public static final Histogram CACHE_WRITE_TIME = histogram("history.write");
+    /** time to apply the retention policy after a batch is written **/
+    public static final Histogram RETENTION_TIME = histogram("history.retention");
+    /** time to bind a view of the network adapter **/
+    public static final Histogram ADAPTER_BIND_TIME = histogram("ui.bind");
+
+    /** number of the bytes of the downloaded state files **/
+    public static final Counter BYTES_READ = counter("poll.bytes");
+    /** number of the polls started **/
+    public static final Counter POLLS = counter("poll.started");
+    /** number of the polls skipped as the previous one has not finished yet **/
+    public static final Counter SKIPPED_POLLS = counter("poll.skipped");
+    /** number of the polls that could not download or parse a state **/
+    public static final Counter FAILED_POLLS = counter("poll.failed");
+    /** number of the polls that found the state unchanged since the previous one **/
+    public static final Counter NOT_MODIFIED_POLLS = counter("poll.not_modified");
+
+    /** time from the creation of the main activity to the first state shown, in ms **/
+    public static final Gauge TIME_TO_FIRST_CONTENT = gauge("ui.first_content_ms");
+    /** 1 if the first content was the state left from the previous launch, 0 otherwise **/
+    public static final Gauge WARM_START = gauge("ui.warm_start");
+
+    private static Histogram histogram(String name) {
+        Histogram histogram = new Histogram();
+        REGISTRY.put(name, histogram);
+        return histogram;
+    }
+
+    private static Counter counter(String name) {
+        Counter counter = new Counter();
+        REGISTRY.put(name, counter);
+        return counter;
+    }
+
+    private static Gauge gauge(String name) {
+        Gauge gauge = new Gauge();
+        REGISTRY.put(name, gauge);
+        return gauge;
+    }
+
+    /**
+     * Write all the metrics in a human readable form, one per line.
+     * @param writer the writer to write to
+     * @param prefix the prefix of each line
+     */
+    public static void dump(PrintWriter writer, String prefix) {
+        for (Map.Entry<String, Object> entry : REGISTRY.entrySet()) {
+            writer.print(prefix);
+            writer.print(String.format(Locale.US, "%-20s ", entry.getKey()));
+            Object metric = entry.getValue();
+            if (metric instanceof Histogram) {
+                Histogram histogram = (Histogram) metric;
+                writer.println(String.format(Locale.US,
+                        "n=%d p50=%s p95=%s p99=%s max=%s",
+                        histogram.getCount(),
+                        formatMicros(histogram.getPercentile(50)),
+                        formatMicros(histogram.getPercentile(95)),
+                        formatMicros(histogram.getPercentile(99)),
+                        formatMicros(histogram.getMax())));
+            } else if (metric instanceof Counter) {
+                writer.println(((Counter) metric).get());
+            } else {
+                writer.println(((Gauge) metric).get());
+            }
+        }
+    }
+
+    private static String formatMicros(long micros) {
+        if (micros < 1000) return micros + "us";
+        if (micros < 1000000) return String.format(Locale.US, "%.1fms", micros / 1000.0);
+        return String.format(Locale.US, "%.2fs", micros / 1000000.0);
+    }
+}
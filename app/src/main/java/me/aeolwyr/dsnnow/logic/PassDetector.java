@@ -0,0 +1,599 @@
+/*
+ * DSN Monitor is an app to monitor the NASA Deep Space Network in real time.
+ * Copyright (c) 2016 Kaan Karaagacli
+ *
+ * This file is part of DSN Monitor.
+ *
+ * DSN Monitor is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DSN Monitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DSN Monitor.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package me.aeolwyr.dsnnow.logic;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import me.aeolwyr.dsnnow.data.DishState;
+import me.aeolwyr.dsnnow.data.NetworkState;
+import me.aeolwyr.dsnnow.data.Signal;
+
+/**
+ * Streaming detector of the tracking passes, which turns the consecutive states into
+ * events such as the acquisition and the loss of a spacecraft by a dish. <br />
+ * Only the last seen activity of each dish is kept. A dish that looks the same as in the
+ * previous state is skipped after a single comparison, so the work per state grows with
+ * the number of changes rather than the number of spacecraft tracked. Short gaps, e.g.
+ * caused by a few failed downloads, do not end a pass. <br />
+ * The events are appended to a file, and the activity of the dishes is saved separately,
+ * so that the passes continue after a restart. The events are kept for a limited time, and
+ * up to a limited count. All the public functions are thread-safe.
+ * The ones that load or write the detector do disk input/output, therefore they should not
+ * be used on the main thread.
+ */
+public class PassDetector implements HistoryIndex {
+    /**
+     * Listener for the detected events.
+     */
+    public interface Listener {
+        /**
+         * Called on the capture writer thread when a new event is detected. It is not called
+         * for the events detected while rebuilding from the history.
+         * @param event the new event
+         */
+        void onPassEvent(PassEvent event);
+    }
+
+    /** name of the folder the detector is kept in **/
+    public static final String DIRECTORY_NAME = "passes";
+    private static final String EVENTS_FILENAME = "events.dat";
+    private static final String DISHES_FILENAME = "dishes.dat";
+
+    /** a pass not seen for longer than this is lost, in milliseconds **/
+    private static final long MAX_GAP = 5 * 60 * 1000;
+    /** the activity of the dishes is saved at least this often, in milliseconds **/
+    private static final long DISHES_SAVE_INTERVAL = 60 * 1000;
+    /** the events older than this are dropped, in milliseconds **/
+    private static final long MAX_EVENT_AGE = 90 * 24 * 60 * 60 * 1000L;
+    /** at most this many events are kept, the oldest ones are dropped beyond that **/
+    private static final int MAX_EVENTS = 100000;
+    /** the expired events are dropped at most this often, in milliseconds **/
+    private static final long EXPIRY_INTERVAL = 60 * 60 * 1000;
+
+
+    /**
+     * Activity of a dish in the last state it was seen in.
+     */
+    private static class DishActivity {
+        /** the tracked spacecraft, and the uplink and the downlink data rate of each **/
+        String[] spacecraft;
+        boolean[] uplinks;
+        long[] dataRates;
+        boolean array;
+        boolean mspa;
+        long lastSeen;
+
+        /**
+         * Return whether the dish does the same as the given one, the time excluded.
+         */
+        boolean sameAs(DishActivity other) {
+            return array == other.array && mspa == other.mspa
+                    && Arrays.equals(spacecraft, other.spacecraft)
+                    && Arrays.equals(uplinks, other.uplinks)
+                    && Arrays.equals(dataRates, other.dataRates);
+        }
+
+        int indexOf(String name) {
+            for (int i = 0; i < spacecraft.length; i++) {
+                if (spacecraft[i].equals(name)) return i;
+            }
+            return -1;
+        }
+
+        static DishActivity of(DishState dishState, long timestamp) {
+            List<String> spacecraft = dishState.getSpacecraft();
+            DishActivity activity = new DishActivity();
+            activity.spacecraft = spacecraft.toArray(new String[spacecraft.size()]);
+            activity.uplinks = new boolean[spacecraft.size()];
+            activity.dataRates = new long[spacecraft.size()];
+            for (int i = 0; i < activity.spacecraft.length; i++) {
+                activity.uplinks[i] = hasUplink(dishState, activity.spacecraft[i]);
+                Signal signal = SpacecraftSeries.findDownSignal(dishState, activity.spacecraft[i]);
+                activity.dataRates[i] = signal != null ? signal.getDataRate() : 0;
+            }
+            activity.array = dishState.isArray();
+            activity.mspa = dishState.isMSPA();
+            activity.lastSeen = timestamp;
+            return activity;
+        }
+
+        private static boolean hasUplink(DishState dishState, String spacecraft) {
+            for (Signal signal : dishState.getUpSignals()) {
+                if (spacecraft.equals(signal.getSpacecraft())
+                        && !"none".equals(signal.getSignalType())) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    private File directory;
+    private List<Listener> listeners = new CopyOnWriteArrayList<>();
+
+    // in-memory state, null until loaded
+    /** all the events, in the order they are detected **/
+    private List<PassEvent> events;
+    /** activity of each dish, mapped by the dish names **/
+    private Map<String, DishActivity> dishes;
+    /** the dishes in the last state added, not saved, used to skip the unchanged ones **/
+    private Map<String, DishState> lastDishStates;
+    /** number of events in the events file that are dropped from memory **/
+    private int expiredEvents;
+    private long lastExpiry;
+    /** timestamp of the newest state added, older ones are ignored **/
+    private long lastTimestamp;
+    private long lastDishesSave;
+    /** true from a reset until the end of the rebuild, the listeners are not notified **/
+    private boolean rebuilding;
+
+    private DataOutputStream eventsOutput;
+
+    /**
+     * Create a detector in the given folder. Nothing is read until it is needed.
+     * @param directory the folder to keep the detector in, created if necessary
+     */
+    public PassDetector(File directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Add a listener to be notified of the new events.
+     * @param listener the new listener
+     */
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Remove a listener added before.
+     * @param listener the listener to remove
+     */
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    @Override
+    public synchronized boolean exists() {
+        return Marker.exists(directory);
+    }
+
+    @Override
+    public void onCapture(NetworkState networkState) {
+        List<PassEvent> newEvents;
+        synchronized (this) {
+            try {
+                load();
+                newEvents = add(networkState);
+                if (eventsOutput != null) eventsOutput.flush();
+                if (lastTimestamp - lastDishesSave >= DISHES_SAVE_INTERVAL) {
+                    saveDishes();
+                }
+            } catch (IOException ignored) {
+                // not critical, the passes are continued by the next state
+                return;
+            }
+            if (rebuilding) return;
+        }
+        // outside of the lock, so that the listeners can query the detector
+        for (PassEvent event : newEvents) {
+            for (Listener listener : listeners) {
+                listener.onPassEvent(event);
+            }
+        }
+    }
+
+    @Override
+    public synchronized void reset() throws IOException {
+        closeOutput();
+        Marker.reset(directory, EVENTS_FILENAME, DISHES_FILENAME);
+        clear();
+        rebuilding = true;
+    }
+
+    @Override
+    public synchronized void flush() throws IOException {
+        rebuilding = false;
+        if (eventsOutput != null) eventsOutput.flush();
+        if (dishes != null) saveDishes();
+    }
+
+    @Override
+    public synchronized void markBuilt() throws IOException {
+        Marker.create(directory);
+    }
+
+    /**
+     * Return the events in the given time range, optionally of a single spacecraft or dish.
+     * @param spacecraft the name of the spacecraft, or null for all of them
+     * @param dish the name of the dish, or null for all of them
+     * @param from the start of the range, inclusive
+     * @param to the end of the range, inclusive
+     * @return the events, from the newest to the oldest
+     * @throws IOException if there is an input/output error
+     */
+    public synchronized List<PassEvent> query(String spacecraft, String dish, long from, long to)
+            throws IOException {
+        load();
+        List<PassEvent> result = new ArrayList<>();
+        for (int i = events.size() - 1; i >= 0; i--) {
+            PassEvent event = events.get(i);
+            if (event.getTimestamp() < from || event.getTimestamp() > to) continue;
+            if (spacecraft != null && !spacecraft.equals(event.getSpacecraft())) continue;
+            if (dish != null && !dish.equals(event.getDish())) continue;
+            result.add(event);
+        }
+        return result;
+    }
+
+    /**
+     * Add a state to the detector, without flushing.
+     * @return the events detected
+     */
+    private List<PassEvent> add(NetworkState networkState) throws IOException {
+        List<PassEvent> newEvents = new ArrayList<>();
+        long timestamp = networkState.getTimestamp();
+        if (timestamp <= lastTimestamp) return newEvents;
+        lastTimestamp = timestamp;
+
+        for (DishState dishState : networkState.getDishStates().values()) {
+            if (dishState == null) continue;
+            String dish = dishState.getName();
+            DishActivity previous = dishes.get(dish);
+            DishState lastDishState = lastDishStates.put(dish, dishState);
+            if (previous != null && timestamp - previous.lastSeen > MAX_GAP) {
+                // not seen for a while, the passes have ended meanwhile
+                compare(dish, previous, null, newEvents);
+                previous = null;
+            }
+            // most dishes do the same as in the previous state, skip them without
+            // building their activity
+            if (previous != null && lastDishState != null
+                    && sameActivity(lastDishState, dishState)) {
+                previous.lastSeen = timestamp;
+                continue;
+            }
+
+            DishActivity current = DishActivity.of(dishState, timestamp);
+            if (previous != null && previous.sameAs(current)) {
+                previous.lastSeen = timestamp;
+                continue;
+            }
+            compare(dish, previous, current, newEvents);
+            dishes.put(dish, current);
+            // a change should survive a restart
+            lastDishesSave = 0;
+        }
+
+        // end the passes of the dishes not seen for a while
+        Iterator<Map.Entry<String, DishActivity>> iterator = dishes.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, DishActivity> entry = iterator.next();
+            if (timestamp - entry.getValue().lastSeen > MAX_GAP) {
+                compare(entry.getKey(), entry.getValue(), null, newEvents);
+                iterator.remove();
+                lastDishesSave = 0;
+            }
+        }
+
+        for (PassEvent event : newEvents) {
+            events.add(event);
+            writeEvent(eventsOutput(), event);
+        }
+        if (timestamp - lastExpiry >= EXPIRY_INTERVAL) {
+            expire(timestamp);
+        }
+        return newEvents;
+    }
+
+    /**
+     * Return whether two states of a dish have the same activity, comparing only what
+     * <code>DishActivity</code> is built from.
+     */
+    private static boolean sameActivity(DishState a, DishState b) {
+        if (a.isArray() != b.isArray() || a.isMSPA() != b.isMSPA()) return false;
+        List<Signal> downA = a.getDownSignals();
+        List<Signal> downB = b.getDownSignals();
+        List<Signal> upA = a.getUpSignals();
+        List<Signal> upB = b.getUpSignals();
+        if (downA.size() != downB.size() || upA.size() != upB.size()
+                || a.getTargets().size() != b.getTargets().size()) {
+            return false;
+        }
+        for (int i = 0; i < downA.size(); i++) {
+            if (!sameSignal(downA.get(i), downB.get(i))
+                    || downA.get(i).getDataRate() != downB.get(i).getDataRate()) {
+                return false;
+            }
+        }
+        for (int i = 0; i < upA.size(); i++) {
+            if (!sameSignal(upA.get(i), upB.get(i))) return false;
+        }
+        for (int i = 0; i < a.getTargets().size(); i++) {
+            if (!equal(a.getTargets().get(i).getName(), b.getTargets().get(i).getName())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean sameSignal(Signal a, Signal b) {
+        return equal(a.getSpacecraft(), b.getSpacecraft())
+                && equal(a.getSignalType(), b.getSignalType());
+    }
+
+    private static boolean equal(String a, String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
+    /**
+     * Drop the events older than the maximum age, and the oldest ones beyond the maximum
+     * count. The events file is rewritten once a significant part of it is dropped.
+     * @param now the time the ages are calculated from
+     */
+    private void expire(long now) throws IOException {
+        lastExpiry = now;
+        int size = events.size();
+        long minTimestamp = now - MAX_EVENT_AGE;
+        Iterator<PassEvent> iterator = events.iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().getTimestamp() < minTimestamp) iterator.remove();
+        }
+        if (events.size() > MAX_EVENTS) {
+            events.subList(0, events.size() - MAX_EVENTS).clear();
+        }
+        expiredEvents += size - events.size();
+        if (expiredEvents > 0 && expiredEvents >= events.size() / 4) {
+            rewriteEvents();
+        }
+    }
+
+    /**
+     * Replace the events file with the events in memory.
+     */
+    private void rewriteEvents() throws IOException {
+        closeOutput();
+        directory.mkdirs();
+        File eventsFile = new File(directory, EVENTS_FILENAME);
+        File tempFile = FileUtils.getTempFile(eventsFile);
+        try (DataOutputStream output = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(tempFile)))) {
+            for (PassEvent event : events) {
+                writeEvent(output, event);
+            }
+        }
+        FileUtils.replace(tempFile, eventsFile);
+        expiredEvents = 0;
+    }
+
+    /**
+     * Detect the events between two activities of a dish.
+     * @param dish the name of the dish
+     * @param previous the previous activity, or null if the dish was idle
+     * @param current the current activity, or null if the dish is not seen anymore
+     * @param newEvents the list to add the detected events to
+     */
+    private static void compare(String dish, DishActivity previous, DishActivity current,
+                                List<PassEvent> newEvents) {
+        if (previous != null) {
+            for (int i = 0; i < previous.spacecraft.length; i++) {
+                String spacecraft = previous.spacecraft[i];
+                int index = current != null ? current.indexOf(spacecraft) : -1;
+                if (index < 0) {
+                    // lost when it was last seen
+                    newEvents.add(new PassEvent(PassEvent.LOSS, previous.lastSeen,
+                            dish, spacecraft, 0));
+                    continue;
+                }
+
+                if (previous.uplinks[i] != current.uplinks[index]) {
+                    newEvents.add(new PassEvent(current.uplinks[index]
+                            ? PassEvent.UPLINK_ON : PassEvent.UPLINK_OFF,
+                            current.lastSeen, dish, spacecraft, 0));
+                }
+                if (previous.dataRates[i] != current.dataRates[index]) {
+                    newEvents.add(new PassEvent(PassEvent.DATA_RATE_CHANGE, current.lastSeen,
+                            dish, spacecraft, current.dataRates[index]));
+                }
+                if (previous.array != current.array) {
+                    newEvents.add(new PassEvent(current.array
+                            ? PassEvent.ARRAY_JOIN : PassEvent.ARRAY_LEAVE,
+                            current.lastSeen, dish, spacecraft, 0));
+                }
+                if (previous.mspa != current.mspa) {
+                    newEvents.add(new PassEvent(current.mspa
+                            ? PassEvent.MSPA_JOIN : PassEvent.MSPA_LEAVE,
+                            current.lastSeen, dish, spacecraft, 0));
+                }
+            }
+        }
+
+        if (current != null) {
+            for (String spacecraft : current.spacecraft) {
+                if (previous == null || previous.indexOf(spacecraft) < 0) {
+                    newEvents.add(new PassEvent(PassEvent.ACQUISITION, current.lastSeen,
+                            dish, spacecraft, 0));
+                }
+            }
+        }
+    }
+
+    /**
+     * Read the detector from the disk, if not read yet.
+     */
+    private void load() throws IOException {
+        if (events != null) return;
+        clear();
+
+        File eventsFile = new File(directory, EVENTS_FILENAME);
+        if (eventsFile.exists()) {
+            long validSize = 0;
+            try (DataInputStream input = new DataInputStream(
+                    new BufferedInputStream(new FileInputStream(eventsFile)))) {
+                while (true) {
+                    PassEvent event = readEvent(input);
+                    events.add(event);
+                    lastTimestamp = Math.max(lastTimestamp, event.getTimestamp());
+                    validSize += 1 + 8 + FileUtils.getStringSize(event.getDish())
+                            + FileUtils.getStringSize(event.getSpacecraft()) + 8;
+                }
+            } catch (EOFException ignored) {
+                // end of the events
+            }
+            // drop an event broken by a crash, the next ones are appended after it
+            if (eventsFile.length() > validSize) {
+                try (RandomAccessFile file = new RandomAccessFile(eventsFile, "rw")) {
+                    file.setLength(validSize);
+                }
+            }
+            expire(System.currentTimeMillis());
+        }
+
+        File dishesFile = new File(directory, DISHES_FILENAME);
+        if (dishesFile.exists()) {
+            try (DataInputStream input = new DataInputStream(
+                    new BufferedInputStream(new FileInputStream(dishesFile)))) {
+                int count = input.readInt();
+                for (int i = 0; i < count; i++) {
+                    String dish = FileUtils.readString(input);
+                    DishActivity activity = readActivity(input);
+                    dishes.put(dish, activity);
+                    lastTimestamp = Math.max(lastTimestamp, activity.lastSeen);
+                }
+            } catch (IOException ignored) {
+                // the file is replaced atomically, this should not happen
+                // the passes are acquired again by the next state otherwise
+            }
+        }
+        lastDishesSave = lastTimestamp;
+    }
+
+    /**
+     * Replace the saved activity of the dishes with the one in memory.
+     */
+    private void saveDishes() throws IOException {
+        directory.mkdirs();
+        File dishesFile = new File(directory, DISHES_FILENAME);
+        File tempFile = FileUtils.getTempFile(dishesFile);
+        try (DataOutputStream output = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(tempFile)))) {
+            output.writeInt(dishes.size());
+            for (Map.Entry<String, DishActivity> entry : dishes.entrySet()) {
+                FileUtils.writeString(output, entry.getKey());
+                writeActivity(output, entry.getValue());
+            }
+        }
+        FileUtils.replace(tempFile, dishesFile);
+        lastDishesSave = lastTimestamp;
+    }
+
+    private static void writeActivity(DataOutput output, DishActivity activity)
+            throws IOException {
+        output.writeLong(activity.lastSeen);
+        output.writeBoolean(activity.array);
+        output.writeBoolean(activity.mspa);
+        output.writeShort(activity.spacecraft.length);
+        for (int i = 0; i < activity.spacecraft.length; i++) {
+            FileUtils.writeString(output, activity.spacecraft[i]);
+            output.writeBoolean(activity.uplinks[i]);
+            output.writeLong(activity.dataRates[i]);
+        }
+    }
+
+    private static DishActivity readActivity(DataInput input) throws IOException {
+        DishActivity activity = new DishActivity();
+        activity.lastSeen = input.readLong();
+        activity.array = input.readBoolean();
+        activity.mspa = input.readBoolean();
+        int count = input.readUnsignedShort();
+        activity.spacecraft = new String[count];
+        activity.uplinks = new boolean[count];
+        activity.dataRates = new long[count];
+        for (int i = 0; i < count; i++) {
+            activity.spacecraft[i] = FileUtils.readString(input);
+            activity.uplinks[i] = input.readBoolean();
+            activity.dataRates[i] = input.readLong();
+        }
+        return activity;
+    }
+
+    private static void writeEvent(DataOutput output, PassEvent event) throws IOException {
+        output.writeByte(event.getType());
+        output.writeLong(event.getTimestamp());
+        FileUtils.writeString(output, event.getDish());
+        FileUtils.writeString(output, event.getSpacecraft());
+        output.writeLong(event.getValue());
+    }
+
+    private static PassEvent readEvent(DataInput input) throws IOException {
+        int type = input.readUnsignedByte();
+        long timestamp = input.readLong();
+        String dish = FileUtils.readString(input);
+        String spacecraft = FileUtils.readString(input);
+        long value = input.readLong();
+        return new PassEvent(type, timestamp, dish, spacecraft, value);
+    }
+
+    private DataOutputStream eventsOutput() throws IOException {
+        if (eventsOutput == null) {
+            directory.mkdirs();
+            eventsOutput = new DataOutputStream(new BufferedOutputStream(
+                    new FileOutputStream(new File(directory, EVENTS_FILENAME), true)));
+        }
+        return eventsOutput;
+    }
+
+    private void closeOutput() throws IOException {
+        if (eventsOutput != null) {
+            eventsOutput.close();
+            eventsOutput = null;
+        }
+    }
+
+    private void clear() {
+        events = new ArrayList<>();
+        dishes = new HashMap<>();
+        lastDishStates = new HashMap<>();
+        lastTimestamp = 0;
+        lastDishesSave = 0;
+        expiredEvents = 0;
+        lastExpiry = 0;
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * DSN Monitor is an app to monitor the NASA Deep Space Network in real time.
+ * Copyright (c) 2016 Kaan Karaagacli
+ *
+ * This file is part of DSN Monitor.
+ *
+ * DSN Monitor is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DSN Monitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DSN Monitor.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package me.aeolwyr.dsnnow.logic;
+
+/**
+ * A change in the tracking of a spacecraft by a dish, detected by <code>PassDetector</code>.
+ */
+public class PassEvent {
+    /** the dish has started to track the spacecraft **/
+    public static final int ACQUISITION = 1;
+    /** the dish has stopped tracking the spacecraft **/
+    public static final int LOSS = 2;
+    /** the dish has started to transmit to the spacecraft **/
+    public static final int UPLINK_ON = 3;
+    /** the dish has stopped transmitting to the spacecraft **/
+    public static final int UPLINK_OFF = 4;
+    /** the downlink data rate has changed, the value is the new data rate **/
+    public static final int DATA_RATE_CHANGE = 5;
+    /** the dish has joined an array **/
+    public static final int ARRAY_JOIN = 6;
+    /** the dish has left an array **/
+    public static final int ARRAY_LEAVE = 7;
+    /** the dish has started to serve multiple spacecraft per aperture **/
+    public static final int MSPA_JOIN = 8;
+    /** the dish has stopped serving multiple spacecraft per aperture **/
+    public static final int MSPA_LEAVE = 9;
+
+    private int type;
+    private long timestamp;
+    private String dish;
+    private String spacecraft;
+    private long value;
+
+    /**
+     * Create a new event.
+     * @param type the type of the event, e.g. <code>ACQUISITION</code>
+     * @param timestamp the timestamp of the state the change is seen in
+     * @param dish the name of the dish, e.g. <code>DSS14</code>
+     * @param spacecraft the name of the spacecraft, e.g. <code>VGR1</code>
+     * @param value the data rate in microbits per second for <code>DATA_RATE_CHANGE</code>,
+     *              zero otherwise
+     */
+    public PassEvent(int type, long timestamp, String dish, String spacecraft, long value) {
+        this.type = type;
+        this.timestamp = timestamp;
+        this.dish = dish;
+        this.spacecraft = spacecraft;
+        this.value = value;
+    }
+
+    /**
+     * Return the type of the event, one of the constants of this class.
+     * @return the type of the event
+     */
+    public int getType() {
+        return type;
+    }
+
+    /**
+     * Return the time of the event. For a loss, this is the last time the spacecraft
+     * was seen, not the time the loss was noticed.
+     * @return the timestamp of the event
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * Return the name of the dish, e.g. <code>DSS14</code>.
+     * @return the name of the dish
+     */
+    public String getDish() {
+        return dish;
+    }
+
+    /**
+     * Return the name of the spacecraft, e.g. <code>VGR1</code>.
+     * @return the name of the spacecraft
+     */
+    public String getSpacecraft() {
+        return spacecraft;
+    }
+
+    /**
+     * Return the value of the event, i.e. the new data rate of a data rate change.
+     * @return the value, in microbits per second
+     */
+    public long getValue() {
+        return value;
+    }
+}
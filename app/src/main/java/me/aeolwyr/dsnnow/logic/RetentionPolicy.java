@@ -0,0 +1,84 @@
+/*
+ * DSN Monitor is an app to monitor the NASA Deep Space Network in real time.
+ * Copyright (c) 2016 Kaan Karaagacli
+ *
+ * This file is part of DSN Monitor.
+ *
+ * DSN Monitor is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DSN Monitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DSN Monitor.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package me.aeolwyr.dsnnow.logic;
+
+/**
+ * Decides which of the cached states to keep. <br />
+ * Recent states are all kept, older ones are thinned out according to their ages:
+ * <ol>
+ * <li>every state for the last hour,</li>
+ * <li>one state per minute for the last day,</li>
+ * <li>one state per hour beyond that.</li>
+ * </ol>
+ * The oldest of the remaining states are then dropped until they fit in the byte budget.
+ */
+public class RetentionPolicy {
+    private static final long MINUTE = 60 * 1000;
+    private static final long HOUR = 60 * MINUTE;
+    private static final long DAY = 24 * HOUR;
+
+    /** states younger than this are all kept **/
+    private static final long FULL_RESOLUTION_AGE = HOUR;
+    /** states younger than this are kept one per minute, older ones one per hour **/
+    private static final long MINUTE_RESOLUTION_AGE = DAY;
+
+    private long budget;
+
+    /**
+     * Create a new policy.
+     * @param budget the total size the kept states can take, in bytes
+     */
+    public RetentionPolicy(long budget) {
+        this.budget = budget;
+    }
+
+    /**
+     * Select the states to keep.
+     * @param timestamps the timestamps of the states, sorted from the oldest to the newest
+     * @param sizes the sizes of the states, in bytes
+     * @param now the current time, which the ages are calculated from
+     * @return an array parallel to the timestamps, true for the states to keep
+     */
+    public boolean[] select(long[] timestamps, long[] sizes, long now) {
+        boolean[] keep = new boolean[timestamps.length];
+        long total = 0;
+        long lastResolution = 0;
+        long lastBucket = 0;
+        // walk from the newest to the oldest, keeping the newest state of each bucket
+        for (int i = timestamps.length - 1; i >= 0; i--) {
+            long age = now - timestamps[i];
+            if (age > FULL_RESOLUTION_AGE) {
+                long resolution = age > MINUTE_RESOLUTION_AGE ? HOUR : MINUTE;
+                long bucket = timestamps[i] / resolution;
+                if (resolution == lastResolution && bucket == lastBucket) continue;
+                lastResolution = resolution;
+                lastBucket = bucket;
+            }
+
+            total += sizes[i];
+            // everything older is over the budget as well
+            if (total > budget) break;
+            keep[i] = true;
+        }
+        return keep;
+    }
+}
@@ -0,0 +1,182 @@
+/*
+ * DSN Monitor is an app to monitor the NASA Deep Space Network in real time.
+ * Copyright (c) 2016 Kaan Karaagacli
+ *
+ * This file is part of DSN Monitor.
+ *
+ * DSN Monitor is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DSN Monitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DSN Monitor.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package me.aeolwyr.dsnnow.logic;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Utilization of the network in a period of time, e.g. an hour or a day. <br />
+ * Only the time covered by the captured states is counted as observed, so the utilization
+ * of a dish is its busy time divided by the observed time, regardless of the gaps in the
+ * history. All the times are in milliseconds.
+ */
+public class Rollup {
+    private long start;
+    private long length;
+    private long observed;
+    /** busy time of each dish, i.e. the time it had at least one spacecraft **/
+    private Map<String, Long> dishes = new HashMap<>();
+    /** total busy time of the dishes of each station **/
+    private Map<String, Long> stations = new HashMap<>();
+    /** total contact time of each spacecraft, with any dish **/
+    private Map<String, Long> spacecraft = new HashMap<>();
+
+    /**
+     * Create an empty rollup.
+     * @param start the start of the period
+     * @param length the length of the period
+     */
+    Rollup(long start, long length) {
+        this.start = start;
+        this.length = length;
+    }
+
+    /**
+     * Add the given time to the observed time.
+     */
+    void addObserved(long duration) {
+        observed += duration;
+    }
+
+    void addDish(String dish, long duration) {
+        add(dishes, dish, duration);
+    }
+
+    void addStation(String station, long duration) {
+        add(stations, station, duration);
+    }
+
+    void addSpacecraft(String name, long duration) {
+        add(spacecraft, name, duration);
+    }
+
+    /**
+     * Add all the times of another rollup to this one, e.g. an hour to its day.
+     */
+    void merge(Rollup other) {
+        observed += other.observed;
+        for (Map.Entry<String, Long> entry : other.dishes.entrySet()) {
+            add(dishes, entry.getKey(), entry.getValue());
+        }
+        for (Map.Entry<String, Long> entry : other.stations.entrySet()) {
+            add(stations, entry.getKey(), entry.getValue());
+        }
+        for (Map.Entry<String, Long> entry : other.spacecraft.entrySet()) {
+            add(spacecraft, entry.getKey(), entry.getValue());
+        }
+    }
+
+    /**
+     * Return a copy of this rollup, which is not affected by the later changes of this one.
+     */
+    Rollup copy() {
+        Rollup copy = new Rollup(start, length);
+        copy.merge(this);
+        return copy;
+    }
+
+    private static void add(Map<String, Long> map, String key, long duration) {
+        Long current = map.get(key);
+        map.put(key, current != null ? current + duration : duration);
+    }
+
+    /**
+     * Return the start of the period.
+     * @return the timestamp of the start
+     */
+    public long getStart() {
+        return start;
+    }
+
+    /**
+     * Return the length of the period.
+     * @return the length, in milliseconds
+     */
+    public long getLength() {
+        return length;
+    }
+
+    /**
+     * Return the time of the period covered by the history.
+     * @return the observed time, in milliseconds
+     */
+    public long getObserved() {
+        return observed;
+    }
+
+    /**
+     * Return the busy time of each dish.
+     * @return the busy times, mapped by the dish names, not to be modified
+     */
+    public Map<String, Long> getDishes() {
+        return dishes;
+    }
+
+    /**
+     * Return the total busy time of the dishes of each station.
+     * @return the busy times, mapped by the station names, not to be modified
+     */
+    public Map<String, Long> getStations() {
+        return stations;
+    }
+
+    /**
+     * Return the contact time of each spacecraft.
+     * @return the contact times, mapped by the spacecraft names, not to be modified
+     */
+    public Map<String, Long> getSpacecraft() {
+        return spacecraft;
+    }
+
+    /**
+     * Return the ratio of the observed time a dish was busy.
+     * @param dish the name of the dish
+     * @return the utilization, between 0 and 1
+     */
+    public double getUtilization(String dish) {
+        Long busy = dishes.get(dish);
+        if (busy == null || observed == 0) return 0;
+        return (double) busy / observed;
+    }
+
+    /**
+     * Return the keys of the given times, from the longest time to the shortest, e.g. to list
+     * the busiest stations or the spacecraft with the most contact time.
+     * @param times one of the maps of a rollup
+     * @return the keys, sorted by their times
+     */
+    public static List<String> rank(final Map<String, Long> times) {
+        List<String> keys = new ArrayList<>(times.keySet());
+        Collections.sort(keys, new Comparator<String>() {
+            @Override
+            public int compare(String lhs, String rhs) {
+                return Long.compare(times.get(rhs), times.get(lhs));
+            }
+        });
+        return keys;
+    }
+}
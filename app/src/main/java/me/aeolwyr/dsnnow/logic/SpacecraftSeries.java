@@ -0,0 +1,311 @@
+/*
+ * DSN Monitor is an app to monitor the NASA Deep Space Network in real time.
+ * Copyright (c) 2016 Kaan Karaagacli
+ *
+ * This file is part of DSN Monitor.
+ *
+ * DSN Monitor is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DSN Monitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DSN Monitor.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package me.aeolwyr.dsnnow.logic;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import me.aeolwyr.dsnnow.data.DishState;
+import me.aeolwyr.dsnnow.data.NetworkState;
+import me.aeolwyr.dsnnow.data.Signal;
+import me.aeolwyr.dsnnow.data.Target;
+
+/**
+ * Time series of a single spacecraft, stored as primitive columns. Each row is a sample of
+ * the communication of the spacecraft with a single dish. <br />
+ * Signal values are zero if the dish has no downlink signal for the spacecraft, and target
+ * values are -1 if the dish has no target entry for it, following the conventions of
+ * <code>Signal</code> and <code>Target</code>. <br />
+ * The series returned by the store are copies, so they can be read on any thread.
+ */
+public class SpacecraftSeries {
+    private static final int INITIAL_CAPACITY = 64;
+
+    private String spacecraft;
+    /** names of the dishes, indexed by the dish column **/
+    private String[] dishNames;
+
+    private int size;
+    private long[] timestamps;
+    private int[] dishes;
+    private long[] dataRates;
+    private long[] frequencies;
+    private int[] powers;
+    private long[] uplegRanges;
+    private long[] downlegRanges;
+    private long[] rtlts;
+
+    /**
+     * Create a new empty series.
+     * @param spacecraft the name of the spacecraft
+     */
+    SpacecraftSeries(String spacecraft) {
+        this(spacecraft, INITIAL_CAPACITY);
+    }
+
+    private SpacecraftSeries(String spacecraft, int capacity) {
+        this.spacecraft = spacecraft;
+        timestamps = new long[capacity];
+        dishes = new int[capacity];
+        dataRates = new long[capacity];
+        frequencies = new long[capacity];
+        powers = new int[capacity];
+        uplegRanges = new long[capacity];
+        downlegRanges = new long[capacity];
+        rtlts = new long[capacity];
+    }
+
+    /**
+     * Create a series of the rows of a spacecraft in a single state, e.g. a state that is
+     * just downloaded and not given to the store yet.
+     * @param networkState the state to read
+     * @param spacecraft the name of the spacecraft
+     * @return the rows of the spacecraft, one for each dish communicating with it
+     */
+    public static SpacecraftSeries fromState(NetworkState networkState, String spacecraft) {
+        SpacecraftSeries spacecraftSeries = new SpacecraftSeries(spacecraft, 4);
+        List<String> dishNames = new ArrayList<>();
+        for (DishState dishState : networkState.getDishStates().values()) {
+            if (dishState == null || !dishState.getSpacecraft().contains(spacecraft)) continue;
+
+            Signal signal = findDownSignal(dishState, spacecraft);
+            Target target = findTarget(dishState, spacecraft);
+            spacecraftSeries.append(networkState.getTimestamp(), dishNames.size(),
+                    signal != null ? signal.getDataRate() : 0,
+                    signal != null ? signal.getFrequency() : 0,
+                    signal != null ? signal.getPower() : 0,
+                    target != null ? target.getUplegRange() : -1,
+                    target != null ? target.getDownlegRange() : -1,
+                    target != null ? target.getRTLT() : -1);
+            dishNames.add(dishState.getName());
+        }
+        spacecraftSeries.dishNames = dishNames.toArray(new String[dishNames.size()]);
+        return spacecraftSeries;
+    }
+
+    /**
+     * Return the downlink signal of a spacecraft, preferring the ones carrying data.
+     */
+    static Signal findDownSignal(DishState dishState, String spacecraft) {
+        Signal found = null;
+        for (Signal signal : dishState.getDownSignals()) {
+            if (!spacecraft.equals(signal.getSpacecraft())) continue;
+            if ("data".equals(signal.getSignalType())) return signal;
+            if (found == null) found = signal;
+        }
+        return found;
+    }
+
+    static Target findTarget(DishState dishState, String spacecraft) {
+        for (Target target : dishState.getTargets()) {
+            if (spacecraft.equals(target.getName())) return target;
+        }
+        return null;
+    }
+
+    /**
+     * Append a row to the end of the series.
+     */
+    void append(long timestamp, int dish, long dataRate, long frequency, int power,
+                long uplegRange, long downlegRange, long rtlt) {
+        if (size == timestamps.length) {
+            int capacity = size * 2;
+            timestamps = Arrays.copyOf(timestamps, capacity);
+            dishes = Arrays.copyOf(dishes, capacity);
+            dataRates = Arrays.copyOf(dataRates, capacity);
+            frequencies = Arrays.copyOf(frequencies, capacity);
+            powers = Arrays.copyOf(powers, capacity);
+            uplegRanges = Arrays.copyOf(uplegRanges, capacity);
+            downlegRanges = Arrays.copyOf(downlegRanges, capacity);
+            rtlts = Arrays.copyOf(rtlts, capacity);
+        }
+        timestamps[size] = timestamp;
+        dishes[size] = dish;
+        dataRates[size] = dataRate;
+        frequencies[size] = frequency;
+        powers[size] = power;
+        uplegRanges[size] = uplegRange;
+        downlegRanges[size] = downlegRange;
+        rtlts[size] = rtlt;
+        size++;
+    }
+
+    /**
+     * Drop the rows older than the given time.
+     * @param timestamp the timestamp of the oldest row to keep
+     */
+    void dropBefore(long timestamp) {
+        int from = lowerBound(timestamp);
+        if (from == 0) return;
+        SpacecraftSeries copy = copyRows(from, size, dishNames);
+        size = copy.size;
+        timestamps = copy.timestamps;
+        dishes = copy.dishes;
+        dataRates = copy.dataRates;
+        frequencies = copy.frequencies;
+        powers = copy.powers;
+        uplegRanges = copy.uplegRanges;
+        downlegRanges = copy.downlegRanges;
+        rtlts = copy.rtlts;
+    }
+
+    /**
+     * Return a copy of the rows in the given time range.
+     * @param from the start of the range, inclusive
+     * @param to the end of the range, inclusive
+     * @param dishNames the names of the dishes, indexed by the dish column
+     * @return the copy
+     */
+    SpacecraftSeries copy(long from, long to, String[] dishNames) {
+        int start = lowerBound(from);
+        int end = lowerBound(to == Long.MAX_VALUE ? to : to + 1);
+        return copyRows(start, end, dishNames);
+    }
+
+    private SpacecraftSeries copyRows(int start, int end, String[] dishNames) {
+        SpacecraftSeries copy = new SpacecraftSeries(spacecraft, Math.max(end - start, 1));
+        copy.dishNames = dishNames;
+        copy.size = end - start;
+        System.arraycopy(timestamps, start, copy.timestamps, 0, copy.size);
+        System.arraycopy(dishes, start, copy.dishes, 0, copy.size);
+        System.arraycopy(dataRates, start, copy.dataRates, 0, copy.size);
+        System.arraycopy(frequencies, start, copy.frequencies, 0, copy.size);
+        System.arraycopy(powers, start, copy.powers, 0, copy.size);
+        System.arraycopy(uplegRanges, start, copy.uplegRanges, 0, copy.size);
+        System.arraycopy(downlegRanges, start, copy.downlegRanges, 0, copy.size);
+        System.arraycopy(rtlts, start, copy.rtlts, 0, copy.size);
+        return copy;
+    }
+
+    /**
+     * Return the index of the first row at or after the given time.
+     */
+    private int lowerBound(long timestamp) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (timestamps[middle] < timestamp) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Return the name of the spacecraft, e.g. <code>VGR1</code>.
+     * @return the name of the spacecraft
+     */
+    public String getSpacecraft() {
+        return spacecraft;
+    }
+
+    /**
+     * Return the number of rows.
+     * @return the size of the series
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Return the time of a row.
+     * @param index the index of the row
+     * @return the timestamp of the row
+     */
+    public long getTimestamp(int index) {
+        return timestamps[index];
+    }
+
+    /**
+     * Return the dish of a row.
+     * @param index the index of the row
+     * @return the name of the dish, e.g. <code>DSS14</code>
+     */
+    public String getDish(int index) {
+        return dishNames[dishes[index]];
+    }
+
+    /**
+     * Return the id of the dish of a row, as stored in the dish column.
+     */
+    int getDishId(int index) {
+        return dishes[index];
+    }
+
+    /**
+     * Return the downlink data rate of a row, in microbits per second.
+     * @param index the index of the row
+     * @return the data rate
+     */
+    public long getDataRate(int index) {
+        return dataRates[index];
+    }
+
+    /**
+     * Return the downlink frequency of a row, in microhertz.
+     * @param index the index of the row
+     * @return the frequency
+     */
+    public long getFrequency(int index) {
+        return frequencies[index];
+    }
+
+    /**
+     * Return the received power of a row, in micro-dBm.
+     * @param index the index of the row
+     * @return the power
+     */
+    public int getPower(int index) {
+        return powers[index];
+    }
+
+    /**
+     * Return the upleg range of a row, in meters.
+     * @param index the index of the row
+     * @return the upleg range
+     */
+    public long getUplegRange(int index) {
+        return uplegRanges[index];
+    }
+
+    /**
+     * Return the downleg range of a row, in meters.
+     * @param index the index of the row
+     * @return the downleg range
+     */
+    public long getDownlegRange(int index) {
+        return downlegRanges[index];
+    }
+
+    /**
+     * Return the round-trip light time of a row, in microseconds.
+     * @param index the index of the row
+     * @return the round-trip light time
+     */
+    public long getRTLT(int index) {
+        return rtlts[index];
+    }
+}
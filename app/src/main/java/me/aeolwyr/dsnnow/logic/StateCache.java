@@ -0,0 +1,125 @@
+/*
+ * DSN Monitor is an app to monitor the NASA Deep Space Network in real time.
+ * Copyright (c) 2016 Kaan Karaagacli
+ *
+ * This file is part of DSN Monitor.
+ *
+ * DSN Monitor is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DSN Monitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DSN Monitor.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package me.aeolwyr.dsnnow.logic;
+
+import android.content.ComponentCallbacks2;
+import android.util.LruCache;
+
+import me.aeolwyr.dsnnow.data.CompactNetworkState;
+import me.aeolwyr.dsnnow.data.NetworkState;
+
+/**
+ * Least recently used cache of parsed network states, mapped by their timestamps. <br />
+ * The states are kept in their compact form, so that many of them fit, e.g. for the history
+ * playback, and they are turned back into the usual objects when they are taken out. The size
+ * of the cache is measured in the estimated number of bytes the compact states retain. The
+ * strings of the states go into a table owned by the cache, which is replaced once it has
+ * grown large, so that the strings of the evicted states are not kept forever. <br />
+ * All the public functions are thread-safe.
+ */
+public class StateCache {
+    /** upper limit of the cache size, in bytes **/
+    private static final int MAX_SIZE = 4 * 1024 * 1024;
+    /** the string table is replaced once it has this many strings **/
+    private static final int MAX_STRINGS = 4096;
+
+    private LruCache<Long, CompactNetworkState> cache;
+    /** the table of the states put next, guarded by this object **/
+    private CompactNetworkState.StringTable strings = new CompactNetworkState.StringTable();
+
+    /**
+     * Create a new cache, sized according to the memory available to the application.
+     */
+    public StateCache() {
+        int maxSize = (int) Math.min(MAX_SIZE, Runtime.getRuntime().maxMemory() / 32);
+        cache = new LruCache<Long, CompactNetworkState>(maxSize) {
+            @Override
+            protected int sizeOf(Long timestamp, CompactNetworkState state) {
+                return state.estimateSize();
+            }
+        };
+    }
+
+    /**
+     * Return the state with the given timestamp.
+     * @param timestamp the timestamp of the state
+     * @return a new copy of the state, or null if it is not in the cache
+     */
+    public NetworkState get(long timestamp) {
+        CompactNetworkState state = cache.get(timestamp);
+        return state != null ? state.toNetworkState() : null;
+    }
+
+    /**
+     * Return whether the state with the given timestamp is in the cache, without copying it.
+     * @param timestamp the timestamp of the state
+     * @return true if it is in the cache
+     */
+    public boolean contains(long timestamp) {
+        return cache.get(timestamp) != null;
+    }
+
+    /**
+     * Put the given state into the cache. It is copied, the later changes to the given
+     * state are not reflected.
+     * @param timestamp the timestamp of the state
+     * @param networkState the state to put
+     */
+    public void put(long timestamp, NetworkState networkState) {
+        cache.put(timestamp, CompactNetworkState.of(networkState, getStringTable()));
+    }
+
+    /**
+     * Return the table to put the strings of a new state into, starting a new one if the
+     * current one is full. The states already in the cache keep referring to the old one.
+     */
+    private synchronized CompactNetworkState.StringTable getStringTable() {
+        if (strings.size() >= MAX_STRINGS) strings = new CompactNetworkState.StringTable();
+        return strings;
+    }
+
+    /**
+     * Release some or all of the cached states, according to the given memory level.
+     * @param level a <code>ComponentCallbacks2</code> trim memory level
+     */
+    public void trimMemory(int level) {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE
+                || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+            // the process is near the top of the kill list, or the system is about to
+            // kill the background processes
+            evictAll();
+        } else if (level == ComponentCallbacks2.TRIM_MEMORY_BACKGROUND
+                || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+            cache.trimToSize(cache.maxSize() / 2);
+        }
+        // nothing to release when only the UI is hidden, the states are shown again on return
+    }
+
+    /**
+     * Release all the cached states, and the strings they refer to.
+     */
+    private void evictAll() {
+        cache.evictAll();
+        synchronized (this) {
+            strings = new CompactNetworkState.StringTable();
+        }
+    }
+}
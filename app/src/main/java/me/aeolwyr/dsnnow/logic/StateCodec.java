@@ -0,0 +1,235 @@
+/*
+ * DSN Monitor is an app to monitor the NASA Deep Space Network in real time.
+ * Copyright (c) 2016 Kaan Karaagacli
+ *
+ * This file is part of DSN Monitor.
+ *
+ * DSN Monitor is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DSN Monitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DSN Monitor.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package me.aeolwyr.dsnnow.logic;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import me.aeolwyr.dsnnow.data.DishState;
+import me.aeolwyr.dsnnow.data.NetworkState;
+import me.aeolwyr.dsnnow.data.Signal;
+import me.aeolwyr.dsnnow.data.StationState;
+import me.aeolwyr.dsnnow.data.Target;
+
+/**
+ * Binary encoder/decoder for <code>NetworkState</code> objects. <br />
+ * Unlike a <code>dsn.xml</code> file, the encoded form is already decoded into numbers,
+ * therefore it can be read back without any XML or number parsing.
+ */
+public class StateCodec {
+    /** first bytes of an encoded state, "DSNS" **/
+    private static final int MAGIC = 0x44534E53;
+    /** increment if the layout below changes **/
+    private static final int VERSION = 1;
+
+    // dish flags
+    private static final int FLAG_MSPA = 1;
+    private static final int FLAG_ARRAY = 1 << 1;
+    private static final int FLAG_DDOR = 1 << 2;
+
+    /**
+     * Write the given state to a file. The file is replaced atomically, so a reader
+     * never sees a partially written state.
+     * @param networkState the state to write
+     * @param file the destination file
+     * @throws IOException if there is an input/output error
+     */
+    public static void writeFile(NetworkState networkState, File file) throws IOException {
+        File tempFile = FileUtils.getTempFile(file);
+        try (DataOutputStream output = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(tempFile)))) {
+            write(networkState, output);
+        }
+        FileUtils.replace(tempFile, file);
+    }
+
+    /**
+     * Read a state previously written with <code>writeFile</code>.
+     * @param file the file to read from
+     * @return the decoded state
+     * @throws IOException if there is an input/output error, or the file is not a valid state
+     */
+    public static NetworkState readFile(File file) throws IOException {
+        try (DataInputStream input = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(file)))) {
+            return read(input);
+        }
+    }
+
+    /**
+     * Encode the given state.
+     * @param networkState the state to encode
+     * @param output the output to write to
+     * @throws IOException if there is an input/output error
+     */
+    public static void write(NetworkState networkState, DataOutput output) throws IOException {
+        output.writeInt(MAGIC);
+        output.writeInt(VERSION);
+        output.writeLong(networkState.getTimestamp());
+
+        Map<String, StationState> stationStates = networkState.getStationStates();
+        output.writeInt(stationStates.size());
+        for (StationState stationState : stationStates.values()) {
+            writeString(output, stationState.getName());
+            writeString(output, stationState.getFriendlyName());
+            output.writeInt(stationState.getTimeZoneOffset());
+
+            output.writeInt(stationState.getDishStates().size());
+            for (String dishName : stationState.getDishStates()) {
+                writeString(output, dishName);
+                DishState dishState = networkState.getDishStates().get(dishName);
+                // unused dishes are stored with a null value
+                output.writeBoolean(dishState != null);
+                if (dishState != null) {
+                    writeDish(output, dishState);
+                }
+            }
+        }
+    }
+
+    /**
+     * Decode a state previously encoded with <code>write</code>.
+     * @param input the input to read from
+     * @return the decoded state
+     * @throws IOException if there is an input/output error, or the input is not a valid state
+     */
+    public static NetworkState read(DataInput input) throws IOException {
+        if (input.readInt() != MAGIC || input.readInt() != VERSION) {
+            throw new IOException("Unknown state format");
+        }
+        NetworkState.Builder networkState = new NetworkState.Builder();
+        networkState.setTimestamp(input.readLong());
+
+        int numberOfStations = input.readInt();
+        for (int i = 0; i < numberOfStations; i++) {
+            StationState.Builder stationState = new StationState.Builder(
+                    readString(input), readString(input), input.readInt());
+
+            int numberOfDishes = input.readInt();
+            for (int j = 0; j < numberOfDishes; j++) {
+                String dishName = readString(input);
+                DishState dishState = input.readBoolean() ? readDish(input) : null;
+                stationState.addDishState(dishName);
+                networkState.putDishState(dishName, dishState);
+            }
+
+            networkState.addStationState(stationState.build());
+        }
+        return networkState.build();
+    }
+
+    private static void writeDish(DataOutput output, DishState dishState) throws IOException {
+        writeString(output, dishState.getName());
+        output.writeInt(dishState.getAzimuthAngle());
+        output.writeInt(dishState.getElevationAngle());
+        output.writeInt(dishState.getWindSpeed());
+        output.writeByte((dishState.isMSPA() ? FLAG_MSPA : 0)
+                | (dishState.isArray() ? FLAG_ARRAY : 0)
+                | (dishState.isDDOR() ? FLAG_DDOR : 0));
+
+        writeSignals(output, dishState.getDownSignals());
+        writeSignals(output, dishState.getUpSignals());
+
+        List<Target> targets = dishState.getTargets();
+        output.writeInt(targets.size());
+        for (Target target : targets) {
+            writeString(output, target.getName());
+            output.writeLong(target.getUplegRange());
+            output.writeLong(target.getDownlegRange());
+            output.writeLong(target.getRTLT());
+        }
+    }
+
+    private static DishState readDish(DataInput input) throws IOException {
+        String name = readString(input);
+        int azimuthAngle = input.readInt();
+        int elevationAngle = input.readInt();
+        int windSpeed = input.readInt();
+        int flags = input.readByte();
+        DishState.Builder dishState = new DishState.Builder(name, azimuthAngle, elevationAngle,
+                windSpeed, (flags & FLAG_MSPA) != 0, (flags & FLAG_ARRAY) != 0,
+                (flags & FLAG_DDOR) != 0);
+
+        for (Signal signal : readSignals(input)) {
+            dishState.addDownSignal(signal);
+        }
+        for (Signal signal : readSignals(input)) {
+            dishState.addUpSignal(signal);
+        }
+
+        int numberOfTargets = input.readInt();
+        for (int i = 0; i < numberOfTargets; i++) {
+            dishState.addTarget(new Target(readString(input),
+                    input.readLong(), input.readLong(), input.readLong()));
+        }
+        return dishState.build();
+    }
+
+    private static void writeSignals(DataOutput output, List<Signal> signals) throws IOException {
+        output.writeInt(signals.size());
+        for (Signal signal : signals) {
+            writeString(output, signal.getSignalType());
+            writeString(output, signal.getSignalTypeDebug());
+            output.writeLong(signal.getDataRate());
+            output.writeLong(signal.getFrequency());
+            output.writeInt(signal.getPower());
+            writeString(output, signal.getSpacecraft());
+        }
+    }
+
+    private static List<Signal> readSignals(DataInput input) throws IOException {
+        int numberOfSignals = input.readInt();
+        List<Signal> signals = new ArrayList<>(numberOfSignals);
+        for (int i = 0; i < numberOfSignals; i++) {
+            signals.add(new Signal(readString(input), readString(input),
+                    input.readLong(), input.readLong(), input.readInt(), readString(input)));
+        }
+        return signals;
+    }
+
+    /**
+     * Write a string that might be null, e.g. a missing XML attribute.
+     */
+    static void writeString(DataOutput output, String string) throws IOException {
+        output.writeBoolean(string != null);
+        if (string != null) {
+            output.writeUTF(string);
+        }
+    }
+
+    /**
+     * Read a string written with <code>writeString</code>.
+     */
+    static String readString(DataInput input) throws IOException {
+        return input.readBoolean() ? input.readUTF() : null;
+    }
+}
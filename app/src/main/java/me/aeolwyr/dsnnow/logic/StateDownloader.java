@@ -0,0 +1,193 @@
+/*
+ * DSN Monitor is an app to monitor the NASA Deep Space Network in real time.
+ * Copyright (c) 2016 Kaan Karaagacli
+ *
+ * This file is part of DSN Monitor.
+ *
+ * DSN Monitor is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DSN Monitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DSN Monitor.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package me.aeolwyr.dsnnow.logic;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Downloader of the state files of a feed, shared by the app and the archiver. <br />
+ * The downloads are conditional: the validators of the last downloaded state are sent
+ * with the next request, and the server can answer that nothing has changed instead of
+ * sending the same state again. The validators of a download are kept only once the caller
+ * commits them, after the state is parsed. The responses are requested compressed. <br />
+ * It does network input/output on the calling thread, therefore it should not be used
+ * on the main thread.
+ */
+public class StateDownloader {
+    /** download location of the official feed **/
+    public static final String FEED_URL = "https://eyes.nasa.gov/dsn/data/dsn.xml";
+    /** maximum file size allowed, in bytes **/
+    public static final int MAX_FILE_SIZE = 15360;
+    /** connect and read timeout, in milliseconds **/
+    private static final int TIMEOUT = 5000;
+
+    private final String feedUrl;
+    /** validators of the last committed state, guarded by this object **/
+    private String etag;
+    private String lastModified;
+    /** validators of the last download, not committed yet, guarded by this object **/
+    private String pendingEtag;
+    private String pendingLastModified;
+
+    /**
+     * Create a new downloader of the given feed.
+     * @param feedUrl location of the feed, e.g. <code>FEED_URL</code> or a mirror of it
+     */
+    public StateDownloader(String feedUrl) {
+        this.feedUrl = feedUrl;
+    }
+
+    /**
+     * Return the location of the feed.
+     * @return the feed URL
+     */
+    public String getFeedUrl() {
+        return feedUrl;
+    }
+
+    /**
+     * Download the latest state of the feed, decompressing it if necessary. <br />
+     * The next download is conditional on this one only after <code>commit</code> is called.
+     * @return the plain content of the state, between the start and the position of the buffer,
+     * or null if the state has not changed since the last download
+     * @throws IOException if a connection error has occurred, or the state is too large
+     */
+    public ByteBuffer download() throws IOException {
+        HttpURLConnection connection;
+        int responseCode;
+        Tracer.begin(Tracer.DOWNLOAD);
+        try {
+            connection = connect();
+            responseCode = connection.getResponseCode();
+        } finally {
+            Tracer.end();
+        }
+
+        try {
+            if (responseCode == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                connection.disconnect();
+                return null;
+            }
+            if (responseCode != HttpURLConnection.HTTP_OK) {
+                throw new IOException("Unexpected response " + responseCode);
+            }
+
+            InputStream inputStream = connection.getInputStream();
+            boolean compressed = "gzip".equalsIgnoreCase(connection.getContentEncoding());
+            if (compressed) inputStream = new GZIPInputStream(inputStream);
+            ByteBuffer byteBuffer = read(inputStream);
+            if (byteBuffer == null) throw new IOException("State file too large");
+            // a connection closed early looks like the end of the body, unless it is
+            // compressed, in which case the decompression fails instead
+            int contentLength = connection.getContentLength();
+            if (!compressed && contentLength >= 0 && byteBuffer.position() != contentLength) {
+                throw new IOException("Truncated response");
+            }
+
+            // not used until committed, a broken state must not be taken for the latest one
+            synchronized (this) {
+                pendingEtag = connection.getHeaderField("ETag");
+                pendingLastModified = connection.getHeaderField("Last-Modified");
+            }
+            return byteBuffer;
+        } catch (IOException e) {
+            connection.disconnect();
+            throw e;
+        }
+    }
+
+    /**
+     * Make the next downloads conditional on the last downloaded state, e.g. once it is
+     * parsed successfully. Without this, the same state is downloaded again next time.
+     */
+    public synchronized void commit() {
+        etag = pendingEtag;
+        lastModified = pendingLastModified;
+    }
+
+    /**
+     * Open a connection to the feed.
+     * @return the connection, connected
+     * @throws IOException if a connection error has occurred
+     */
+    private HttpURLConnection connect() throws IOException {
+        // create a new URL each time to prevent hitting the CDN cache
+        String separator = feedUrl.indexOf('?') < 0 ? "?r=" : "&r=";
+        URL url = new URL(feedUrl + separator + (System.currentTimeMillis() / 5000));
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        connection.setReadTimeout(TIMEOUT);
+        connection.setConnectTimeout(TIMEOUT);
+        // asked explicitly, so that it is decompressed the same way on every platform
+        connection.setRequestProperty("Accept-Encoding", "gzip");
+        synchronized (this) {
+            if (etag != null) connection.setRequestProperty("If-None-Match", etag);
+            if (lastModified != null) {
+                connection.setRequestProperty("If-Modified-Since", lastModified);
+            }
+        }
+
+        long connectStart = System.nanoTime();
+        connection.connect();
+        Metrics.CONNECT_TIME.recordSince(connectStart);
+        return connection;
+    }
+
+    /**
+     * Read a whole state file, decompressing it if it is a compressed cached file. <br />
+     * The input stream is closed afterwards.
+     * @param inputStream the stream to read
+     * @return the plain content of the file, between the start and the position of the buffer,
+     * or null if the file is larger than <code>MAX_FILE_SIZE</code>
+     * @throws IOException if there is an input/output error
+     */
+    public static ByteBuffer read(InputStream inputStream) throws IOException {
+        ByteBuffer byteBuffer = ByteBuffer.allocate(MAX_FILE_SIZE);
+
+        // read file to buffer
+        Tracer.begin(Tracer.BUFFER_FILL);
+        try (ReadableByteChannel readableByteChannel = Channels.newChannel(inputStream)) {
+            while (readableByteChannel.read(byteBuffer) >= 0) {
+                // make sure the input file is not very large
+                if (!byteBuffer.hasRemaining()) return null;
+            }
+            // inputStream is closed by the channel
+        } finally {
+            Tracer.end();
+        }
+
+        // the stream could be a compressed cached file
+        byte[] content = byteBuffer.array();
+        int length = byteBuffer.position();
+        if (StateFileCompression.isCompressed(content, length)) {
+            content = StateFileCompression.decompress(content, length);
+            byteBuffer = ByteBuffer.wrap(content);
+            byteBuffer.position(content.length);
+        }
+        return byteBuffer;
+    }
+}
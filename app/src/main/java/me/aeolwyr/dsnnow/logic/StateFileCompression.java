@@ -0,0 +1,276 @@
+/*
+ * DSN Monitor is an app to monitor the NASA Deep Space Network in real time.
+ * Copyright (c) 2016 Kaan Karaagacli
+ *
+ * This file is part of DSN Monitor.
+ *
+ * DSN Monitor is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DSN Monitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DSN Monitor.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package me.aeolwyr.dsnnow.logic;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compression of the cached and pinned state files. <br />
+ * The files are deflated with a preset dictionary made of typical state file content,
+ * as most of a state file is the same tag and attribute names repeated over and over.
+ * A compressed file starts with a magic number and the version of the dictionary used,
+ * so that the dictionary can be improved later without breaking the existing files.
+ * Files without the magic number are plain XML, e.g. the ones cached by older versions,
+ * and they are read as they are.
+ */
+public class StateFileCompression {
+    /** "DSNZ", the first bytes of a compressed file **/
+    private static final int MAGIC = 0x44534E5A;
+    /** magic and the dictionary version **/
+    private static final int HEADER_SIZE = 4 + 1;
+    /** upper limit of a decompressed file, in bytes, to reject broken files early **/
+    private static final int MAX_SIZE = 256 * 1024;
+
+    /**
+     * Preset dictionaries, indexed by their versions. An existing dictionary must never be
+     * changed, a new version should be added instead. <br />
+     * Deflate references the end of the dictionary more cheaply, so the most common
+     * strings are placed last.
+     */
+    private static final String[] DICTIONARIES = {
+            // version 0, unused
+            null,
+            // version 1
+            "<?xml version='1.0' encoding='utf-8'?>\n<dsn>\n"
+                    + "<station friendlyName=\"Goldstone\" name=\"gdscc\" timeUTC=\"\" "
+                    + "timeZoneOffset=\"-28800000\" />\n"
+                    + "<station friendlyName=\"Madrid\" name=\"mdscc\" timeUTC=\"\" "
+                    + "timeZoneOffset=\"3600000\" />\n"
+                    + "<station friendlyName=\"Canberra\" name=\"cdscc\" timeUTC=\"\" "
+                    + "timeZoneOffset=\"39600000\" />\n"
+                    + "<timestamp></timestamp>\n</dsn>\n"
+                    + "name=\"DSS14\" name=\"DSS24\" name=\"DSS25\" name=\"DSS26\" "
+                    + "name=\"DSS34\" name=\"DSS35\" name=\"DSS36\" name=\"DSS43\" "
+                    + "name=\"DSS54\" name=\"DSS55\" name=\"DSS56\" name=\"DSS63\" "
+                    + "name=\"DSS65\" "
+                    + "signalTypeDebug=\"IN LOCK OFF 1 MCD3\" signalTypeDebug=\"IDLE OFF 0\" "
+                    + "signalTypeDebug=\"OUT OF LOCK OFF 1 MCD3\" signalType=\"carrier\" "
+                    + "spacecraft=\"VGR1\" spacecraft=\"VGR2\" spacecraft=\"MRO\" "
+                    + "spacecraft=\"MSL\" spacecraft=\"JNO\" spacecraft=\"M01O\" "
+                    + "spacecraft=\"KPLO\" spacecraft=\"JWST\" spacecraft=\"TESS\" "
+                    + "spacecraft=\"DSN\" spacecraftId=\"\" "
+                    + "frequency=\"none\" frequency=\"\" dataRate=\"\" power=\"\" "
+                    + "</dish>\n"
+                    + "<dish azimuthAngle=\"\" elevationAngle=\"\" isArray=\"false\" "
+                    + "isDDOR=\"false\" isMSPA=\"false\" name=\"\" windSpeed=\"\" "
+                    + "created=\"\" updated=\"\">\n"
+                    + "<target downlegRange=\"-1.0\" id=\"\" name=\"\" rtlt=\"-1.0\" "
+                    + "uplegRange=\"-1.0\" />\n"
+                    + "<target downlegRange=\"\" id=\"\" name=\"\" rtlt=\"\" uplegRange=\"\" />\n"
+                    + "<upSignal active=\"false\" dataRate=\"\" frequency=\"\" power=\"\" "
+                    + "signalType=\"none\" signalTypeDebug=\"\" spacecraft=\"\" "
+                    + "spacecraftId=\"\" />\n"
+                    + "<downSignal active=\"false\" dataRate=\"\" frequency=\"\" power=\"\" "
+                    + "signalType=\"none\" signalTypeDebug=\"\" spacecraft=\"\" "
+                    + "spacecraftId=\"\" />\n"
+                    + "<upSignal active=\"true\" dataRate=\"\" frequency=\"\" power=\"\" "
+                    + "signalType=\"data\" signalTypeDebug=\"\" spacecraft=\"\" "
+                    + "spacecraftId=\"\" />\n"
+                    + "<downSignal active=\"true\" dataRate=\"\" frequency=\"\" power=\"\" "
+                    + "signalType=\"data\" signalTypeDebug=\"\" spacecraft=\"\" "
+                    + "spacecraftId=\"\" />\n"
+    };
+    /** dictionary version used for the new files **/
+    private static final int CURRENT_VERSION = DICTIONARIES.length - 1;
+
+    private static final Charset CHARSET = Charset.forName("UTF-8");
+
+    /**
+     * Compress the given state file content and write it to a file. <br />
+     * The content is written to a temporary file and synced to the disk first, then renamed
+     * to the destination, so the destination is never left partially written after a crash.
+     * @param data the buffer holding the plain content of the state file
+     * @param offset the start of the content in the buffer
+     * @param length the length of the content
+     * @param file the file to write to, replaced if it exists
+     * @throws IOException if there is an input/output error
+     */
+    public static void write(byte[] data, int offset, int length, File file) throws IOException {
+        commit(writeTemp(data, offset, length, file), file);
+    }
+
+    /**
+     * Compress the given state file content and write it to the temporary file of the given
+     * file, without syncing it. The file is completed with <code>commit</code>, which allows
+     * many files to be written before any of them are synced.
+     * @param data the buffer holding the plain content of the state file
+     * @param offset the start of the content in the buffer
+     * @param length the length of the content
+     * @param file the file to write to eventually
+     * @return the temporary file
+     * @throws IOException if there is an input/output error
+     */
+    public static File writeTemp(byte[] data, int offset, int length, File file)
+            throws IOException {
+        File tempFile = FileUtils.getTempFile(file);
+        try (FileOutputStream outputStream = new FileOutputStream(tempFile)) {
+            write(data, offset, length, outputStream);
+        }
+        return tempFile;
+    }
+
+    /**
+     * Sync a temporary file written by <code>writeTemp</code> to the disk, and rename it
+     * to the given file. The temporary file is deleted if this fails.
+     * @param tempFile the temporary file
+     * @param file the file to replace with it
+     * @throws IOException if there is an input/output error
+     */
+    public static void commit(File tempFile, File file) throws IOException {
+        try (FileOutputStream outputStream = new FileOutputStream(tempFile, true)) {
+            outputStream.getFD().sync();
+        } catch (IOException e) {
+            // noinspection ResultOfMethodCallIgnored
+            tempFile.delete();
+            throw e;
+        }
+        FileUtils.replace(tempFile, file);
+    }
+
+    /**
+     * Compress the given state file content and write it to a stream.
+     * @param data the buffer holding the plain content of the state file
+     * @param offset the start of the content in the buffer
+     * @param length the length of the content
+     * @param outputStream the stream to write to, not closed afterwards
+     * @throws IOException if there is an input/output error
+     */
+    public static void write(byte[] data, int offset, int length, OutputStream outputStream)
+            throws IOException {
+        Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+        try {
+            deflater.setDictionary(getDictionary(CURRENT_VERSION));
+            deflater.setInput(data, offset, length);
+            deflater.finish();
+
+            outputStream.write(MAGIC >>> 24);
+            outputStream.write(MAGIC >>> 16);
+            outputStream.write(MAGIC >>> 8);
+            outputStream.write(MAGIC);
+            outputStream.write(CURRENT_VERSION);
+            byte[] buffer = new byte[4096];
+            while (!deflater.finished()) {
+                int count = deflater.deflate(buffer);
+                outputStream.write(buffer, 0, count);
+            }
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Open a state file for reading, decompressing it if it is compressed.
+     * @param file the cached or pinned state file
+     * @return input stream of the plain content of the file
+     * @throws IOException if there is an input/output error, or the file is broken
+     */
+    public static InputStream openInputStream(File file) throws IOException {
+        byte[] data;
+        try (InputStream inputStream = new FileInputStream(file)) {
+            data = readFully(inputStream, (int) file.length());
+        }
+        if (!isCompressed(data, data.length)) return new ByteArrayInputStream(data);
+        return new ByteArrayInputStream(decompress(data, data.length));
+    }
+
+    /**
+     * Decompress the given file content.
+     * @param data the buffer holding the content of a compressed state file
+     * @param length the length of the content, starting from the beginning of the buffer
+     * @return the plain content
+     * @throws IOException if the content is broken
+     */
+    public static byte[] decompress(byte[] data, int length) throws IOException {
+        if (!isCompressed(data, length)) throw new IOException("Not a compressed state file");
+
+        int version = data[4] & 0xFF;
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(data, HEADER_SIZE, length - HEADER_SIZE);
+            ByteArrayOutputStream outputStream = new ByteArrayOutputStream(length * 8);
+            byte[] buffer = new byte[4096];
+            while (!inflater.finished()) {
+                int count = inflater.inflate(buffer);
+                if (count == 0) {
+                    if (inflater.needsDictionary()) {
+                        inflater.setDictionary(getDictionary(version));
+                    } else if (inflater.needsInput()) {
+                        throw new IOException("Truncated state file");
+                    }
+                }
+                outputStream.write(buffer, 0, count);
+                if (outputStream.size() > MAX_SIZE) {
+                    throw new IOException("State file too large");
+                }
+            }
+            return outputStream.toByteArray();
+        } catch (DataFormatException | IllegalArgumentException e) {
+            // the latter if the dictionary does not match the one the file is written with
+            throw new IOException(e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /**
+     * Check whether the given file content is compressed by this class.
+     * @param data the buffer holding the content of a state file
+     * @param length the length of the content, starting from the beginning of the buffer
+     * @return true if it starts with the magic number
+     */
+    public static boolean isCompressed(byte[] data, int length) {
+        return length > HEADER_SIZE
+                && (data[0] & 0xFF) == (MAGIC >>> 24)
+                && (data[1] & 0xFF) == ((MAGIC >>> 16) & 0xFF)
+                && (data[2] & 0xFF) == ((MAGIC >>> 8) & 0xFF)
+                && (data[3] & 0xFF) == (MAGIC & 0xFF);
+    }
+
+    private static byte[] getDictionary(int version) throws IOException {
+        if (version <= 0 || version >= DICTIONARIES.length) {
+            // written by a newer version of the application
+            throw new IOException("Unknown dictionary version " + version);
+        }
+        return DICTIONARIES[version].getBytes(CHARSET);
+    }
+
+    private static byte[] readFully(InputStream inputStream, int sizeHint) throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream(Math.max(sizeHint, 32));
+        byte[] buffer = new byte[4096];
+        int count;
+        while ((count = inputStream.read(buffer)) >= 0) {
+            outputStream.write(buffer, 0, count);
+            if (outputStream.size() > MAX_SIZE) throw new IOException("State file too large");
+        }
+        return outputStream.toByteArray();
+    }
+}
@@ -20,14 +20,18 @@
 
 package me.aeolwyr.dsnnow.logic;
 
-import android.util.Xml;
-
 import org.xmlpull.v1.XmlPullParser;
 import org.xmlpull.v1.XmlPullParserException;
+import org.xmlpull.v1.XmlPullParserFactory;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.math.BigDecimal;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 import me.aeolwyr.dsnnow.data.DishState;
 import me.aeolwyr.dsnnow.data.NetworkConfig;
@@ -39,68 +43,109 @@ import me.aeolwyr.dsnnow.data.Target;
 
 /**
  * Parser class to be used with a <code>dsn.xml</code> file,
- * creates a <code>NetworkState</code> object that holds the information in the XML.
+ * creates a <code>NetworkState</code> object that holds the information in the XML. <br />
+ * The file can also be parsed in two phases: <code>parseOverview</code> reads the stations,
+ * the dishes and the target names, and the signals and the targets of each dish are decoded
+ * from its bytes only when they are read.
  */
 public class StateParser {
+    /** the platform parser factory on Android, the one on the class path elsewhere **/
+    private static XmlPullParserFactory factory;
+    /** strings of the parsed states, shared by the parses with the same config **/
+    private static StringPool pool;
+
+    // searched for by the overview parse
+    private static final byte[] DISH_START = {'<', 'd', 'i', 's', 'h'};
+    private static final byte[] DISH_END = {'<', '/', 'd', 'i', 's', 'h', '>'};
+    private static final byte[] TAG_END = {'>'};
+    /** the start of a comment or a CDATA section, which the search cannot look into **/
+    private static final byte[] MARKUP_START = {'<', '!'};
+    private static final Charset CHARSET = Charset.forName("UTF-8");
+
     public static NetworkState parse(NetworkConfig config, InputStream inputStream)
             throws XmlPullParserException, IOException {
-        XmlPullParser parser = Xml.newPullParser();
-        // namespaces are not used in these files
-        parser.setFeature(XmlPullParser.FEATURE_PROCESS_NAMESPACES, false);
-        parser.setInput(inputStream, null);
+        return parse(config, inputStream, null, 0, null);
+    }
+
+    /**
+     * Parse the overview of a state file: the stations, the dishes and the names of
+     * the targets. The signals and the targets of a dish are decoded from the given buffer
+     * the first time they are read, see <code>DishState.getTargets()</code>. <br />
+     * The buffer is kept by the returned state until then, and must not be modified.
+     * @param config the network config
+     * @param content the buffer holding the plain content of the state file
+     * @param length the length of the content, starting from the beginning of the buffer
+     * @return the parsed network state
+     * @throws XmlPullParserException if the file is broken
+     * @throws IOException if there is an input/output error
+     */
+    public static NetworkState parseOverview(NetworkConfig config, byte[] content, int length)
+            throws XmlPullParserException, IOException {
+        int[] dishRanges = findDishes(content, length);
+        NetworkState networkState = null;
+        if (dishRanges != null) {
+            networkState = parse(config, new ByteArrayInputStream(content, 0, length),
+                    content, length, dishRanges);
+        }
+        if (networkState == null) {
+            // the search is confused by something unusual in the file, e.g. a comment
+            networkState = parse(config, new ByteArrayInputStream(content, 0, length));
+        }
+        return networkState;
+    }
+
+    /**
+     * Parse a state file.
+     * @param config the network config
+     * @param inputStream the stream of the state file
+     * @param content if not null, the buffer holding the content of the stream, to decode
+     *                the skipped signals and targets from
+     * @param length the length of the content in the buffer
+     * @param dishRanges the start and the end offsets of each dish in the buffer, if given,
+     *                   the signals and the targets are skipped
+     * @return the parsed network state, or null if the offsets do not match the dishes
+     */
+    private static NetworkState parse(NetworkConfig config, InputStream inputStream,
+                                      byte[] content, int length, int[] dishRanges)
+            throws XmlPullParserException, IOException {
+        XmlPullParser parser = newParser(inputStream);
+        StringPool pool = getPool(config);
         try {
-            NetworkState networkState = new NetworkState();
+            NetworkState.Builder networkState = new NetworkState.Builder();
+            // the station states are built last, after the unused dishes are added
+            List<StationState.Builder> stationStates = new ArrayList<>();
+            int dishIndex = 0;
             // should be at the BEGIN_DOCUMENT
             parser.nextTag();
             // now at <dsn>
             parser.nextTag();
             // now at the beginning of the station
             while (parser.getName().equals(StationState.STATION)) {
-                StationState stationState = processStation(parser);
+                StationState.Builder stationState = processStation(parser, pool);
                 parser.nextTag();
                 // now at the end of the station
                 parser.nextTag();
                 // now at the first dish
                 while (parser.getName().equals(DishState.DISH)) {
-                    DishState dishState = processDish(parser);
-                    parser.nextTag();
-                    // now at the first signal
-                    while (parser.getName().endsWith(Signal.SIGNAL)) {
-                        Signal signal = processSignal(parser);
-
-                        switch (parser.getName()) {
-                            case Signal.DOWN_SIGNAL:
-                                dishState.getDownSignals().add(signal);
-                                break;
-                            case Signal.UP_SIGNAL:
-                                dishState.getUpSignals().add(signal);
-                                break;
-                            default:
-                                throw new XmlPullParserException("Invalid signal");
-                        }
-
-                        parser.nextTag();
-                        // now at the end of this signal
-                        parser.nextTag();
-                        // now at the next signal
-                        // or at the first target
-                    }
-
-                    while (parser.getName().equals(Target.TARGET)) {
-                        Target target = processTarget(parser);
-                        dishState.getTargets().add(target);
-
-                        parser.nextTag();
-                        // now at the end of this target
-                        parser.nextTag();
-                        // now at the next target
-                        // or at the end of the dish
+                    DishState.Builder dishState = processDish(parser, pool);
+                    if (dishRanges == null) {
+                        processDishDetails(parser, dishState, pool);
+                    } else {
+                        List<String> targetNames = skipDishDetails(parser, pool);
+                        if (dishIndex * 2 >= dishRanges.length) return null;
+                        int start = dishRanges[dishIndex * 2];
+                        int end = dishRanges[dishIndex * 2 + 1];
+                        if (!hasName(content, start, dishState.getName())) return null;
+                        dishState.setDetailsLoader(targetNames, new DishDetailsLoader(config,
+                                content, length, start, end, dishState.getName(), pool));
                     }
+                    dishIndex++;
+                    // now at the end of the dish
 
                     // dish state is ready
                     String dishStateName = dishState.getName();
-                    stationState.getDishStates().add(dishStateName);
-                    networkState.getDishStates().put(dishStateName, dishState);
+                    stationState.addDishState(dishStateName);
+                    networkState.putDishState(dishStateName, dishState.build());
 
                     parser.nextTag();
                     // now at the next dish
@@ -108,57 +153,312 @@ public class StateParser {
                     // or at the timestamp
                 }
 
-                // station state is ready
-                networkState.getStationStates().put(stationState.getName(), stationState);
+                stationStates.add(stationState);
             }
+            if (dishRanges != null && dishIndex * 2 != dishRanges.length) return null;
 
             String timestamp = parser.nextText();
             networkState.setTimestamp(Long.parseLong(timestamp));
 
             // unused dishes do not appear in the dsn.xml files
             // add the missing dish names so that it is easier to process later on
-            for (Station station : config.getStations().values()) {
-                StationState stationState = networkState.getStationStates().get(station.getName());
-                if (stationState != null) {
+            for (StationState.Builder stationState : stationStates) {
+                Station station = config.getStations().get(stationState.getName());
+                if (station != null) {
                     for (String dishName : station.getDishes()) {
                         // if this dish contained in this station
                         // does not exist in the corresponding station state,
                         // add it with a null value
-                        if (!stationState.getDishStates().contains(dishName)) {
-                            stationState.getDishStates().add(dishName);
-                            networkState.getDishStates().put(dishName, null);
+                        if (!stationState.hasDishState(dishName)) {
+                            stationState.addDishState(dishName);
+                            networkState.putDishState(dishName, null);
                         }
                     }
                 }
+                // station state is ready
+                networkState.addStationState(stationState.build());
             }
 
-            return networkState;
+            return networkState.build();
         } catch (NumberFormatException e) {
             // a problem occurred while parsing a number
             throw new XmlPullParserException(null, parser, e);
         }
     }
 
+    /**
+     * Parse the signals and the targets of a dish. The parser must be at the dish,
+     * and it is left at the end of the dish.
+     * @param parser the parser of the XML file
+     * @param dishState the builder of the dish state to add the signals and the targets to
+     * @param pool the pool to intern the strings with
+     */
+    private static void processDishDetails(XmlPullParser parser, DishState.Builder dishState,
+                                           StringPool pool)
+            throws XmlPullParserException, IOException {
+        parser.nextTag();
+        // now at the first signal
+        while (parser.getName().endsWith(Signal.SIGNAL)) {
+            Signal signal = processSignal(parser, pool);
+
+            switch (parser.getName()) {
+                case Signal.DOWN_SIGNAL:
+                    dishState.addDownSignal(signal);
+                    break;
+                case Signal.UP_SIGNAL:
+                    dishState.addUpSignal(signal);
+                    break;
+                default:
+                    throw new XmlPullParserException("Invalid signal");
+            }
+
+            parser.nextTag();
+            // now at the end of this signal
+            parser.nextTag();
+            // now at the next signal
+            // or at the first target
+        }
+
+        while (parser.getName().equals(Target.TARGET)) {
+            Target target = processTarget(parser, pool);
+            dishState.addTarget(target);
+
+            parser.nextTag();
+            // now at the end of this target
+            parser.nextTag();
+            // now at the next target
+            // or at the end of the dish
+        }
+    }
+
+    /**
+     * Skip the signals and the targets of a dish, reading only the names of the targets.
+     * The parser must be at the dish, and it is left at the end of the dish.
+     * @param parser the parser of the XML file
+     * @param pool the pool to intern the strings with
+     * @return the names of the targets
+     */
+    private static List<String> skipDishDetails(XmlPullParser parser, StringPool pool)
+            throws XmlPullParserException, IOException {
+        parser.nextTag();
+        // now at the first signal
+        while (parser.getName().endsWith(Signal.SIGNAL)) {
+            parser.nextTag();
+            parser.nextTag();
+        }
+
+        List<String> targetNames = new ArrayList<>();
+        while (parser.getName().equals(Target.TARGET)) {
+            targetNames.add(pool.intern(parser.getAttributeValue(null, Target.NAME)));
+            parser.nextTag();
+            parser.nextTag();
+        }
+        return targetNames;
+    }
+
+    /**
+     * Find the dish elements in a state file, without parsing it. <br />
+     * This is a plain search of the tags, which relies on the simple layout of the files:
+     * no tags inside the attribute values, and no comments, which are checked for.
+     * @param content the buffer holding the plain content of the state file
+     * @param length the length of the content, starting from the beginning of the buffer
+     * @return the start and the end offsets of each dish, one after the other,
+     * or null if the file has a comment or a CDATA section
+     */
+    private static int[] findDishes(byte[] content, int length) {
+        // a dish tag inside them would be taken for a real one
+        if (indexOf(content, length, MARKUP_START, 0) >= 0) return null;
+        int[] ranges = new int[32];
+        int count = 0;
+        int index = 0;
+        while ((index = indexOf(content, length, DISH_START, index)) >= 0) {
+            int next = index + DISH_START.length;
+            // make sure it is not another tag starting with "dish"
+            if (next >= length || !isTagNameEnd(content[next])) {
+                index = next;
+                continue;
+            }
+            int tagEnd = indexOf(content, length, TAG_END, next);
+            if (tagEnd < 0) break;
+            int end;
+            if (content[tagEnd - 1] == '/') {
+                // an empty dish
+                end = tagEnd + 1;
+            } else {
+                end = indexOf(content, length, DISH_END, tagEnd);
+                if (end < 0) break;
+                end += DISH_END.length;
+            }
+
+            if (count == ranges.length) ranges = Arrays.copyOf(ranges, count * 2);
+            ranges[count++] = index;
+            ranges[count++] = end;
+            index = end;
+        }
+        return Arrays.copyOf(ranges, count);
+    }
+
+    /**
+     * Check whether the tag at the given offset has the given name attribute.
+     * @param content the buffer holding the plain content of the state file
+     * @param start the offset of the tag
+     * @param name the expected name
+     * @return true if the name is found before the end of the tag
+     */
+    private static boolean hasName(byte[] content, int start, String name) {
+        if (name == null) return false;
+        byte[] pattern = (DishState.NAME + "=\"" + name + "\"").getBytes(CHARSET);
+        int tagEnd = indexOf(content, content.length, TAG_END, start);
+        int index = indexOf(content, tagEnd, pattern, start);
+        // the attribute name must not be the end of another one, e.g. friendlyName
+        return index > start && isTagNameEnd(content[index - 1]);
+    }
+
+    private static boolean isTagNameEnd(byte b) {
+        return b == ' ' || b == '\t' || b == '\r' || b == '\n' || b == '>' || b == '/';
+    }
+
+    private static int indexOf(byte[] content, int length, byte[] pattern, int from) {
+        int last = length - pattern.length;
+        search:
+        for (int i = from; i <= last; i++) {
+            for (int j = 0; j < pattern.length; j++) {
+                if (content[i + j] != pattern[j]) continue search;
+            }
+            return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Loader of the signals and the targets of a dish state, decoding the dish element
+     * the overview parse has skipped.
+     */
+    private static class DishDetailsLoader implements DishState.DetailsLoader {
+        private final NetworkConfig config;
+        private final byte[] content;
+        private final int length;
+        private final int start;
+        private final int end;
+        private final String name;
+        private final StringPool pool;
+
+        DishDetailsLoader(NetworkConfig config, byte[] content, int length, int start, int end,
+                          String name, StringPool pool) {
+            this.config = config;
+            this.content = content;
+            this.length = length;
+            this.start = start;
+            this.end = end;
+            this.name = name;
+            this.pool = pool;
+        }
+
+        @Override
+        public DishState load() {
+            Tracer.begin(Tracer.PARSE_DETAILS);
+            try {
+                XmlPullParser parser =
+                        newParser(new ByteArrayInputStream(content, start, end - start));
+                parser.nextTag();
+                // now at the dish
+                DishState.Builder dishState = processDish(parser, pool);
+                processDishDetails(parser, dishState, pool);
+                return dishState.build();
+            } catch (XmlPullParserException | IOException | NumberFormatException e) {
+                // the dish might be cut at the wrong place, parse the whole file instead
+                return loadFromFullParse();
+            } finally {
+                Tracer.end();
+            }
+        }
+
+        /**
+         * Parse the whole file, and return this dish from it.
+         * @return the dish with its details, or null if the file cannot be parsed
+         */
+        private DishState loadFromFullParse() {
+            try {
+                NetworkState networkState =
+                        parse(config, new ByteArrayInputStream(content, 0, length));
+                return networkState.getDishStates().get(name);
+            } catch (XmlPullParserException | IOException e) {
+                // the details are really broken, see isBroken()
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Decode the details of all the dishes of a state parsed with <code>parseOverview</code>,
+     * and return whether any of them could not be decoded. Such a dish looks idle, so the state
+     * should not be kept, e.g. in the history, just like a state that cannot be parsed.
+     * @param networkState the state to check
+     * @return true if the details of a dish are broken
+     */
+    public static boolean isBroken(NetworkState networkState) {
+        for (DishState dishState : networkState.getDishStates().values()) {
+            if (dishState == null) continue;
+            // reading them loads them
+            dishState.getTargets();
+            if (dishState.isDetailsBroken()) return true;
+        }
+        return false;
+    }
+
+    private static XmlPullParser newParser(InputStream inputStream)
+            throws XmlPullParserException {
+        XmlPullParser parser = getFactory().newPullParser();
+        // namespaces are not used in these files
+        parser.setFeature(XmlPullParser.FEATURE_PROCESS_NAMESPACES, false);
+        parser.setInput(inputStream, null);
+        return parser;
+    }
+
+    private static synchronized XmlPullParserFactory getFactory()
+            throws XmlPullParserException {
+        if (factory == null) {
+            factory = XmlPullParserFactory.newInstance();
+        }
+        return factory;
+    }
+
+    /**
+     * Return the string pool for the given config, creating a new one if the config
+     * has changed since the last parse.
+     * @param config the network config
+     * @return the string pool
+     */
+    private static synchronized StringPool getPool(NetworkConfig config) {
+        if (pool == null || pool.getConfig() != config) {
+            pool = new StringPool(config);
+        }
+        return pool;
+    }
+
     /**
      * Parse and return a station state. The parser must be at a station.
      * @param parser the parser of the XML file
-     * @return the parsed station state
+     * @param pool the pool to intern the strings with
+     * @return the builder of the parsed station state
      */
-    private static StationState processStation(XmlPullParser parser) {
-        String name = parser.getAttributeValue(null, StationState.NAME);
-        String friendlyName = parser.getAttributeValue(null, StationState.FRIENDLY_NAME);
+    private static StationState.Builder processStation(XmlPullParser parser, StringPool pool) {
+        String name = pool.intern(parser.getAttributeValue(null, StationState.NAME));
+        String friendlyName =
+                pool.intern(parser.getAttributeValue(null, StationState.FRIENDLY_NAME));
         String timeZoneOffset = parser.getAttributeValue(null, StationState.TIME_ZONE_OFFSET);
 
-        return new StationState(name, friendlyName, Integer.parseInt(timeZoneOffset));
+        return new StationState.Builder(name, friendlyName, Integer.parseInt(timeZoneOffset));
     }
 
     /**
      * Parse and return a dish state. The parser must be at a dish.
      * @param parser the parser of the XML file
-     * @return the parsed dish state
+     * @param pool the pool to intern the strings with
+     * @return the builder of the parsed dish state
      */
-    private static DishState processDish(XmlPullParser parser) {
-        String dishName = parser.getAttributeValue(null, DishState.NAME);
+    private static DishState.Builder processDish(XmlPullParser parser, StringPool pool) {
+        String dishName = pool.intern(parser.getAttributeValue(null, DishState.NAME));
         String azimuthAngleString = parser.getAttributeValue(null, DishState.AZIMUTH_ANGLE);
         String elevationAngleString = parser.getAttributeValue(null, DishState.ELEVATION_ANGLE);
         String windSpeedString = parser.getAttributeValue(null, DishState.WIND_SPEED);
@@ -173,22 +473,23 @@ public class StateParser {
         boolean isArray = Boolean.parseBoolean(isArrayString);
         boolean isDDOR = Boolean.parseBoolean(isDDORString);
 
-        return new DishState(dishName, azimuthAngle, elevationAngle,
+        return new DishState.Builder(dishName, azimuthAngle, elevationAngle,
                 windSpeed, isMSPA, isArray, isDDOR);
     }
 
     /**
      * Parse and return a signal. The parser must be at a signal.
      * @param parser the parser of the XML file
+     * @param pool the pool to intern the strings with
      * @return the parsed signal
      */
-    private static Signal processSignal(XmlPullParser parser) {
-        String type = parser.getAttributeValue(null, Signal.SIGNAL_TYPE);
-        String typeDebug = parser.getAttributeValue(null, Signal.SIGNAL_TYPE_DEBUG);
+    private static Signal processSignal(XmlPullParser parser, StringPool pool) {
+        String type = pool.intern(parser.getAttributeValue(null, Signal.SIGNAL_TYPE));
+        String typeDebug = pool.intern(parser.getAttributeValue(null, Signal.SIGNAL_TYPE_DEBUG));
         String dataRateString = parser.getAttributeValue(null, Signal.DATA_RATE);
         String frequencyString = parser.getAttributeValue(null, Signal.FREQUENCY);
         String powerString = parser.getAttributeValue(null, Signal.POWER);
-        String spacecraft = parser.getAttributeValue(null, Signal.SPACECRAFT);
+        String spacecraft = pool.intern(parser.getAttributeValue(null, Signal.SPACECRAFT));
 
         long dataRate = parseDataRate(dataRateString);
         long frequency = parseFrequency(frequencyString, parser.getName());
@@ -200,10 +501,11 @@ public class StateParser {
     /**
      * Parse and return a target. The parser must be at a target.
      * @param parser the parser of the XML file
+     * @param pool the pool to intern the strings with
      * @return the parsed target
      */
-    private static Target processTarget(XmlPullParser parser) {
-        String name = parser.getAttributeValue(null, Target.NAME);
+    private static Target processTarget(XmlPullParser parser, StringPool pool) {
+        String name = pool.intern(parser.getAttributeValue(null, Target.NAME));
         String uplegRangeString = parser.getAttributeValue(null, Target.UPLEG_RANGE);
         String downlegRangeString = parser.getAttributeValue(null, Target.DOWNLEG_RANGE);
         String rtltString = parser.getAttributeValue(null, Target.RTLT);
@@ -26,15 +26,10 @@ import org.xmlpull.v1.XmlPullParserException;
 
 import java.io.ByteArrayInputStream;
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.net.URL;
 import java.nio.ByteBuffer;
-import java.nio.channels.Channels;
-import java.nio.channels.ReadableByteChannel;
-
-import javax.net.ssl.HttpsURLConnection;
+import java.util.Arrays;
 
 import me.aeolwyr.dsnnow.data.NetworkConfig;
 import me.aeolwyr.dsnnow.data.NetworkState;
@@ -44,14 +39,13 @@ import me.aeolwyr.dsnnow.data.NetworkState;
  * if necessary.
  */
 public class StateParserTask extends AsyncTask<InputStream, Void, NetworkState> {
-    /** maximum file size allowed, in bytes **/
-    private static final int MAX_FILE_SIZE = 15360;
-    /** download location **/
-    private static final String FILE_LOCATION = "https://eyes.nasa.gov/dsn/data/dsn.xml?r=";
-
     private NetworkConfig config;
     private File cacheDir;
     private File filesDir;
+    private CaptureWriter captureWriter;
+    private StateDownloader stateDownloader;
+    /** set if the state is not downloaded, as it has not changed since the last download **/
+    private volatile boolean notModified;
 
     /**
      * Create a new parser task. <br />
@@ -66,6 +60,32 @@ public class StateParserTask extends AsyncTask<InputStream, Void, NetworkState>
         this.config = config;
         this.cacheDir = cacheDir;
         this.filesDir = filesDir;
+        stateDownloader = new StateDownloader(StateDownloader.FEED_URL);
+    }
+
+    /**
+     * Create a new parser task, which downloads with the given downloader, and hands the
+     * downloaded states over to the given capture writer instead of writing them itself.
+     * @param config config file to use when parsing
+     * @param cacheDir cache folder to cache the files if necessary
+     * @param filesDir persistent storage folder to check when caching
+     * @param captureWriter writer to queue the downloaded states to
+     * @param stateDownloader downloader of the feed, kept between the downloads
+     */
+    public StateParserTask(NetworkConfig config, File cacheDir, File filesDir,
+                           CaptureWriter captureWriter, StateDownloader stateDownloader) {
+        this(config, cacheDir, filesDir);
+        this.captureWriter = captureWriter;
+        this.stateDownloader = stateDownloader;
+    }
+
+    /**
+     * Return whether the download was skipped, as the state has not changed since the last
+     * download. The result is null in that case, but it is not an error.
+     * @return true if the feed had nothing new
+     */
+    protected boolean isNotModified() {
+        return notModified;
     }
 
     /**
@@ -78,41 +98,53 @@ public class StateParserTask extends AsyncTask<InputStream, Void, NetworkState>
     protected NetworkState doInBackground(InputStream... params) {
         try {
             // download if there is no input stream given
-            InputStream inputStream = (params.length == 0) ? downloadState() : params[0];
-
-            ByteBuffer byteBuffer = ByteBuffer.allocate(MAX_FILE_SIZE);
-
-            // read file to buffer
-            try (ReadableByteChannel readableByteChannel = Channels.newChannel(inputStream)) {
-                while (readableByteChannel.read(byteBuffer) >= 0) {
-                    // make sure the input file is not very large
-                    if (!byteBuffer.hasRemaining()) return null;
+            boolean download = params.length == 0;
+            ByteBuffer byteBuffer;
+            if (download) {
+                long downloadStart = System.nanoTime();
+                byteBuffer = stateDownloader.download();
+                if (byteBuffer == null) {
+                    // the latest state is already downloaded
+                    notModified = true;
+                    return null;
                 }
-                // inputStream is closed by the channel
+                Metrics.DOWNLOAD_TIME.recordSince(downloadStart);
+                Metrics.BYTES_READ.add(byteBuffer.position());
+            } else {
+                byteBuffer = StateDownloader.read(params[0]);
+                // make sure the input file is not very large
+                if (byteBuffer == null) return null;
             }
-
-            // store the file size as the limit
-            // this also makes sure the unused part of the buffer is inaccessible
-            byteBuffer.limit(byteBuffer.position());
+            byte[] content = byteBuffer.array();
+            int length = byteBuffer.position();
 
             // parse the buffer
             NetworkState networkState;
-            try (InputStream parserInputStream =
-                         new ByteArrayInputStream(byteBuffer.array(), 0, byteBuffer.limit())) {
-                networkState = StateParser.parse(config, parserInputStream);
-            }
-
-            // if the file is already cached, it is in one of the locations below
-            String filename = networkState.getTimestamp() + ".xml";
-            File cachedFile = new File(cacheDir, filename);
-            File pinnedFile = new File(filesDir, filename);
-
-            // cache the file if not already cached
-            if (!cachedFile.exists() && !pinnedFile.exists()) {
-                byteBuffer.rewind();
-                try (FileOutputStream fos = new FileOutputStream(cachedFile)) {
-                    fos.getChannel().write(byteBuffer);
+            byte[] plain = null;
+            long parseStart = System.nanoTime();
+            Tracer.begin(Tracer.PARSE);
+            try {
+                if (download) {
+                    // a downloaded state is shown right away, only the overview is needed for it
+                    // the details are decoded from this copy, which the state keeps until then
+                    plain = Arrays.copyOf(content, length);
+                    networkState = StateParser.parseOverview(config, plain, length);
+                } else {
+                    networkState = StateParser.parse(config,
+                            new ByteArrayInputStream(content, 0, length));
                 }
+            } finally {
+                Tracer.end();
+            }
+            Metrics.PARSE_TIME.recordSince(parseStart);
+            // the next download can be skipped if the feed has not changed since this one
+            if (download) stateDownloader.commit();
+
+            if (download && captureWriter != null) {
+                // written later in the background, together with the other downloads
+                captureWriter.submit(networkState, plain);
+            } else {
+                cacheFile(networkState.getTimestamp(), content, length);
             }
 
             return networkState;
@@ -122,17 +154,28 @@ public class StateParserTask extends AsyncTask<InputStream, Void, NetworkState>
     }
 
     /**
-     * Download the latest state.
-     * @return input stream of the downloaded state
-     * @throws IOException if a connection error has occurred
+     * Cache the given state file content, if it is not already cached or pinned.
+     * @param timestamp the timestamp of the state
+     * @param content the buffer holding the plain content of the state file
+     * @param length the length of the content
      */
-    private static InputStream downloadState() throws IOException {
-        // create a new URL each time to prevent hitting the CDN cache
-        URL url = new URL(FILE_LOCATION + (System.currentTimeMillis() / 5000));
-        HttpsURLConnection connection = (HttpsURLConnection) url.openConnection();
-        connection.setReadTimeout(5000);
-        connection.setConnectTimeout(5000);
-        connection.connect();
-        return connection.getInputStream();
+    private void cacheFile(long timestamp, byte[] content, int length) {
+        // if the file is already cached, it is in one of the locations below
+        String filename = timestamp + ".xml";
+        File cachedFile = new File(cacheDir, filename);
+        File pinnedFile = new File(filesDir, filename);
+
+        if (!cachedFile.exists() && !pinnedFile.exists()) {
+            long writeStart = System.nanoTime();
+            Tracer.begin(Tracer.CACHE_WRITE);
+            try {
+                StateFileCompression.write(content, 0, length, cachedFile);
+                Metrics.CACHE_WRITE_TIME.recordSince(writeStart);
+            } catch (IOException ignored) {
+                // not critical, the state is parsed already
+            } finally {
+                Tracer.end();
+            }
+        }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,464 @@
+/*
+ * DSN Monitor is an app to monitor the NASA Deep Space Network in real time.
+ * Copyright (c) 2016 Kaan Karaagacli
+ *
+ * This file is part of DSN Monitor.
+ *
+ * DSN Monitor is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DSN Monitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DSN Monitor.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package me.aeolwyr.dsnnow.logic;
+
+import android.content.Context;
+import android.content.res.XmlResourceParser;
+import android.os.AsyncTask;
+
+import org.xmlpull.v1.XmlPullParserException;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import me.aeolwyr.dsnnow.R;
+import me.aeolwyr.dsnnow.data.NetworkConfig;
+import me.aeolwyr.dsnnow.data.NetworkState;
+
+/**
+ * Process-wide holder of the network config, the current network state and the
+ * continuous downloads. <br />
+ * It outlives the activities, so an activity recreated after a configuration change
+ * only needs to bind to the objects kept here, without reading or parsing anything.
+ * All the functions must be called on the main thread.
+ */
+public class StateRepository {
+    /**
+     * Callback for the continuous downloads, called on the main thread.
+     */
+    public interface Listener {
+        /**
+         * Called when a new state is downloaded successfully.
+         * @param networkState the downloaded state, also the current state of the repository
+         */
+        void onStateDownloaded(NetworkState networkState);
+
+        /**
+         * Called when a download is unsuccessful.
+         */
+        void onDownloadFailed();
+    }
+
+    private static StateRepository instance;
+
+    private NetworkConfig config;
+    private File cacheDir;
+    private File filesDir;
+    /** folder of the imported archives **/
+    private File importDir;
+
+    /** the live state, null if nothing is loaded yet, read by the background threads too **/
+    private volatile NetworkState networkState;
+    /** true if the current state is the one left from the previous launch **/
+    private boolean stale;
+    /** recently parsed states, so that they can be shown again without parsing **/
+    private StateCache stateCache = new StateCache();
+    /** compact store of the downloaded states **/
+    private HistoryLog historyLog;
+    /** writes the downloaded states in the background **/
+    private CaptureWriter captureWriter;
+    /** reads the history log and the state files together **/
+    private HistoryScanner historyScanner;
+    /** per-spacecraft values over time **/
+    private TimeSeriesStore timeSeriesStore;
+    /** dishes each spacecraft has communicated with over time **/
+    private ContactIndex contactIndex;
+    /** tracking events of the dishes **/
+    private PassDetector passDetector;
+    /** hourly and daily utilization of the network **/
+    private UtilizationRollups utilizationRollups;
+    /** user defined alerts, checked against the downloaded states **/
+    private AlertEngine alertEngine;
+
+    /** downloader of the feed, replaced when the feed changes **/
+    private volatile StateDownloader stateDownloader =
+            new StateDownloader(StateDownloader.FEED_URL);
+    /** timer for continuous downloading, null if not downloading **/
+    private Timer timer;
+    /** interval of the running timer, in seconds **/
+    private int interval;
+    /** true while a download is running, set on the timer thread **/
+    private final AtomicBoolean pollInFlight = new AtomicBoolean();
+    private Listener listener;
+
+    /**
+     * Return the repository of this process, creating it if necessary.
+     * @param context any context of the application
+     * @return the repository
+     */
+    public static StateRepository getInstance(Context context) {
+        if (instance == null) {
+            instance = new StateRepository(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    private StateRepository(Context context) {
+        // it could be better to download this file
+        // however, it is never changed, therefore it is cached inside the app
+        try (XmlResourceParser xml = context.getResources().getXml(R.xml.config)) {
+            config = ConfigParser.parse(xml);
+        } catch (XmlPullParserException | IOException e) {
+            // the application cannot continue without a NetworkConfig
+            throw new RuntimeException(e);
+        }
+        cacheDir = context.getCacheDir();
+        filesDir = context.getFilesDir();
+        // imported states are kept, like the pinned ones, as they cannot be downloaded again
+        importDir = new File(filesDir, BulkImporter.DIRECTORY_NAME);
+        historyLog = new HistoryLog(new File(cacheDir, HistoryLog.DIRECTORY_NAME));
+        captureWriter = new CaptureWriter(cacheDir, filesDir, historyLog);
+        historyScanner = new HistoryScanner(config, cacheDir, filesDir, importDir, historyLog);
+
+        timeSeriesStore = new TimeSeriesStore(new File(cacheDir, TimeSeriesStore.DIRECTORY_NAME));
+        contactIndex = new ContactIndex(new File(cacheDir, ContactIndex.DIRECTORY_NAME));
+        passDetector = new PassDetector(new File(cacheDir, PassDetector.DIRECTORY_NAME));
+        addIndexes(timeSeriesStore, contactIndex, passDetector);
+
+        utilizationRollups = new UtilizationRollups(
+                new File(cacheDir, UtilizationRollups.DIRECTORY_NAME));
+        addRollups();
+
+        alertEngine = new AlertEngine(config);
+        captureWriter.addLiveConsumer(alertEngine);
+    }
+
+    /**
+     * Return the network config, parsed once per process.
+     * @return the network config
+     */
+    public NetworkConfig getConfig() {
+        return config;
+    }
+
+    /**
+     * Return the current network state. It can be called from any thread without locking,
+     * as the states are immutable and replaced as a whole.
+     * @return the current state, or null if nothing is loaded yet
+     */
+    public NetworkState getNetworkState() {
+        return networkState;
+    }
+
+    /**
+     * Return whether the current state is the one left from the previous launch.
+     * @return true if the current state is stale
+     */
+    public boolean isStale() {
+        return stale;
+    }
+
+    /**
+     * Replace the current state, with a downloaded one or the one left from the previous launch.
+     * The opened and the played back states are not the current state, and not set here.
+     * @param networkState the new state
+     * @param stale true if the state is left from the previous launch
+     */
+    public void setNetworkState(NetworkState networkState, boolean stale) {
+        this.stale = stale;
+        // published last, for the background threads
+        this.networkState = networkState;
+    }
+
+    /**
+     * Return the cache of the recently parsed states.
+     * @return the state cache
+     */
+    public StateCache getStateCache() {
+        return stateCache;
+    }
+
+    /**
+     * Return the history log the downloaded states are appended to.
+     * @return the history log
+     */
+    public HistoryLog getHistoryLog() {
+        return historyLog;
+    }
+
+    /**
+     * Return the writer the downloaded states are queued to.
+     * @return the capture writer
+     */
+    public CaptureWriter getCaptureWriter() {
+        return captureWriter;
+    }
+
+    /**
+     * Set the feed to download the states from, e.g. a local test server in the debug builds.
+     * It is used starting from the next download.
+     * @param feedUrl location of the feed
+     */
+    public void setFeedUrl(String feedUrl) {
+        if (!stateDownloader.getFeedUrl().equals(feedUrl)) {
+            stateDownloader = new StateDownloader(feedUrl);
+        }
+    }
+
+    /**
+     * Return the scanner to read the whole history with.
+     * @return the history scanner
+     */
+    public HistoryScanner getHistoryScanner() {
+        return historyScanner;
+    }
+
+    /**
+     * Return the per-spacecraft time series store.
+     * @return the time series store
+     */
+    public TimeSeriesStore getTimeSeriesStore() {
+        return timeSeriesStore;
+    }
+
+    /**
+     * Return the index of the contacts between the spacecraft and the dishes.
+     * @return the contact index
+     */
+    public ContactIndex getContactIndex() {
+        return contactIndex;
+    }
+
+    /**
+     * Return the detector of the tracking events, such as acquisitions and losses.
+     * @return the pass detector
+     */
+    public PassDetector getPassDetector() {
+        return passDetector;
+    }
+
+    /**
+     * Return the hourly and daily utilization rollups.
+     * @return the utilization rollups
+     */
+    public UtilizationRollups getUtilizationRollups() {
+        return utilizationRollups;
+    }
+
+    /**
+     * Return the engine of the user defined alerts.
+     * @return the alert engine
+     */
+    public AlertEngine getAlertEngine() {
+        return alertEngine;
+    }
+
+    /**
+     * Create an importer of the archived state files into the history.
+     * @param budget the total size the imported states can take, in bytes
+     * @return the new importer
+     */
+    public BulkImporter createImporter(long budget) {
+        return new BulkImporter(config, historyScanner, importDir, budget);
+    }
+
+    /**
+     * Delete all the imported states in the background, and rebuild the indexes without them.
+     */
+    public void clearImported() {
+        captureWriter.runInBackground(new Runnable() {
+            @Override
+            public void run() {
+                BulkImporter.clear(importDir);
+                historyScanner.buildIndexes(true, timeSeriesStore, contactIndex, passDetector);
+                backfillRollups(true);
+            }
+        });
+    }
+
+    /**
+     * Rebuild all the indexes and the rollups from the whole history in the background,
+     * e.g. after older states are imported, which the indexes only fed with the newer states
+     * would miss.
+     */
+    public void rebuildIndexes() {
+        captureWriter.runInBackground(new Runnable() {
+            @Override
+            public void run() {
+                historyScanner.buildIndexes(true, timeSeriesStore, contactIndex, passDetector);
+                backfillRollups(true);
+            }
+        });
+    }
+
+    /**
+     * Register the given indexes to be fed with the downloaded states. The ones that do not
+     * exist yet are built from the existing history first, in a single pass, before any new
+     * states are given to them.
+     * @param indexes the indexes to register
+     */
+    private void addIndexes(final HistoryIndex... indexes) {
+        captureWriter.runInBackground(new Runnable() {
+            @Override
+            public void run() {
+                historyScanner.buildIndexes(false, indexes);
+            }
+        });
+        for (HistoryIndex index : indexes) {
+            captureWriter.addConsumer(index);
+        }
+    }
+
+    /**
+     * Register the utilization rollups to be fed with the downloaded states, backfilling
+     * them from the existing history first if they do not exist yet. Unlike the other
+     * indexes, the days of the history are rolled up in parallel.
+     */
+    private void addRollups() {
+        captureWriter.runInBackground(new Runnable() {
+            @Override
+            public void run() {
+                backfillRollups(false);
+            }
+        });
+        captureWriter.addConsumer(utilizationRollups);
+    }
+
+    /**
+     * Backfill the utilization rollups from the existing history.
+     * Must be called on the writer thread.
+     * @param all true to rebuild them, false to build them only if they do not exist
+     */
+    private void backfillRollups(boolean all) {
+        if (!all && utilizationRollups.exists()) return;
+        try {
+            utilizationRollups.backfill(historyScanner,
+                    Runtime.getRuntime().availableProcessors());
+        } catch (IOException ignored) {
+            // it will be tried again on the next launch
+        }
+    }
+
+    /**
+     * Set the listener to be notified of the continuous downloads. There can be only
+     * one listener, usually the visible activity.
+     * @param listener the new listener, or null to remove the current one
+     */
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Return the current listener.
+     * @return the current listener, or null if there is none
+     */
+    public Listener getListener() {
+        return listener;
+    }
+
+    /**
+     * Start the continuous downloads. Nothing is done if they are already running
+     * with the same interval.
+     * @param interval the capture interval, in seconds
+     */
+    public void startPolling(int interval) {
+        if (timer != null) {
+            if (this.interval == interval) return;
+            stopPolling();
+        }
+        this.interval = interval;
+
+        // create a new timer and run it
+        final Timer timer = new Timer();
+        this.timer = timer;
+        timer.schedule(new TimerTask() {
+            @Override
+            public void run() {
+                Metrics.POLLS.increment();
+                // on a slow connection, do not pile the downloads up behind each other
+                if (!pollInFlight.compareAndSet(false, true)) {
+                    Metrics.SKIPPED_POLLS.increment();
+                    return;
+                }
+                final int poll = (int) Metrics.POLLS.get();
+                Tracer.beginAsync(Tracer.POLL, poll);
+                new StateParserTask(config, cacheDir, filesDir, captureWriter,
+                        stateDownloader) {
+                    @Override
+                    protected void onPostExecute(NetworkState networkState) {
+                        pollInFlight.set(false);
+                        if (isNotModified()) {
+                            Metrics.NOT_MODIFIED_POLLS.increment();
+                        } else if (networkState == null) {
+                            Metrics.FAILED_POLLS.increment();
+                        }
+                        try {
+                            // discard the result if the downloads were stopped in the meantime
+                            if (StateRepository.this.timer != timer) return;
+                            // nothing new, the shown state is still the latest one
+                            if (isNotModified()) return;
+                            if (networkState != null) {
+                                // state downloaded successfully
+                                setNetworkState(networkState, false);
+                                if (listener != null) listener.onStateDownloaded(networkState);
+                                cacheInBackground(networkState);
+                            } else {
+                                // state download unsuccessful
+                                if (listener != null) listener.onDownloadFailed();
+                            }
+                        } finally {
+                            // the views are bound on the next frame, right after this slice
+                            Tracer.endAsync(Tracer.POLL, poll);
+                        }
+                    }
+                }.execute();
+            }
+        }, 0, interval * 1000);
+    }
+
+    /**
+     * Put a downloaded state into the state cache in the background. The cache compacts
+     * the state, which decodes the details the overview parse has skipped, so this is kept
+     * off the main thread.
+     * @param networkState the downloaded state
+     */
+    private void cacheInBackground(final NetworkState networkState) {
+        AsyncTask.THREAD_POOL_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                // a state with broken details is not kept, the capture writer drops it too
+                if (StateParser.isBroken(networkState)) return;
+                stateCache.put(networkState.getTimestamp(), networkState);
+            }
+        });
+    }
+
+    /**
+     * Stop the continuous downloads. The result of an ongoing download is discarded.
+     */
+    public void stopPolling() {
+        if (timer != null) {
+            timer.cancel();
+            timer = null;
+        }
+    }
+
+    /**
+     * Return whether the continuous downloads are running.
+     * @return true if downloading continuously
+     */
+    public boolean isPolling() {
+        return timer != null;
+    }
+}
@@ -0,0 +1,233 @@
+/*
+ * DSN Monitor is an app to monitor the NASA Deep Space Network in real time.
+ * Copyright (c) 2016 Kaan Karaagacli
+ *
+ * This file is part of DSN Monitor.
+ *
+ * DSN Monitor is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DSN Monitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DSN Monitor.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package me.aeolwyr.dsnnow.logic;
+
+import java.util.Iterator;
+import java.util.List;
+
+import me.aeolwyr.dsnnow.data.DishState;
+import me.aeolwyr.dsnnow.data.NetworkState;
+import me.aeolwyr.dsnnow.data.Signal;
+import me.aeolwyr.dsnnow.data.StationState;
+import me.aeolwyr.dsnnow.data.Target;
+
+/**
+ * Helper class that splits a <code>NetworkState</code> into its structure (the names of
+ * the stations, dishes, signals and targets) and its numeric values (angles, wind,
+ * data rates, ranges etc.). <br />
+ * Consecutive states usually have the same structure, and differ only in a few values.
+ */
+class StateValues {
+    private static final int DISH_VALUES = 4;
+    private static final int SIGNAL_VALUES = 3;
+    private static final int TARGET_VALUES = 3;
+
+    // dish flags, stored as a single value
+    private static final int FLAG_MSPA = 1;
+    private static final int FLAG_ARRAY = 1 << 1;
+    private static final int FLAG_DDOR = 1 << 2;
+
+    /**
+     * Return the numeric values of the given state, in a fixed order determined by its structure.
+     * @param networkState the state to read
+     * @return the values of the state
+     */
+    static long[] extract(NetworkState networkState) {
+        long[] values = new long[count(networkState)];
+        int index = 0;
+        for (StationState stationState : networkState.getStationStates().values()) {
+            values[index++] = stationState.getTimeZoneOffset();
+            for (String dishName : stationState.getDishStates()) {
+                DishState dishState = networkState.getDishStates().get(dishName);
+                if (dishState == null) continue;
+
+                values[index++] = dishState.getAzimuthAngle();
+                values[index++] = dishState.getElevationAngle();
+                values[index++] = dishState.getWindSpeed();
+                values[index++] = (dishState.isMSPA() ? FLAG_MSPA : 0)
+                        | (dishState.isArray() ? FLAG_ARRAY : 0)
+                        | (dishState.isDDOR() ? FLAG_DDOR : 0);
+                for (Signal signal : dishState.getDownSignals()) {
+                    index = extractSignal(signal, values, index);
+                }
+                for (Signal signal : dishState.getUpSignals()) {
+                    index = extractSignal(signal, values, index);
+                }
+                for (Target target : dishState.getTargets()) {
+                    values[index++] = target.getUplegRange();
+                    values[index++] = target.getDownlegRange();
+                    values[index++] = target.getRTLT();
+                }
+            }
+        }
+        return values;
+    }
+
+    private static int extractSignal(Signal signal, long[] values, int index) {
+        values[index++] = signal.getDataRate();
+        values[index++] = signal.getFrequency();
+        values[index++] = signal.getPower();
+        return index;
+    }
+
+    /**
+     * Return the number of the numeric values of the given state.
+     * @param networkState the state to read
+     * @return the length of the array <code>extract</code> would return
+     */
+    static int count(NetworkState networkState) {
+        int count = 0;
+        for (StationState stationState : networkState.getStationStates().values()) {
+            count++;
+            for (String dishName : stationState.getDishStates()) {
+                DishState dishState = networkState.getDishStates().get(dishName);
+                if (dishState == null) continue;
+
+                count += DISH_VALUES;
+                count += SIGNAL_VALUES * dishState.getDownSignals().size();
+                count += SIGNAL_VALUES * dishState.getUpSignals().size();
+                count += TARGET_VALUES * dishState.getTargets().size();
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Create a new state with the structure of the given state, and the given values.
+     * @param template the state to copy the structure of
+     * @param values the values, in the order <code>extract</code> returns them
+     * @param timestamp the timestamp of the new state
+     * @return the new state
+     */
+    static NetworkState rebuild(NetworkState template, long[] values, long timestamp) {
+        NetworkState.Builder networkState = new NetworkState.Builder();
+        networkState.setTimestamp(timestamp);
+        int index = 0;
+        for (StationState templateStation : template.getStationStates().values()) {
+            StationState.Builder stationState = new StationState.Builder(
+                    templateStation.getName(), templateStation.getFriendlyName(),
+                    (int) values[index++]);
+
+            for (String dishName : templateStation.getDishStates()) {
+                stationState.addDishState(dishName);
+                DishState templateDish = template.getDishStates().get(dishName);
+                if (templateDish == null) {
+                    // unused dish
+                    networkState.putDishState(dishName, null);
+                    continue;
+                }
+
+                int azimuthAngle = (int) values[index++];
+                int elevationAngle = (int) values[index++];
+                int windSpeed = (int) values[index++];
+                long flags = values[index++];
+                DishState.Builder dishState = new DishState.Builder(templateDish.getName(),
+                        azimuthAngle, elevationAngle, windSpeed, (flags & FLAG_MSPA) != 0,
+                        (flags & FLAG_ARRAY) != 0, (flags & FLAG_DDOR) != 0);
+
+                for (Signal signal : templateDish.getDownSignals()) {
+                    dishState.addDownSignal(rebuildSignal(signal, values, index));
+                    index += SIGNAL_VALUES;
+                }
+                for (Signal signal : templateDish.getUpSignals()) {
+                    dishState.addUpSignal(rebuildSignal(signal, values, index));
+                    index += SIGNAL_VALUES;
+                }
+                for (Target target : templateDish.getTargets()) {
+                    dishState.addTarget(new Target(target.getName(),
+                            values[index], values[index + 1], values[index + 2]));
+                    index += TARGET_VALUES;
+                }
+                networkState.putDishState(dishName, dishState.build());
+            }
+            networkState.addStationState(stationState.build());
+        }
+        return networkState.build();
+    }
+
+    private static Signal rebuildSignal(Signal template, long[] values, int index) {
+        return new Signal(template.getSignalType(), template.getSignalTypeDebug(),
+                values[index], values[index + 1], (int) values[index + 2],
+                template.getSpacecraft());
+    }
+
+    /**
+     * Check whether the given states have the same structure, i.e. whether the values of one
+     * can be applied to the other.
+     * @param a a state
+     * @param b another state
+     * @return true if they have the same stations, dishes, signals and targets
+     */
+    static boolean sameStructure(NetworkState a, NetworkState b) {
+        if (a.getStationStates().size() != b.getStationStates().size()) return false;
+
+        Iterator<StationState> iterator = b.getStationStates().values().iterator();
+        for (StationState stationA : a.getStationStates().values()) {
+            StationState stationB = iterator.next();
+            if (!equal(stationA.getName(), stationB.getName())
+                    || !equal(stationA.getFriendlyName(), stationB.getFriendlyName())
+                    || !stationA.getDishStates().equals(stationB.getDishStates())) {
+                return false;
+            }
+
+            for (String dishName : stationA.getDishStates()) {
+                DishState dishA = a.getDishStates().get(dishName);
+                DishState dishB = b.getDishStates().get(dishName);
+                if (dishA == null || dishB == null) {
+                    if (dishA != dishB) return false;
+                    continue;
+                }
+                if (!sameSignals(dishA.getDownSignals(), dishB.getDownSignals())
+                        || !sameSignals(dishA.getUpSignals(), dishB.getUpSignals())
+                        || !sameTargets(dishA.getTargets(), dishB.getTargets())) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private static boolean sameSignals(List<Signal> a, List<Signal> b) {
+        if (a.size() != b.size()) return false;
+        for (int i = 0; i < a.size(); i++) {
+            Signal signalA = a.get(i);
+            Signal signalB = b.get(i);
+            if (!equal(signalA.getSignalType(), signalB.getSignalType())
+                    || !equal(signalA.getSignalTypeDebug(), signalB.getSignalTypeDebug())
+                    || !equal(signalA.getSpacecraft(), signalB.getSpacecraft())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean sameTargets(List<Target> a, List<Target> b) {
+        if (a.size() != b.size()) return false;
+        for (int i = 0; i < a.size(); i++) {
+            if (!equal(a.get(i).getName(), b.get(i).getName())) return false;
+        }
+        return true;
+    }
+
+    private static boolean equal(String a, String b) {
+        return (a == null) ? (b == null) : a.equals(b);
+    }
+}
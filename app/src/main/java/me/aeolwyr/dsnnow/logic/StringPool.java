@@ -0,0 +1,103 @@
+/*
+ * DSN Monitor is an app to monitor the NASA Deep Space Network in real time.
+ * Copyright (c) 2016 Kaan Karaagacli
+ *
+ * This file is part of DSN Monitor.
+ *
+ * DSN Monitor is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DSN Monitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DSN Monitor.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package me.aeolwyr.dsnnow.logic;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+import me.aeolwyr.dsnnow.data.NetworkConfig;
+import me.aeolwyr.dsnnow.data.Spacecraft;
+import me.aeolwyr.dsnnow.data.Station;
+
+/**
+ * Pool of canonical strings, shared by the parses of the state files. <br />
+ * The names, signal types and spacecraft of the states are drawn from a small vocabulary,
+ * so each poll would otherwise retain fresh copies of the same few strings. A string given
+ * to the pool is replaced with the canonical instance of its value, which also makes the
+ * equality checks of the parsed states end at the identity check. <br />
+ * The pool is seeded with the names in the network config, and it is bounded, so that
+ * a broken feed cannot grow it without limit; the strings beyond the limit are returned
+ * as they are. All the public functions are thread-safe.
+ */
+public class StringPool {
+    /** upper limit of the pooled strings **/
+    private static final int MAX_SIZE = 1024;
+    /** values of the signal types, known in advance **/
+    private static final String[] SIGNAL_TYPES = {"none", "data", "carrier", ""};
+
+    private final NetworkConfig config;
+    private final ConcurrentHashMap<String, String> strings = new ConcurrentHashMap<>();
+
+    /**
+     * Create a new pool, seeded with the names in the given config.
+     * @param config the network config
+     */
+    public StringPool(NetworkConfig config) {
+        this.config = config;
+        for (Station station : config.getStations().values()) {
+            add(station.getName());
+            for (String dishName : station.getDishes()) {
+                add(dishName);
+            }
+        }
+        for (Spacecraft spacecraft : config.getSpacecrafts().values()) {
+            add(spacecraft.getName());
+        }
+        for (String signalType : SIGNAL_TYPES) {
+            add(signalType);
+        }
+    }
+
+    /**
+     * Return the config this pool is seeded with.
+     * @return the network config
+     */
+    public NetworkConfig getConfig() {
+        return config;
+    }
+
+    /**
+     * Return the canonical instance of the given string, adding it to the pool if there
+     * is room.
+     * @param string the string, may be null
+     * @return the canonical string, or the given one if the pool is full
+     */
+    public String intern(String string) {
+        if (string == null) return null;
+        String canonical = strings.get(string);
+        if (canonical != null) return canonical;
+        if (strings.size() >= MAX_SIZE) return string;
+        return add(string);
+    }
+
+    private String add(String string) {
+        // (it may be added by another thread at the same time, the first one wins)
+        String canonical = strings.putIfAbsent(string, string);
+        return canonical != null ? canonical : string;
+    }
+
+    /**
+     * Return the number of the pooled strings.
+     * @return the size of the pool
+     */
+    public int size() {
+        return strings.size();
+    }
+}
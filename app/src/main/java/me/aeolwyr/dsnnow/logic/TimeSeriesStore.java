@@ -0,0 +1,441 @@
+/*
+ * DSN Monitor is an app to monitor the NASA Deep Space Network in real time.
+ * Copyright (c) 2016 Kaan Karaagacli
+ *
+ * This file is part of DSN Monitor.
+ *
+ * DSN Monitor is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DSN Monitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DSN Monitor.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package me.aeolwyr.dsnnow.logic;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import me.aeolwyr.dsnnow.data.DishState;
+import me.aeolwyr.dsnnow.data.NetworkState;
+import me.aeolwyr.dsnnow.data.Signal;
+import me.aeolwyr.dsnnow.data.Target;
+
+/**
+ * Per-spacecraft time series of the communication values, e.g. the data rate or the range,
+ * kept in memory as primitive columns and persisted as fixed-width rows. <br />
+ * The downloaded states are appended as they arrive, and the store can be rebuilt from the
+ * whole history in bulk, see <code>HistoryIndex</code>. A spacecraft is sampled at most once
+ * per minute, and the samples older than two weeks are dropped, so that the store stays
+ * small enough to keep in memory.
+ * <br />
+ * All the public functions are thread-safe. The ones that load or write the store do disk
+ * input/output, therefore they should not be used on the main thread.
+ */
+public class TimeSeriesStore implements HistoryIndex {
+    /** name of the folder the store is kept in **/
+    public static final String DIRECTORY_NAME = "timeseries";
+    private static final String ROWS_FILENAME = "rows.dat";
+    private static final String NAMES_FILENAME = "names.dat";
+
+    private static final int MAGIC = 0x44534E54;
+    private static final int VERSION = 1;
+    /** timestamp, spacecraft, dish, data rate, frequency, power, upleg, downleg and RTLT **/
+    private static final int ROW_SIZE = 8 + 4 + 4 + 8 + 8 + 4 + 8 + 8 + 8;
+
+    /** minimum time between two samples of a spacecraft, in milliseconds **/
+    private static final long RESOLUTION = 60 * 1000;
+    /** samples older than this are dropped, in milliseconds **/
+    private static final long MAX_AGE = 14 * 24 * 60 * 60 * 1000L;
+    /** the expired samples are dropped from memory at most this often, in milliseconds **/
+    private static final long EXPIRY_INTERVAL = 60 * 60 * 1000;
+
+    private static final Charset CHARSET = Charset.forName("UTF-8");
+
+    private File directory;
+
+    // in-memory state, null until loaded
+    private Map<String, SpacecraftSeries> series;
+    /** spacecraft and dish names, indexed by their ids in the rows **/
+    private List<String> names;
+    private Map<String, Integer> nameIds;
+    /** timestamp of the newest state added, older ones are ignored **/
+    private long lastTimestamp;
+    /** time the expired samples were last dropped **/
+    private long lastExpiry;
+    /** number of rows in the rows file that are dropped from memory **/
+    private long expiredRows;
+
+    // outputs to append to, opened when necessary
+    private DataOutputStream rowsOutput;
+    private DataOutputStream namesOutput;
+
+    /**
+     * Create a store in the given folder. Nothing is read until it is needed.
+     * @param directory the folder to keep the store in, created if necessary
+     */
+    public TimeSeriesStore(File directory) {
+        this.directory = directory;
+    }
+
+    @Override
+    public synchronized boolean exists() {
+        return Marker.exists(directory);
+    }
+
+    @Override
+    public void onCapture(NetworkState networkState) {
+        try {
+            append(networkState);
+        } catch (IOException ignored) {
+            // not critical, only this sample is lost
+        }
+    }
+
+    /**
+     * Add the values of the given state to the store.
+     * @param networkState the new state, ignored if not newer than the last one
+     * @throws IOException if there is an input/output error
+     */
+    public synchronized void append(NetworkState networkState) throws IOException {
+        load();
+        add(networkState);
+        flush();
+        expire(System.currentTimeMillis());
+    }
+
+    /**
+     * Drop the expired samples from memory, and rewrite the rows file once a significant
+     * part of it is expired.
+     */
+    private void expire(long now) throws IOException {
+        if (now - lastExpiry < EXPIRY_INTERVAL && now >= lastExpiry) return;
+        lastExpiry = now;
+
+        long minTimestamp = now - MAX_AGE;
+        long kept = 0;
+        Iterator<SpacecraftSeries> iterator = series.values().iterator();
+        while (iterator.hasNext()) {
+            SpacecraftSeries spacecraftSeries = iterator.next();
+            int size = spacecraftSeries.size();
+            spacecraftSeries.dropBefore(minTimestamp);
+            expiredRows += size - spacecraftSeries.size();
+            kept += spacecraftSeries.size();
+            if (spacecraftSeries.size() == 0) iterator.remove();
+        }
+        if (expiredRows > 0 && expiredRows >= kept / 4) {
+            rewrite();
+        }
+    }
+
+    @Override
+    public synchronized void reset() throws IOException {
+        close();
+        Marker.reset(directory, ROWS_FILENAME, NAMES_FILENAME);
+        clear();
+    }
+
+    /**
+     * Return the names of the spacecraft in the store.
+     * @return the names, sorted alphabetically
+     * @throws IOException if there is an input/output error
+     */
+    public synchronized String[] getSpacecraft() throws IOException {
+        load();
+        String[] spacecraft = series.keySet().toArray(new String[series.size()]);
+        Arrays.sort(spacecraft);
+        return spacecraft;
+    }
+
+    /**
+     * Return the samples of a spacecraft in the given time range.
+     * @param spacecraft the name of the spacecraft
+     * @param from the start of the range, inclusive
+     * @param to the end of the range, inclusive
+     * @return a copy of the samples, empty if there are none
+     * @throws IOException if there is an input/output error
+     */
+    public synchronized SpacecraftSeries query(String spacecraft, long from, long to)
+            throws IOException {
+        load();
+        String[] dishNames = names.toArray(new String[names.size()]);
+        SpacecraftSeries spacecraftSeries = series.get(spacecraft);
+        if (spacecraftSeries == null) {
+            return new SpacecraftSeries(spacecraft).copy(from, to, dishNames);
+        }
+        return spacecraftSeries.copy(from, to, dishNames);
+    }
+
+    /**
+     * Add the rows of a state, without flushing them.
+     */
+    private void add(NetworkState networkState) throws IOException {
+        long timestamp = networkState.getTimestamp();
+        if (timestamp <= lastTimestamp) return;
+        if (timestamp < System.currentTimeMillis() - MAX_AGE) return;
+        lastTimestamp = timestamp;
+
+        for (DishState dishState : networkState.getDishStates().values()) {
+            if (dishState == null) continue;
+            for (String spacecraft : dishState.getSpacecraft()) {
+                SpacecraftSeries spacecraftSeries = series.get(spacecraft);
+                if (spacecraftSeries == null) {
+                    spacecraftSeries = new SpacecraftSeries(spacecraft);
+                    series.put(spacecraft, spacecraftSeries);
+                }
+                // the rows of the same state are all added, the other dishes included
+                int size = spacecraftSeries.size();
+                if (size > 0) {
+                    long last = spacecraftSeries.getTimestamp(size - 1);
+                    if (last != timestamp && timestamp - last < RESOLUTION) continue;
+                }
+
+                Signal signal = SpacecraftSeries.findDownSignal(dishState, spacecraft);
+                Target target = SpacecraftSeries.findTarget(dishState, spacecraft);
+                int spacecraftId = getNameId(spacecraft);
+                int dishId = getNameId(dishState.getName());
+                long dataRate = signal != null ? signal.getDataRate() : 0;
+                long frequency = signal != null ? signal.getFrequency() : 0;
+                int power = signal != null ? signal.getPower() : 0;
+                long uplegRange = target != null ? target.getUplegRange() : -1;
+                long downlegRange = target != null ? target.getDownlegRange() : -1;
+                long rtlt = target != null ? target.getRTLT() : -1;
+
+                spacecraftSeries.append(timestamp, dishId, dataRate, frequency, power,
+                        uplegRange, downlegRange, rtlt);
+                writeRow(rowsOutput(), timestamp, spacecraftId, dishId, dataRate, frequency,
+                        power, uplegRange, downlegRange, rtlt);
+            }
+        }
+    }
+
+    private int getNameId(String name) throws IOException {
+        Integer id = nameIds.get(name);
+        if (id == null) {
+            id = names.size();
+            names.add(name);
+            nameIds.put(name, id);
+            byte[] bytes = name.getBytes(CHARSET);
+            DataOutputStream output = namesOutput();
+            output.writeShort(bytes.length);
+            output.write(bytes);
+        }
+        return id;
+    }
+
+    private static void writeRow(DataOutputStream output, long timestamp, int spacecraftId,
+                                 int dishId, long dataRate, long frequency, int power,
+                                 long uplegRange, long downlegRange, long rtlt)
+            throws IOException {
+        output.writeLong(timestamp);
+        output.writeInt(spacecraftId);
+        output.writeInt(dishId);
+        output.writeLong(dataRate);
+        output.writeLong(frequency);
+        output.writeInt(power);
+        output.writeLong(uplegRange);
+        output.writeLong(downlegRange);
+        output.writeLong(rtlt);
+    }
+
+    /**
+     * Read the store from the disk, if not read yet.
+     */
+    private void load() throws IOException {
+        if (series != null) return;
+        clear();
+
+        File namesFile = new File(directory, NAMES_FILENAME);
+        File rowsFile = new File(directory, ROWS_FILENAME);
+        if (!rowsFile.exists()) return;
+
+        if (namesFile.exists()) {
+            long validSize = 0;
+            try (DataInputStream input = new DataInputStream(
+                    new BufferedInputStream(new FileInputStream(namesFile)))) {
+                while (true) {
+                    byte[] bytes = new byte[input.readUnsignedShort()];
+                    input.readFully(bytes);
+                    String name = new String(bytes, CHARSET);
+                    nameIds.put(name, names.size());
+                    names.add(name);
+                    validSize += 2 + bytes.length;
+                }
+            } catch (EOFException ignored) {
+                // end of the names
+            }
+            // drop a name broken by a crash, the next ones are appended after it
+            truncate(namesFile, validSize);
+        }
+
+        long minTimestamp = System.currentTimeMillis() - MAX_AGE;
+        int dropped = 0;
+        int kept = 0;
+        try (DataInputStream input = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(rowsFile)))) {
+            if (input.readInt() != MAGIC || input.readInt() != VERSION) {
+                throw new IOException("Unknown time series format");
+            }
+            long rows = (rowsFile.length() - 8) / ROW_SIZE;
+            // drop a row broken by a crash, the next ones are appended after it
+            truncate(rowsFile, 8 + rows * ROW_SIZE);
+            for (long i = 0; i < rows; i++) {
+                long timestamp = input.readLong();
+                int spacecraftId = input.readInt();
+                int dishId = input.readInt();
+                long dataRate = input.readLong();
+                long frequency = input.readLong();
+                int power = input.readInt();
+                long uplegRange = input.readLong();
+                long downlegRange = input.readLong();
+                long rtlt = input.readLong();
+                if (spacecraftId >= names.size() || dishId >= names.size()) continue;
+                if (timestamp < minTimestamp) {
+                    dropped++;
+                    continue;
+                }
+
+                String spacecraft = names.get(spacecraftId);
+                SpacecraftSeries spacecraftSeries = series.get(spacecraft);
+                if (spacecraftSeries == null) {
+                    spacecraftSeries = new SpacecraftSeries(spacecraft);
+                    series.put(spacecraft, spacecraftSeries);
+                }
+                spacecraftSeries.append(timestamp, dishId, dataRate, frequency, power,
+                        uplegRange, downlegRange, rtlt);
+                lastTimestamp = Math.max(lastTimestamp, timestamp);
+                kept++;
+            }
+        } catch (IOException e) {
+            // unusable store, it should be rebuilt
+            clear();
+            close();
+            // noinspection ResultOfMethodCallIgnored
+            rowsFile.delete();
+            // noinspection ResultOfMethodCallIgnored
+            namesFile.delete();
+            throw e;
+        }
+
+        // rewrite the rows once a significant part of them is expired
+        expiredRows = dropped;
+        lastExpiry = System.currentTimeMillis();
+        if (dropped > 0 && dropped >= kept / 4) {
+            rewrite();
+        }
+    }
+
+    /**
+     * Replace the rows file with the rows in memory.
+     */
+    private void rewrite() throws IOException {
+        close();
+        File rowsFile = new File(directory, ROWS_FILENAME);
+        File tempFile = FileUtils.getTempFile(rowsFile);
+        try (DataOutputStream output = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(tempFile)))) {
+            output.writeInt(MAGIC);
+            output.writeInt(VERSION);
+            for (SpacecraftSeries spacecraftSeries : series.values()) {
+                int spacecraftId = nameIds.get(spacecraftSeries.getSpacecraft());
+                for (int i = 0; i < spacecraftSeries.size(); i++) {
+                    writeRow(output, spacecraftSeries.getTimestamp(i), spacecraftId,
+                            spacecraftSeries.getDishId(i),
+                            spacecraftSeries.getDataRate(i), spacecraftSeries.getFrequency(i),
+                            spacecraftSeries.getPower(i), spacecraftSeries.getUplegRange(i),
+                            spacecraftSeries.getDownlegRange(i), spacecraftSeries.getRTLT(i));
+                }
+            }
+        }
+        FileUtils.replace(tempFile, rowsFile);
+        expiredRows = 0;
+    }
+
+    private static void truncate(File file, long size) throws IOException {
+        if (file.length() <= size) return;
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw")) {
+            randomAccessFile.setLength(size);
+        }
+    }
+
+    private void clear() {
+        series = new HashMap<>();
+        names = new ArrayList<>();
+        nameIds = new HashMap<>();
+        lastTimestamp = 0;
+        expiredRows = 0;
+    }
+
+    private DataOutputStream rowsOutput() throws IOException {
+        if (rowsOutput == null) {
+            directory.mkdirs();
+            File rowsFile = new File(directory, ROWS_FILENAME);
+            boolean isNew = !rowsFile.exists();
+            rowsOutput = new DataOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(rowsFile, true)));
+            if (isNew) {
+                rowsOutput.writeInt(MAGIC);
+                rowsOutput.writeInt(VERSION);
+            }
+        }
+        return rowsOutput;
+    }
+
+    private DataOutputStream namesOutput() throws IOException {
+        if (namesOutput == null) {
+            directory.mkdirs();
+            namesOutput = new DataOutputStream(new BufferedOutputStream(
+                    new FileOutputStream(new File(directory, NAMES_FILENAME), true)));
+        }
+        return namesOutput;
+    }
+
+    /**
+     * Write the buffered names and rows to the disk. The names are written first,
+     * so that a row never refers to a missing name after a crash.
+     */
+    @Override
+    public synchronized void flush() throws IOException {
+        if (namesOutput != null) namesOutput.flush();
+        if (rowsOutput != null) rowsOutput.flush();
+    }
+
+    @Override
+    public synchronized void markBuilt() throws IOException {
+        Marker.create(directory);
+    }
+
+    private void close() throws IOException {
+        if (namesOutput != null) {
+            namesOutput.close();
+            namesOutput = null;
+        }
+        if (rowsOutput != null) {
+            rowsOutput.close();
+            rowsOutput = null;
+        }
+    }
+}
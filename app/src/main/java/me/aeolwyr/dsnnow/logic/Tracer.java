@@ -0,0 +1,116 @@
+/*
+ * DSN Monitor is an app to monitor the NASA Deep Space Network in real time.
+ * Copyright (c) 2016 Kaan Karaagacli
+ *
+ * This file is part of DSN Monitor.
+ *
+ * DSN Monitor is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DSN Monitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DSN Monitor.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package me.aeolwyr.dsnnow.logic;
+
+import android.os.Trace;
+
+import java.lang.reflect.Method;
+
+import me.aeolwyr.dsnnow.BuildConfig;
+
+/**
+ * Named sections of the system traces, to see the steps of the download pipeline
+ * in Systrace or Perfetto. <br />
+ * Tracing is compiled out of the release builds, since <code>ENABLED</code> is a constant.
+ * The sections must be ended on the thread they are started on, in the reverse order.
+ * The async slices can span threads, e.g. from a poll to the state being shown, and are
+ * matched by their names and cookies.
+ */
+public class Tracer {
+    /** true if the trace sections are recorded **/
+    public static final boolean ENABLED = BuildConfig.DEBUG;
+
+    // section names, kept constant so that nothing is allocated per section
+    public static final String DOWNLOAD = "download";
+    public static final String BUFFER_FILL = "buffer fill";
+    public static final String PARSE = "StateParser.parse";
+    public static final String PARSE_DETAILS = "StateParser.loadDetails";
+    public static final String CACHE_WRITE = "cache write";
+    public static final String RETENTION = "HistoryCompactor.compact";
+    public static final String SET_NETWORK_STATE = "setNetworkState";
+    public static final String BIND_GROUP = "bind group";
+    public static final String BIND_CHILD = "bind child";
+    /** async slice from the start of a poll to its state being given to the UI **/
+    public static final String POLL = "poll";
+
+    /** the async trace functions, hidden before API 29, null if not available **/
+    private static Method asyncTraceBegin;
+    private static Method asyncTraceEnd;
+    private static long traceTagApp;
+
+    static {
+        if (ENABLED) {
+            try {
+                traceTagApp = Trace.class.getField("TRACE_TAG_APP").getLong(null);
+                asyncTraceBegin = Trace.class.getMethod("asyncTraceBegin",
+                        long.class, String.class, int.class);
+                asyncTraceEnd = Trace.class.getMethod("asyncTraceEnd",
+                        long.class, String.class, int.class);
+            } catch (ReflectiveOperationException | RuntimeException e) {
+                // only the synchronous sections are recorded then
+                asyncTraceBegin = null;
+                asyncTraceEnd = null;
+            }
+        }
+    }
+
+    /**
+     * Start a section on the current thread.
+     * @param name the name of the section, one of the constants of this class
+     */
+    public static void begin(String name) {
+        if (ENABLED) Trace.beginSection(name);
+    }
+
+    /**
+     * End the last section started on the current thread.
+     */
+    public static void end() {
+        if (ENABLED) Trace.endSection();
+    }
+
+    /**
+     * Start an async slice, which can be ended on another thread.
+     * @param name the name of the slice
+     * @param cookie an identifier of the slice, unique among the running slices of the name
+     */
+    public static void beginAsync(String name, int cookie) {
+        if (ENABLED) invoke(asyncTraceBegin, name, cookie);
+    }
+
+    /**
+     * End an async slice.
+     * @param name the name of the slice
+     * @param cookie the identifier given when the slice was started
+     */
+    public static void endAsync(String name, int cookie) {
+        if (ENABLED) invoke(asyncTraceEnd, name, cookie);
+    }
+
+    private static void invoke(Method method, String name, int cookie) {
+        if (method == null) return;
+        try {
+            method.invoke(null, traceTagApp, name, cookie);
+        } catch (ReflectiveOperationException | RuntimeException ignored) {
+            // tracing is best effort
+        }
+    }
+}
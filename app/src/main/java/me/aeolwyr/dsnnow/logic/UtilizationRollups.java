@@ -0,0 +1,611 @@
+/*
+ * DSN Monitor is an app to monitor the NASA Deep Space Network in real time.
+ * Copyright (c) 2016 Kaan Karaagacli
+ *
+ * This file is part of DSN Monitor.
+ *
+ * DSN Monitor is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DSN Monitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DSN Monitor.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package me.aeolwyr.dsnnow.logic;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import me.aeolwyr.dsnnow.data.DishState;
+import me.aeolwyr.dsnnow.data.NetworkState;
+import me.aeolwyr.dsnnow.data.StationState;
+
+/**
+ * Hourly and daily utilization rollups of the network, updated as the states are captured.
+ * <br />
+ * The time between two consecutive states is counted with the activity of the later one,
+ * split at the hour boundaries. Longer gaps than a few failed downloads are not counted. <br />
+ * The current hour and day are kept in memory and saved from time to time. When an hour ends,
+ * it is appended to the hourly file and added to its day, and the same goes for the days.
+ * The hourly rollups are kept for a limited time, the daily ones are kept forever. <br />
+ * All the public functions are thread-safe. The ones that load or write the rollups do disk
+ * input/output, therefore they should not be used on the main thread.
+ */
+public class UtilizationRollups implements HistoryIndex {
+    /** name of the folder the rollups are kept in **/
+    public static final String DIRECTORY_NAME = "rollups";
+    private static final String HOURLY_FILENAME = "hourly.dat";
+    private static final String DAILY_FILENAME = "daily.dat";
+    private static final String OPEN_FILENAME = "open.dat";
+
+    private static final long HOUR = 60 * 60 * 1000;
+    private static final long DAY = 24 * HOUR;
+    /** longer gaps between the states are not counted, in milliseconds **/
+    private static final long MAX_GAP = 5 * 60 * 1000;
+    /** the hourly rollups older than this are dropped, in milliseconds **/
+    private static final long HOURLY_MAX_AGE = 31 * DAY;
+    /** the current hour and day are saved at least this often, in milliseconds **/
+    private static final long OPEN_SAVE_INTERVAL = 60 * 1000;
+
+
+    /**
+     * What the network was doing in a state, to be counted for the time until the state.
+     */
+    private static class Activity {
+        /** all the dishes of the state, and whether each was busy **/
+        List<String> dishes = new ArrayList<>();
+        List<Boolean> busy = new ArrayList<>();
+        /** the station of each dish **/
+        List<String> stations = new ArrayList<>();
+        /** the spacecraft communicating with any dish **/
+        Set<String> spacecraft = new HashSet<>();
+
+        static Activity of(NetworkState networkState) {
+            Activity activity = new Activity();
+            for (StationState stationState : networkState.getStationStates().values()) {
+                for (String dishName : stationState.getDishStates()) {
+                    DishState dishState = networkState.getDishStates().get(dishName);
+                    List<String> spacecraft = dishState != null
+                            ? dishState.getSpacecraft()
+                            : new ArrayList<String>();
+                    activity.dishes.add(dishName);
+                    activity.busy.add(!spacecraft.isEmpty());
+                    activity.stations.add(stationState.getName());
+                    activity.spacecraft.addAll(spacecraft);
+                }
+            }
+            return activity;
+        }
+
+        void addTo(Rollup rollup, long duration) {
+            rollup.addObserved(duration);
+            for (int i = 0; i < dishes.size(); i++) {
+                boolean isBusy = busy.get(i);
+                // idle dishes are added too, so that they are listed with no utilization
+                rollup.addDish(dishes.get(i), isBusy ? duration : 0);
+                if (isBusy) rollup.addStation(stations.get(i), duration);
+            }
+            for (String name : spacecraft) {
+                rollup.addSpacecraft(name, duration);
+            }
+        }
+    }
+
+    private File directory;
+
+    // in-memory state, null until loaded
+    /** the ended hours and days, from the oldest to the newest **/
+    private List<Rollup> hourly;
+    private List<Rollup> daily;
+    /** the current hour and day, null if not started yet **/
+    private Rollup openHour;
+    private Rollup openDay;
+    /** timestamp of the newest state added, older ones are ignored **/
+    private long lastTimestamp;
+    private long lastOpenSave;
+
+    private DataOutputStream hourlyOutput;
+    private DataOutputStream dailyOutput;
+
+    /**
+     * Create the rollups in the given folder. Nothing is read until it is needed.
+     * @param directory the folder to keep the rollups in, created if necessary
+     */
+    public UtilizationRollups(File directory) {
+        this.directory = directory;
+    }
+
+    @Override
+    public synchronized boolean exists() {
+        return Marker.exists(directory);
+    }
+
+    @Override
+    public synchronized void onCapture(NetworkState networkState) {
+        try {
+            load();
+            add(networkState);
+            if (lastTimestamp - lastOpenSave >= OPEN_SAVE_INTERVAL) {
+                saveOpen();
+            }
+        } catch (IOException ignored) {
+            // not critical, only the time until this state is lost
+        }
+    }
+
+    @Override
+    public synchronized void reset() throws IOException {
+        closeOutputs();
+        Marker.reset(directory, HOURLY_FILENAME, DAILY_FILENAME, OPEN_FILENAME);
+        clear();
+    }
+
+    @Override
+    public synchronized void flush() throws IOException {
+        if (hourly == null) return;
+        // the ended hours are already flushed when they end
+        saveOpen();
+    }
+
+    @Override
+    public synchronized void markBuilt() throws IOException {
+        Marker.create(directory);
+    }
+
+    /**
+     * Rebuild the rollups from the whole history. The days are read in parallel, and each
+     * of them is rolled up separately, as the rollups of the different hours do not depend
+     * on each other. Each day is read with its own reader, so that the days read at the same
+     * time do not move each other's position in the history log. <br />
+     * The rollups can be queried meanwhile, the old ones are returned until the end.
+     * @param historyScanner the scanner to read the history with
+     * @param threads the number of the days to read at the same time
+     * @throws IOException if there is an input/output error
+     */
+    public void backfill(final HistoryScanner historyScanner, int threads) throws IOException {
+        final long[] timestamps = historyScanner.getTimestamps();
+
+        // a job for each day
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(threads, 1));
+        List<Future<List<Rollup>>> futures = new ArrayList<>();
+        int start = 0;
+        while (start < timestamps.length) {
+            long day = floor(timestamps[start], DAY);
+            int end = start + 1;
+            while (end < timestamps.length && floor(timestamps[end], DAY) == day) end++;
+
+            final int from = start;
+            final int to = end;
+            futures.add(executor.submit(new Callable<List<Rollup>>() {
+                @Override
+                public List<Rollup> call() {
+                    return rollUp(historyScanner, timestamps, from, to);
+                }
+            }));
+            start = end;
+        }
+        executor.shutdown();
+
+        List<Rollup> hours = new ArrayList<>();
+        try {
+            for (Future<List<Rollup>> future : futures) {
+                for (Rollup hour : future.get()) {
+                    // the first state of a day also covers the end of the previous day
+                    Rollup last = hours.isEmpty() ? null : hours.get(hours.size() - 1);
+                    if (last != null && last.getStart() == hour.getStart()) {
+                        last.merge(hour);
+                    } else {
+                        hours.add(hour);
+                    }
+                }
+            }
+        } catch (InterruptedException | ExecutionException e) {
+            executor.shutdownNow();
+            throw new IOException(e);
+        }
+
+        // the days are in order, and so are their hours
+        synchronized (this) {
+            reset();
+            load();
+            for (int i = 0; i < hours.size() - 1; i++) {
+                endHour(hours.get(i));
+            }
+            if (!hours.isEmpty()) openHour = hours.get(hours.size() - 1);
+            if (timestamps.length > 0) lastTimestamp = timestamps[timestamps.length - 1];
+            saveOpen();
+            markBuilt();
+        }
+    }
+
+    /**
+     * Roll up a range of the history, on a backfill thread.
+     * @return the hourly rollups of the range, from the oldest to the newest
+     */
+    private static List<Rollup> rollUp(HistoryScanner historyScanner, long[] timestamps,
+                                       int from, int to) {
+        HistoryScanner.Reader reader = historyScanner.newReader();
+        List<Rollup> hours = new ArrayList<>();
+        for (int i = from; i < to; i++) {
+            // the first state of the history is not counted, there is nothing before it
+            if (i == 0) continue;
+            NetworkState networkState;
+            try {
+                networkState = reader.read(timestamps[i]);
+            } catch (Exception e) {
+                // deleted or broken in the meantime, the next state covers its time
+                continue;
+            }
+            if (networkState == null) continue;
+
+            long duration = Math.min(timestamps[i] - timestamps[i - 1], MAX_GAP);
+            attribute(Activity.of(networkState), timestamps[i] - duration, timestamps[i], hours);
+        }
+        return hours;
+    }
+
+    /**
+     * Return the hourly rollups in the given time range. The current hour is included.
+     * @param from the start of the range, inclusive
+     * @param to the end of the range, inclusive
+     * @return the rollups starting in the range, from the oldest to the newest
+     * @throws IOException if there is an input/output error
+     */
+    public synchronized List<Rollup> getHourly(long from, long to) throws IOException {
+        load();
+        List<Rollup> rollups = select(hourly, floor(from, HOUR), to);
+        if (openHour != null && openHour.getStart() >= floor(from, HOUR)
+                && openHour.getStart() <= to) {
+            rollups.add(openHour.copy());
+        }
+        return rollups;
+    }
+
+    /**
+     * Return the daily rollups in the given time range. The current day is included.
+     * @param from the start of the range, inclusive
+     * @param to the end of the range, inclusive
+     * @return the rollups starting in the range, from the oldest to the newest
+     * @throws IOException if there is an input/output error
+     */
+    public synchronized List<Rollup> getDaily(long from, long to) throws IOException {
+        load();
+        List<Rollup> rollups = select(daily, floor(from, DAY), to);
+        Rollup today = getToday();
+        if (today != null && today.getStart() >= floor(from, DAY) && today.getStart() <= to) {
+            rollups.add(today);
+        }
+        return rollups;
+    }
+
+    /**
+     * Return the total utilization in the given time range, e.g. to list the busiest stations.
+     * The hourly rollups are used if they cover the range, the daily ones otherwise.
+     * @param from the start of the range, inclusive
+     * @param to the end of the range, inclusive
+     * @return the sum of the rollups in the range
+     * @throws IOException if there is an input/output error
+     */
+    public synchronized Rollup getTotal(long from, long to) throws IOException {
+        load();
+        boolean hourlyCovers = !hourly.isEmpty() && hourly.get(0).getStart() <= from;
+        List<Rollup> rollups = hourlyCovers ? getHourly(from, to) : getDaily(from, to);
+        Rollup total = new Rollup(from, to - from);
+        for (Rollup rollup : rollups) {
+            total.merge(rollup);
+        }
+        return total;
+    }
+
+    private static List<Rollup> select(List<Rollup> rollups, long from, long to) {
+        List<Rollup> selected = new ArrayList<>();
+        for (Rollup rollup : rollups) {
+            if (rollup.getStart() >= from && rollup.getStart() <= to) selected.add(rollup);
+        }
+        return selected;
+    }
+
+    /**
+     * Return the current day with the current hour added, or null if there is no such day.
+     */
+    private Rollup getToday() {
+        if (openHour == null) return openDay != null ? openDay.copy() : null;
+        long day = floor(openHour.getStart(), DAY);
+        Rollup today = openDay != null && openDay.getStart() == day
+                ? openDay.copy()
+                : new Rollup(day, DAY);
+        today.merge(openHour);
+        return today;
+    }
+
+    /**
+     * Add the time until a state, without saving the current hour.
+     */
+    private void add(NetworkState networkState) throws IOException {
+        long timestamp = networkState.getTimestamp();
+        if (timestamp <= lastTimestamp) return;
+        long duration = lastTimestamp > 0 ? Math.min(timestamp - lastTimestamp, MAX_GAP) : 0;
+        lastTimestamp = timestamp;
+        if (duration == 0) return;
+
+        List<Rollup> hours = new ArrayList<>();
+        if (openHour != null) hours.add(openHour);
+        attribute(Activity.of(networkState), timestamp - duration, timestamp, hours);
+        // all but the last one have ended
+        for (int i = 0; i < hours.size() - 1; i++) {
+            endHour(hours.get(i));
+        }
+        openHour = hours.get(hours.size() - 1);
+        // the day must not miss the ended hours after a restart
+        if (hours.size() > 1) saveOpen();
+    }
+
+    /**
+     * Add an activity to the hourly rollups, split at the hour boundaries.
+     * @param activity the activity to add
+     * @param from the start of the time to add the activity for
+     * @param to the end of the time
+     * @param hours the rollups, from the oldest to the newest, new ones are added if necessary
+     */
+    private static void attribute(Activity activity, long from, long to, List<Rollup> hours) {
+        long start = from;
+        while (start < to) {
+            long hour = floor(start, HOUR);
+            long end = Math.min(to, hour + HOUR);
+            Rollup rollup = hours.isEmpty() ? null : hours.get(hours.size() - 1);
+            if (rollup == null || rollup.getStart() != hour) {
+                rollup = new Rollup(hour, HOUR);
+                hours.add(rollup);
+            }
+            activity.addTo(rollup, end - start);
+            start = end;
+        }
+    }
+
+    /**
+     * Save an ended hour and add it to its day. The current day is not saved, the caller
+     * should save it once it has ended all the hours it has.
+     */
+    private void endHour(Rollup hour) throws IOException {
+        hourly.add(hour);
+        writeRecord(hourlyOutput(), hour);
+        hourlyOutput.flush();
+
+        long day = floor(hour.getStart(), DAY);
+        if (openDay != null && openDay.getStart() != day) {
+            daily.add(openDay);
+            writeRecord(dailyOutput(), openDay);
+            dailyOutput.flush();
+            openDay = null;
+        }
+        if (openDay == null) openDay = new Rollup(day, DAY);
+        openDay.merge(hour);
+    }
+
+    /**
+     * Read the rollups from the disk, if not read yet.
+     */
+    private void load() throws IOException {
+        if (hourly != null) return;
+        clear();
+
+        int expired = readRecords(new File(directory, HOURLY_FILENAME), hourly,
+                System.currentTimeMillis() - HOURLY_MAX_AGE);
+        readRecords(new File(directory, DAILY_FILENAME), daily, 0);
+        if (expired > 0) rewriteHourly();
+
+        File openFile = new File(directory, OPEN_FILENAME);
+        if (openFile.exists()) {
+            try (DataInputStream input = new DataInputStream(
+                    new BufferedInputStream(new FileInputStream(openFile)))) {
+                lastTimestamp = input.readLong();
+                if (input.readBoolean()) openHour = readRollup(input);
+                if (input.readBoolean()) openDay = readRollup(input);
+            } catch (IOException ignored) {
+                // the file is replaced atomically, this should not happen
+                // only the current hour and day are lost otherwise
+            }
+        }
+
+        // the process was killed after an hour or a day has ended, but before it was saved
+        if (openDay != null && !daily.isEmpty()
+                && openDay.getStart() <= daily.get(daily.size() - 1).getStart()) {
+            openDay = null;
+        }
+        if (openHour != null && !hourly.isEmpty()
+                && openHour.getStart() <= hourly.get(hourly.size() - 1).getStart()) {
+            long day = floor(openHour.getStart(), DAY);
+            if (openDay == null) openDay = new Rollup(day, DAY);
+            if (openDay.getStart() == day) openDay.merge(openHour);
+            openHour = null;
+        }
+        lastOpenSave = lastTimestamp;
+    }
+
+    /**
+     * Read the records of a file, dropping a broken one at the end.
+     * @return the number of the records dropped for being older than the given time
+     */
+    private static int readRecords(File file, List<Rollup> rollups, long minStart)
+            throws IOException {
+        if (!file.exists()) return 0;
+        int expired = 0;
+        long validSize = 0;
+        try (DataInputStream input = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(file)))) {
+            while (true) {
+                byte[] record = new byte[input.readInt()];
+                input.readFully(record);
+                Rollup rollup = readRollup(new DataInputStream(new ByteArrayInputStream(record)));
+                validSize += 4 + record.length;
+                if (rollup.getStart() + rollup.getLength() < minStart) {
+                    expired++;
+                } else {
+                    rollups.add(rollup);
+                }
+            }
+        } catch (EOFException ignored) {
+            // end of the records
+        }
+        // drop a record broken by a crash, the next ones are appended after it
+        if (file.length() > validSize) {
+            try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw")) {
+                randomAccessFile.setLength(validSize);
+            }
+        }
+        return expired;
+    }
+
+    /**
+     * Replace the hourly file with the hours in memory, to drop the expired ones.
+     */
+    private void rewriteHourly() throws IOException {
+        closeOutputs();
+        File hourlyFile = new File(directory, HOURLY_FILENAME);
+        File tempFile = FileUtils.getTempFile(hourlyFile);
+        try (DataOutputStream output = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(tempFile)))) {
+            for (Rollup rollup : hourly) {
+                writeRecord(output, rollup);
+            }
+        }
+        FileUtils.replace(tempFile, hourlyFile);
+    }
+
+    /**
+     * Replace the saved current hour and day with the ones in memory.
+     */
+    private void saveOpen() throws IOException {
+        directory.mkdirs();
+        File openFile = new File(directory, OPEN_FILENAME);
+        File tempFile = FileUtils.getTempFile(openFile);
+        try (DataOutputStream output = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(tempFile)))) {
+            output.writeLong(lastTimestamp);
+            output.writeBoolean(openHour != null);
+            if (openHour != null) writeRollup(output, openHour);
+            output.writeBoolean(openDay != null);
+            if (openDay != null) writeRollup(output, openDay);
+        }
+        FileUtils.replace(tempFile, openFile);
+        lastOpenSave = lastTimestamp;
+    }
+
+    /**
+     * Write a rollup prefixed with its size, so that a broken one can be detected.
+     */
+    private static void writeRecord(DataOutput output, Rollup rollup) throws IOException {
+        ByteArrayOutputStream record = new ByteArrayOutputStream();
+        writeRollup(new DataOutputStream(record), rollup);
+        output.writeInt(record.size());
+        output.write(record.toByteArray());
+    }
+
+    private static void writeRollup(DataOutput output, Rollup rollup) throws IOException {
+        output.writeLong(rollup.getStart());
+        output.writeLong(rollup.getLength());
+        output.writeLong(rollup.getObserved());
+        writeTimes(output, rollup.getDishes());
+        writeTimes(output, rollup.getStations());
+        writeTimes(output, rollup.getSpacecraft());
+    }
+
+    private static Rollup readRollup(DataInput input) throws IOException {
+        Rollup rollup = new Rollup(input.readLong(), input.readLong());
+        rollup.addObserved(input.readLong());
+        int count = input.readUnsignedShort();
+        for (int i = 0; i < count; i++) {
+            rollup.addDish(FileUtils.readString(input), input.readLong());
+        }
+        count = input.readUnsignedShort();
+        for (int i = 0; i < count; i++) {
+            rollup.addStation(FileUtils.readString(input), input.readLong());
+        }
+        count = input.readUnsignedShort();
+        for (int i = 0; i < count; i++) {
+            rollup.addSpacecraft(FileUtils.readString(input), input.readLong());
+        }
+        return rollup;
+    }
+
+    private static void writeTimes(DataOutput output, Map<String, Long> times)
+            throws IOException {
+        output.writeShort(times.size());
+        for (Map.Entry<String, Long> entry : times.entrySet()) {
+            FileUtils.writeString(output, entry.getKey());
+            output.writeLong(entry.getValue());
+        }
+    }
+
+    private static long floor(long timestamp, long unit) {
+        return timestamp - timestamp % unit;
+    }
+
+    private DataOutputStream hourlyOutput() throws IOException {
+        if (hourlyOutput == null) {
+            directory.mkdirs();
+            hourlyOutput = new DataOutputStream(new BufferedOutputStream(
+                    new FileOutputStream(new File(directory, HOURLY_FILENAME), true)));
+        }
+        return hourlyOutput;
+    }
+
+    private DataOutputStream dailyOutput() throws IOException {
+        if (dailyOutput == null) {
+            directory.mkdirs();
+            dailyOutput = new DataOutputStream(new BufferedOutputStream(
+                    new FileOutputStream(new File(directory, DAILY_FILENAME), true)));
+        }
+        return dailyOutput;
+    }
+
+    private void closeOutputs() throws IOException {
+        if (hourlyOutput != null) {
+            hourlyOutput.close();
+            hourlyOutput = null;
+        }
+        if (dailyOutput != null) {
+            dailyOutput.close();
+            dailyOutput = null;
+        }
+    }
+
+    private void clear() {
+        hourly = new ArrayList<>();
+        daily = new ArrayList<>();
+        openHour = null;
+        openDay = null;
+        lastTimestamp = 0;
+        lastOpenSave = 0;
+    }
+}
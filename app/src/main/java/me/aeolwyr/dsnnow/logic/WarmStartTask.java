@@ -0,0 +1,56 @@
+/*
+ * DSN Monitor is an app to monitor the NASA Deep Space Network in real time.
+ * Copyright (c) 2016 Kaan Karaagacli
+ *
+ * This file is part of DSN Monitor.
+ *
+ * DSN Monitor is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DSN Monitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DSN Monitor.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package me.aeolwyr.dsnnow.logic;
+
+import android.os.AsyncTask;
+
+import java.io.File;
+import java.io.IOException;
+
+import me.aeolwyr.dsnnow.data.NetworkState;
+
+/**
+ * Async task that loads the latest downloaded state from the pre-decoded copy
+ * written by <code>CaptureWriter</code>. The result is null if there is no such copy.
+ */
+public class WarmStartTask extends AsyncTask<Void, Void, NetworkState> {
+    private File cacheDir;
+
+    /**
+     * Create a new warm start task.
+     * @param cacheDir cache folder the latest state is stored in
+     */
+    public WarmStartTask(File cacheDir) {
+        this.cacheDir = cacheDir;
+    }
+
+    @Override
+    protected NetworkState doInBackground(Void... params) {
+        File file = new File(cacheDir, CaptureWriter.LAST_STATE_FILENAME);
+        if (!file.exists()) return null;
+        try {
+            return StateCodec.readFile(file);
+        } catch (IOException e) {
+            // most likely written by an older version, it will be replaced on the next download
+            return null;
+        }
+    }
+}
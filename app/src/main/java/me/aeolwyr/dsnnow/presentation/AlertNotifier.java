@@ -0,0 +1,111 @@
+/*
+ * DSN Monitor is an app to monitor the NASA Deep Space Network in real time.
+ * Copyright (c) 2016 Kaan Karaagacli
+ *
+ * This file is part of DSN Monitor.
+ *
+ * DSN Monitor is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DSN Monitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DSN Monitor.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package me.aeolwyr.dsnnow.presentation;
+
+import android.app.Notification;
+import android.app.NotificationChannel;
+import android.app.NotificationManager;
+import android.app.PendingIntent;
+import android.content.Context;
+import android.content.Intent;
+import android.os.Build;
+
+import java.text.ParseException;
+import java.util.Collections;
+
+import me.aeolwyr.dsnnow.R;
+import me.aeolwyr.dsnnow.data.NetworkConfig;
+import me.aeolwyr.dsnnow.data.Spacecraft;
+import me.aeolwyr.dsnnow.logic.AlertEngine;
+import me.aeolwyr.dsnnow.logic.AlertRule;
+import me.aeolwyr.dsnnow.logic.StateRepository;
+
+/**
+ * Shows the alerts of the alert engine as notifications.
+ */
+public class AlertNotifier implements AlertEngine.Listener {
+    private static final String CHANNEL_ID = "alerts";
+    private static final String NOTIFICATION_TAG = "alert";
+
+    private Context context;
+    private NetworkConfig config;
+    private NotificationManager notificationManager;
+
+    private AlertNotifier(Context context, NetworkConfig config) {
+        this.context = context;
+        this.config = config;
+        notificationManager =
+                (NotificationManager) context.getSystemService(Context.NOTIFICATION_SERVICE);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            notificationManager.createNotificationChannel(new NotificationChannel(CHANNEL_ID,
+                    context.getString(R.string.alerts_category),
+                    NotificationManager.IMPORTANCE_DEFAULT));
+        }
+    }
+
+    /**
+     * Load the user set alert rules into the alert engine, and show its alerts
+     * as notifications.
+     * @param context any context of the application
+     */
+    public static void install(Context context) {
+        StateRepository repository = StateRepository.getInstance(context);
+        AlertEngine alertEngine = repository.getAlertEngine();
+        try {
+            alertEngine.setRules(AlertRule.compileAll(PrefsManager.getAlertRules(context),
+                    repository.getConfig()));
+        } catch (ParseException e) {
+            // the settings do not accept invalid rules, this should not happen
+            alertEngine.setRules(Collections.<AlertRule>emptyList());
+        }
+        alertEngine.setListener(
+                new AlertNotifier(context.getApplicationContext(), repository.getConfig()));
+    }
+
+    @Override
+    public void onAlert(AlertEngine.Alert alert) {
+        String dish = alert.getDish();
+        String text;
+        if (alert.getSpacecraft() != null) {
+            Spacecraft spacecraft = config.getSpacecraft(alert.getSpacecraft());
+            String name = spacecraft != null ? spacecraft.getFriendlyName() : alert.getSpacecraft();
+            text = context.getString(R.string.alert_spacecraft_text, name, dish);
+        } else {
+            text = dish;
+        }
+
+        Intent intent = new Intent(context, MainActivity.class);
+        PendingIntent pendingIntent = PendingIntent.getActivity(context, 0, intent, 0);
+        Notification.Builder builder = Build.VERSION.SDK_INT >= Build.VERSION_CODES.O
+                ? new Notification.Builder(context, CHANNEL_ID)
+                : new Notification.Builder(context);
+        Notification notification = builder
+                .setSmallIcon(R.drawable.ic_gps_fixed)
+                .setContentTitle(alert.getRule().getSource())
+                .setContentText(text)
+                .setWhen(alert.getTimestamp())
+                .setContentIntent(pendingIntent)
+                .setAutoCancel(true)
+                .build();
+        // the same alert replaces its previous notification
+        notificationManager.notify(NOTIFICATION_TAG, alert.getKey().hashCode(), notification);
+    }
+}
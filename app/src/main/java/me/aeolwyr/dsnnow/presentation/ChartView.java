@@ -0,0 +1,252 @@
+/*
+ * DSN Monitor is an app to monitor the NASA Deep Space Network in real time.
+ * Copyright (c) 2016 Kaan Karaagacli
+ *
+ * This file is part of DSN Monitor.
+ *
+ * DSN Monitor is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DSN Monitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DSN Monitor.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package me.aeolwyr.dsnnow.presentation;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.os.AsyncTask;
+import android.util.AttributeSet;
+import android.view.View;
+
+import java.util.Arrays;
+
+import me.aeolwyr.dsnnow.R;
+import me.aeolwyr.dsnnow.logic.Downsampler;
+
+/**
+ * Simple line chart of a series of values over time. <br />
+ * The series can have many more points than the chart has pixels, therefore only the points
+ * selected by <code>Downsampler</code> for the width of the chart are drawn. Downsampling is
+ * done in the background whenever the series or the width changes. The points appended
+ * afterwards are drawn as they are, until they are enough to fill a bucket of the
+ * downsampled series, so that a new point never waits for the whole series to be downsampled.
+ */
+public class ChartView extends View {
+    private static final int INITIAL_CAPACITY = 64;
+
+    private String title;
+    private Paint linePaint;
+    private Paint textPaint;
+
+    /** the whole series, sorted by time **/
+    private long[] xs = new long[INITIAL_CAPACITY];
+    private double[] ys = new double[INITIAL_CAPACITY];
+    private int size;
+
+    /** indices of the points to draw **/
+    private int[] drawn = new int[INITIAL_CAPACITY];
+    private int drawnSize;
+    /** number of points of the series when it was last downsampled **/
+    private int downsampledSize;
+    /** increased on every downsampling, to discard the outdated results **/
+    private int generation;
+
+    /** reused to draw the lines **/
+    private float[] lines = new float[0];
+
+    public ChartView(Context context) {
+        this(context, null);
+    }
+
+    public ChartView(Context context, AttributeSet attrs) {
+        super(context, attrs);
+        float density = context.getResources().getDisplayMetrics().density;
+
+        linePaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+        linePaint.setColor(context.getResources().getColor(R.color.accent));
+        linePaint.setStrokeWidth(2 * density);
+
+        textPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+        textPaint.setColor(context.getResources().getColor(R.color.primary_text));
+        textPaint.setTextSize(12 * density);
+    }
+
+    /**
+     * Set the title of the chart, including the unit of the values.
+     * @param title the title, e.g. "Range (km)"
+     */
+    public void setTitle(String title) {
+        this.title = title;
+        invalidate();
+    }
+
+    /**
+     * Replace the series shown in the chart.
+     * @param xs the times of the points, in ascending order
+     * @param ys the values of the points
+     * @param size the number of points, starting from the beginning of the arrays
+     */
+    public void setSeries(long[] xs, double[] ys, int size) {
+        int capacity = Math.max(size, INITIAL_CAPACITY);
+        this.xs = Arrays.copyOf(xs, capacity);
+        this.ys = Arrays.copyOf(ys, capacity);
+        this.size = size;
+
+        // draw every point until the downsampled ones are ready
+        drawnSize = 0;
+        downsampledSize = 0;
+        appendDrawn(0, size);
+        downsample();
+        invalidate();
+    }
+
+    /**
+     * Add a point to the end of the series.
+     * @param x the time of the point, ignored if not after the last point
+     * @param y the value of the point
+     */
+    public void append(long x, double y) {
+        if (size > 0 && x <= xs[size - 1]) return;
+        if (size == xs.length) {
+            xs = Arrays.copyOf(xs, size * 2);
+            ys = Arrays.copyOf(ys, size * 2);
+        }
+        xs[size] = x;
+        ys[size] = y;
+        size++;
+
+        appendDrawn(size - 1, size);
+        // a new bucket is full, downsample again so that the drawn points stay bounded
+        int width = getWidth();
+        if (width > 0 && size - downsampledSize > Math.max(1, downsampledSize / width)) {
+            downsample();
+        }
+        invalidate();
+    }
+
+    /**
+     * Add a range of the series to the drawn points, as they are.
+     */
+    private void appendDrawn(int from, int to) {
+        if (drawnSize + to - from > drawn.length) {
+            drawn = Arrays.copyOf(drawn, Math.max(drawn.length * 2, drawnSize + to - from));
+        }
+        for (int i = from; i < to; i++) {
+            drawn[drawnSize++] = i;
+        }
+    }
+
+    /**
+     * Select the points to draw for the current width, in the background.
+     */
+    private void downsample() {
+        // discard the result of the ongoing one, if any
+        final int generation = ++this.generation;
+        final int width = getWidth() - getPaddingLeft() - getPaddingRight();
+        if (width <= 0 || size == 0) return;
+
+        // the points before size are never changed, the arrays can be read in the background
+        final long[] xs = this.xs;
+        final double[] ys = this.ys;
+        final int size = this.size;
+        new AsyncTask<Void, Void, int[]>() {
+            @Override
+            protected int[] doInBackground(Void... params) {
+                return Downsampler.largestTriangleThreeBuckets(xs, ys, 0, size, width);
+            }
+
+            @Override
+            protected void onPostExecute(int[] indices) {
+                // the series was replaced or downsampled again meanwhile
+                if (generation != ChartView.this.generation) return;
+                drawn = Arrays.copyOf(indices, Math.max(indices.length * 2, INITIAL_CAPACITY));
+                drawnSize = indices.length;
+                downsampledSize = size;
+                // the points appended meanwhile
+                appendDrawn(size, ChartView.this.size);
+                invalidate();
+            }
+        }.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+    }
+
+    @Override
+    protected void onSizeChanged(int w, int h, int oldw, int oldh) {
+        super.onSizeChanged(w, h, oldw, oldh);
+        if (w != oldw) downsample();
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        super.onDraw(canvas);
+
+        float left = getPaddingLeft();
+        float top = getPaddingTop() - textPaint.ascent();
+        if (title != null) {
+            canvas.drawText(title, left, top, textPaint);
+        }
+        if (drawnSize == 0) return;
+
+        // bounds of the drawn points
+        long minX = xs[drawn[0]];
+        long maxX = xs[drawn[drawnSize - 1]];
+        double minY = Double.MAX_VALUE;
+        double maxY = -Double.MAX_VALUE;
+        for (int i = 0; i < drawnSize; i++) {
+            double y = ys[drawn[i]];
+            if (y < minY) minY = y;
+            if (y > maxY) maxY = y;
+        }
+
+        // value labels on the right, above and below the chart area
+        String maxLabel = getContext().getString(R.string.chart_value, maxY);
+        String minLabel = getContext().getString(R.string.chart_value, minY);
+        float right = getWidth() - getPaddingRight();
+        float bottom = getHeight() - getPaddingBottom();
+        canvas.drawText(maxLabel, right - textPaint.measureText(maxLabel), top, textPaint);
+        canvas.drawText(minLabel, right - textPaint.measureText(minLabel),
+                bottom - textPaint.descent(), textPaint);
+
+        // chart area between the labels
+        float chartTop = top + textPaint.descent();
+        float chartBottom = bottom + textPaint.ascent() - textPaint.descent();
+        float chartWidth = right - left;
+        float chartHeight = chartBottom - chartTop;
+        if (drawnSize < 2 || chartHeight <= 0) return;
+
+        if (lines.length < drawnSize * 4) {
+            lines = new float[drawnSize * 8];
+        }
+        double rangeX = Math.max(maxX - minX, 1);
+        double rangeY = maxY - minY;
+        int count = 0;
+        for (int i = 0; i < drawnSize; i++) {
+            int index = drawn[i];
+            float x = left + (float) ((xs[index] - minX) / rangeX * chartWidth);
+            // flat series are drawn in the middle
+            float y = rangeY > 0
+                    ? chartBottom - (float) ((ys[index] - minY) / rangeY * chartHeight)
+                    : chartTop + chartHeight / 2;
+            if (i > 0) {
+                // end of the previous line
+                lines[count++] = x;
+                lines[count++] = y;
+            }
+            if (i < drawnSize - 1) {
+                // start of the next line
+                lines[count++] = x;
+                lines[count++] = y;
+            }
+        }
+        canvas.drawLines(lines, 0, count, linePaint);
+    }
+}
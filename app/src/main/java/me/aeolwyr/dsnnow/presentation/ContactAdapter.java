@@ -0,0 +1,99 @@
+/*
+ * DSN Monitor is an app to monitor the NASA Deep Space Network in real time.
+ * Copyright (c) 2016 Kaan Karaagacli
+ *
+ * This file is part of DSN Monitor.
+ *
+ * DSN Monitor is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DSN Monitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DSN Monitor.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package me.aeolwyr.dsnnow.presentation;
+
+import android.content.Context;
+import android.text.format.DateUtils;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.BaseAdapter;
+import android.widget.TextView;
+
+import java.text.DateFormat;
+import java.util.List;
+
+import me.aeolwyr.dsnnow.R;
+import me.aeolwyr.dsnnow.logic.Contact;
+
+/**
+ * Adapter to list the contacts of a spacecraft with the dishes.
+ */
+public class ContactAdapter extends BaseAdapter {
+    private Context context;
+    private List<Contact> contacts;
+
+    // for formatting purposes
+    private static final DateFormat dateTimeFormat =
+            DateFormat.getDateTimeInstance(DateFormat.MEDIUM, DateFormat.SHORT);
+
+    /**
+     * Create a new contact adapter.
+     * @param context the context of the activity
+     * @param contacts the contacts to list, from the newest to the oldest
+     */
+    public ContactAdapter(Context context, List<Contact> contacts) {
+        this.context = context;
+        this.contacts = contacts;
+    }
+
+    @Override
+    public int getCount() {
+        return contacts.size();
+    }
+
+    @Override
+    public Contact getItem(int position) {
+        return contacts.get(position);
+    }
+
+    @Override
+    public long getItemId(int position) {
+        return position;
+    }
+
+    @Override
+    public View getView(int position, View convertView, ViewGroup parent) {
+        // inflate the view if necessary
+        if (convertView == null) {
+            LayoutInflater layoutInflater = LayoutInflater.from(context);
+            convertView = layoutInflater.inflate(R.layout.contact_item, parent, false);
+        }
+
+        Contact contact = getItem(position);
+
+        TextView dish = (TextView) convertView.findViewById(R.id.dish);
+        dish.setText(contact.getDish());
+
+        // e.g. "Jan 11, 2016 10:10 AM - now (1:23:45)"
+        TextView period = (TextView) convertView.findViewById(R.id.period);
+        String end = contact.isOngoing()
+                ? context.getString(R.string.contact_ongoing)
+                : dateTimeFormat.format(contact.getEnd());
+        String duration = DateUtils.formatElapsedTime(
+                (contact.getEnd() - contact.getStart()) / 1000);
+        period.setText(context.getString(R.string.contact_period,
+                dateTimeFormat.format(contact.getStart()), end, duration));
+
+        return convertView;
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * DSN Monitor is an app to monitor the NASA Deep Space Network in real time.
+ * Copyright (c) 2016 Kaan Karaagacli
+ *
+ * This file is part of DSN Monitor.
+ *
+ * DSN Monitor is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DSN Monitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DSN Monitor.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package me.aeolwyr.dsnnow.presentation;
+
+import android.app.Activity;
+import android.os.Bundle;
+import android.os.Handler;
+import android.widget.TextView;
+
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+import me.aeolwyr.dsnnow.R;
+import me.aeolwyr.dsnnow.logic.Metrics;
+
+/**
+ * Hidden activity that shows the metrics of the download pipeline and the UI,
+ * refreshed every second. It is opened by tapping the version in the settings
+ * several times.
+ */
+public class DebugActivity extends Activity {
+    /** refresh interval of the metrics, in milliseconds **/
+    private static final int REFRESH_INTERVAL = 1000;
+
+    private TextView metricsView;
+    private Handler handler = new Handler();
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.activity_debug);
+        metricsView = (TextView) findViewById(R.id.metrics);
+    }
+
+    @Override
+    protected void onResume() {
+        super.onResume();
+        handler.post(refresh);
+    }
+
+    @Override
+    protected void onPause() {
+        super.onPause();
+        handler.removeCallbacks(refresh);
+    }
+
+    @Override
+    public void dump(String prefix, FileDescriptor fd, PrintWriter writer, String[] args) {
+        super.dump(prefix, fd, writer, args);
+        writer.print(prefix);
+        writer.println("Metrics:");
+        Metrics.dump(writer, prefix + "  ");
+    }
+
+    /**
+     * Show the current metrics, and reschedule itself.
+     */
+    private Runnable refresh = new Runnable() {
+        @Override
+        public void run() {
+            StringWriter stringWriter = new StringWriter();
+            PrintWriter printWriter = new PrintWriter(stringWriter);
+            Metrics.dump(printWriter, "");
+            printWriter.flush();
+            metricsView.setText(stringWriter.toString());
+            handler.postDelayed(this, REFRESH_INTERVAL);
+        }
+    };
+}
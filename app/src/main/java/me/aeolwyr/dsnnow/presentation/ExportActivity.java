@@ -0,0 +1,210 @@
+/*
+ * DSN Monitor is an app to monitor the NASA Deep Space Network in real time.
+ * Copyright (c) 2016 Kaan Karaagacli
+ *
+ * This file is part of DSN Monitor.
+ *
+ * DSN Monitor is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DSN Monitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DSN Monitor.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package me.aeolwyr.dsnnow.presentation;
+
+import android.app.Activity;
+import android.content.Intent;
+import android.net.Uri;
+import android.os.AsyncTask;
+import android.os.Bundle;
+import android.view.View;
+import android.widget.Button;
+import android.widget.ProgressBar;
+import android.widget.RadioGroup;
+import android.widget.TextView;
+import android.widget.Toast;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+
+import me.aeolwyr.dsnnow.R;
+import me.aeolwyr.dsnnow.logic.HistoryExporter;
+import me.aeolwyr.dsnnow.logic.StateRepository;
+
+/**
+ * Activity to export a time range of the history to a chosen document, as CSV or in
+ * the columnar format. <br />
+ * The export runs in the background, and is stopped if the activity is closed.
+ */
+public class ExportActivity extends Activity {
+    private static final int EXPORT_REQUEST_CODE = 1;
+    /** the progress is reported after every this many states **/
+    private static final int PROGRESS_INTERVAL = 25;
+
+    private StateRepository repository;
+    private RadioGroup rangeGroup;
+    private RadioGroup formatGroup;
+    private Button exportButton;
+    private ProgressBar progressBar;
+    private TextView statusView;
+
+    /** the running export, null if there is none **/
+    private ExportTask exportTask;
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.activity_export);
+
+        repository = StateRepository.getInstance(this);
+        rangeGroup = (RadioGroup) findViewById(R.id.export_range);
+        formatGroup = (RadioGroup) findViewById(R.id.export_format);
+        exportButton = (Button) findViewById(R.id.export_button);
+        progressBar = (ProgressBar) findViewById(R.id.export_progress);
+        statusView = (TextView) findViewById(R.id.export_status);
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        if (exportTask != null) {
+            exportTask.cancel(false);
+        }
+    }
+
+    /**
+     * On click listener of the export button, to choose the document to export to.
+     * @param view the export button
+     */
+    public void chooseDestination(View view) {
+        boolean csv = getFormat() == HistoryExporter.FORMAT_CSV;
+        String date = new SimpleDateFormat("yyyyMMdd-HHmm", Locale.US).format(new Date());
+
+        Intent intent = new Intent(Intent.ACTION_CREATE_DOCUMENT);
+        intent.setType(csv ? "text/csv" : "application/octet-stream");
+        intent.putExtra(Intent.EXTRA_TITLE, "dsn-" + date + (csv ? ".csv" : ".dsnc"));
+        startActivityForResult(intent, EXPORT_REQUEST_CODE);
+    }
+
+    @Override
+    public void onActivityResult(int requestCode, int resultCode, Intent resultData) {
+        if (requestCode == EXPORT_REQUEST_CODE && resultCode == Activity.RESULT_OK
+                && resultData != null) {
+            // document to export to is chosen successfully
+            long to = System.currentTimeMillis();
+            long from = to - getRange();
+            // the newer states might be downloaded during the export
+            exportTask = new ExportTask(resultData.getData(), from, to, getFormat());
+            exportTask.execute();
+        }
+    }
+
+    /**
+     * Return the chosen time range.
+     * @return the length of the range until now, in milliseconds
+     */
+    private long getRange() {
+        switch (rangeGroup.getCheckedRadioButtonId()) {
+            case R.id.export_last_hour:
+                return 60 * 60 * 1000L;
+            case R.id.export_last_day:
+                return 24 * 60 * 60 * 1000L;
+            case R.id.export_last_week:
+                return 7 * 24 * 60 * 60 * 1000L;
+            default:
+            case R.id.export_all:
+                return Long.MAX_VALUE / 2;
+        }
+    }
+
+    private int getFormat() {
+        return formatGroup.getCheckedRadioButtonId() == R.id.export_columnar
+                ? HistoryExporter.FORMAT_COLUMNAR
+                : HistoryExporter.FORMAT_CSV;
+    }
+
+    /**
+     * Task to export the history in the background, reporting its progress.
+     */
+    private class ExportTask extends AsyncTask<Void, Integer, Integer> {
+        private Uri destination;
+        private long from;
+        private long to;
+        private int format;
+
+        ExportTask(Uri destination, long from, long to, int format) {
+            this.destination = destination;
+            this.from = from;
+            this.to = to;
+            this.format = format;
+        }
+
+        @Override
+        protected void onPreExecute() {
+            exportButton.setEnabled(false);
+            progressBar.setProgress(0);
+            progressBar.setVisibility(View.VISIBLE);
+            statusView.setText(null);
+        }
+
+        @Override
+        protected Integer doInBackground(Void... params) {
+            // the queued downloads are exported as well
+            repository.getCaptureWriter().flushAndWait();
+
+            HistoryExporter exporter = new HistoryExporter(repository.getHistoryScanner());
+            try (OutputStream outputStream = getContentResolver().openOutputStream(destination)) {
+                if (outputStream == null) return null;
+                OutputStream bufferedStream = new BufferedOutputStream(outputStream);
+                int count = exporter.export(from, to, format, bufferedStream,
+                        new HistoryExporter.ProgressListener() {
+                    @Override
+                    public boolean onProgress(int done, int total) {
+                        if (done % PROGRESS_INTERVAL == 0 || done == total) {
+                            publishProgress(done, total);
+                        }
+                        return !isCancelled();
+                    }
+                });
+                bufferedStream.flush();
+                return count;
+            } catch (IOException e) {
+                return null;
+            }
+        }
+
+        @Override
+        protected void onProgressUpdate(Integer... values) {
+            progressBar.setMax(values[1]);
+            progressBar.setProgress(values[0]);
+            statusView.setText(getString(R.string.export_progress, values[0], values[1]));
+        }
+
+        @Override
+        protected void onPostExecute(Integer count) {
+            exportTask = null;
+            exportButton.setEnabled(true);
+            progressBar.setVisibility(View.GONE);
+            if (count != null) {
+                statusView.setText(getString(R.string.export_success, count));
+            } else {
+                statusView.setText(R.string.export_error);
+                Toast.makeText(ExportActivity.this, R.string.export_error,
+                        Toast.LENGTH_SHORT).show();
+            }
+        }
+    }
+}
@@ -48,7 +48,7 @@ import static me.aeolwyr.dsnnow.presentation.MainActivity.STATE_FILE_FILTER;
 public class HistoryAdapter extends BaseAdapter {
     private Context context;
     /** all the cached and pinned files combined **/
-    private List<File> files = new ArrayList<>();
+    private List<File> files;
     /** pinned files only **/
     private Set<File> pinnedFiles = new HashSet<>();
 
@@ -64,13 +64,19 @@ public class HistoryAdapter extends BaseAdapter {
     public HistoryAdapter(Context context) {
         this.context = context;
 
-        // add cached files
-        Collections.addAll(files, context.getCacheDir().listFiles(STATE_FILE_FILTER));
+        files = listStateFiles(context);
+        Collections.addAll(pinnedFiles, context.getFilesDir().listFiles(STATE_FILE_FILTER));
+    }
 
-        // add pinned files to both data structures
-        File[] pinned = context.getFilesDir().listFiles(STATE_FILE_FILTER);
-        Collections.addAll(files, pinned);
-        Collections.addAll(pinnedFiles, pinned);
+    /**
+     * Return all the cached and pinned state files, sorted from the oldest to the newest.
+     * @param context the context to read the folders of
+     * @return the sorted list of state files
+     */
+    static List<File> listStateFiles(Context context) {
+        List<File> files = new ArrayList<>();
+        Collections.addAll(files, context.getCacheDir().listFiles(STATE_FILE_FILTER));
+        Collections.addAll(files, context.getFilesDir().listFiles(STATE_FILE_FILTER));
 
         // combined data structure should be sorted according to the file name
         // which should be the timestamp (e.g. 1452507050.xml)
@@ -80,6 +86,7 @@ public class HistoryAdapter extends BaseAdapter {
                 return lhs.getName().compareTo(rhs.getName());
             }
         });
+        return files;
     }
 
     @Override
@@ -162,7 +169,7 @@ public class HistoryAdapter extends BaseAdapter {
      * @param file the file to read from
      * @return the timestamp of the file
      */
-    private static long getTimestamp(File file) {
+    static long getTimestamp(File file) {
         // file name should be the timestamp (e.g. 1452507050.xml)
         int index = file.getName().lastIndexOf('.');
         return Long.valueOf(file.getName().substring(0, index));
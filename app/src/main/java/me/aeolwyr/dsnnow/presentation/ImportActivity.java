@@ -0,0 +1,239 @@
+/*
+ * DSN Monitor is an app to monitor the NASA Deep Space Network in real time.
+ * Copyright (c) 2016 Kaan Karaagacli
+ *
+ * This file is part of DSN Monitor.
+ *
+ * DSN Monitor is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DSN Monitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DSN Monitor.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package me.aeolwyr.dsnnow.presentation;
+
+import android.app.Activity;
+import android.content.ClipData;
+import android.content.Intent;
+import android.net.Uri;
+import android.os.AsyncTask;
+import android.os.Bundle;
+import android.os.SystemClock;
+import android.view.View;
+import android.widget.Button;
+import android.widget.ProgressBar;
+import android.widget.TextView;
+import android.widget.Toast;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import me.aeolwyr.dsnnow.R;
+import me.aeolwyr.dsnnow.logic.BulkImporter;
+import me.aeolwyr.dsnnow.logic.StateRepository;
+
+/**
+ * Activity to import archived state files into the history, chosen as multiple files
+ * or as ZIP archives. <br />
+ * The import runs in the background, and is stopped if the activity is closed.
+ */
+public class ImportActivity extends Activity {
+    private static final int IMPORT_REQUEST_CODE = 1;
+    /** the progress is shown at most this often, in milliseconds **/
+    private static final long PROGRESS_INTERVAL = 250;
+
+    private StateRepository repository;
+    private Button importButton;
+    private Button clearButton;
+    private ProgressBar progressBar;
+    private TextView statusView;
+
+    /** the running import, null if there is none **/
+    private ImportTask importTask;
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.activity_import);
+
+        repository = StateRepository.getInstance(this);
+        importButton = (Button) findViewById(R.id.import_button);
+        clearButton = (Button) findViewById(R.id.clear_imported_button);
+        progressBar = (ProgressBar) findViewById(R.id.import_progress);
+        statusView = (TextView) findViewById(R.id.import_status);
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        if (importTask != null) {
+            importTask.cancel(false);
+        }
+    }
+
+    /**
+     * On click listener of the import button, to choose the files to import.
+     * @param view the import button
+     */
+    public void chooseSources(View view) {
+        Intent intent = new Intent(Intent.ACTION_GET_CONTENT);
+        intent.addCategory(Intent.CATEGORY_OPENABLE);
+        intent.setType("*/*");
+        intent.putExtra(Intent.EXTRA_MIME_TYPES,
+                new String[] {"text/xml", "application/xml", "application/zip"});
+        intent.putExtra(Intent.EXTRA_ALLOW_MULTIPLE, true);
+        startActivityForResult(intent, IMPORT_REQUEST_CODE);
+    }
+
+    @Override
+    public void onActivityResult(int requestCode, int resultCode, Intent resultData) {
+        if (requestCode == IMPORT_REQUEST_CODE && resultCode == Activity.RESULT_OK
+                && resultData != null) {
+            // files to import are chosen successfully
+            List<UriSource> sources = new ArrayList<>();
+            ClipData clipData = resultData.getClipData();
+            if (clipData != null) {
+                for (int i = 0; i < clipData.getItemCount(); i++) {
+                    sources.add(new UriSource(clipData.getItemAt(i).getUri()));
+                }
+            } else if (resultData.getData() != null) {
+                sources.add(new UriSource(resultData.getData()));
+            }
+            if (sources.isEmpty()) return;
+
+            importTask = new ImportTask(sources);
+            importTask.execute();
+        }
+    }
+
+    /**
+     * On click listener of the clear button, to delete the imported states.
+     * @param view the clear button
+     */
+    public void clearImported(View view) {
+        repository.clearImported();
+        statusView.setText(null);
+        Toast.makeText(this, R.string.imported_cleared, Toast.LENGTH_SHORT).show();
+    }
+
+    /**
+     * A chosen document to import.
+     */
+    private class UriSource implements BulkImporter.Source {
+        private Uri uri;
+
+        UriSource(Uri uri) {
+            this.uri = uri;
+        }
+
+        @Override
+        public String getName() {
+            return uri.getLastPathSegment();
+        }
+
+        @Override
+        public InputStream open() throws IOException {
+            InputStream inputStream = getContentResolver().openInputStream(uri);
+            if (inputStream == null) throw new FileNotFoundException(uri.toString());
+            return inputStream;
+        }
+    }
+
+    /**
+     * Task to import the files in the background, reporting its progress.
+     */
+    private class ImportTask
+            extends AsyncTask<Void, BulkImporter.Progress, BulkImporter.Progress> {
+        private List<UriSource> sources;
+        /** time the progress was last shown, the parser threads report it concurrently **/
+        private final AtomicLong lastProgress = new AtomicLong();
+
+        ImportTask(List<UriSource> sources) {
+            this.sources = sources;
+        }
+
+        @Override
+        protected void onPreExecute() {
+            importButton.setEnabled(false);
+            clearButton.setEnabled(false);
+            progressBar.setVisibility(View.VISIBLE);
+            statusView.setText(null);
+        }
+
+        @Override
+        protected BulkImporter.Progress doInBackground(Void... params) {
+            BulkImporter importer =
+                    repository.createImporter(PrefsManager.getHistoryBudget(ImportActivity.this));
+            try {
+                return importer.importSources(sources,
+                        Runtime.getRuntime().availableProcessors(),
+                        new BulkImporter.ProgressListener() {
+                    @Override
+                    public boolean onProgress(BulkImporter.Progress progress) {
+                        long now = SystemClock.uptimeMillis();
+                        long last = lastProgress.get();
+                        // only one of the threads reporting at the same time publishes it
+                        if (now - last >= PROGRESS_INTERVAL
+                                && lastProgress.compareAndSet(last, now)) {
+                            publishProgress(progress);
+                        }
+                        return !isCancelled();
+                    }
+                });
+            } catch (IOException e) {
+                return null;
+            }
+        }
+
+        @Override
+        protected void onProgressUpdate(BulkImporter.Progress... values) {
+            statusView.setText(getStatus(values[0]));
+        }
+
+        @Override
+        protected void onPostExecute(BulkImporter.Progress progress) {
+            importTask = null;
+            importButton.setEnabled(true);
+            clearButton.setEnabled(true);
+            progressBar.setVisibility(View.GONE);
+            if (progress != null) {
+                statusView.setText(getStatus(progress));
+                if (progress.getImported() > 0) {
+                    // the indexes only know the states newer than the imported ones
+                    repository.rebuildIndexes();
+                }
+            } else {
+                statusView.setText(R.string.import_error);
+                Toast.makeText(ImportActivity.this, R.string.import_error,
+                        Toast.LENGTH_SHORT).show();
+            }
+        }
+
+        @Override
+        protected void onCancelled(BulkImporter.Progress progress) {
+            // whatever is written until the cancellation is in the history as well
+            if (progress != null && progress.getImported() > 0) {
+                repository.rebuildIndexes();
+            }
+        }
+    }
+
+    private String getStatus(BulkImporter.Progress progress) {
+        String status = getString(R.string.import_progress, progress.getFiles(),
+                progress.getImported(), progress.getDuplicates(), progress.getFailed(),
+                progress.getFilesPerSecond(), progress.getBytesPerSecond() / (1024 * 1024));
+        return progress.isFull() ? status + "\n" + getString(R.string.import_full) : status;
+    }
+}
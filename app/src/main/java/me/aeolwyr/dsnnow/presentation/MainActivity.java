@@ -22,9 +22,10 @@ package me.aeolwyr.dsnnow.presentation;
 
 import android.app.Activity;
 import android.content.Intent;
-import android.content.res.XmlResourceParser;
 import android.net.Uri;
+import android.os.AsyncTask;
 import android.os.Bundle;
+import android.os.SystemClock;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
@@ -32,43 +33,43 @@ import android.widget.ExpandableListView;
 import android.widget.TextView;
 import android.widget.Toast;
 
-import org.xmlpull.v1.XmlPullParserException;
-
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.FileDescriptor;
 import java.io.FilenameFilter;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.nio.channels.Channels;
-import java.nio.channels.FileChannel;
-import java.nio.channels.WritableByteChannel;
+import java.io.PrintWriter;
 import java.text.DateFormat;
-import java.util.Collection;
-import java.util.Collections;
-import java.util.Iterator;
+import java.util.List;
 import java.util.Locale;
-import java.util.Timer;
-import java.util.TimerTask;
-import java.util.TreeSet;
 
 import me.aeolwyr.dsnnow.R;
 import me.aeolwyr.dsnnow.data.NetworkConfig;
 import me.aeolwyr.dsnnow.data.NetworkState;
-import me.aeolwyr.dsnnow.logic.ConfigParser;
+import me.aeolwyr.dsnnow.logic.Metrics;
+import me.aeolwyr.dsnnow.logic.StateCache;
+import me.aeolwyr.dsnnow.logic.StateFileCompression;
 import me.aeolwyr.dsnnow.logic.StateParserTask;
+import me.aeolwyr.dsnnow.logic.StateRepository;
+import me.aeolwyr.dsnnow.logic.Tracer;
+import me.aeolwyr.dsnnow.logic.WarmStartTask;
 
 /**
  * Activity that presents the information inside a state file to the user.
  * In addition, it may continuously download the latest network state.
  */
 public class MainActivity extends Activity {
+
+    /** holds the config, the current state and the downloads across activity instances **/
+    private StateRepository repository;
     private NetworkConfig config;
     /** adapter of the list view, null if the list view is not ready yet **/
     private NetworkAdapter adapter;
-    /** timer for continuous downloading **/
-    private Timer timer;
+    /** controller of the timeline bar, null if the list view is not ready yet **/
+    private TimelineController timeline;
     private Menu menu;
     private static final DateFormat dateTimeFormat =
             DateFormat.getDateTimeInstance(DateFormat.LONG, DateFormat.MEDIUM, Locale.getDefault());
@@ -77,33 +78,66 @@ public class MainActivity extends Activity {
     private boolean monitoring = true;
     /** used to make sure the monitor error is shown once **/
     private boolean monitorErrorShown = false;
+    /** uptime when this activity was created, in milliseconds **/
+    private long createTime;
+    /** true if this activity is the first one created in the process, for a fresh launch **/
+    private boolean firstLaunch;
+    /** set once the first activity of the process is created **/
+    private static boolean launched = false;
+    /** number of history files to prefetch before and after an opened one **/
+    private static final int PREFETCH_DISTANCE = 2;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
+        createTime = SystemClock.uptimeMillis();
+        // the launch metrics are recorded only for a fresh launch of the process,
+        // not for a recreation or for an activity restored after the process is killed
+        firstLaunch = !launched && savedInstanceState == null;
+        launched = true;
         setContentView(R.layout.activity_main_loading);
 
-        // it could be better to download this file
-        // however, it is never changed, therefore it is cached inside the app
-        try (XmlResourceParser xml = getResources().getXml(R.xml.config)) {
-            config = ConfigParser.parse(xml);
-        } catch (XmlPullParserException | IOException e) {
-            // the application cannot continue without a NetworkConfig
-            throw new RuntimeException(e);
-        }
-
-        // load the previous state if available
-        if (savedInstanceState != null) {
-            long timestamp = savedInstanceState.getLong("timestamp");
-            if (timestamp > 0) {
+        repository = StateRepository.getInstance(this);
+        repository.setListener(repositoryListener);
+        config = repository.getConfig();
+        AlertNotifier.install(this);
+
+        NetworkState liveState = repository.getNetworkState();
+        long timestamp = savedInstanceState != null ? savedInstanceState.getLong("timestamp") : 0;
+        if (liveState != null && (timestamp <= 0 || liveState.getTimestamp() == timestamp)) {
+            // the activity is recreated, e.g. after a rotation
+            // the state is still in memory, just bind to it
+            setNetworkState(liveState, repository.isStale());
+        } else if (timestamp > 0) {
+            // an opened or a played back state, or the process was restarted
+            NetworkState cachedState = repository.getStateCache().get(timestamp);
+            if (cachedState != null) {
+                setNetworkState(cachedState);
+            } else {
+                // the state needs to be read again
                 File inputFile = findFileByTimestamp(timestamp);
                 if (inputFile != null) {
                     openFile(inputFile);
                 }
             }
+        }
+
+        if (savedInstanceState != null) {
 
             monitoring = savedInstanceState.getBoolean("monitoring");
             monitorErrorShown = savedInstanceState.getBoolean("monitorErrorShown");
+        } else {
+            // show the state from the last launch until the first download completes
+            new WarmStartTask(getCacheDir()) {
+                @Override
+                protected void onPostExecute(NetworkState networkState) {
+                    // skip if a newer state is already shown
+                    if (networkState != null && repository.getNetworkState() == null) {
+                        repository.setNetworkState(networkState, true);
+                        setNetworkState(networkState, true);
+                    }
+                }
+            }.execute();
         }
     }
 
@@ -120,6 +154,8 @@ public class MainActivity extends Activity {
     @Override
     protected void onResume() {
         super.onResume();
+        // take the downloads back from the other activities
+        repository.setListener(repositoryListener);
         // continue monitoring if it was active before the app has paused
         if (monitoring) {
             startTimer();
@@ -130,7 +166,36 @@ public class MainActivity extends Activity {
     protected void onPause() {
         super.onPause();
         // stop downloads, but do not reset the monitoring status
-        stopTimer();
+        // keep them running if this activity is about to be recreated
+        if (!isChangingConfigurations()) {
+            stopTimer();
+        }
+        if (timeline != null) {
+            timeline.pause();
+        }
+        // write the queued downloads, the process might be killed from now on
+        repository.getCaptureWriter().flush();
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        // the repository outlives this activity, do not leak it
+        if (repository.getListener() == repositoryListener) {
+            repository.setListener(null);
+        }
+        if (timeline != null) {
+            timeline.release();
+        }
+    }
+
+    @Override
+    public void dump(String prefix, FileDescriptor fd, PrintWriter writer, String[] args) {
+        super.dump(prefix, fd, writer, args);
+        // adb shell dumpsys activity top
+        writer.print(prefix);
+        writer.println("Metrics:");
+        Metrics.dump(writer, prefix + "  ");
     }
 
     @Override
@@ -139,9 +204,19 @@ public class MainActivity extends Activity {
         // keep a reference to use later
         this.menu = menu;
         updateMenuButtons();
+        // the state might be loaded before the menu is created
+        menu.findItem(R.id.action_save).setEnabled(adapter != null);
+        menu.findItem(R.id.action_timeline).setEnabled(adapter != null);
         return true;
     }
 
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        // parsed states can always be read again from the files
+        repository.getStateCache().trimMemory(level);
+    }
+
     // request codes for intent results
     private static final int OPEN_FILE_REQUEST_CODE = 1;
     private static final int SAVE_FILE_REQUEST_CODE = 2;
@@ -155,6 +230,10 @@ public class MainActivity extends Activity {
                 // start monitoring
                 monitoring = true;
                 monitorErrorShown = false;
+                if (timeline != null) {
+                    // live states would be mixed with the played ones otherwise
+                    timeline.pause();
+                }
                 startTimer();
                 return true;
             }
@@ -178,6 +257,33 @@ public class MainActivity extends Activity {
                 startActivityForResult(intent, SAVE_FILE_REQUEST_CODE);
                 return true;
             }
+            case R.id.action_import: {
+                // show import activity
+                startActivity(new Intent(this, ImportActivity.class));
+                return true;
+            }
+            case R.id.action_export: {
+                // show export activity
+                startActivity(new Intent(this, ExportActivity.class));
+                return true;
+            }
+            case R.id.action_spacecraft: {
+                // show all the spacecraft in the history
+                Intent intent = new Intent(this, SpacecraftActivity.class);
+                intent.putExtra(SpacecraftActivity.EXTRA_MONITORING, monitoring);
+                startActivity(intent);
+                return true;
+            }
+            case R.id.action_timeline: {
+                // show or hide the timeline bar
+                if (item.isChecked()) {
+                    timeline.hide();
+                    item.setChecked(false);
+                    return true;
+                }
+                showTimeline(item);
+                return true;
+            }
             case R.id.action_history: {
                 // show history activity
                 Intent intent = new Intent(this, HistoryActivity.class);
@@ -233,7 +339,25 @@ public class MainActivity extends Activity {
      * @param networkState network state to use in the network adapter
      */
     private void setNetworkState(NetworkState networkState) {
+        setNetworkState(networkState, false);
+    }
+
+    /**
+     * Set the network state to a new one. This function initializes the activity if necessary.
+     * <br />
+     * The state is only shown here, the current state of the repository is left as it is,
+     * so that opened and played back states are not taken for the live one.
+     * @param networkState network state to use in the network adapter
+     * @param stale true if the state is left from the previous launch, and should be marked
+     */
+    private void setNetworkState(NetworkState networkState, boolean stale) {
+        Tracer.begin(Tracer.SET_NETWORK_STATE);
         if (adapter == null) {
+            if (firstLaunch) {
+                Metrics.TIME_TO_FIRST_CONTENT.set(SystemClock.uptimeMillis() - createTime);
+                Metrics.WARM_START.set(stale ? 1 : 0);
+            }
+
             // discard the "loading" message, and replace it with the main layout
             setContentView(R.layout.activity_main);
             adapter = new NetworkAdapter(this, config);
@@ -242,17 +366,59 @@ public class MainActivity extends Activity {
                     (ExpandableListView) findViewById(R.id.expandable_list_view);
             expandableListView.setAdapter(adapter);
 
-            // enable save as there is now data to save
-            menu.findItem(R.id.action_save).setEnabled(true);
+            timeline = new TimelineController(this, findViewById(R.id.timeline),
+                    repository.getStateCache(), repository.getHistoryScanner(), timelineCallback);
+
+            // enable save and timeline as there is now data to show
+            if (menu != null) {
+                menu.findItem(R.id.action_save).setEnabled(true);
+                menu.findItem(R.id.action_timeline).setEnabled(true);
+            }
         }
         adapter.setNetworkState(networkState);
         // also set the timestamp indicator
         TextView timestamp = (TextView) findViewById(R.id.timestamp);
-        timestamp.setText(dateTimeFormat.format(networkState.getTimestamp()));
+        String formattedTimestamp = dateTimeFormat.format(networkState.getTimestamp());
+        timestamp.setText(stale
+                ? getString(R.string.timestamp_stale, formattedTimestamp)
+                : formattedTimestamp);
         // a new file is successfully loaded, which means the older errors are now invalid
         monitorErrorShown = false;
+        Tracer.end();
     }
 
+    /**
+     * listener to show the results of the continuous downloads
+     */
+    private StateRepository.Listener repositoryListener = new StateRepository.Listener() {
+        @Override
+        public void onStateDownloaded(NetworkState networkState) {
+            setNetworkState(networkState);
+        }
+
+        @Override
+        public void onDownloadFailed() {
+            showMonitorError();
+        }
+    };
+
+    /**
+     * callback to show the states chosen on the timeline
+     */
+    private TimelineController.Callback timelineCallback = new TimelineController.Callback() {
+        @Override
+        public void onTimelineStarted() {
+            // the user is looking at the history, therefore stop the continuous downloads
+            monitoring = false;
+            stopTimer();
+        }
+
+        @Override
+        public void onTimelineState(NetworkState networkState) {
+            setNetworkState(networkState);
+        }
+    };
+
     /**
      * Start the continuous downloads.
      */
@@ -260,44 +426,17 @@ public class MainActivity extends Activity {
         updateMenuButtons();
 
         int interval = PrefsManager.getCaptureInterval(this); // in seconds
-        // create a new timer and run it
-        timer = new Timer();
-        timer.schedule(new TimerTask() {
-            @Override
-            public void run() {
-                new StateParserTask(config, getCacheDir(), getFilesDir()) {
-                    @Override
-                    protected void onPostExecute(NetworkState networkState) {
-                        if (monitoring) {
-                            if (networkState != null) {
-                                // state downloaded successfully
-                                setNetworkState(networkState);
-                                // this action resulted in one more cached file,
-                                // make sure we are not over the limit
-                                deleteOldFiles();
-                            } else {
-                                // state download unsuccessful
-                                showMonitorError();
-                            }
-                        }
-                    }
-                }.execute();
-            }
-        }, 0, interval * 1000);
+        repository.getCaptureWriter().setHistoryBudget(PrefsManager.getHistoryBudget(this));
+        repository.setFeedUrl(PrefsManager.getFeedUrl(this));
+        repository.startPolling(interval);
     }
 
     /**
-     * Stop the continuous downloads and cancel the current one. <br />
-     * It might be necessary to set the <code>monitoring</code> field to
-     * false to make sure an ongoing download does not replace the current state
-     * when finished.
+     * Stop the continuous downloads and discard the result of the current one.
      */
     private void stopTimer() {
         updateMenuButtons();
-        if (timer != null) {
-            timer.cancel();
-            timer = null;
-        }
+        repository.stopPolling();
     }
 
     /**
@@ -328,11 +467,23 @@ public class MainActivity extends Activity {
      * @param file the state file
      */
     private void openFile(File file) {
-        try {
-            openFile(new FileInputStream(file));
-        } catch (FileNotFoundException e) {
-            showOpenError();
+        NetworkState cachedState =
+                repository.getStateCache().get(HistoryAdapter.getTimestamp(file));
+        if (cachedState != null) {
+            // parsed recently, no need to read it again
+            monitoring = false;
+            stopTimer();
+            setNetworkState(cachedState);
+        } else {
+            try {
+                openFile(new FileInputStream(file));
+            } catch (FileNotFoundException e) {
+                showOpenError();
+                return;
+            }
         }
+        // the user is likely to look at the states around this one next
+        prefetchNeighbours(file);
     }
 
     /**
@@ -348,6 +499,7 @@ public class MainActivity extends Activity {
             protected void onPostExecute(NetworkState networkState) {
                 if (networkState != null) {
                     setNetworkState(networkState);
+                    repository.getStateCache().put(networkState.getTimestamp(), networkState);
                     // don't remove the old files here.
                     // the opened file is cached, and if the it is very old, it could be deleted
                     // which would prevent the save file function to work
@@ -359,33 +511,113 @@ public class MainActivity extends Activity {
     }
 
     /**
-     * Save the network state with the given timestamp to another location.
+     * Parse the history files next to the given one in the background,
+     * and keep them in the state cache.
+     * @param file the history file the user has opened
+     */
+    private void prefetchNeighbours(File file) {
+        List<File> files = HistoryAdapter.listStateFiles(this);
+        int index = files.indexOf(file);
+        if (index < 0) return;
+
+        final StateCache stateCache = repository.getStateCache();
+        int first = Math.max(0, index - PREFETCH_DISTANCE);
+        int last = Math.min(files.size() - 1, index + PREFETCH_DISTANCE);
+        for (int i = first; i <= last; i++) {
+            File neighbour = files.get(i);
+            if (i == index || stateCache.contains(HistoryAdapter.getTimestamp(neighbour))) {
+                continue;
+            }
+            try {
+                new StateParserTask(config, getCacheDir(), getFilesDir()) {
+                    @Override
+                    protected void onPostExecute(NetworkState networkState) {
+                        if (networkState != null) {
+                            stateCache.put(networkState.getTimestamp(), networkState);
+                        }
+                    }
+                }.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR,
+                        new FileInputStream(neighbour));
+            } catch (FileNotFoundException ignored) {
+                // deleted in the meantime, nothing to prefetch
+            }
+        }
+    }
+
+    /**
+     * Show the timeline bar with all the states in the history. The history is listed
+     * in the background, after the queued downloads are written.
+     * @param item the timeline menu item, checked once the timeline is shown
+     */
+    private void showTimeline(final MenuItem item) {
+        new AsyncTask<Void, Void, long[]>() {
+            @Override
+            protected long[] doInBackground(Void... params) {
+                // the timeline covers the queued downloads as well
+                repository.getCaptureWriter().flushAndWait();
+                return repository.getHistoryScanner().getTimestamps();
+            }
+
+            @Override
+            protected void onPostExecute(long[] timestamps) {
+                if (isFinishing() || timeline == null) return;
+                if (timeline.show(timestamps, adapter.getNetworkState().getTimestamp())) {
+                    item.setChecked(true);
+                } else {
+                    Toast.makeText(MainActivity.this, R.string.timeline_empty,
+                            Toast.LENGTH_SHORT).show();
+                }
+            }
+        }.execute();
+    }
+
+    /**
+     * Save the network state with the given timestamp to another location, in the background.
      * @param timestamp the timestamp of the state file
      * @param destination the destination location to save to
      */
-    private void saveFile(long timestamp, Uri destination) {
-        try {
-            // locate the file
-            File inputFile = findFileByTimestamp(timestamp);
-
-            OutputStream outputStream = getContentResolver().openOutputStream(destination);
-            // continue if the file is located successfully, and the output stream is ready
-            if (inputFile != null && outputStream != null) {
-                WritableByteChannel outputChannel = Channels.newChannel(outputStream);
-
-                // copy the file from the cache to the destination
-                try (FileInputStream inputStream = new FileInputStream(inputFile)) {
-                    FileChannel inputChannel = inputStream.getChannel();
-                    inputChannel.transferTo(0, inputChannel.size(), outputChannel);
-                }
+    private void saveFile(final long timestamp, final Uri destination) {
+        new AsyncTask<Void, Void, Boolean>() {
+            @Override
+            protected Boolean doInBackground(Void... params) {
+                try {
+                    // the file might be still queued to be written
+                    repository.getCaptureWriter().flushAndWait();
+                    // locate the file
+                    File inputFile = findFileByTimestamp(timestamp);
+
+                    OutputStream outputStream =
+                            getContentResolver().openOutputStream(destination);
+                    // continue if the file is located successfully, and the output stream
+                    // is ready
+                    if (inputFile != null && outputStream != null) {
+                        // copy the file from the cache to the destination,
+                        // decompressed so that it is a plain XML file again
+                        try (InputStream inputStream =
+                                     StateFileCompression.openInputStream(inputFile)) {
+                            byte[] buffer = new byte[4096];
+                            int count;
+                            while ((count = inputStream.read(buffer)) >= 0) {
+                                outputStream.write(buffer, 0, count);
+                            }
+                        }
 
-                outputStream.close();
-                Toast.makeText(this, R.string.save_success, Toast.LENGTH_SHORT).show();
-                return;
+                        outputStream.close();
+                        return true;
+                    }
+                } catch (IOException ignored) { }
+                return false;
+            }
+
+            @Override
+            protected void onPostExecute(Boolean success) {
+                // if an exception has occurred, or the input file is not found,
+                // show an error message
+                Toast.makeText(MainActivity.this,
+                        success ? R.string.save_success : R.string.save_error,
+                        Toast.LENGTH_SHORT).show();
             }
-        } catch (IOException ignored) { }
-        // if an exception has occurred, or the input file is not found, show an error message
-        Toast.makeText(this, R.string.save_error, Toast.LENGTH_SHORT).show();
+        }.execute();
     }
 
     /**
@@ -407,31 +639,6 @@ public class MainActivity extends Activity {
         }
     }
 
-    /**
-     * Purge the old files from the cache.
-     */
-    private void deleteOldFiles() {
-        File[] files = getCacheDir().listFiles(STATE_FILE_FILTER);
-        int keep = PrefsManager.getHistorySize(this);
-
-        // use tree set so that they are sorted according to their names,
-        // which should be timestamps (e.g. 1452507050.xml)
-        Collection<File> filesSet = new TreeSet<>();
-        Collections.addAll(filesSet, files);
-
-        int numberOfFilesToRemove = filesSet.size() - keep;
-
-        // first files in the iterator are the oldest files
-        Iterator<File> iterator = filesSet.iterator();
-        for (int i = 0; i < numberOfFilesToRemove; i++) {
-            // these files are created by this application,
-            // and they reside in a private folder.
-            // there shouldn't be a problem deleting them
-            // noinspection ResultOfMethodCallIgnored
-            iterator.next().delete();
-        }
-    }
-
     /** filter that matches the cached/pinned files **/
     static final FilenameFilter STATE_FILE_FILTER = new FilenameFilter() {
         @Override
@@ -458,6 +665,18 @@ public class MainActivity extends Activity {
         }
     }
 
+    /**
+     * On click listener of the target names, to show the chosen spacecraft.
+     * @param view the name of the target
+     */
+    public void showSpacecraft(View view) {
+        Intent intent = new Intent(this, SpacecraftActivity.class);
+        String spacecraft = ((TextView) view).getText().toString();
+        intent.putExtra(SpacecraftActivity.EXTRA_SPACECRAFT, spacecraft);
+        intent.putExtra(SpacecraftActivity.EXTRA_MONITORING, monitoring);
+        startActivity(intent);
+    }
+
     /**
      * On click help to be used if the "show acronym help" is enabled.
      * @param view the view to show help about
@@ -28,6 +28,7 @@ import android.widget.BaseExpandableListAdapter;
 import android.widget.TextView;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 import me.aeolwyr.dsnnow.R;
@@ -40,6 +41,8 @@ import me.aeolwyr.dsnnow.data.Spacecraft;
 import me.aeolwyr.dsnnow.data.Station;
 import me.aeolwyr.dsnnow.data.StationState;
 import me.aeolwyr.dsnnow.data.Target;
+import me.aeolwyr.dsnnow.logic.Metrics;
+import me.aeolwyr.dsnnow.logic.Tracer;
 
 /**
  * Adapter that shows the contents of a NetworkState in an expandable list.
@@ -67,21 +70,74 @@ public class NetworkAdapter extends BaseExpandableListAdapter {
      * @param state the state to read
      */
     public void setNetworkState(NetworkState state) {
+        if (state == this.state) return;
         this.state = state;
 
-        items.clear();
-        for (String stationName : state.getStationStates().keySet()) {
-            // put all the stations and the dishes into the items list
-            items.add(new Item(stationName, true));
-
-            for (String dishStateName : state.getStationStates().get(stationName).getDishStates()) {
-                items.add(new Item(dishStateName, false));
+        // consecutive states usually have the same stations and dishes
+        // the list items can be kept as they are in that case
+        if (!hasSameItems(state)) {
+            items.clear();
+            for (String stationName : state.getStationStates().keySet()) {
+                // put all the stations and the dishes into the items list
+                items.add(new Item(stationName, true, config.getStationOrdinal(stationName)));
+
+                for (String dishStateName
+                        : state.getStationStates().get(stationName).getDishStates()) {
+                    items.add(new Item(dishStateName, false,
+                            config.getDishOrdinal(dishStateName)));
+                }
             }
         }
+        resolveTargets();
         // notify the list view
         notifyDataSetChanged();
     }
 
+    /**
+     * Resolve the spacecraft of the targets of each dish in the current state, so that
+     * they are not looked up by their names whenever a row is bound. The targets usually stay
+     * the same from one state to the next, they are resolved again only if they change.
+     */
+    private void resolveTargets() {
+        for (Item item : items) {
+            if (item.isStation) continue;
+            DishState dishState = state.getDishStates().get(item.name);
+            // only the names are needed, the details are decoded when the dish is expanded
+            List<String> targetNames = dishState != null
+                    ? dishState.getTargetNames() : Collections.<String>emptyList();
+            if (targetNames.equals(item.targetNames)) continue;
+
+            item.targetNames = targetNames;
+            item.targetOrdinals = new int[targetNames.size()];
+            for (int i = 0; i < targetNames.size(); i++) {
+                item.targetOrdinals[i] = config.getSpacecraftOrdinal(targetNames.get(i));
+            }
+        }
+    }
+
+    /**
+     * Check whether the given state would result in the same list items as the current ones.
+     * @param state the state to compare with
+     * @return true if the stations and dishes are the same, and in the same order
+     */
+    private boolean hasSameItems(NetworkState state) {
+        if (items.isEmpty()) return false;
+        int index = 0;
+        for (StationState stationState : state.getStationStates().values()) {
+            if (!matchesItem(index++, stationState.getName(), true)) return false;
+            for (String dishStateName : stationState.getDishStates()) {
+                if (!matchesItem(index++, dishStateName, false)) return false;
+            }
+        }
+        return index == items.size();
+    }
+
+    private boolean matchesItem(int index, String name, boolean isStation) {
+        if (index >= items.size()) return false;
+        Item item = items.get(index);
+        return item.isStation == isStation && item.name.equals(name);
+    }
+
     /**
      * Return the network state currently shown in this adapter.
      * @return the network state shown in the adapter
@@ -93,6 +149,8 @@ public class NetworkAdapter extends BaseExpandableListAdapter {
     @Override
     public View getGroupView(int groupPosition, boolean isExpanded, View convertView,
                              ViewGroup parent) {
+        long bindStart = System.nanoTime();
+        Tracer.begin(Tracer.BIND_GROUP);
         Item item = items.get(groupPosition);
 
         if (item.isStation) {
@@ -130,8 +188,7 @@ public class NetworkAdapter extends BaseExpandableListAdapter {
 
             // dish item
             String dishName = item.name;
-            Dish dish = config.getDishes().get(dishName);
-            DishState dishState = state.getDishStates().get(dishName);
+            Dish dish = config.getDish(item.ordinal);
 
             // friendly name (e.g. "DSS15")
             TextView friendlyName = (TextView) convertView.findViewById(R.id.friendly_name);
@@ -146,14 +203,13 @@ public class NetworkAdapter extends BaseExpandableListAdapter {
             // show targets overview
             final int[] targetRows = {R.id.target_1, R.id.target_2, R.id.target_3};
 
-            if (dishState != null && !dishState.getTargets().isEmpty()) {
+            List<String> targetNames = item.targetNames;
+            if (!targetNames.isEmpty()) {
                 // number of targets to show
-                int numberOfTargets = Math.min(targetRows.length, dishState.getTargets().size());
+                int numberOfTargets = Math.min(targetRows.length, targetNames.size());
                 for (int i = 0; i < numberOfTargets; i++) {
                     View targetRow = convertView.findViewById(targetRows[i]);
-                    Target target = dishState.getTargets().get(i);
-
-                    showTargetOverview(targetRow, target);
+                    showTargetOverview(targetRow, targetNames.get(i), item.targetOrdinals[i]);
                 }
                 // hide unused rows
                 for (int i = numberOfTargets; i < targetRows.length; i++) {
@@ -172,12 +228,16 @@ public class NetworkAdapter extends BaseExpandableListAdapter {
                 }
             }
         }
+        Metrics.ADAPTER_BIND_TIME.recordSince(bindStart);
+        Tracer.end();
         return convertView;
     }
 
     @Override
     public View getChildView(int groupPosition, int childPosition, boolean isLastChild,
                              View convertView, ViewGroup parent) {
+        long bindStart = System.nanoTime();
+        Tracer.begin(Tracer.BIND_CHILD);
         Item item = items.get(groupPosition);
         if (item.isStation) {
             // inflate the view if necessary
@@ -188,7 +248,7 @@ public class NetworkAdapter extends BaseExpandableListAdapter {
 
             // station details
             String stationName = item.name;
-            Station station = config.getStations().get(stationName);
+            Station station = config.getStation(item.ordinal);
             StationState stationState = state.getStationStates().get(stationName);
 
             // coordinate (e.g. "12.34 N 56.78 W")
@@ -263,6 +323,8 @@ public class NetworkAdapter extends BaseExpandableListAdapter {
                 convertView.findViewById(R.id.dish_not_in_use_row).setVisibility(View.VISIBLE);
             }
         }
+        Metrics.ADAPTER_BIND_TIME.recordSince(bindStart);
+        Tracer.end();
         return convertView;
     }
 
@@ -281,20 +343,21 @@ public class NetworkAdapter extends BaseExpandableListAdapter {
     /**
      * Update a target overview row (resides inside the dish overview).
      * @param targetRow the row to update
-     * @param target the target to read data from
+     * @param targetName the name of the target
+     * @param ordinal the ordinal of the spacecraft of the target in the network config
      */
-    private void showTargetOverview(View targetRow, Target target) {
+    private void showTargetOverview(View targetRow, String targetName, int ordinal) {
         targetRow.setVisibility(View.VISIBLE);
 
         // friendly name (e.g. "New Horizons")
         TextView name = (TextView) targetRow.findViewById(R.id.friendly_name);
-        Spacecraft spacecraft = config.getSpacecrafts().get(target.getName());
+        Spacecraft spacecraft = config.getSpacecraft(ordinal);
         // show spacecraft name if it exists in the config.xml
         if (spacecraft != null) {
             name.setText(context.getString(R.string.target_name,
                     spacecraft.getFriendlyName(), spacecraft.getName()));
         } else {
-            name.setText(target.getName());
+            name.setText(targetName);
         }
     }
 
@@ -463,15 +526,23 @@ public class NetworkAdapter extends BaseExpandableListAdapter {
     private static class Item {
         public String name;
         public boolean isStation;
+        /** ordinal of the station/dish in the network config, resolved once **/
+        public int ordinal;
+        /** names of the targets of the dish in the current state, null for a station **/
+        public List<String> targetNames;
+        /** ordinals of the spacecraft of the targets in the network config **/
+        public int[] targetOrdinals;
 
         /**
          * Create a new network adapter item
          * @param name the name of the station/dish
          * @param isStation true if this is a station, false if this is a dish
+         * @param ordinal the ordinal of the station/dish in the network config
          */
-        public Item(String name, boolean isStation) {
+        public Item(String name, boolean isStation, int ordinal) {
             this.name = name;
             this.isStation = isStation;
+            this.ordinal = ordinal;
         }
     }
 
@@ -24,6 +24,9 @@ import android.content.Context;
 import android.content.SharedPreferences;
 import android.preference.PreferenceManager;
 
+import me.aeolwyr.dsnnow.BuildConfig;
+import me.aeolwyr.dsnnow.logic.StateDownloader;
+
 /**
  * Helper class to access the shared preferences easily.
  */
@@ -39,13 +42,14 @@ public class PrefsManager {
     }
 
     /**
-     * Return the user set history size preference (minimum 1).
+     * Return the user set history storage preference (minimum 1 megabyte), in bytes.
      * @param context context to read values from
-     * @return the history size
+     * @return the history storage budget
      */
-    public static int getHistorySize(Context context) {
+    public static long getHistoryBudget(Context context) {
         SharedPreferences sharedPref = PreferenceManager.getDefaultSharedPreferences(context);
-        return Math.max(Integer.parseInt(sharedPref.getString("history_size", "100")), 1);
+        int megabytes = Integer.parseInt(sharedPref.getString("history_storage", "20"));
+        return Math.max(megabytes, 1) * 1024L * 1024L;
     }
 
     /**
@@ -129,4 +133,28 @@ public class PrefsManager {
         SharedPreferences sharedPrefs = PreferenceManager.getDefaultSharedPreferences(context);
         return sharedPrefs.getString("range_unit", "1");
     }
+
+    /**
+     * Return the user set alert rules, one rule per line.
+     * See <code>AlertRule</code> for the syntax.
+     * @param context context to read values from
+     * @return the alert rules
+     */
+    public static String getAlertRules(Context context) {
+        SharedPreferences sharedPrefs = PreferenceManager.getDefaultSharedPreferences(context);
+        return sharedPrefs.getString("alert_rules", "");
+    }
+
+    /**
+     * Return the location of the feed to download the states from. The user set one is used
+     * only in the debug builds, e.g. to test against a local server.
+     * @param context context to read values from
+     * @return the feed URL
+     */
+    public static String getFeedUrl(Context context) {
+        if (!BuildConfig.DEBUG) return StateDownloader.FEED_URL;
+        SharedPreferences sharedPrefs = PreferenceManager.getDefaultSharedPreferences(context);
+        String feedUrl = sharedPrefs.getString("feed_url", "").trim();
+        return feedUrl.isEmpty() ? StateDownloader.FEED_URL : feedUrl;
+    }
 }
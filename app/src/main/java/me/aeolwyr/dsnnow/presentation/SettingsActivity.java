@@ -21,10 +21,19 @@
 package me.aeolwyr.dsnnow.presentation;
 
 import android.app.Activity;
+import android.content.Intent;
 import android.os.Bundle;
+import android.preference.Preference;
 import android.preference.PreferenceFragment;
+import android.widget.Toast;
 
+import java.text.ParseException;
+import java.util.List;
+
+import me.aeolwyr.dsnnow.BuildConfig;
 import me.aeolwyr.dsnnow.R;
+import me.aeolwyr.dsnnow.logic.AlertRule;
+import me.aeolwyr.dsnnow.logic.StateRepository;
 
 /**
  * Activity to show the user changeable settings.
@@ -42,10 +51,61 @@ public class SettingsActivity extends Activity {
     }
 
     public static class SettingsFragment extends PreferenceFragment {
+        /** number of the taps on the version to open the debug screen **/
+        private static final int DEBUG_TAPS = 7;
+
+        private int versionTaps = 0;
+
         @Override
         public void onCreate(Bundle savedInstanceState) {
             super.onCreate(savedInstanceState);
             addPreferencesFromResource(R.xml.preferences);
+            findPreference("alert_rules").setOnPreferenceChangeListener(alertRulesListener);
+
+            Preference version = findPreference("version");
+            version.setSummary(BuildConfig.VERSION_NAME);
+            version.setOnPreferenceClickListener(versionListener);
+
+            if (!BuildConfig.DEBUG) {
+                getPreferenceScreen().removePreference(findPreference("debug_category"));
+            }
         }
+
+        /**
+         * listener to open the hidden debug screen after several taps on the version
+         */
+        private Preference.OnPreferenceClickListener versionListener =
+                new Preference.OnPreferenceClickListener() {
+            @Override
+            public boolean onPreferenceClick(Preference preference) {
+                if (++versionTaps >= DEBUG_TAPS) {
+                    versionTaps = 0;
+                    startActivity(new Intent(getActivity(), DebugActivity.class));
+                }
+                return true;
+            }
+        };
+
+        /**
+         * listener to check the alert rules before they are saved, and to apply them
+         */
+        private Preference.OnPreferenceChangeListener alertRulesListener =
+                new Preference.OnPreferenceChangeListener() {
+            @Override
+            public boolean onPreferenceChange(Preference preference, Object newValue) {
+                StateRepository repository = StateRepository.getInstance(getActivity());
+                try {
+                    List<AlertRule> rules =
+                            AlertRule.compileAll((String) newValue, repository.getConfig());
+                    repository.getAlertEngine().setRules(rules);
+                    return true;
+                } catch (ParseException e) {
+                    String message = getActivity().getString(R.string.alert_rules_error,
+                            e.getErrorOffset() + 1, e.getMessage());
+                    Toast.makeText(getActivity(), message, Toast.LENGTH_LONG).show();
+                    return false;
+                }
+            }
+        };
     }
 }
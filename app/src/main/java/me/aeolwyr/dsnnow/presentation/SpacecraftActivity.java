@@ -0,0 +1,382 @@
+/*
+ * DSN Monitor is an app to monitor the NASA Deep Space Network in real time.
+ * Copyright (c) 2016 Kaan Karaagacli
+ *
+ * This file is part of DSN Monitor.
+ *
+ * DSN Monitor is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DSN Monitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DSN Monitor.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package me.aeolwyr.dsnnow.presentation;
+
+import android.app.Activity;
+import android.content.Intent;
+import android.os.AsyncTask;
+import android.os.Bundle;
+import android.text.TextUtils;
+import android.view.View;
+import android.widget.AdapterView;
+import android.widget.ArrayAdapter;
+import android.widget.ListView;
+import android.widget.TextView;
+
+import java.io.IOException;
+import java.util.List;
+
+import me.aeolwyr.dsnnow.R;
+import me.aeolwyr.dsnnow.data.NetworkState;
+import me.aeolwyr.dsnnow.data.Spacecraft;
+import me.aeolwyr.dsnnow.logic.Contact;
+import me.aeolwyr.dsnnow.logic.ContactIndex;
+import me.aeolwyr.dsnnow.logic.SpacecraftSeries;
+import me.aeolwyr.dsnnow.logic.StateRepository;
+
+/**
+ * Activity to show a spacecraft, the dishes it is communicating with now, charts of its
+ * signal and range, and its contacts in the history. <br />
+ * If no spacecraft is given, all the spacecraft in the history are listed to choose from.
+ */
+public class SpacecraftActivity extends Activity {
+    /**
+     * intent extra name for the spacecraft to show, e.g. <code>VGR1</code>
+     */
+    public static final String EXTRA_SPACECRAFT = "me.aeolwyr.dsnnow.SPACECRAFT";
+    /**
+     * intent extra name for whether the continuous downloads should run while this is shown
+     */
+    public static final String EXTRA_MONITORING = "me.aeolwyr.dsnnow.MONITORING";
+
+    /**
+     * A value of the spacecraft to chart, read from the rows of its series.
+     */
+    private static abstract class Metric {
+        /**
+         * Return the value of a row, in the unit of the chart.
+         * @param series the series to read
+         * @param index the index of the row
+         * @return the value, or NaN if the row has no value
+         */
+        abstract double getValue(SpacecraftSeries series, int index);
+    }
+
+    /** data rate, in bits per second **/
+    private static final Metric DATA_RATE = new Metric() {
+        @Override
+        double getValue(SpacecraftSeries series, int index) {
+            // no downlink signal, or a carrier only
+            if (series.getPower(index) == 0) return Double.NaN;
+            return series.getDataRate(index) / 1000000d;
+        }
+    };
+
+    /** received power, in dBm **/
+    private static final Metric POWER = new Metric() {
+        @Override
+        double getValue(SpacecraftSeries series, int index) {
+            if (series.getPower(index) == 0) return Double.NaN;
+            return series.getPower(index) / 1000000d;
+        }
+    };
+
+    /** downleg range, in kilometers **/
+    private static final Metric RANGE = new Metric() {
+        @Override
+        double getValue(SpacecraftSeries series, int index) {
+            if (series.getDownlegRange(index) < 0) return Double.NaN;
+            return series.getDownlegRange(index) / 1000d;
+        }
+    };
+
+    /**
+     * Points of a chart, one for each time in the series.
+     */
+    private static class Points {
+        long[] xs;
+        double[] ys;
+        int size;
+    }
+
+    private StateRepository repository;
+    private ListView listView;
+    private TextView emptyView;
+
+    /** the shown spacecraft, null if listing all of them **/
+    private String spacecraft;
+    private ChartView dataRateChart;
+    private ChartView powerChart;
+    private ChartView rangeChart;
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.activity_spacecraft);
+
+        repository = StateRepository.getInstance(this);
+        listView = (ListView) findViewById(R.id.list_view);
+        emptyView = (TextView) findViewById(R.id.empty);
+
+        spacecraft = getIntent().getStringExtra(EXTRA_SPACECRAFT);
+        if (spacecraft != null) {
+            showSpacecraft(spacecraft);
+        } else {
+            showSpacecraftList();
+        }
+    }
+
+    @Override
+    protected void onResume() {
+        super.onResume();
+        // this is the visible activity now, take the downloads over
+        repository.setListener(repositoryListener);
+        if (getIntent().getBooleanExtra(EXTRA_MONITORING, false)) {
+            repository.getCaptureWriter().setHistoryBudget(PrefsManager.getHistoryBudget(this));
+            repository.setFeedUrl(PrefsManager.getFeedUrl(this));
+            repository.startPolling(PrefsManager.getCaptureInterval(this));
+        }
+    }
+
+    @Override
+    protected void onPause() {
+        super.onPause();
+        if (!isChangingConfigurations()) {
+            repository.stopPolling();
+        }
+        // write the queued downloads, the process might be killed from now on
+        repository.getCaptureWriter().flush();
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        // the repository outlives this activity, do not leak it
+        if (repository.getListener() == repositoryListener) {
+            repository.setListener(null);
+        }
+    }
+
+    /**
+     * Show the details and the contacts of a spacecraft.
+     * @param spacecraft the name of the spacecraft
+     */
+    private void showSpacecraft(final String spacecraft) {
+        // friendly name (e.g. "Voyager 1 (VGR1)")
+        TextView name = (TextView) findViewById(R.id.spacecraft_name);
+        Spacecraft config = repository.getConfig().getSpacecraft(spacecraft);
+        if (config != null) {
+            name.setText(getString(R.string.target_name, config.getFriendlyName(), spacecraft));
+        } else {
+            name.setText(spacecraft);
+        }
+
+        showCurrentDishes(repository.getNetworkState());
+        showCharts(spacecraft);
+
+        // the contacts in the history, read in the background
+        new AsyncTask<Void, Void, List<Contact>>() {
+            @Override
+            protected List<Contact> doInBackground(Void... params) {
+                try {
+                    return repository.getContactIndex().query(spacecraft, 0, Long.MAX_VALUE);
+                } catch (IOException e) {
+                    return null;
+                }
+            }
+
+            @Override
+            protected void onPostExecute(List<Contact> contacts) {
+                if (contacts == null || contacts.isEmpty()) {
+                    showEmpty(R.string.spacecraft_no_contacts);
+                } else {
+                    listView.setAdapter(new ContactAdapter(SpacecraftActivity.this, contacts));
+                }
+            }
+        }.execute();
+    }
+
+    /**
+     * Show all the spacecraft in the history to choose from.
+     */
+    private void showSpacecraftList() {
+        findViewById(R.id.spacecraft_name).setVisibility(View.GONE);
+        findViewById(R.id.current_dishes).setVisibility(View.GONE);
+        findViewById(R.id.charts).setVisibility(View.GONE);
+        ((TextView) findViewById(R.id.list_title)).setText(R.string.spacecraft);
+
+        new AsyncTask<Void, Void, List<String>>() {
+            @Override
+            protected List<String> doInBackground(Void... params) {
+                try {
+                    return repository.getContactIndex().getSpacecraft();
+                } catch (IOException e) {
+                    return null;
+                }
+            }
+
+            @Override
+            protected void onPostExecute(List<String> spacecraft) {
+                if (spacecraft == null || spacecraft.isEmpty()) {
+                    showEmpty(R.string.spacecraft_no_spacecraft);
+                } else {
+                    listView.setAdapter(new ArrayAdapter<>(SpacecraftActivity.this,
+                            android.R.layout.simple_list_item_1, spacecraft));
+                    listView.setOnItemClickListener(onItemClickListener);
+                }
+            }
+        }.execute();
+    }
+
+    /**
+     * Show the dishes the shown spacecraft is communicating with.
+     * @param networkState the current state, or null if there is none
+     */
+    private void showCurrentDishes(NetworkState networkState) {
+        TextView currentDishes = (TextView) findViewById(R.id.current_dishes);
+        List<String> dishes = networkState != null
+                ? ContactIndex.findDishes(networkState, spacecraft)
+                : null;
+        if (dishes != null && !dishes.isEmpty()) {
+            currentDishes.setText(getString(R.string.spacecraft_now,
+                    TextUtils.join(", ", dishes)));
+        } else {
+            currentDishes.setText(R.string.spacecraft_idle);
+        }
+    }
+
+    /**
+     * Chart the series of a spacecraft in the time series store.
+     * @param spacecraft the name of the spacecraft
+     */
+    private void showCharts(final String spacecraft) {
+        dataRateChart = (ChartView) findViewById(R.id.chart_data_rate);
+        powerChart = (ChartView) findViewById(R.id.chart_power);
+        rangeChart = (ChartView) findViewById(R.id.chart_range);
+        dataRateChart.setTitle(getString(R.string.chart_data_rate,
+                getString(R.string.bits_per_second)));
+        powerChart.setTitle(getString(R.string.chart_power,
+                getString(R.string.decibel_milliwatts)));
+        rangeChart.setTitle(getString(R.string.chart_range, getString(R.string.kilometers)));
+
+        new AsyncTask<Void, Void, Points[]>() {
+            @Override
+            protected Points[] doInBackground(Void... params) {
+                try {
+                    SpacecraftSeries series = repository.getTimeSeriesStore()
+                            .query(spacecraft, 0, Long.MAX_VALUE);
+                    return new Points[] {
+                            collect(series, DATA_RATE),
+                            collect(series, POWER),
+                            collect(series, RANGE)
+                    };
+                } catch (IOException e) {
+                    return null;
+                }
+            }
+
+            @Override
+            protected void onPostExecute(Points[] points) {
+                if (points == null) return;
+                dataRateChart.setSeries(points[0].xs, points[0].ys, points[0].size);
+                powerChart.setSeries(points[1].xs, points[1].ys, points[1].size);
+                rangeChart.setSeries(points[2].xs, points[2].ys, points[2].size);
+                // the store lags behind the downloads, add the states downloaded meanwhile
+                NetworkState networkState = repository.getNetworkState();
+                if (networkState != null) appendToCharts(networkState);
+            }
+        }.execute();
+    }
+
+    /**
+     * Add the values of a newly downloaded state to the charts.
+     * @param networkState the new state, ignored by the charts if not newer than their points
+     */
+    private void appendToCharts(NetworkState networkState) {
+        SpacecraftSeries series = SpacecraftSeries.fromState(networkState, spacecraft);
+        append(dataRateChart, collect(series, DATA_RATE));
+        append(powerChart, collect(series, POWER));
+        append(rangeChart, collect(series, RANGE));
+    }
+
+    private static void append(ChartView chart, Points points) {
+        for (int i = 0; i < points.size; i++) {
+            chart.append(points.xs[i], points.ys[i]);
+        }
+    }
+
+    /**
+     * Read the points of a chart from a series. If the spacecraft is communicating with more
+     * than one dish at a time, the largest value is used.
+     * @param series the series to read
+     * @param metric the value to read from the rows
+     * @return the points, at most one for each time
+     */
+    private static Points collect(SpacecraftSeries series, Metric metric) {
+        Points points = new Points();
+        points.xs = new long[series.size()];
+        points.ys = new double[series.size()];
+        for (int i = 0; i < series.size(); i++) {
+            double value = metric.getValue(series, i);
+            if (Double.isNaN(value)) continue;
+
+            long timestamp = series.getTimestamp(i);
+            if (points.size > 0 && points.xs[points.size - 1] == timestamp) {
+                // another dish at the same time
+                points.ys[points.size - 1] = Math.max(points.ys[points.size - 1], value);
+            } else {
+                points.xs[points.size] = timestamp;
+                points.ys[points.size] = value;
+                points.size++;
+            }
+        }
+        return points;
+    }
+
+    private void showEmpty(int message) {
+        emptyView.setText(message);
+        emptyView.setVisibility(View.VISIBLE);
+        listView.setVisibility(View.GONE);
+    }
+
+    /**
+     * on click listener to show the chosen spacecraft
+     */
+    private AdapterView.OnItemClickListener onItemClickListener =
+            new AdapterView.OnItemClickListener() {
+        @Override
+        public void onItemClick(AdapterView<?> parent, View view, int position, long id) {
+            String spacecraft = parent.getItemAtPosition(position).toString();
+            Intent intent = new Intent(SpacecraftActivity.this, SpacecraftActivity.class);
+            intent.putExtra(EXTRA_SPACECRAFT, spacecraft);
+            intent.putExtra(EXTRA_MONITORING,
+                    getIntent().getBooleanExtra(EXTRA_MONITORING, false));
+            startActivity(intent);
+        }
+    };
+
+    /**
+     * listener to keep the shown spacecraft up to date with the downloads
+     */
+    private StateRepository.Listener repositoryListener = new StateRepository.Listener() {
+        @Override
+        public void onStateDownloaded(NetworkState networkState) {
+            if (spacecraft != null) {
+                showCurrentDishes(networkState);
+                appendToCharts(networkState);
+            }
+        }
+
+        @Override
+        public void onDownloadFailed() { }
+    };
+}
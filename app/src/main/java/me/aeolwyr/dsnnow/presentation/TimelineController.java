@@ -0,0 +1,383 @@
+/*
+ * DSN Monitor is an app to monitor the NASA Deep Space Network in real time.
+ * Copyright (c) 2016 Kaan Karaagacli
+ *
+ * This file is part of DSN Monitor.
+ *
+ * DSN Monitor is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DSN Monitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DSN Monitor.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package me.aeolwyr.dsnnow.presentation;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.view.View;
+import android.widget.Button;
+import android.widget.ImageButton;
+import android.widget.SeekBar;
+
+import org.xmlpull.v1.XmlPullParserException;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import me.aeolwyr.dsnnow.R;
+import me.aeolwyr.dsnnow.data.NetworkState;
+import me.aeolwyr.dsnnow.logic.HistoryScanner;
+import me.aeolwyr.dsnnow.logic.StateCache;
+
+/**
+ * Controller of the timeline bar in the main activity, which scrubs through
+ * and plays back the history. <br />
+ * States are decoded ahead of the playback position on a worker thread and kept
+ * in the state cache. The worker also turns them into the usual objects, which the UI thread
+ * picks up, so that nothing is decoded or copied on the UI thread during the playback.
+ */
+public class TimelineController {
+    /**
+     * Callback for the timeline events, called on the main thread.
+     */
+    public interface Callback {
+        /**
+         * Called when the user starts to play or scrub the timeline.
+         */
+        void onTimelineStarted();
+
+        /**
+         * Called when a state of the timeline should be shown.
+         * @param networkState the state to show
+         */
+        void onTimelineState(NetworkState networkState);
+    }
+
+    /** selectable playback speeds, in states per second **/
+    private static final int[] SPEEDS = {1, 5, 15, 30, 60};
+    /** minimum number of states to decode ahead of the playback position **/
+    private static final int MIN_LOOKAHEAD = 5;
+
+    private Context context;
+    private StateCache stateCache;
+    private HistoryScanner historyScanner;
+    private Callback callback;
+
+    private View timelineView;
+    private ImageButton playButton;
+    private SeekBar seekBar;
+    private Button speedButton;
+
+    private Handler handler = new Handler();
+    private HandlerThread workerThread;
+    private Handler workerHandler;
+
+    /** timestamps of the history states, sorted from the oldest to the newest **/
+    private long[] timestamps;
+    /** states that could not be decoded, skipped during the playback **/
+    private boolean[] failed;
+    /** states ready to be shown, mapped by their timestamps, filled by the worker thread **/
+    private final Map<Long, NetworkState> ready = new ConcurrentHashMap<>();
+    /** index of the shown state, read by the worker thread **/
+    private volatile int position;
+    private int speedIndex = 0;
+    private boolean playing = false;
+
+    /**
+     * Create a new controller for the given timeline bar.
+     * @param context the current activity context
+     * @param timelineView the timeline bar, containing the play, seek bar and speed views
+     * @param stateCache the cache to keep the decoded states in
+     * @param historyScanner the scanner to read the history states with
+     * @param callback the callback to show the states with
+     */
+    public TimelineController(Context context, View timelineView, StateCache stateCache,
+                              HistoryScanner historyScanner, Callback callback) {
+        this.context = context;
+        this.timelineView = timelineView;
+        this.stateCache = stateCache;
+        this.historyScanner = historyScanner;
+        this.callback = callback;
+
+        playButton = (ImageButton) timelineView.findViewById(R.id.timeline_play);
+        seekBar = (SeekBar) timelineView.findViewById(R.id.timeline_seek_bar);
+        speedButton = (Button) timelineView.findViewById(R.id.timeline_speed);
+
+        playButton.setOnClickListener(playOnClickListener);
+        speedButton.setOnClickListener(speedOnClickListener);
+        seekBar.setOnSeekBarChangeListener(onSeekBarChangeListener);
+        updateSpeedButton();
+
+        workerThread = new HandlerThread("timeline", Process.THREAD_PRIORITY_BACKGROUND);
+        workerThread.start();
+        workerHandler = new Handler(workerThread.getLooper());
+    }
+
+    /**
+     * Show the timeline bar with the given history states.
+     * @param timestamps the timestamps of the states, sorted from the oldest to the newest
+     * @param timestamp the timestamp of the shown state, to position the timeline at
+     * @return false if there are not enough states for a timeline, true otherwise
+     */
+    public boolean show(long[] timestamps, long timestamp) {
+        if (timestamps.length < 2) return false;
+
+        this.timestamps = timestamps;
+        failed = new boolean[timestamps.length];
+        ready.clear();
+        // start at the end, unless the shown state is a part of the history
+        int index = timestamps.length - 1;
+        for (int i = 0; i < timestamps.length; i++) {
+            if (timestamps[i] == timestamp) index = i;
+        }
+        position = index;
+
+        seekBar.setMax(timestamps.length - 1);
+        seekBar.setProgress(index);
+        timelineView.setVisibility(View.VISIBLE);
+        return true;
+    }
+
+    /**
+     * Stop the playback and hide the timeline bar.
+     */
+    public void hide() {
+        pause();
+        timelineView.setVisibility(View.GONE);
+    }
+
+    /**
+     * Stop the playback, if playing.
+     */
+    public void pause() {
+        playing = false;
+        handler.removeCallbacks(tick);
+        playButton.setImageResource(R.drawable.ic_play_arrow);
+    }
+
+    /**
+     * Stop the playback and the worker thread. The controller cannot be used afterwards.
+     */
+    public void release() {
+        pause();
+        workerThread.quit();
+        ready.clear();
+    }
+
+    /**
+     * Start the playback from the current position, or from the beginning if at the end.
+     */
+    private void play() {
+        callback.onTimelineStarted();
+        if (position >= timestamps.length - 1) {
+            seekTo(0);
+        }
+        playing = true;
+        playButton.setImageResource(R.drawable.ic_pause);
+        handler.post(tick);
+    }
+
+    /**
+     * Move to the given position, showing the state there as soon as it is decoded.
+     * @param index the new position
+     */
+    private void seekTo(int index) {
+        position = index;
+        seekBar.setProgress(index);
+        NetworkState networkState = ready.get(timestamps[index]);
+        if (networkState != null) {
+            callback.onTimelineState(networkState);
+        }
+        // the worker shows the state when it is ready otherwise
+        decodeAhead(index);
+    }
+
+    /**
+     * Advance the playback by one state, if it is decoded. This runnable reschedules
+     * itself according to the playback speed.
+     */
+    private Runnable tick = new Runnable() {
+        @Override
+        public void run() {
+            if (!playing) return;
+
+            int next = position + 1;
+            // skip the states that could not be decoded
+            while (next < failed.length && failed[next]) next++;
+            if (next >= timestamps.length) {
+                // reached the end
+                pause();
+                return;
+            }
+
+            NetworkState networkState = ready.get(timestamps[next]);
+            if (networkState != null) {
+                position = next;
+                seekBar.setProgress(next);
+                callback.onTimelineState(networkState);
+            }
+            // otherwise keep showing the current state until the next one is decoded
+
+            decodeAhead(position + 1);
+            handler.postDelayed(this, 1000 / SPEEDS[speedIndex]);
+        }
+    };
+
+    /**
+     * Ask the worker to decode the states after the given position, replacing
+     * the earlier requests that have not started yet.
+     * @param from index of the first state to decode
+     */
+    private void decodeAhead(int from) {
+        if (from >= timestamps.length) return;
+        int lookahead = Math.max(MIN_LOOKAHEAD, SPEEDS[speedIndex]);
+        int to = Math.min(timestamps.length - 1, from + lookahead);
+        workerHandler.removeCallbacksAndMessages(null);
+        workerHandler.post(new DecodeJob(from, to));
+    }
+
+    /**
+     * Worker job that makes a range of states ready to be shown, decoding them into
+     * the state cache first if necessary. The ready states outside the range are dropped.
+     */
+    private class DecodeJob implements Runnable {
+        private final int from;
+        private final int to;
+        private final long[] timestamps;
+
+        DecodeJob(int from, int to) {
+            this.from = from;
+            this.to = to;
+            // keep a reference, the controller might be shown with other states meanwhile
+            this.timestamps = TimelineController.this.timestamps;
+        }
+
+        @Override
+        public void run() {
+            // drop the states left behind or from an earlier seek, the adapter keeps the shown one
+            Iterator<Long> iterator = ready.keySet().iterator();
+            while (iterator.hasNext()) {
+                long timestamp = iterator.next();
+                if (timestamp < timestamps[from] || timestamp > timestamps[to]) {
+                    iterator.remove();
+                }
+            }
+
+            for (int i = from; i <= to; i++) {
+                // the user has jumped elsewhere, a new job will follow
+                if (position > i) continue;
+                if (ready.containsKey(timestamps[i])) continue;
+
+                final int index = i;
+                final NetworkState networkState = decode(timestamps[i]);
+                if (networkState != null) ready.put(timestamps[i], networkState);
+                handler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        onDecoded(timestamps, index, networkState);
+                    }
+                });
+            }
+        }
+    }
+
+    /**
+     * Handle a decoded state on the main thread.
+     * @param timestamps the timestamps the position refers to
+     * @param index the position of the state
+     * @param networkState the decoded state, or null if it could not be decoded
+     */
+    private void onDecoded(long[] timestamps, int index, NetworkState networkState) {
+        // the timeline was shown again with other states meanwhile
+        if (timestamps != this.timestamps) return;
+        if (networkState == null) {
+            failed[index] = true;
+        } else if (!playing && index == position) {
+            // the user is waiting for this state after a seek
+            callback.onTimelineState(networkState);
+        }
+    }
+
+    /**
+     * Decode a history state, on the worker thread. It is copied from the cache if it is there.
+     * @param timestamp the timestamp of the state
+     * @return the decoded state, also put into the cache, or null if it could not be decoded
+     */
+    private NetworkState decode(long timestamp) {
+        NetworkState cachedState = stateCache.get(timestamp);
+        if (cachedState != null) return cachedState;
+        try {
+            NetworkState networkState = historyScanner.read(timestamp);
+            if (networkState != null) {
+                stateCache.put(timestamp, networkState);
+            }
+            return networkState;
+        } catch (IOException | XmlPullParserException e) {
+            return null;
+        }
+    }
+
+    private void updateSpeedButton() {
+        speedButton.setText(context.getString(R.string.timeline_speed, SPEEDS[speedIndex]));
+    }
+
+    /**
+     * on click listener to play/pause
+     */
+    private View.OnClickListener playOnClickListener = new View.OnClickListener() {
+        @Override
+        public void onClick(View v) {
+            if (playing) {
+                pause();
+            } else {
+                play();
+            }
+        }
+    };
+
+    /**
+     * on click listener to cycle through the playback speeds
+     */
+    private View.OnClickListener speedOnClickListener = new View.OnClickListener() {
+        @Override
+        public void onClick(View v) {
+            speedIndex = (speedIndex + 1) % SPEEDS.length;
+            updateSpeedButton();
+        }
+    };
+
+    /**
+     * seek bar listener to scrub through the history
+     */
+    private SeekBar.OnSeekBarChangeListener onSeekBarChangeListener =
+            new SeekBar.OnSeekBarChangeListener() {
+        @Override
+        public void onProgressChanged(SeekBar seekBar, int progress, boolean fromUser) {
+            // changes made by the playback are already handled
+            if (fromUser) {
+                seekTo(progress);
+            }
+        }
+
+        @Override
+        public void onStartTrackingTouch(SeekBar seekBar) {
+            pause();
+            callback.onTimelineStarted();
+        }
+
+        @Override
+        public void onStopTrackingTouch(SeekBar seekBar) { }
+    };
+}
@@ -0,0 +1,228 @@
+/*
+ * DSN Monitor is an app to monitor the NASA Deep Space Network in real time.
+ * Copyright (c) 2016 Kaan Karaagacli
+ *
+ * This file is part of DSN Monitor.
+ *
+ * DSN Monitor is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DSN Monitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DSN Monitor.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package me.aeolwyr.dsnnow.archiver;
+
+import java.io.File;
+import java.io.IOException;
+
+import me.aeolwyr.dsnnow.data.NetworkConfig;
+import me.aeolwyr.dsnnow.data.NetworkState;
+import me.aeolwyr.dsnnow.logic.BulkImporter;
+import me.aeolwyr.dsnnow.logic.CaptureWriter;
+import me.aeolwyr.dsnnow.logic.ContactIndex;
+import me.aeolwyr.dsnnow.logic.HistoryIndex;
+import me.aeolwyr.dsnnow.logic.HistoryLog;
+import me.aeolwyr.dsnnow.logic.HistoryScanner;
+import me.aeolwyr.dsnnow.logic.PassDetector;
+import me.aeolwyr.dsnnow.logic.TimeSeriesStore;
+import me.aeolwyr.dsnnow.logic.UtilizationRollups;
+
+/**
+ * The history kept by the archiver, in the same layout the app keeps it: a <code>cache</code>
+ * folder with the state files, the history log and the indexes, and a <code>files</code>
+ * folder with the pinned and the imported state files. The folders can be copied over the
+ * ones of the app, or the other way around. <br />
+ * Several feeds can be captured into the same archive, a state is written only once
+ * no matter how many of them deliver it.
+ */
+public class Archive {
+    private static final String CACHE_DIRECTORY_NAME = "cache";
+    private static final String FILES_DIRECTORY_NAME = "files";
+
+    private NetworkConfig config;
+    private HistoryLog historyLog;
+    private HistoryScanner historyScanner;
+    private TimeSeriesStore timeSeriesStore;
+    private ContactIndex contactIndex;
+    private PassDetector passDetector;
+    private UtilizationRollups utilizationRollups;
+
+    private File cacheDir;
+    private File filesDir;
+    private File importDir;
+    /** the writer of the captured states, null until the capture starts **/
+    private CaptureWriter captureWriter;
+    /** timestamp of the newest state in the archive, guarded by this object **/
+    private long newest;
+    /** the newest state added since the archive is opened, null if none **/
+    private volatile NetworkState latest;
+
+    /**
+     * Open the archive in the given folder. Nothing is read until it is needed.
+     * @param config config file to use when parsing the state files
+     * @param directory the folder of the archive, created if necessary
+     */
+    public Archive(NetworkConfig config, File directory) {
+        this.config = config;
+        cacheDir = new File(directory, CACHE_DIRECTORY_NAME);
+        filesDir = new File(directory, FILES_DIRECTORY_NAME);
+        importDir = new File(filesDir, BulkImporter.DIRECTORY_NAME);
+        // noinspection ResultOfMethodCallIgnored
+        cacheDir.mkdirs();
+        // noinspection ResultOfMethodCallIgnored
+        importDir.mkdirs();
+
+        historyLog = new HistoryLog(new File(cacheDir, HistoryLog.DIRECTORY_NAME));
+        historyScanner = new HistoryScanner(config, cacheDir, filesDir, importDir, historyLog);
+        timeSeriesStore = new TimeSeriesStore(new File(cacheDir, TimeSeriesStore.DIRECTORY_NAME));
+        contactIndex = new ContactIndex(new File(cacheDir, ContactIndex.DIRECTORY_NAME));
+        passDetector = new PassDetector(new File(cacheDir, PassDetector.DIRECTORY_NAME));
+        utilizationRollups = new UtilizationRollups(
+                new File(cacheDir, UtilizationRollups.DIRECTORY_NAME));
+    }
+
+    /**
+     * Return the network config of the archive.
+     * @return the network config of the archive
+     */
+    public NetworkConfig getConfig() {
+        return config;
+    }
+
+    /**
+     * Return the scanner to read the whole history with.
+     * @return the scanner to read the whole history with
+     */
+    public HistoryScanner getHistoryScanner() {
+        return historyScanner;
+    }
+
+    /**
+     * Return the time series of the spacecraft.
+     * @return the time series of the spacecraft
+     */
+    public TimeSeriesStore getTimeSeriesStore() {
+        return timeSeriesStore;
+    }
+
+    /**
+     * Return the contacts of the spacecraft.
+     * @return the contacts of the spacecraft
+     */
+    public ContactIndex getContactIndex() {
+        return contactIndex;
+    }
+
+    /**
+     * Return the detector of the tracking passes.
+     * @return the detector of the tracking passes
+     */
+    public PassDetector getPassDetector() {
+        return passDetector;
+    }
+
+    /**
+     * Return the utilization rollups.
+     * @return the utilization rollups
+     */
+    public UtilizationRollups getUtilizationRollups() {
+        return utilizationRollups;
+    }
+
+    /**
+     * Build the indexes and the rollups that do not exist yet from the existing history,
+     * e.g. before they are queried for the first time.
+     * @param all true to rebuild all of them, false to build only the missing ones
+     * @param threads the number of the days to read at the same time for the rollups
+     */
+    public void buildIndexes(boolean all, int threads) {
+        historyScanner.buildIndexes(all, getIndexes());
+        if (!all && utilizationRollups.exists()) return;
+        try {
+            utilizationRollups.backfill(historyScanner, threads);
+        } catch (IOException e) {
+            System.err.println("Could not build the rollups: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Start writing the captured states, building the missing indexes first in the background.
+     * @param historyBudget the total size the history can take in bytes, or 0 for no limit
+     */
+    public synchronized void startCapture(long historyBudget) {
+        if (captureWriter != null) return;
+        long[] timestamps = historyScanner.getTimestamps();
+        newest = timestamps.length > 0 ? timestamps[timestamps.length - 1] : 0;
+
+        captureWriter = new CaptureWriter(cacheDir, filesDir, historyLog);
+        captureWriter.setHistoryBudget(historyBudget);
+        captureWriter.runInBackground(new Runnable() {
+            @Override
+            public void run() {
+                buildIndexes(false, Runtime.getRuntime().availableProcessors());
+            }
+        });
+        for (HistoryIndex index : getIndexes()) {
+            captureWriter.addConsumer(index);
+        }
+        captureWriter.addConsumer(utilizationRollups);
+    }
+
+    /**
+     * Add a downloaded state to the archive, unless it is already there, e.g. delivered
+     * by another feed. <br />
+     * The capture must be started before.
+     * @param networkState the parsed state
+     * @param content the plain content of the downloaded file, not modified afterwards
+     * @return true if the state is new, false if it is ignored
+     */
+    public synchronized boolean add(NetworkState networkState, byte[] content) {
+        // the feeds are polled at the same time, so only the newest state is interesting
+        if (networkState.getTimestamp() <= newest) return false;
+        newest = networkState.getTimestamp();
+        latest = networkState;
+        captureWriter.submit(networkState, content);
+        return true;
+    }
+
+    /**
+     * Return the newest state added since the archive is opened. It can be called from any
+     * thread without locking, as the states are immutable.
+     * @return the newest state, or null if none is added yet
+     */
+    public NetworkState getLatest() {
+        return latest;
+    }
+
+    /**
+     * Write the queued states and the indexes, and wait until they are written,
+     * e.g. before the process exits.
+     */
+    public void flush() {
+        CaptureWriter captureWriter;
+        synchronized (this) {
+            captureWriter = this.captureWriter;
+        }
+        if (captureWriter != null) captureWriter.flushAndWait();
+        for (HistoryIndex index : new HistoryIndex[] {timeSeriesStore, contactIndex,
+                passDetector, utilizationRollups}) {
+            try {
+                index.flush();
+            } catch (IOException ignored) {
+                // nothing else to do while exiting
+            }
+        }
+    }
+
+    private HistoryIndex[] getIndexes() {
+        return new HistoryIndex[] {timeSeriesStore, contactIndex, passDetector};
+    }
+}
@@ -0,0 +1,439 @@
+/*
+ * DSN Monitor is an app to monitor the NASA Deep Space Network in real time.
+ * Copyright (c) 2016 Kaan Karaagacli
+ *
+ * This file is part of DSN Monitor.
+ *
+ * DSN Monitor is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DSN Monitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DSN Monitor.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package me.aeolwyr.dsnnow.archiver;
+
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+import org.xmlpull.v1.XmlPullParserFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.lang.reflect.Method;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import me.aeolwyr.dsnnow.data.NetworkConfig;
+import me.aeolwyr.dsnnow.data.NetworkState;
+import me.aeolwyr.dsnnow.logic.ConfigParser;
+import me.aeolwyr.dsnnow.logic.HistoryExporter;
+import me.aeolwyr.dsnnow.logic.Metrics;
+import me.aeolwyr.dsnnow.logic.PassDetector;
+import me.aeolwyr.dsnnow.logic.PassEvent;
+import me.aeolwyr.dsnnow.logic.Rollup;
+import me.aeolwyr.dsnnow.logic.SpacecraftSeries;
+import me.aeolwyr.dsnnow.logic.StateDownloader;
+import me.aeolwyr.dsnnow.logic.UtilizationRollups;
+
+/**
+ * Command line entry point of the archiver, which captures the feed continuously into
+ * the same history format the app keeps, and queries the indexes built from it. <br />
+ * The query results are written to the standard output as comma-separated values,
+ * the errors to the standard error.
+ */
+public class Archiver {
+    private static final String USAGE = "Usage:\n"
+            + "  archiver run --dir DIR [--interval SECONDS] [--feed URL]... [--budget MEGABYTES]\n"
+            + "      [--events]\n"
+            + "  archiver rollups --dir DIR [--period hourly|daily|total] [--from MS] [--to MS]\n"
+            + "  archiver series --dir DIR [--spacecraft NAME] [--from MS] [--to MS]\n"
+            + "  archiver passes --dir DIR [--spacecraft NAME] [--dish NAME] [--from MS]\n"
+            + "      [--to MS]\n"
+            + "  archiver export --dir DIR [--from MS] [--to MS] [--columnar]\n"
+            + "  archiver rebuild --dir DIR\n"
+            + "  archiver serve --states DIR [--port PORT] [--host HOST] [--advance SECONDS]\n"
+            + "      [--live] [--gzip] [--latency MS] [--throttle BYTES_PER_SECOND]\n"
+            + "      [--truncate RATIO] [--errors RATIO] [--seed SEED]\n"
+            + "The times are in milliseconds since the epoch. Without a feed, the official one\n"
+            + "is polled. With --events, the detected pass events are written as they happen.\n"
+            + "Without a spacecraft, the series command lists the names of the spacecraft.\n"
+            + "The serve command is a local stand-in of the feed for testing, which serves\n"
+            + "the state files of a folder in a loop, e.g. the cache folder of an archive.";
+
+    /** default time between the polls, the same as the shortest one of the app **/
+    private static final int DEFAULT_INTERVAL = 5;
+    /** default port of the test server **/
+    private static final int DEFAULT_PORT = 8080;
+    /** header of the pass events written **/
+    private static final String EVENTS_HEADER = "timestamp,type,dish,spacecraft,value";
+    /** names of the pass event types, indexed by the types **/
+    private static final String[] EVENT_TYPES = {"", "acquisition", "loss", "uplink_on",
+            "uplink_off", "data_rate_change", "array_join", "array_leave", "mspa_join",
+            "mspa_leave"};
+
+    /**
+     * Options of a command, given as <code>--name value</code> pairs and <code>--name</code>
+     * flags. An option can be given more than once.
+     */
+    private static class Options {
+        private Map<String, List<String>> values = new HashMap<>();
+
+        Options(String[] args, int start) {
+            for (int i = start; i < args.length; i++) {
+                String arg = args[i];
+                if (!arg.startsWith("--")) throw new IllegalArgumentException(arg);
+                String name = arg.substring(2);
+                boolean hasValue = i + 1 < args.length && !args[i + 1].startsWith("--");
+                String value = hasValue ? args[++i] : "";
+                List<String> list = values.get(name);
+                if (list == null) {
+                    list = new ArrayList<>();
+                    values.put(name, list);
+                }
+                list.add(value);
+            }
+        }
+
+        boolean has(String name) {
+            return values.containsKey(name);
+        }
+
+        String get(String name, String defaultValue) {
+            List<String> list = values.get(name);
+            return list != null ? list.get(list.size() - 1) : defaultValue;
+        }
+
+        List<String> getAll(String name) {
+            List<String> list = values.get(name);
+            return list != null ? list : new ArrayList<String>();
+        }
+
+        long getLong(String name, long defaultValue) {
+            String value = get(name, null);
+            return value != null ? Long.parseLong(value) : defaultValue;
+        }
+
+        double getDouble(String name, double defaultValue) {
+            String value = get(name, null);
+            return value != null ? Double.parseDouble(value) : defaultValue;
+        }
+
+        String require(String name) {
+            String value = get(name, null);
+            if (value == null || value.isEmpty()) {
+                throw new IllegalArgumentException("--" + name + " is required");
+            }
+            return value;
+        }
+    }
+
+    public static void main(String[] args) {
+        if (args.length == 0) {
+            System.err.println(USAGE);
+            System.exit(2);
+        }
+        try {
+            Options options = new Options(args, 1);
+            if (args[0].equals("serve")) {
+                // does not need an archive
+                serve(options);
+                return;
+            }
+            Archive archive = new Archive(loadConfig(), new File(options.require("dir")));
+            switch (args[0]) {
+                case "run":
+                    run(archive, options);
+                    break;
+                case "rollups":
+                    archive.buildIndexes(false, Runtime.getRuntime().availableProcessors());
+                    printRollups(archive, options);
+                    break;
+                case "series":
+                    archive.buildIndexes(false, Runtime.getRuntime().availableProcessors());
+                    printSeries(archive, options);
+                    break;
+                case "passes":
+                    archive.buildIndexes(false, Runtime.getRuntime().availableProcessors());
+                    printPasses(archive, options);
+                    break;
+                case "export":
+                    export(archive, options);
+                    break;
+                case "rebuild":
+                    archive.buildIndexes(true, Runtime.getRuntime().availableProcessors());
+                    archive.flush();
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown command " + args[0]);
+            }
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println(USAGE);
+            System.exit(2);
+        } catch (IOException | XmlPullParserException e) {
+            System.err.println(e.toString());
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Poll the feeds until the process is stopped.
+     * @param archive the archive to capture the states into
+     * @param options the options of the command
+     */
+    private static void run(final Archive archive, Options options) {
+        long interval = TimeUnit.SECONDS.toMillis(options.getLong("interval", DEFAULT_INTERVAL));
+        if (interval <= 0) throw new IllegalArgumentException("--interval must be positive");
+        List<String> feeds = options.getAll("feed");
+        if (feeds.isEmpty()) feeds.add(StateDownloader.FEED_URL);
+
+        if (options.has("events")) {
+            System.out.println(EVENTS_HEADER);
+            archive.getPassDetector().addListener(new PassDetector.Listener() {
+                @Override
+                public void onPassEvent(PassEvent event) {
+                    synchronized (System.out) {
+                        printEvent(System.out, event);
+                        System.out.flush();
+                    }
+                }
+            });
+        }
+        archive.startCapture(options.getLong("budget", 0) * 1024 * 1024);
+        final ExecutorService executor = newPollerExecutor(feeds.size());
+        for (String feed : feeds) {
+            executor.execute(new FeedPoller(feed, archive, interval));
+        }
+
+        Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+            @Override
+            public void run() {
+                executor.shutdownNow();
+                archive.flush();
+                NetworkState latest = archive.getLatest();
+                if (latest != null) {
+                    System.err.println("Latest state: " + latest.getTimestamp());
+                }
+                PrintWriter writer = new PrintWriter(System.err);
+                Metrics.dump(writer, "");
+                writer.flush();
+            }
+        }));
+
+        try {
+            // the pollers never stop by themselves
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Serve the states of a folder as a feed until the process is stopped.
+     * @param options the options of the command
+     * @throws IOException if the states cannot be read, or the port cannot be bound
+     */
+    private static void serve(Options options) throws IOException {
+        long advance = TimeUnit.SECONDS.toMillis(options.getLong("advance", DEFAULT_INTERVAL));
+        if (advance <= 0) throw new IllegalArgumentException("--advance must be positive");
+        final MockFeedServer server = new MockFeedServer(
+                MockFeedServer.loadStates(new File(options.require("states"))), advance);
+        server.setLive(options.has("live"));
+        server.setGzip(options.has("gzip"));
+        server.setLatency(options.getLong("latency", 0));
+        server.setThrottle((int) options.getLong("throttle", 0));
+        server.setTruncateRate(options.getDouble("truncate", 0));
+        server.setErrorRate(options.getDouble("errors", 0));
+        server.setSeed(options.getLong("seed", 0));
+
+        InetSocketAddress address = new InetSocketAddress(options.get("host", "127.0.0.1"),
+                (int) options.getLong("port", DEFAULT_PORT));
+        server.start(address);
+        System.err.println("Serving on http://" + address.getHostString() + ":"
+                + address.getPort() + "/");
+
+        Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+            @Override
+            public void run() {
+                server.stop();
+                System.err.println(server.getSummary());
+            }
+        }));
+    }
+
+    /**
+     * Return an executor that runs each poller on its own thread. The pollers spend nearly
+     * all their time blocked on the network or sleeping, so virtual threads are used where
+     * available, i.e. Java 21 and newer, and platform threads otherwise.
+     * @param feeds the number of the feeds to poll
+     * @return the new executor
+     */
+    private static ExecutorService newPollerExecutor(int feeds) {
+        try {
+            // looked up at run time, as the archiver is built for older versions
+            Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) method.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newFixedThreadPool(feeds);
+        }
+    }
+
+    /**
+     * Write the utilization rollups in the given range, a row for each dish, station and
+     * spacecraft of each rollup.
+     * @param archive the archive to query
+     * @param options the options of the command
+     * @throws IOException if there is an input/output error
+     */
+    private static void printRollups(Archive archive, Options options) throws IOException {
+        long from = options.getLong("from", 0);
+        long to = options.getLong("to", Long.MAX_VALUE);
+        UtilizationRollups utilizationRollups = archive.getUtilizationRollups();
+        List<Rollup> rollups;
+        switch (options.get("period", "daily")) {
+            case "hourly":
+                rollups = utilizationRollups.getHourly(from, to);
+                break;
+            case "daily":
+                rollups = utilizationRollups.getDaily(from, to);
+                break;
+            case "total":
+                rollups = new ArrayList<>();
+                rollups.add(utilizationRollups.getTotal(from,
+                        Math.min(to, System.currentTimeMillis())));
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown period " + options.get("period", ""));
+        }
+
+        PrintStream out = System.out;
+        out.println("start,length,observed,kind,name,time");
+        for (Rollup rollup : rollups) {
+            String prefix = rollup.getStart() + "," + rollup.getLength() + ","
+                    + rollup.getObserved() + ",";
+            printTimes(out, prefix + "dish,", rollup.getDishes());
+            printTimes(out, prefix + "station,", rollup.getStations());
+            printTimes(out, prefix + "spacecraft,", rollup.getSpacecraft());
+        }
+        out.flush();
+    }
+
+    private static void printTimes(PrintStream out, String prefix, Map<String, Long> times) {
+        for (String name : Rollup.rank(times)) {
+            out.println(prefix + escape(name) + "," + times.get(name));
+        }
+    }
+
+    /**
+     * Write the time series of a spacecraft in the given range, or the names of the
+     * spacecraft if none is given.
+     * @param archive the archive to query
+     * @param options the options of the command
+     * @throws IOException if there is an input/output error
+     */
+    private static void printSeries(Archive archive, Options options) throws IOException {
+        PrintStream out = System.out;
+        String spacecraft = options.get("spacecraft", "");
+        if (spacecraft.isEmpty()) {
+            for (String name : archive.getTimeSeriesStore().getSpacecraft()) {
+                out.println(name);
+            }
+            out.flush();
+            return;
+        }
+
+        SpacecraftSeries series = archive.getTimeSeriesStore().query(spacecraft,
+                options.getLong("from", 0), options.getLong("to", Long.MAX_VALUE));
+        out.println("timestamp,dish,data_rate,frequency,power,upleg_range,downleg_range,rtlt");
+        for (int i = 0; i < series.size(); i++) {
+            out.println(series.getTimestamp(i) + "," + escape(series.getDish(i)) + ","
+                    + series.getDataRate(i) + "," + series.getFrequency(i) + ","
+                    + series.getPower(i) + "," + series.getUplegRange(i) + ","
+                    + series.getDownlegRange(i) + "," + series.getRTLT(i));
+        }
+        out.flush();
+    }
+
+    /**
+     * Write the pass events in the given range, optionally of a single spacecraft or dish,
+     * from the newest to the oldest.
+     * @param archive the archive to query
+     * @param options the options of the command
+     * @throws IOException if there is an input/output error
+     */
+    private static void printPasses(Archive archive, Options options) throws IOException {
+        String spacecraft = options.get("spacecraft", "");
+        String dish = options.get("dish", "");
+        List<PassEvent> events = archive.getPassDetector().query(
+                spacecraft.isEmpty() ? null : spacecraft, dish.isEmpty() ? null : dish,
+                options.getLong("from", 0), options.getLong("to", Long.MAX_VALUE));
+        PrintStream out = System.out;
+        out.println(EVENTS_HEADER);
+        for (PassEvent event : events) {
+            printEvent(out, event);
+        }
+        out.flush();
+    }
+
+    private static void printEvent(PrintStream out, PassEvent event) {
+        int type = event.getType();
+        out.println(event.getTimestamp() + ","
+                + (type > 0 && type < EVENT_TYPES.length ? EVENT_TYPES[type] : "") + ","
+                + escape(event.getDish()) + "," + escape(event.getSpacecraft()) + ","
+                + event.getValue());
+    }
+
+    /**
+     * Export the states in the given range, in the formats of the export of the app.
+     * @param archive the archive to export
+     * @param options the options of the command
+     * @throws IOException if there is an input/output error
+     */
+    private static void export(Archive archive, Options options) throws IOException {
+        int format = options.has("columnar")
+                ? HistoryExporter.FORMAT_COLUMNAR : HistoryExporter.FORMAT_CSV;
+        OutputStream outputStream = new BufferedOutputStream(System.out);
+        new HistoryExporter(archive.getHistoryScanner()).export(options.getLong("from", 0),
+                options.getLong("to", Long.MAX_VALUE), format, outputStream, null);
+        outputStream.flush();
+    }
+
+    /**
+     * Parse the network config the app is built with, which is on the class path.
+     * @return the network config
+     * @throws XmlPullParserException if the config file is malformed
+     * @throws IOException if there is an input/output error
+     */
+    private static NetworkConfig loadConfig() throws XmlPullParserException, IOException {
+        try (InputStream inputStream = Archiver.class.getResourceAsStream("/config.xml")) {
+            if (inputStream == null) throw new IOException("config.xml is not on the class path");
+            XmlPullParser parser = XmlPullParserFactory.newInstance().newPullParser();
+            parser.setInput(inputStream, null);
+            return ConfigParser.parse(parser);
+        }
+    }
+
+    private static String escape(String value) {
+        if (value == null) return "";
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0) return value;
+        return '"' + value.replace("\"", "\"\"") + '"';
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * DSN Monitor is an app to monitor the NASA Deep Space Network in real time.
+ * Copyright (c) 2016 Kaan Karaagacli
+ *
+ * This file is part of DSN Monitor.
+ *
+ * DSN Monitor is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DSN Monitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DSN Monitor.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package me.aeolwyr.dsnnow.archiver;
+
+import org.xmlpull.v1.XmlPullParserException;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import me.aeolwyr.dsnnow.data.NetworkState;
+import me.aeolwyr.dsnnow.logic.Metrics;
+import me.aeolwyr.dsnnow.logic.StateDownloader;
+import me.aeolwyr.dsnnow.logic.StateParser;
+
+/**
+ * Polls a single feed on a schedule, until interrupted, and adds the downloaded states
+ * to the archive. <br />
+ * Each poll blocks its thread for the whole download, so every feed is given its own thread.
+ */
+class FeedPoller implements Runnable {
+    private StateDownloader stateDownloader;
+    private Archive archive;
+    /** the time between the polls, in milliseconds **/
+    private long interval;
+
+    /**
+     * Create a new poller.
+     * @param feedUrl location of the feed
+     * @param archive the archive to add the states to
+     * @param interval the time between the polls, in milliseconds
+     */
+    FeedPoller(String feedUrl, Archive archive, long interval) {
+        stateDownloader = new StateDownloader(feedUrl);
+        this.archive = archive;
+        this.interval = interval;
+    }
+
+    @Override
+    public void run() {
+        long next = System.currentTimeMillis();
+        while (!Thread.currentThread().isInterrupted()) {
+            poll();
+
+            next += interval;
+            long now = System.currentTimeMillis();
+            if (next < now) {
+                // the download took longer than the interval, do not pile the polls up
+                next = now;
+            }
+            try {
+                Thread.sleep(next - now);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Download, parse and archive the latest state of the feed.
+     */
+    private void poll() {
+        Metrics.POLLS.increment();
+        try {
+            long downloadStart = System.nanoTime();
+            ByteBuffer byteBuffer = stateDownloader.download();
+            if (byteBuffer == null) {
+                // nothing new since the last poll
+                Metrics.NOT_MODIFIED_POLLS.increment();
+                return;
+            }
+            Metrics.DOWNLOAD_TIME.recordSince(downloadStart);
+            Metrics.BYTES_READ.add(byteBuffer.position());
+
+            byte[] content = Arrays.copyOf(byteBuffer.array(), byteBuffer.position());
+            long parseStart = System.nanoTime();
+            NetworkState networkState = StateParser.parse(archive.getConfig(),
+                    new ByteArrayInputStream(content));
+            Metrics.PARSE_TIME.recordSince(parseStart);
+            // the next download can be skipped if the feed has not changed since this one
+            stateDownloader.commit();
+
+            archive.add(networkState, content);
+        } catch (IOException | XmlPullParserException e) {
+            Metrics.FAILED_POLLS.increment();
+            System.err.println(stateDownloader.getFeedUrl() + ": " + e);
+        }
+    }
+}
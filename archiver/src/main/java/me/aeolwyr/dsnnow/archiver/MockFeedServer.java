@@ -0,0 +1,359 @@
+/*
+ * DSN Monitor is an app to monitor the NASA Deep Space Network in real time.
+ * Copyright (c) 2016 Kaan Karaagacli
+ *
+ * This file is part of DSN Monitor.
+ *
+ * DSN Monitor is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DSN Monitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DSN Monitor.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package me.aeolwyr.dsnnow.archiver;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.nio.charset.Charset;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.TimeZone;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPOutputStream;
+
+import me.aeolwyr.dsnnow.logic.StateFileCompression;
+
+/**
+ * Local stand-in of the feed server, to test the downloads reproducibly without depending
+ * on the real feed. <br />
+ * It serves recorded state files in a loop, moving to the next one on a fixed interval, on any
+ * path. In the live mode, the timestamps of the states are replaced with the time they are
+ * served at, so that the loop looks like new states to the clients. <br />
+ * Faults can be injected into the responses: latency, a limited transfer rate, truncated
+ * bodies and server errors. They are chosen with a seeded random source, so that a run can
+ * be repeated. The conditional requests are answered with 304 when the state has not changed,
+ * and the responses are compressed if the client accepts it.
+ */
+public class MockFeedServer {
+    private static final Charset CHARSET = Charset.forName("UTF-8");
+    private static final Pattern TIMESTAMP = Pattern.compile("<timestamp>(\\d+)</timestamp>");
+    /** the transfer rate limit is applied in this many steps per second **/
+    private static final int THROTTLE_STEPS = 10;
+
+    /** the plain content of the recorded states, in the order they are served **/
+    private List<byte[]> states;
+    /** the time each state is served for, in milliseconds **/
+    private long advance;
+    private long startTime;
+
+    private boolean live;
+    private boolean gzip;
+    private long latency;
+    private int bytesPerSecond;
+    private double truncateRate;
+    private double errorRate;
+    /** source of the injected faults, guarded by itself **/
+    private Random random = new Random(0);
+
+    private HttpServer server;
+    private ExecutorService executor;
+
+    // counters of the responses
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong notModified = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();
+    private final AtomicLong truncated = new AtomicLong();
+
+    /**
+     * Create a new server of the given states. It is not started until <code>start</code>
+     * is called.
+     * @param states the plain content of the states, in the order to serve them
+     * @param advance the time each state is served for, in milliseconds
+     */
+    public MockFeedServer(List<byte[]> states, long advance) {
+        if (states.isEmpty()) throw new IllegalArgumentException("No states to serve");
+        this.states = states;
+        this.advance = advance;
+    }
+
+    /**
+     * Replace the timestamps of the states with the time they are served at.
+     * @param live true to serve the states as new ones
+     */
+    public void setLive(boolean live) {
+        this.live = live;
+    }
+
+    /**
+     * Compress the responses if the client accepts it.
+     * @param gzip true to compress the responses
+     */
+    public void setGzip(boolean gzip) {
+        this.gzip = gzip;
+    }
+
+    /**
+     * Delay each response before its headers are sent.
+     * @param latency the delay, in milliseconds
+     */
+    public void setLatency(long latency) {
+        this.latency = latency;
+    }
+
+    /**
+     * Limit the transfer rate of each response.
+     * @param bytesPerSecond the limit, or 0 for no limit
+     */
+    public void setThrottle(int bytesPerSecond) {
+        this.bytesPerSecond = bytesPerSecond;
+    }
+
+    /**
+     * Cut some of the responses in half. The full length is still announced, so the clients
+     * see the connection closed early.
+     * @param truncateRate the ratio of the truncated responses, between 0 and 1
+     */
+    public void setTruncateRate(double truncateRate) {
+        this.truncateRate = truncateRate;
+    }
+
+    /**
+     * Answer some of the requests with a server error.
+     * @param errorRate the ratio of the failed responses, between 0 and 1
+     */
+    public void setErrorRate(double errorRate) {
+        this.errorRate = errorRate;
+    }
+
+    /**
+     * Set the seed of the injected faults, to repeat the same faults in the same order.
+     * @param seed the seed
+     */
+    public void setSeed(long seed) {
+        synchronized (random) {
+            random.setSeed(seed);
+        }
+    }
+
+    /**
+     * Start serving on the given address. The first state is served from now on.
+     * @param address the address to listen on
+     * @throws IOException if the address cannot be bound
+     */
+    public void start(InetSocketAddress address) throws IOException {
+        startTime = System.currentTimeMillis();
+        server = HttpServer.create(address, 0);
+        server.createContext("/", handler);
+        // the throttled responses keep their threads for long
+        executor = Executors.newCachedThreadPool();
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    /**
+     * Return the address the server listens on, e.g. to find the port chosen when it is
+     * started on port 0.
+     * @return the bound address
+     */
+    public InetSocketAddress getAddress() {
+        return server.getAddress();
+    }
+
+    /**
+     * Stop serving, closing the open connections.
+     */
+    public void stop() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    /**
+     * Return a summary of the responses so far.
+     * @return the counts of the responses, one line
+     */
+    public String getSummary() {
+        return "requests=" + requests.get() + " not_modified=" + notModified.get()
+                + " errors=" + errors.get() + " truncated=" + truncated.get();
+    }
+
+    /**
+     * Read the state files in the given folder, e.g. the cache folder of an archive or a folder
+     * of downloaded feed files. The files may be compressed the way the app caches them.
+     * @param directory the folder to read
+     * @return the plain content of the states, sorted by their file names
+     * @throws IOException if there is an input/output error
+     */
+    public static List<byte[]> loadStates(File directory) throws IOException {
+        File[] files = directory.listFiles(XML_FILE_FILTER);
+        if (files == null) throw new IOException("Cannot list " + directory);
+        Arrays.sort(files);
+
+        List<byte[]> states = new ArrayList<>(files.length);
+        byte[] buffer = new byte[4096];
+        for (File file : files) {
+            try (InputStream inputStream = StateFileCompression.openInputStream(file)) {
+                ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+                int count;
+                while ((count = inputStream.read(buffer)) >= 0) {
+                    outputStream.write(buffer, 0, count);
+                }
+                states.add(outputStream.toByteArray());
+            }
+        }
+        return states;
+    }
+
+    /**
+     * handler of all the requests
+     */
+    private HttpHandler handler = new HttpHandler() {
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            requests.incrementAndGet();
+            try {
+                if (latency > 0) Thread.sleep(latency);
+                respond(exchange);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                exchange.close();
+            }
+        }
+    };
+
+    private void respond(HttpExchange exchange) throws IOException, InterruptedException {
+        double errorRoll;
+        double truncateRoll;
+        synchronized (random) {
+            errorRoll = random.nextDouble();
+            truncateRoll = random.nextDouble();
+        }
+        if (errorRoll < errorRate) {
+            errors.incrementAndGet();
+            exchange.sendResponseHeaders(HttpURLConnection.HTTP_UNAVAILABLE, -1);
+            return;
+        }
+
+        // the state of this moment
+        long step = (System.currentTimeMillis() - startTime) / advance;
+        byte[] body = states.get((int) (step % states.size()));
+        if (live) body = replaceTimestamp(body, startTime + step * advance);
+        String etag = "\"" + (live ? step : step % states.size()) + "\"";
+        long timestamp = getTimestamp(body);
+
+        Headers requestHeaders = exchange.getRequestHeaders();
+        Headers responseHeaders = exchange.getResponseHeaders();
+        responseHeaders.set("Content-Type", "text/xml; charset=utf-8");
+        responseHeaders.set("ETag", etag);
+        if (timestamp > 0) responseHeaders.set("Last-Modified", formatDate(timestamp));
+
+        if (isNotModified(requestHeaders, etag, timestamp)) {
+            notModified.incrementAndGet();
+            exchange.sendResponseHeaders(HttpURLConnection.HTTP_NOT_MODIFIED, -1);
+            return;
+        }
+
+        String acceptEncoding = requestHeaders.getFirst("Accept-Encoding");
+        if (gzip && acceptEncoding != null && acceptEncoding.contains("gzip")) {
+            ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+            try (GZIPOutputStream gzipOutputStream = new GZIPOutputStream(outputStream)) {
+                gzipOutputStream.write(body);
+            }
+            body = outputStream.toByteArray();
+            responseHeaders.set("Content-Encoding", "gzip");
+        }
+
+        int length = body.length;
+        if (truncateRoll < truncateRate) {
+            truncated.incrementAndGet();
+            length = body.length / 2;
+        }
+        exchange.sendResponseHeaders(HttpURLConnection.HTTP_OK, body.length);
+        OutputStream outputStream = exchange.getResponseBody();
+        int chunk = bytesPerSecond > 0 ? Math.max(bytesPerSecond / THROTTLE_STEPS, 1) : length;
+        for (int offset = 0; offset < length; offset += chunk) {
+            outputStream.write(body, offset, Math.min(chunk, length - offset));
+            outputStream.flush();
+            if (bytesPerSecond > 0) Thread.sleep(1000 / THROTTLE_STEPS);
+        }
+        // a truncated response fails to close, which closes the connection as intended
+    }
+
+    private static boolean isNotModified(Headers requestHeaders, String etag, long timestamp) {
+        String ifNoneMatch = requestHeaders.getFirst("If-None-Match");
+        if (ifNoneMatch != null) return ifNoneMatch.equals(etag);
+
+        String ifModifiedSince = requestHeaders.getFirst("If-Modified-Since");
+        if (ifModifiedSince == null || timestamp <= 0) return false;
+        try {
+            // the dates have a resolution of seconds
+            return timestamp / 1000 <= parseDate(ifModifiedSince).getTime() / 1000;
+        } catch (ParseException e) {
+            return false;
+        }
+    }
+
+    private static byte[] replaceTimestamp(byte[] body, long timestamp) {
+        Matcher matcher = TIMESTAMP.matcher(new String(body, CHARSET));
+        return matcher.replaceFirst("<timestamp>" + timestamp + "</timestamp>").getBytes(CHARSET);
+    }
+
+    private static long getTimestamp(byte[] body) {
+        Matcher matcher = TIMESTAMP.matcher(new String(body, CHARSET));
+        return matcher.find() ? Long.parseLong(matcher.group(1)) : 0;
+    }
+
+    private static String formatDate(long timestamp) {
+        return createDateFormat().format(new Date(timestamp));
+    }
+
+    private static Date parseDate(String date) throws ParseException {
+        return createDateFormat().parse(date);
+    }
+
+    /**
+     * Return a new formatter of the HTTP dates, as the formatters are not thread-safe.
+     */
+    private static SimpleDateFormat createDateFormat() {
+        SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("GMT"));
+        return format;
+    }
+
+    /** filter that matches the state files **/
+    private static final FilenameFilter XML_FILE_FILTER = new FilenameFilter() {
+        @Override
+        public boolean accept(File dir, String filename) {
+            return filename.endsWith(".xml");
+        }
+    };
+}
@@ -0,0 +1,50 @@
+/*
+ * DSN Monitor is an app to monitor the NASA Deep Space Network in real time.
+ * Copyright (c) 2016 Kaan Karaagacli
+ *
+ * This file is part of DSN Monitor.
+ *
+ * DSN Monitor is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DSN Monitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DSN Monitor.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package me.aeolwyr.dsnnow.logic;
+
+/**
+ * Replacement of the trace sections of the app for the archiver, as the system traces
+ * are only available on Android. Every function does nothing.
+ */
+public class Tracer {
+    /** true if the trace sections are recorded **/
+    public static final boolean ENABLED = false;
+
+    // section names, the same as the ones of the app
+    public static final String DOWNLOAD = "download";
+    public static final String BUFFER_FILL = "buffer fill";
+    public static final String PARSE = "StateParser.parse";
+    public static final String PARSE_DETAILS = "StateParser.loadDetails";
+    public static final String CACHE_WRITE = "cache write";
+    public static final String RETENTION = "HistoryCompactor.compact";
+    public static final String SET_NETWORK_STATE = "setNetworkState";
+    public static final String BIND_GROUP = "bind group";
+    public static final String BIND_CHILD = "bind child";
+    public static final String POLL = "poll";
+
+    public static void begin(String name) { }
+
+    public static void end() { }
+
+    public static void beginAsync(String name, int cookie) { }
+
+    public static void endAsync(String name, int cookie) { }
+}
@@ -0,0 +1,155 @@
+/*
+ * DSN Monitor is an app to monitor the NASA Deep Space Network in real time.
+ * Copyright (c) 2016 Kaan Karaagacli
+ *
+ * This file is part of DSN Monitor.
+ *
+ * DSN Monitor is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DSN Monitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DSN Monitor.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package me.aeolwyr.dsnnow.archiver;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import me.aeolwyr.dsnnow.logic.StateDownloader;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+public class StateDownloaderTest {
+    private static final Charset CHARSET = Charset.forName("UTF-8");
+    private static final String FIRST = "<dsn><timestamp>1476000000000</timestamp></dsn>";
+    private static final String SECOND = "<dsn><timestamp>1476000005000</timestamp></dsn>";
+    /** long enough for the state not to change during a test **/
+    private static final long FOREVER = 60 * 60 * 1000;
+
+    private MockFeedServer server;
+
+    @After
+    public void tearDown() {
+        if (server != null) server.stop();
+    }
+
+    @Test
+    public void conditionalAfterCommit() throws IOException {
+        StateDownloader downloader = start(Collections.singletonList(bytes(FIRST)), FOREVER);
+        assertEquals(FIRST, text(downloader.download()));
+        // not committed, e.g. the state could not be parsed, so it is downloaded again
+        assertEquals(FIRST, text(downloader.download()));
+
+        downloader.commit();
+        assertNull(downloader.download());
+        assertNull(downloader.download());
+    }
+
+    @Test
+    public void downloadChangedState() throws Exception {
+        long advance = 500;
+        StateDownloader downloader = start(Arrays.asList(bytes(FIRST), bytes(SECOND)), advance);
+        assertEquals(FIRST, text(downloader.download()));
+        downloader.commit();
+
+        Thread.sleep(advance + advance / 2);
+        assertEquals(SECOND, text(downloader.download()));
+    }
+
+    @Test
+    public void decompressResponse() throws IOException {
+        server = new MockFeedServer(Collections.singletonList(bytes(FIRST)), FOREVER);
+        server.setGzip(true);
+        StateDownloader downloader = start(server);
+        assertEquals(FIRST, text(downloader.download()));
+    }
+
+    @Test
+    public void keepValidatorsOnError() throws IOException {
+        server = new MockFeedServer(Collections.singletonList(bytes(FIRST)), FOREVER);
+        StateDownloader downloader = start(server);
+        assertEquals(FIRST, text(downloader.download()));
+        downloader.commit();
+
+        server.setErrorRate(1);
+        assertFails(downloader);
+        server.setErrorRate(0);
+        assertNull(downloader.download());
+    }
+
+    @Test
+    public void rejectTruncated() throws IOException {
+        server = new MockFeedServer(Collections.singletonList(bytes(FIRST)), FOREVER);
+        server.setTruncateRate(1);
+        StateDownloader downloader = start(server);
+        assertFails(downloader);
+
+        // nothing is committed, the state is downloaded once it is sent completely
+        downloader.commit();
+        server.setTruncateRate(0);
+        assertEquals(FIRST, text(downloader.download()));
+    }
+
+    @Test
+    public void rejectTruncatedCompressed() throws IOException {
+        server = new MockFeedServer(Collections.singletonList(bytes(FIRST)), FOREVER);
+        server.setGzip(true);
+        server.setTruncateRate(1);
+        assertFails(start(server));
+    }
+
+    @Test
+    public void rejectTooLarge() throws IOException {
+        char[] padding = new char[StateDownloader.MAX_FILE_SIZE];
+        Arrays.fill(padding, ' ');
+        String large = "<dsn>" + new String(padding) + "</dsn>";
+        StateDownloader downloader = start(Collections.singletonList(bytes(large)), FOREVER);
+        assertFails(downloader);
+    }
+
+    private StateDownloader start(List<byte[]> states, long advance) throws IOException {
+        server = new MockFeedServer(states, advance);
+        return start(server);
+    }
+
+    private static StateDownloader start(MockFeedServer server) throws IOException {
+        server.start(new InetSocketAddress("127.0.0.1", 0));
+        return new StateDownloader("http://127.0.0.1:" + server.getAddress().getPort() + "/");
+    }
+
+    private static void assertFails(StateDownloader downloader) {
+        try {
+            downloader.download();
+            fail();
+        } catch (IOException expected) {
+            // the download is rejected
+        }
+    }
+
+    private static byte[] bytes(String text) {
+        return text.getBytes(CHARSET);
+    }
+
+    private static String text(ByteBuffer byteBuffer) {
+        return new String(byteBuffer.array(), 0, byteBuffer.position(), CHARSET);
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ * DSN Monitor is an app to monitor the NASA Deep Space Network in real time.
+ * Copyright (c) 2016 Kaan Karaagacli
+ *
+ * This file is part of DSN Monitor.
+ *
+ * DSN Monitor is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DSN Monitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DSN Monitor.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package me.aeolwyr.dsnnow.logic;
+
+import org.junit.Test;
+
+import java.text.ParseException;
+import java.util.List;
+
+import me.aeolwyr.dsnnow.data.NetworkConfig;
+import me.aeolwyr.dsnnow.data.NetworkState;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class AlertRuleTest {
+    private final NetworkConfig config = TestStates.createConfig();
+    /** DSS14 at 123.45 degrees azimuth, 25 degrees elevation and 5 km/h wind **/
+    private final NetworkState networkState = TestStates.create(1000, 12345, 500, 160000000);
+
+    @Test
+    public void compileRule() throws ParseException {
+        AlertRule rule = AlertRule.compile("spacecraft = \"Voyager 1\" and dish = DSS-14", config);
+        assertEquals("VGR1", rule.getSpacecraft());
+        assertEquals("DSS14", rule.getDish());
+        assertTrue(rule.isPerSpacecraft());
+        assertTrue(matches(rule, "DSS14", "VGR1"));
+
+        rule = AlertRule.compile("dish != dss24 and array", config);
+        assertNull(rule.getDish());
+        assertFalse(rule.isPerSpacecraft());
+        assertFalse(matches(rule, "DSS14", null));
+        assertTrue(matches(AlertRule.compile("station = goldstone and mspa = false", config),
+                "DSS14", null));
+        assertTrue(matches(AlertRule.compile("type = 70m", config), "DSS14", null));
+        assertFalse(matches(AlertRule.compile("type = 70m", config), "DSS24", null));
+    }
+
+    @Test
+    public void compileUnits() throws ParseException {
+        // the default units
+        assertTrue(matches(AlertRule.compile("wind = 5", config), "DSS14", null));
+        assertTrue(matches(AlertRule.compile("azimuth > 123.4", config), "DSS14", null));
+        assertFalse(matches(AlertRule.compile("elevation < 25", config), "DSS14", null));
+        assertTrue(matches(AlertRule.compile("downrate = 160", config), "DSS14", "VGR1"));
+
+        // the units with or without a space
+        assertTrue(matches(AlertRule.compile("wind < 1.5m/s", config), "DSS14", null));
+        assertFalse(matches(AlertRule.compile("wind < 1 m/s", config), "DSS14", null));
+        assertTrue(matches(AlertRule.compile("downrate < 0.2 kb/s", config), "DSS14", "VGR1"));
+        assertTrue(matches(AlertRule.compile("downrate = 20B/s", config), "DSS14", "VGR1"));
+        assertTrue(matches(AlertRule.compile("range > 150 AU and range < 170 AU", config),
+                "DSS14", "VGR1"));
+        assertTrue(matches(AlertRule.compile("rtlt > 44h and rtlt < 2700 min", config),
+                "DSS14", "VGR1"));
+        assertTrue(matches(AlertRule.compile("uppower = 18 kW and uplink", config),
+                "DSS14", "VGR1"));
+    }
+
+    @Test
+    public void missingValuesNeverMatch() throws ParseException {
+        // there is no downlink to a spacecraft that is not tracked
+        assertFalse(matches(AlertRule.compile("downrate >= 0", config), "DSS14", "VGR2"));
+        assertFalse(matches(AlertRule.compile("downrate < 1000000", config), "DSS14", "VGR2"));
+    }
+
+    @Test
+    public void compileErrors() {
+        assertError("", 0);
+        assertError("speed > 5", 0);
+        assertError("wind 5", 5);
+        assertError("wind >", 6);
+        assertError("wind > fast", 7);
+        assertError("wind > 5 knots", 9);
+        assertError("wind > 5kn", 7);
+        assertError("dish > DSS14", 5);
+        assertError("array = maybe", 8);
+        assertError("array or mspa", 6);
+    }
+
+    @Test
+    public void compileAllLines() throws ParseException {
+        List<AlertRule> rules = AlertRule.compileAll(
+                "# comment\n\nwind > 50\n  elevation < 10  \n", config);
+        assertEquals(2, rules.size());
+        assertEquals("wind > 50", rules.get(0).getSource());
+        assertEquals("elevation < 10", rules.get(1).getSource());
+
+        try {
+            AlertRule.compileAll("wind > 50\n# comment\nwind > 50 mph and\n", config);
+            fail();
+        } catch (ParseException e) {
+            // the offset is the line number
+            assertEquals(2, e.getErrorOffset());
+        }
+    }
+
+    private boolean matches(AlertRule rule, String dish, String spacecraft) {
+        AlertRule.Binding binding = AlertRule.Binding.of(networkState.getDishStates().get(dish),
+                AlertRule.getDishType(config, dish),
+                networkState.getStationStates().get("gdscc"), spacecraft);
+        return rule.matches(binding);
+    }
+
+    private void assertError(String source, int offset) {
+        try {
+            AlertRule.compile(source, config);
+            fail("compiled " + source);
+        } catch (ParseException e) {
+            assertEquals(source, offset, e.getErrorOffset());
+        }
+    }
+}
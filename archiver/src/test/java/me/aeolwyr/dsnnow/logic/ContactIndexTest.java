@@ -0,0 +1,106 @@
+/*
+ * DSN Monitor is an app to monitor the NASA Deep Space Network in real time.
+ * Copyright (c) 2016 Kaan Karaagacli
+ *
+ * This file is part of DSN Monitor.
+ *
+ * DSN Monitor is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DSN Monitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DSN Monitor.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package me.aeolwyr.dsnnow.logic;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ContactIndexTest {
+    private static final long MINUTE = 60 * 1000;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File directory;
+
+    @Before
+    public void setUp() {
+        directory = new File(folder.getRoot(), ContactIndex.DIRECTORY_NAME);
+    }
+
+    @Test
+    public void endAfterGap() throws IOException {
+        ContactIndex index = new ContactIndex(directory);
+        index.onCapture(TestStates.create(MINUTE, 0, 0, 0));
+        index.onCapture(TestStates.create(3 * MINUTE, 0, 0, 0));
+        index.onCapture(TestStates.createIdle(4 * MINUTE));
+
+        List<Contact> contacts = index.query("VGR1", 0, Long.MAX_VALUE);
+        assertEquals(1, contacts.size());
+        assertTrue(contacts.get(0).isOngoing());
+
+        // not seen for longer than the gap allowed
+        index.onCapture(TestStates.createIdle(20 * MINUTE));
+        contacts = index.query("VGR1", 0, Long.MAX_VALUE);
+        assertEquals(1, contacts.size());
+        assertFalse(contacts.get(0).isOngoing());
+        assertEquals(MINUTE, contacts.get(0).getStart());
+        assertEquals(3 * MINUTE, contacts.get(0).getEnd());
+        assertEquals("DSS14", contacts.get(0).getDish());
+        assertEquals(Arrays.asList("VGR1"), index.getSpacecraft());
+    }
+
+    @Test
+    public void dropBrokenTail() throws IOException {
+        ContactIndex index = new ContactIndex(directory);
+        long timestamp = MINUTE;
+        for (int i = 0; i < 3; i++) {
+            // a contact of a few minutes, followed by a long gap
+            index.onCapture(TestStates.create(timestamp, 0, 0, 0));
+            index.onCapture(TestStates.create(timestamp + 2 * MINUTE, 0, 0, 0));
+            index.onCapture(TestStates.createIdle(timestamp + 30 * MINUTE));
+            timestamp += 60 * MINUTE;
+        }
+        index.flush();
+        File endedFile = new File(directory, "ended.dat");
+        long endedSize = endedFile.length();
+
+        // a crash in the middle of a contact
+        TimeSeriesStoreTest.append(endedFile, new byte[] {0, 4, 'V', 'G', 'R'});
+
+        index = new ContactIndex(directory);
+        assertEquals(3, index.query("VGR1", 0, Long.MAX_VALUE).size());
+        assertEquals(endedSize, endedFile.length());
+
+        // the next contacts are appended after the last whole one
+        index.onCapture(TestStates.create(timestamp, 0, 0, 0));
+        index.onCapture(TestStates.createIdle(timestamp + 30 * MINUTE));
+        index.flush();
+        index = new ContactIndex(directory);
+        List<Contact> contacts = index.query("VGR1", 0, Long.MAX_VALUE);
+        assertEquals(4, contacts.size());
+        // the newest first
+        assertEquals(timestamp, contacts.get(0).getStart());
+        assertEquals(MINUTE, contacts.get(3).getStart());
+    }
+}
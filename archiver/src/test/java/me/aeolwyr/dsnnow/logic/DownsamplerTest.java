@@ -0,0 +1,98 @@
+/*
+ * DSN Monitor is an app to monitor the NASA Deep Space Network in real time.
+ * Copyright (c) 2016 Kaan Karaagacli
+ *
+ * This file is part of DSN Monitor.
+ *
+ * DSN Monitor is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DSN Monitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DSN Monitor.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package me.aeolwyr.dsnnow.logic;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class DownsamplerTest {
+    @Test
+    public void keepShortRange() {
+        long[] x = {0, 1, 2, 3, 4, 5};
+        double[] y = {0, 1, 0, 1, 0, 1};
+        assertArrayEquals(new int[] {1, 2, 3, 4},
+                Downsampler.largestTriangleThreeBuckets(x, y, 1, 5, 4));
+        assertArrayEquals(new int[0], Downsampler.largestTriangleThreeBuckets(x, y, 3, 3, 4));
+    }
+
+    @Test
+    public void keepEnds() {
+        int length = 1000;
+        long[] x = new long[length];
+        double[] y = new double[length];
+        for (int i = 0; i < length; i++) {
+            x[i] = 1476000000000L + i * 5000L;
+            y[i] = Math.sin(i / 20.0);
+        }
+        int[] indices = Downsampler.largestTriangleThreeBuckets(x, y, 0, length, 50);
+
+        assertEquals(50, indices.length);
+        assertEquals(0, indices[0]);
+        assertEquals(length - 1, indices[indices.length - 1]);
+        for (int i = 1; i < indices.length; i++) {
+            assertTrue(indices[i] > indices[i - 1]);
+        }
+    }
+
+    @Test
+    public void keepPeaks() {
+        int length = 300;
+        long[] x = new long[length];
+        double[] y = new double[length];
+        for (int i = 0; i < length; i++) {
+            x[i] = i;
+        }
+        // a flat series with a single spike and a single dip, which averaging would lose
+        y[77] = 100;
+        y[211] = -100;
+        int[] indices = Downsampler.largestTriangleThreeBuckets(x, y, 0, length, 10);
+
+        assertTrue(contains(indices, 77));
+        assertTrue(contains(indices, 211));
+    }
+
+    @Test
+    public void keepWithinRange() {
+        int length = 100;
+        long[] x = new long[length];
+        double[] y = new double[length];
+        for (int i = 0; i < length; i++) {
+            x[i] = i;
+            y[i] = i % 7;
+        }
+        int[] indices = Downsampler.largestTriangleThreeBuckets(x, y, 20, 80, 12);
+
+        assertEquals(12, indices.length);
+        assertEquals(20, indices[0]);
+        assertEquals(79, indices[indices.length - 1]);
+    }
+
+    private static boolean contains(int[] array, int value) {
+        for (int element : array) {
+            if (element == value) return true;
+        }
+        return false;
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ * DSN Monitor is an app to monitor the NASA Deep Space Network in real time.
+ * Copyright (c) 2016 Kaan Karaagacli
+ *
+ * This file is part of DSN Monitor.
+ *
+ * DSN Monitor is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DSN Monitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DSN Monitor.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package me.aeolwyr.dsnnow.logic;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+
+import me.aeolwyr.dsnnow.data.NetworkState;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class HistoryLogTest {
+    /** more than two keyframe intervals, so that the states span several keyframes **/
+    private static final int COUNT = 150;
+    /** the states from this one on have another structure, which starts a new keyframe **/
+    private static final int IDLE_FROM = 100;
+    private static final int IDLE_UNTIL = 110;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File directory;
+    private NetworkState[] states = new NetworkState[COUNT];
+
+    @Before
+    public void setUp() throws IOException {
+        directory = new File(folder.getRoot(), HistoryLog.DIRECTORY_NAME);
+        HistoryLog historyLog = new HistoryLog(directory);
+        for (int i = 0; i < COUNT; i++) {
+            long timestamp = 1000000 + i * 5000;
+            states[i] = i >= IDLE_FROM && i < IDLE_UNTIL
+                    ? TestStates.createIdle(timestamp)
+                    // only some of the values change from one state to the next
+                    : TestStates.create(timestamp, 10000 + i * 7, 500 + i % 3, 160000000 + i);
+            historyLog.append(states[i]);
+        }
+        historyLog.sync();
+    }
+
+    @Test
+    public void readInOrder() throws IOException {
+        HistoryLog historyLog = new HistoryLog(directory);
+        assertEquals(COUNT, historyLog.getTimestamps().length);
+        for (NetworkState networkState : states) {
+            assertStateEquals(networkState, historyLog.read(networkState.getTimestamp()));
+        }
+    }
+
+    @Test
+    public void readOutOfOrder() throws IOException {
+        HistoryLog historyLog = new HistoryLog(directory);
+        // backwards, and jumping over the keyframes
+        for (int i = COUNT - 1; i >= 0; i -= 13) {
+            assertStateEquals(states[i], historyLog.read(states[i].getTimestamp()));
+        }
+        assertStateEquals(states[IDLE_FROM], historyLog.read(states[IDLE_FROM].getTimestamp()));
+        assertStateEquals(states[IDLE_UNTIL], historyLog.read(states[IDLE_UNTIL].getTimestamp()));
+        assertStateEquals(states[1], historyLog.read(states[1].getTimestamp()));
+    }
+
+    @Test
+    public void readWithCursors() throws IOException {
+        HistoryLog historyLog = new HistoryLog(directory);
+        HistoryLog.Cursor forward = historyLog.newCursor();
+        HistoryLog.Cursor backward = historyLog.newCursor();
+        for (int i = 0; i < COUNT; i++) {
+            NetworkState last = states[COUNT - 1 - i];
+            assertStateEquals(states[i], forward.read(states[i].getTimestamp()));
+            assertStateEquals(last, backward.read(last.getTimestamp()));
+        }
+    }
+
+    @Test
+    public void readMissing() throws IOException {
+        HistoryLog historyLog = new HistoryLog(directory);
+        assertNull(historyLog.read(states[0].getTimestamp() + 1));
+        assertFalse(historyLog.contains(states[0].getTimestamp() + 1));
+        assertTrue(historyLog.contains(states[0].getTimestamp()));
+    }
+
+    @Test
+    public void ignoreOlderStates() throws IOException {
+        HistoryLog historyLog = new HistoryLog(directory);
+        historyLog.append(TestStates.create(states[0].getTimestamp() - 1, 0, 0, 0));
+        historyLog.append(TestStates.create(states[COUNT - 1].getTimestamp(), 0, 0, 0));
+        assertEquals(COUNT, historyLog.getTimestamps().length);
+    }
+
+    @Test
+    public void appendAfterReopen() throws IOException {
+        HistoryLog historyLog = new HistoryLog(directory);
+        NetworkState next = TestStates.create(states[COUNT - 1].getTimestamp() + 5000, 1, 2, 3);
+        historyLog.append(next);
+        historyLog.sync();
+
+        historyLog = new HistoryLog(directory);
+        assertEquals(COUNT + 1, historyLog.getTimestamps().length);
+        assertStateEquals(next, historyLog.read(next.getTimestamp()));
+        assertStateEquals(states[COUNT - 1], historyLog.read(states[COUNT - 1].getTimestamp()));
+    }
+
+    private static void assertStateEquals(NetworkState expected, NetworkState actual)
+            throws IOException {
+        assertEquals(expected.getTimestamp(), actual.getTimestamp());
+        assertArrayEquals(StateCodecTest.encode(expected), StateCodecTest.encode(actual));
+    }
+}
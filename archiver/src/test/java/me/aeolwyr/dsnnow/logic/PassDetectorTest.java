@@ -0,0 +1,110 @@
+/*
+ * DSN Monitor is an app to monitor the NASA Deep Space Network in real time.
+ * Copyright (c) 2016 Kaan Karaagacli
+ *
+ * This file is part of DSN Monitor.
+ *
+ * DSN Monitor is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DSN Monitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DSN Monitor.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package me.aeolwyr.dsnnow.logic;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class PassDetectorTest {
+    private static final long MINUTE = 60 * 1000;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File directory;
+    /** recent enough not to be expired **/
+    private long start;
+
+    @Before
+    public void setUp() {
+        directory = new File(folder.getRoot(), PassDetector.DIRECTORY_NAME);
+        start = System.currentTimeMillis() - 24 * 60 * MINUTE;
+    }
+
+    @Test
+    public void detectEvents() throws IOException {
+        PassDetector passDetector = new PassDetector(directory);
+        final List<PassEvent> notified = new ArrayList<>();
+        passDetector.addListener(new PassDetector.Listener() {
+            @Override
+            public void onPassEvent(PassEvent event) {
+                notified.add(event);
+            }
+        });
+        passDetector.onCapture(TestStates.create(start, 0, 0, 100));
+        // only the data rate changes
+        passDetector.onCapture(TestStates.create(start + MINUTE, 10, 0, 200));
+        passDetector.onCapture(TestStates.create(start + 2 * MINUTE, 20, 0, 200));
+        passDetector.onCapture(TestStates.createIdle(start + 3 * MINUTE));
+
+        List<PassEvent> events = passDetector.query("VGR1", null, 0, Long.MAX_VALUE);
+        assertEquals(3, events.size());
+        // the newest first
+        assertEquals(PassEvent.LOSS, events.get(0).getType());
+        assertEquals(start + 2 * MINUTE, events.get(0).getTimestamp());
+        assertEquals(PassEvent.DATA_RATE_CHANGE, events.get(1).getType());
+        assertEquals(200, events.get(1).getValue());
+        assertEquals(PassEvent.ACQUISITION, events.get(2).getType());
+        assertEquals("DSS14", events.get(2).getDish());
+        assertEquals(3, notified.size());
+        assertEquals(PassEvent.ACQUISITION, notified.get(0).getType());
+    }
+
+    @Test
+    public void dropBrokenTail() throws IOException {
+        PassDetector passDetector = new PassDetector(directory);
+        long timestamp = start;
+        for (int i = 0; i < 3; i++) {
+            passDetector.onCapture(TestStates.create(timestamp, 0, 0, 100));
+            passDetector.onCapture(TestStates.createIdle(timestamp + MINUTE));
+            timestamp += 10 * MINUTE;
+        }
+        passDetector.flush();
+        File eventsFile = new File(directory, "events.dat");
+        long eventsSize = eventsFile.length();
+
+        // a crash in the middle of an event
+        TimeSeriesStoreTest.append(eventsFile, new byte[] {PassEvent.ACQUISITION, 0, 0, 0});
+
+        passDetector = new PassDetector(directory);
+        assertEquals(6, passDetector.query(null, null, 0, Long.MAX_VALUE).size());
+        assertEquals(eventsSize, eventsFile.length());
+
+        // the next events are appended after the last whole one
+        passDetector.onCapture(TestStates.create(timestamp, 0, 0, 100));
+        passDetector.flush();
+        passDetector = new PassDetector(directory);
+        List<PassEvent> events = passDetector.query(null, "DSS14", 0, Long.MAX_VALUE);
+        assertEquals(7, events.size());
+        assertEquals(PassEvent.ACQUISITION, events.get(0).getType());
+        assertEquals(timestamp, events.get(0).getTimestamp());
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * DSN Monitor is an app to monitor the NASA Deep Space Network in real time.
+ * Copyright (c) 2016 Kaan Karaagacli
+ *
+ * This file is part of DSN Monitor.
+ *
+ * DSN Monitor is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DSN Monitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DSN Monitor.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package me.aeolwyr.dsnnow.logic;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class RetentionPolicyTest {
+    private static final long SECOND = 1000;
+    private static final long MINUTE = 60 * SECOND;
+    private static final long HOUR = 60 * MINUTE;
+    private static final long DAY = 24 * HOUR;
+    /** a round time, so that the buckets are easy to tell **/
+    private static final long NOW = 1000 * DAY;
+
+    @Test
+    public void keepRecentStates() {
+        long[] timestamps = {NOW - 50 * MINUTE, NOW - 50 * MINUTE + 5 * SECOND, NOW - SECOND};
+        boolean[] keep = new RetentionPolicy(Long.MAX_VALUE)
+                .select(timestamps, sizes(timestamps.length, 1), NOW);
+        assertArrayEquals(new boolean[] {true, true, true}, keep);
+    }
+
+    @Test
+    public void keepOnePerMinute() {
+        // three states in the same minute, two hours ago, and one in the next minute
+        long minute = NOW - 2 * HOUR;
+        long[] timestamps = {minute, minute + 20 * SECOND, minute + 40 * SECOND,
+                minute + MINUTE};
+        boolean[] keep = new RetentionPolicy(Long.MAX_VALUE)
+                .select(timestamps, sizes(timestamps.length, 1), NOW);
+        // the newest state of each minute is kept
+        assertArrayEquals(new boolean[] {false, false, true, true}, keep);
+    }
+
+    @Test
+    public void keepOnePerHour() {
+        // two states in the same hour, two days ago, and one in the next hour
+        long hour = NOW - 2 * DAY;
+        long[] timestamps = {hour + MINUTE, hour + 30 * MINUTE, hour + HOUR + MINUTE};
+        boolean[] keep = new RetentionPolicy(Long.MAX_VALUE)
+                .select(timestamps, sizes(timestamps.length, 1), NOW);
+        assertArrayEquals(new boolean[] {false, true, true}, keep);
+    }
+
+    @Test
+    public void keepTiersSeparate() {
+        // the same hour holds states of both tiers, around the one day boundary
+        long boundary = NOW - DAY;
+        long[] timestamps = {boundary - 2 * MINUTE, boundary - MINUTE, boundary + MINUTE,
+                boundary + 2 * MINUTE};
+        boolean[] keep = new RetentionPolicy(Long.MAX_VALUE)
+                .select(timestamps, sizes(timestamps.length, 1), NOW);
+        assertArrayEquals(new boolean[] {false, true, true, true}, keep);
+    }
+
+    @Test
+    public void dropOldestOverBudget() {
+        long[] timestamps = new long[10];
+        for (int i = 0; i < timestamps.length; i++) {
+            timestamps[i] = NOW - (timestamps.length - i) * MINUTE / 10;
+        }
+        boolean[] keep = new RetentionPolicy(35)
+                .select(timestamps, sizes(timestamps.length, 10), NOW);
+        // only the newest three fit
+        for (int i = 0; i < timestamps.length; i++) {
+            assertEquals(i >= 7, keep[i]);
+        }
+    }
+
+    @Test
+    public void dropAllOlderThanOverflow() {
+        long[] timestamps = {NOW - 3 * MINUTE, NOW - 2 * MINUTE, NOW - MINUTE};
+        long[] sizes = {1, 100, 1};
+        boolean[] keep = new RetentionPolicy(50).select(timestamps, sizes, NOW);
+        // the oldest state would fit, but the history is not left with a hole
+        assertTrue(keep[2]);
+        assertFalse(keep[1]);
+        assertFalse(keep[0]);
+    }
+
+    @Test
+    public void selectNothing() {
+        assertEquals(0, new RetentionPolicy(0).select(new long[0], new long[0], NOW).length);
+    }
+
+    private static long[] sizes(int count, long size) {
+        long[] sizes = new long[count];
+        Arrays.fill(sizes, size);
+        return sizes;
+    }
+}
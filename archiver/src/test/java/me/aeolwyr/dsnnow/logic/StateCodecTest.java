@@ -0,0 +1,119 @@
+/*
+ * DSN Monitor is an app to monitor the NASA Deep Space Network in real time.
+ * Copyright (c) 2016 Kaan Karaagacli
+ *
+ * This file is part of DSN Monitor.
+ *
+ * DSN Monitor is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DSN Monitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DSN Monitor.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package me.aeolwyr.dsnnow.logic;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+
+import me.aeolwyr.dsnnow.data.DishState;
+import me.aeolwyr.dsnnow.data.NetworkState;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class StateCodecTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void roundTrip() throws IOException {
+        NetworkState networkState = TestStates.create(1000, 12345, 500, 160000000);
+        NetworkState decoded = decode(encode(networkState));
+
+        assertEquals(1000, decoded.getTimestamp());
+        assertTrue(StateValues.sameStructure(networkState, decoded));
+        assertArrayEquals(StateValues.extract(networkState), StateValues.extract(decoded));
+        assertArrayEquals(encode(networkState), encode(decoded));
+
+        DishState dishState = decoded.getDishStates().get("DSS14");
+        assertEquals("VGR1", dishState.getDownSignals().get(0).getSpacecraft());
+        assertEquals("IN LOCK OFF 1 MCD3", dishState.getDownSignals().get(0).getSignalTypeDebug());
+        assertEquals(160000000000L, dishState.getTargets().get(0).getRTLT());
+        assertEquals("Goldstone", decoded.getStationStates().get("gdscc").getFriendlyName());
+    }
+
+    @Test
+    public void roundTripFile() throws IOException {
+        NetworkState networkState = TestStates.createIdle(2000);
+        File file = new File(folder.getRoot(), CaptureWriter.LAST_STATE_FILENAME);
+        StateCodec.writeFile(networkState, file);
+
+        assertArrayEquals(encode(networkState), encode(StateCodec.readFile(file)));
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectUnknownFormat() throws IOException {
+        decode(new byte[] {'<', 'd', 's', 'n', '>', 0, 0, 0, 0, 0, 0, 0});
+    }
+
+    @Test
+    public void nullStrings() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream output = new DataOutputStream(bytes);
+        StateCodec.writeString(output, null);
+        StateCodec.writeString(output, "");
+        StateCodec.writeString(output, "DSS14");
+
+        DataInputStream input = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+        assertNull(StateCodec.readString(input));
+        assertEquals("", StateCodec.readString(input));
+        assertEquals("DSS14", StateCodec.readString(input));
+    }
+
+    @Test
+    public void rebuildValues() {
+        NetworkState template = TestStates.create(1000, 12345, 500, 160000000);
+        NetworkState changed = TestStates.create(3000, 12400, 700, 40000000);
+        assertTrue(StateValues.sameStructure(template, changed));
+        assertFalse(StateValues.sameStructure(template, TestStates.createIdle(3000)));
+
+        long[] values = StateValues.extract(changed);
+        assertEquals(StateValues.count(changed), values.length);
+        NetworkState rebuilt = StateValues.rebuild(template, values, 3000);
+        assertEquals(3000, rebuilt.getTimestamp());
+        assertArrayEquals(values, StateValues.extract(rebuilt));
+        assertEquals(12400, rebuilt.getDishStates().get("DSS14").getAzimuthAngle());
+        assertEquals(40000000, rebuilt.getDishStates().get("DSS14").getDownSignals().get(0)
+                .getDataRate());
+    }
+
+    static byte[] encode(NetworkState networkState) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        StateCodec.write(networkState, new DataOutputStream(bytes));
+        return bytes.toByteArray();
+    }
+
+    private static NetworkState decode(byte[] bytes) throws IOException {
+        return StateCodec.read(new DataInputStream(new ByteArrayInputStream(bytes)));
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * DSN Monitor is an app to monitor the NASA Deep Space Network in real time.
+ * Copyright (c) 2016 Kaan Karaagacli
+ *
+ * This file is part of DSN Monitor.
+ *
+ * DSN Monitor is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DSN Monitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DSN Monitor.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package me.aeolwyr.dsnnow.logic;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class StateFileCompressionTest {
+    private static final Charset CHARSET = Charset.forName("UTF-8");
+    private static final String CONTENT = "<?xml version='1.0' encoding='utf-8'?>\n<dsn>\n"
+            + "<station friendlyName=\"Goldstone\" name=\"gdscc\" timeUTC=\"1476000000000\" "
+            + "timeZoneOffset=\"-25200000\" />\n"
+            + "<dish azimuthAngle=\"123.45\" elevationAngle=\"25.00\" isArray=\"false\" "
+            + "isDDOR=\"false\" isMSPA=\"false\" name=\"DSS14\" windSpeed=\"5.00\" "
+            + "created=\"\" updated=\"\">\n"
+            + "<downSignal active=\"true\" dataRate=\"160.0\" frequency=\"8420000000\" "
+            + "power=\"-155.0\" signalType=\"data\" signalTypeDebug=\"IN LOCK OFF 1 MCD3\" "
+            + "spacecraft=\"VGR1\" spacecraftId=\"-31\" />\n"
+            + "</dish>\n<timestamp>1476000000000</timestamp>\n</dsn>\n";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void roundTrip() throws IOException {
+        byte[] data = CONTENT.getBytes(CHARSET);
+        byte[] compressed = compress(data, 0, data.length);
+
+        assertTrue(StateFileCompression.isCompressed(compressed, compressed.length));
+        assertTrue(compressed.length < data.length / 2);
+        assertArrayEquals(data, StateFileCompression.decompress(compressed, compressed.length));
+    }
+
+    @Test
+    public void roundTripPartOfBuffer() throws IOException {
+        byte[] data = ("padding" + CONTENT + "padding").getBytes(CHARSET);
+        byte[] compressed = compress(data, 7, data.length - 14);
+
+        assertArrayEquals(CONTENT.getBytes(CHARSET),
+                StateFileCompression.decompress(compressed, compressed.length));
+    }
+
+    @Test
+    public void roundTripFile() throws IOException {
+        byte[] data = CONTENT.getBytes(CHARSET);
+        File file = folder.newFile("1476000000000.xml");
+        StateFileCompression.write(data, 0, data.length, file);
+
+        assertArrayEquals(data, readFully(StateFileCompression.openInputStream(file)));
+        assertFalse(FileUtils.getTempFile(file).exists());
+    }
+
+    @Test
+    public void readPlainFile() throws IOException {
+        byte[] data = CONTENT.getBytes(CHARSET);
+        File file = folder.newFile("1476000000000.xml");
+        // the files cached by the older versions are plain
+        try (OutputStream outputStream = new FileOutputStream(file)) {
+            outputStream.write(data);
+        }
+        assertFalse(StateFileCompression.isCompressed(data, data.length));
+        assertArrayEquals(data, readFully(StateFileCompression.openInputStream(file)));
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectTruncated() throws IOException {
+        byte[] data = CONTENT.getBytes(CHARSET);
+        byte[] compressed = compress(data, 0, data.length);
+        StateFileCompression.decompress(Arrays.copyOf(compressed, compressed.length / 2),
+                compressed.length / 2);
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectPlain() throws IOException {
+        byte[] data = CONTENT.getBytes(CHARSET);
+        StateFileCompression.decompress(data, data.length);
+    }
+
+    private static byte[] compress(byte[] data, int offset, int length) throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        StateFileCompression.write(data, offset, length, outputStream);
+        return outputStream.toByteArray();
+    }
+
+    private static byte[] readFully(InputStream inputStream) throws IOException {
+        try (InputStream input = inputStream) {
+            ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int count;
+            while ((count = input.read(buffer)) != -1) {
+                outputStream.write(buffer, 0, count);
+            }
+            return outputStream.toByteArray();
+        }
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ * DSN Monitor is an app to monitor the NASA Deep Space Network in real time.
+ * Copyright (c) 2016 Kaan Karaagacli
+ *
+ * This file is part of DSN Monitor.
+ *
+ * DSN Monitor is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DSN Monitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DSN Monitor.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+
+package me.aeolwyr.dsnnow.logic;
+
+import org.junit.Test;
+import org.xmlpull.v1.XmlPullParserException;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+import me.aeolwyr.dsnnow.data.DishState;
+import me.aeolwyr.dsnnow.data.NetworkConfig;
+import me.aeolwyr.dsnnow.data.NetworkState;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class StateParserTest {
+    private static final String SAMPLE = "<?xml version='1.0' encoding='utf-8'?>\n"
+            + "<dsn>\n"
+            + "<station friendlyName=\"Goldstone\" name=\"gdscc\" timeUTC=\"1\""
+            + " timeZoneOffset=\"-28800000\" />\n"
+            + "<dish azimuthAngle=\"120.5\" elevationAngle=\"30.25\" isArray=\"false\""
+            + " isDDOR=\"false\" isMSPA=\"true\" name=\"DSS14\" windSpeed=\"5.5\""
+            + " created=\"\" updated=\"\">\n"
+            + "<upSignal active=\"true\" dataRate=\"2000\" frequency=\"7150\" power=\"18.5\""
+            + " signalType=\"data\" signalTypeDebug=\"ON 1\" spacecraft=\"VGR1\""
+            + " spacecraftId=\"31\" />\n"
+            + "<downSignal active=\"true\" dataRate=\"160\" frequency=\"8420\""
+            + " power=\"-155.3\" signalType=\"data\" signalTypeDebug=\"IN LOCK OFF 1 MCD3\""
+            + " spacecraft=\"VGR1\" spacecraftId=\"31\" />\n"
+            + "<target downlegRange=\"2.3e10\" id=\"31\" name=\"VGR1\" rtlt=\"160000.5\""
+            + " uplegRange=\"2.3e10\" />\n"
+            + "<target downlegRange=\"-1.0\" id=\"74\" name=\"MRO\" rtlt=\"-1.0\""
+            + " uplegRange=\"-1.0\" />\n"
+            + "</dish>\n"
+            + "<dish azimuthAngle=\"10\" elevationAngle=\"20\" isArray=\"true\" isDDOR=\"false\""
+            + " isMSPA=\"false\" name=\"DSS24\" windSpeed=\"1\" created=\"\" updated=\"\" />\n"
+            + "<station friendlyName=\"Madrid\" name=\"mdscc\" timeUTC=\"1\""
+            + " timeZoneOffset=\"3600000\" />\n"
+            + "<dish azimuthAngle=\"200\" elevationAngle=\"45\" isArray=\"false\""
+            + " isDDOR=\"true\" isMSPA=\"false\" name=\"DSS63\" windSpeed=\"2\""
+            + " created=\"\" updated=\"\">\n"
+            + "<downSignal active=\"true\" dataRate=\"1000000\" frequency=\"8400\""
+            + " power=\"-120\" signalType=\"carrier\" signalTypeDebug=\"X\" spacecraft=\"JNO\""
+            + " spacecraftId=\"61\" />\n"
+            + "<target downlegRange=\"8.0e8\" id=\"61\" name=\"JNO\" rtlt=\"5000\""
+            + " uplegRange=\"8.0e8\" />\n"
+            + "</dish>\n"
+            + "<timestamp>1700000000000</timestamp>\n"
+            + "</dsn>\n";
+    private static final Charset CHARSET = Charset.forName("UTF-8");
+
+    private final NetworkConfig config = TestStates.createConfig();
+
+    @Test
+    public void overviewMatchesFullParse() throws XmlPullParserException, IOException {
+        byte[] content = SAMPLE.getBytes(CHARSET);
+        // only the given length of the buffer is read
+        byte[] buffer = Arrays.copyOf(content, content.length + 64);
+        Arrays.fill(buffer, content.length, buffer.length, (byte) '<');
+        NetworkState overview = StateParser.parseOverview(config, buffer, content.length);
+
+        DishState dishState = overview.getDishStates().get("DSS14");
+        assertFalse(dishState.isDetailsLoaded());
+        assertEquals(Arrays.asList("VGR1", "MRO"), dishState.getTargetNames());
+        assertFalse(dishState.isDetailsLoaded());
+        assertEquals(1700000000000L, overview.getTimestamp());
+
+        assertArrayEquals(StateCodecTest.encode(parse(SAMPLE)), StateCodecTest.encode(overview));
+        assertTrue(dishState.isDetailsLoaded());
+        assertFalse(dishState.isDetailsBroken());
+        assertFalse(StateParser.isBroken(overview));
+    }
+
+    @Test
+    public void fallBackOnComment() throws XmlPullParserException, IOException {
+        // the search would take the comment for a dish, so the whole file is parsed at once
+        String sample = SAMPLE.replace("<dsn>", "<dsn>\n<!-- <dish name=\"DSS14\"> -->");
+        NetworkState overview = parseOverview(sample);
+
+        assertTrue(overview.getDishStates().get("DSS14").isDetailsLoaded());
+        assertArrayEquals(StateCodecTest.encode(parse(sample)), StateCodecTest.encode(overview));
+    }
+
+    @Test
+    public void fallBackOnWrongCut() throws XmlPullParserException, IOException {
+        // the search takes the dish for an empty one, so its details cannot be decoded alone
+        String sample = SAMPLE.replace("name=\"DSS14\" windSpeed=\"5.5\" created=\"\"",
+                "name=\"DSS14\" windSpeed=\"5.5\" created=\"a/>b\"");
+        NetworkState overview = parseOverview(sample);
+        DishState dishState = overview.getDishStates().get("DSS14");
+        assertFalse(dishState.isDetailsLoaded());
+
+        assertEquals(2, dishState.getTargets().size());
+        assertFalse(dishState.isDetailsBroken());
+        assertArrayEquals(StateCodecTest.encode(parse(sample)), StateCodecTest.encode(overview));
+    }
+
+    @Test
+    public void brokenDetails() throws XmlPullParserException, IOException {
+        String sample = SAMPLE.replace("dataRate=\"160\"", "dataRate=\"broken\"");
+        NetworkState overview = parseOverview(sample);
+        DishState dishState = overview.getDishStates().get("DSS14");
+        assertEquals(Arrays.asList("VGR1", "MRO"), dishState.getTargetNames());
+
+        assertTrue(StateParser.isBroken(overview));
+        assertTrue(dishState.isDetailsBroken());
+        assertTrue(dishState.getTargets().isEmpty());
+        assertFalse(overview.getDishStates().get("DSS63").isDetailsBroken());
+    }
+
+    @Test(expected = XmlPullParserException.class)
+    public void rejectBrokenFile() throws XmlPullParserException, IOException {
+        parse(SAMPLE.replace("dataRate=\"160\"", "dataRate=\"broken\""));
+    }
+
+    private NetworkState parse(String sample) throws XmlPullParserException, IOException {
+        return StateParser.parse(config, new ByteArrayInputStream(sample.getBytes(CHARSET)));
+    }
+
+    private NetworkState parseOverview(String sample)
+            throws XmlPullParserException, IOException {
+        byte[] content = sample.getBytes(CHARSET);
+        return StateParser.parseOverview(config, content, content.length);
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * DSN Monitor is an app to monitor the NASA Deep Space Network in real time.
+ * Copyright (c) 2016 Kaan Karaagacli
+ *
+ * This file is part of DSN Monitor.
+ *
+ * DSN Monitor is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DSN Monitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DSN Monitor.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package me.aeolwyr.dsnnow.logic;
+
+import me.aeolwyr.dsnnow.data.Dish;
+import me.aeolwyr.dsnnow.data.DishState;
+import me.aeolwyr.dsnnow.data.NetworkConfig;
+import me.aeolwyr.dsnnow.data.NetworkState;
+import me.aeolwyr.dsnnow.data.Signal;
+import me.aeolwyr.dsnnow.data.Spacecraft;
+import me.aeolwyr.dsnnow.data.Station;
+import me.aeolwyr.dsnnow.data.StationState;
+import me.aeolwyr.dsnnow.data.Target;
+
+/**
+ * Small network states and config for the tests: a Goldstone station with two dishes,
+ * <code>DSS14</code> tracking Voyager 1 and <code>DSS24</code> idle.
+ */
+final class TestStates {
+    private TestStates() { }
+
+    /**
+     * Create the config the states below refer to.
+     * @return the network config
+     */
+    static NetworkConfig createConfig() {
+        NetworkConfig config = new NetworkConfig();
+        Station station = new Station("gdscc", 0, 0);
+        station.getDishes().add("DSS14");
+        station.getDishes().add("DSS24");
+        config.addStation(station);
+        config.addDish(new Dish("DSS14", "70M"));
+        config.addDish(new Dish("DSS24", "34M BWG"));
+        config.addSpacecraft(new Spacecraft("VGR1", "Voyager 1"));
+        return config;
+    }
+
+    /**
+     * Create a state with the given values.
+     * @param timestamp the timestamp of the state
+     * @param azimuthAngle the azimuth angle of <code>DSS14</code>, in centidegrees
+     * @param windSpeed the wind speed at both dishes, in decameters per hour
+     * @param dataRate the data rate of the downlink of Voyager 1, in microbits per second
+     * @return the new state
+     */
+    static NetworkState create(long timestamp, int azimuthAngle, int windSpeed, long dataRate) {
+        DishState busy = new DishState.Builder("DSS14", azimuthAngle, 2500, windSpeed,
+                false, false, false)
+                .addDownSignal(new Signal("data", "IN LOCK OFF 1 MCD3", dataRate,
+                        8420000000000000L, -155000000, "VGR1"))
+                .addUpSignal(new Signal("data", "ON 1", 0, 7160000000000000L, 18000000, "VGR1"))
+                .addTarget(new Target("VGR1", 24000000000000L, 24000000000000L, 160000000000L))
+                .build();
+        DishState idle = new DishState.Builder("DSS24", 0, 9000, windSpeed,
+                false, false, false).build();
+        StationState station = new StationState.Builder("gdscc", "Goldstone", -25200000)
+                .addDishState("DSS14")
+                .addDishState("DSS24")
+                .build();
+        return new NetworkState.Builder()
+                .setTimestamp(timestamp)
+                .addStationState(station)
+                .putDishState("DSS14", busy)
+                .putDishState("DSS24", idle)
+                .build();
+    }
+
+    /**
+     * Create a state with another structure than the ones <code>create</code> returns,
+     * where <code>DSS14</code> is idle too.
+     * @param timestamp the timestamp of the state
+     * @return the new state
+     */
+    static NetworkState createIdle(long timestamp) {
+        StationState station = new StationState.Builder("gdscc", "Goldstone", -25200000)
+                .addDishState("DSS14")
+                .addDishState("DSS24")
+                .build();
+        return new NetworkState.Builder()
+                .setTimestamp(timestamp)
+                .addStationState(station)
+                .putDishState("DSS14", new DishState.Builder("DSS14", 0, 9000, 500,
+                        false, false, false).build())
+                .putDishState("DSS24", new DishState.Builder("DSS24", 0, 9000, 500,
+                        false, false, false).build())
+                .build();
+    }
+}
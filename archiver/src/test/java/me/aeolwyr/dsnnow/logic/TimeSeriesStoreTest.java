@@ -0,0 +1,118 @@
+/*
+ * DSN Monitor is an app to monitor the NASA Deep Space Network in real time.
+ * Copyright (c) 2016 Kaan Karaagacli
+ *
+ * This file is part of DSN Monitor.
+ *
+ * DSN Monitor is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DSN Monitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DSN Monitor.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package me.aeolwyr.dsnnow.logic;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class TimeSeriesStoreTest {
+    private static final long MINUTE = 60 * 1000;
+    /** magic and version **/
+    private static final int HEADER_SIZE = 8;
+    private static final int ROW_SIZE = 60;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File directory;
+    /** recent enough not to be expired **/
+    private long start;
+
+    @Before
+    public void setUp() {
+        directory = new File(folder.getRoot(), TimeSeriesStore.DIRECTORY_NAME);
+        start = System.currentTimeMillis() - 60 * MINUTE;
+    }
+
+    @Test
+    public void sampleOncePerResolution() throws IOException {
+        TimeSeriesStore store = new TimeSeriesStore(directory);
+        store.append(TestStates.create(start, 0, 0, 100));
+        store.append(TestStates.create(start + MINUTE / 2, 0, 0, 200));
+        store.append(TestStates.create(start + MINUTE, 0, 0, 300));
+
+        SpacecraftSeries series = store.query("VGR1", 0, Long.MAX_VALUE);
+        assertEquals(2, series.size());
+        assertEquals(100, series.getDataRate(0));
+        assertEquals(300, series.getDataRate(1));
+        assertEquals("DSS14", series.getDish(1));
+        assertArrayEquals(new String[] {"VGR1"}, store.getSpacecraft());
+    }
+
+    @Test
+    public void dropBrokenTail() throws IOException {
+        TimeSeriesStore store = new TimeSeriesStore(directory);
+        for (int i = 0; i < 3; i++) {
+            store.append(TestStates.create(start + i * MINUTE, 0, 0, 100 + i));
+        }
+        File rowsFile = new File(directory, "rows.dat");
+        File namesFile = new File(directory, "names.dat");
+        long rowsSize = rowsFile.length();
+        long namesSize = namesFile.length();
+        assertEquals(HEADER_SIZE + 3 * ROW_SIZE, rowsSize);
+
+        // a crash in the middle of a row and of a name
+        append(rowsFile, new byte[] {0, 0, 1, 2, 3, 4, 5, 6, 7, 8, 9});
+        append(namesFile, new byte[] {0, 20, 'V', 'G'});
+
+        store = new TimeSeriesStore(directory);
+        assertEquals(3, store.query("VGR1", 0, Long.MAX_VALUE).size());
+        assertEquals(rowsSize, rowsFile.length());
+        assertEquals(namesSize, namesFile.length());
+
+        // the next rows are appended after the last whole one
+        store.append(TestStates.create(start + 3 * MINUTE, 0, 0, 103));
+        store = new TimeSeriesStore(directory);
+        SpacecraftSeries series = store.query("VGR1", 0, Long.MAX_VALUE);
+        assertEquals(4, series.size());
+        for (int i = 0; i < 4; i++) {
+            assertEquals(start + i * MINUTE, series.getTimestamp(i));
+            assertEquals(100 + i, series.getDataRate(i));
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectUnknownFormat() throws IOException {
+        TimeSeriesStore store = new TimeSeriesStore(directory);
+        store.append(TestStates.create(start, 0, 0, 100));
+        try (OutputStream outputStream = new FileOutputStream(new File(directory, "rows.dat"))) {
+            outputStream.write(new byte[] {1, 2, 3, 4, 5, 6, 7, 8});
+        }
+        new TimeSeriesStore(directory).getSpacecraft();
+    }
+
+    static void append(File file, byte[] bytes) throws IOException {
+        try (OutputStream outputStream = new FileOutputStream(file, true)) {
+            outputStream.write(bytes);
+        }
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * DSN Monitor is an app to monitor the NASA Deep Space Network in real time.
+ * Copyright (c) 2016 Kaan Karaagacli
+ *
+ * This file is part of DSN Monitor.
+ *
+ * DSN Monitor is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DSN Monitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DSN Monitor.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package me.aeolwyr.dsnnow.logic;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class UtilizationRollupsTest {
+    private static final long MINUTE = 60 * 1000;
+    private static final long HOUR = 60 * MINUTE;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private UtilizationRollups rollups;
+    /** start of an hour recent enough not to be expired **/
+    private long hour;
+
+    @Before
+    public void setUp() {
+        rollups = new UtilizationRollups(folder.getRoot());
+        hour = System.currentTimeMillis() / HOUR * HOUR - 2 * HOUR;
+    }
+
+    @Test
+    public void splitAtHourBoundary() throws IOException {
+        rollups.onCapture(TestStates.create(hour - 2 * MINUTE, 0, 0, 0));
+        // the time since the previous state spans two hours
+        rollups.onCapture(TestStates.create(hour + 3 * MINUTE, 0, 0, 0));
+
+        List<Rollup> hours = rollups.getHourly(hour - HOUR, hour);
+        assertEquals(2, hours.size());
+        assertEquals(hour - HOUR, hours.get(0).getStart());
+        assertEquals(2 * MINUTE, hours.get(0).getObserved());
+        assertEquals(2 * MINUTE, (long) hours.get(0).getDishes().get("DSS14"));
+        assertEquals(0, (long) hours.get(0).getDishes().get("DSS24"));
+        assertEquals(hour, hours.get(1).getStart());
+        assertEquals(3 * MINUTE, hours.get(1).getObserved());
+        assertEquals(3 * MINUTE, (long) hours.get(1).getSpacecraft().get("VGR1"));
+        assertEquals(3 * MINUTE, (long) hours.get(1).getStations().get("gdscc"));
+    }
+
+    @Test
+    public void limitGaps() throws IOException {
+        rollups.onCapture(TestStates.create(hour, 0, 0, 0));
+        // only the last five minutes of a longer gap are counted
+        rollups.onCapture(TestStates.create(hour + 20 * MINUTE, 0, 0, 0));
+        rollups.onCapture(TestStates.createIdle(hour + 21 * MINUTE));
+
+        Rollup total = rollups.getTotal(hour, hour + HOUR);
+        assertEquals(6 * MINUTE, total.getObserved());
+        assertEquals(5 * MINUTE, (long) total.getDishes().get("DSS14"));
+        assertEquals(5.0 / 6, total.getUtilization("DSS14"), 1e-9);
+    }
+
+    @Test
+    public void keepAfterReopen() throws IOException {
+        rollups.onCapture(TestStates.create(hour - MINUTE, 0, 0, 0));
+        rollups.onCapture(TestStates.create(hour + MINUTE, 0, 0, 0));
+        rollups.onCapture(TestStates.create(hour + 2 * MINUTE, 0, 0, 0));
+        rollups.flush();
+
+        UtilizationRollups reopened = new UtilizationRollups(folder.getRoot());
+        List<Rollup> hours = reopened.getHourly(hour - HOUR, hour);
+        assertEquals(2, hours.size());
+        assertEquals(MINUTE, hours.get(0).getObserved());
+        assertEquals(2 * MINUTE, hours.get(1).getObserved());
+
+        List<Rollup> days = reopened.getDaily(hour - HOUR, hour);
+        long observed = 0;
+        for (Rollup day : days) {
+            observed += day.getObserved();
+        }
+        assertEquals(3 * MINUTE, observed);
+    }
+}